@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.compiler.jdt;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.internal.compiler.batch.FileSystem;
+import org.eclipse.jdt.internal.compiler.batch.FileSystem.Classpath;
+
+/**
+ * Cache of opened and indexed classpath jars, shared between compiler invocations. Jars are keyed
+ * by their path, modification time, length and access rules, so that changed jars or jars with
+ * different access rules are never shared.
+ * <p>
+ * Compilations acquire the jars they use and release them when they are done. Jars which are
+ * evicted, because the cache is full, because the jar has changed or because the cache is closed,
+ * are closed as soon as no compilation uses them any more.
+ */
+class ClasspathJarCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 200;
+
+    private final int maxEntries;
+
+    /**
+     * Cached jars by key, least recently used first
+     */
+    private final Map<String, SharedJar> jars = new LinkedHashMap<String, SharedJar>(16, 0.75f, true);
+
+    /**
+     * Cached and evicted jars which are still open
+     */
+    private final Map<Classpath, SharedJar> openJars = new IdentityHashMap<Classpath, SharedJar>();
+
+    private int hits;
+
+    private int misses;
+
+    public ClasspathJarCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public ClasspathJarCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Returns the shared instance of the given classpath jar, which must be released with
+     * {@link #release(FileSystem.Classpath)} when the compilation is done. If there is no shared
+     * instance yet, the given jar is opened, indexed and becomes the shared instance.
+     *
+     * @param accessRules
+     *            the access rules the jar has been created with, in command line syntax
+     * @return the shared jar, or <code>null</code> if the jar could not be opened
+     */
+    public synchronized FileSystem.Classpath acquire(FileSystem.Classpath classpath, String accessRules) {
+        File file = new File(classpath.getPath()).getAbsoluteFile();
+        String pathKey = file.getPath() + '\0';
+        String versionKey = pathKey + file.lastModified() + '\0' + file.length() + '\0';
+        String key = versionKey + accessRules;
+
+        SharedJar shared = jars.get(key);
+        if (shared != null) {
+            hits++;
+            shared.references++;
+            return shared.classpath;
+        }
+        misses++;
+
+        try {
+            classpath.initialize();
+        } catch (IOException e) {
+            return null;
+        }
+        // builds the package index of the jar, so that concurrent compilations only read it
+        classpath.isPackage("java");
+
+        List<SharedJar> evicted = new ArrayList<SharedJar>();
+        for (Iterator<Map.Entry<String, SharedJar>> it = jars.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, SharedJar> entry = it.next();
+            // older versions of the jar won't be used any more; otherwise evict the least recently used
+            if ((entry.getKey().startsWith(pathKey) && !entry.getKey().startsWith(versionKey))
+                    || jars.size() >= maxEntries) {
+                evicted.add(entry.getValue());
+                it.remove();
+            }
+        }
+        for (SharedJar jar : evicted) {
+            evict(jar);
+        }
+
+        shared = new SharedJar(classpath);
+        shared.references++;
+        jars.put(key, shared);
+        openJars.put(classpath, shared);
+        return classpath;
+    }
+
+    /**
+     * Releases a jar returned by {@link #acquire(FileSystem.Classpath, String)}.
+     */
+    public synchronized void release(FileSystem.Classpath classpath) {
+        SharedJar shared = openJars.get(classpath);
+        if (shared == null) {
+            return;
+        }
+        shared.references--;
+        if (shared.evicted && shared.references == 0) {
+            close(shared);
+        }
+    }
+
+    /**
+     * Evicts all jars. Jars which are in use are closed when they are released.
+     */
+    public synchronized void close() {
+        for (SharedJar jar : jars.values()) {
+            evict(jar);
+        }
+        jars.clear();
+    }
+
+    private void evict(SharedJar jar) {
+        jar.evicted = true;
+        if (jar.references == 0) {
+            close(jar);
+        }
+    }
+
+    private void close(SharedJar jar) {
+        openJars.remove(jar.classpath);
+        // closes the jar file
+        jar.classpath.reset();
+    }
+
+    public synchronized String getStatistics() {
+        return hits + " hits, " + misses + " misses, " + jars.size() + " entries, " + openJars.size()
+                + " open jars";
+    }
+
+    private static final class SharedJar {
+        final FileSystem.Classpath classpath;
+
+        int references;
+
+        boolean evicted;
+
+        SharedJar(FileSystem.Classpath classpath) {
+            this.classpath = classpath;
+        }
+    }
+}
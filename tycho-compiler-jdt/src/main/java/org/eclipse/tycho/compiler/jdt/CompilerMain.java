@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.compiler.jdt;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.plexus.compiler.CompilerError;
+import org.eclipse.jdt.core.compiler.CategorizedProblem;
+import org.eclipse.jdt.internal.compiler.CompilationResult;
+import org.eclipse.jdt.internal.compiler.ICompilerRequestor;
+import org.eclipse.jdt.internal.compiler.batch.ClasspathJar;
+import org.eclipse.jdt.internal.compiler.batch.FileSystem;
+import org.eclipse.jdt.internal.compiler.batch.Main;
+import org.eclipse.jdt.internal.compiler.util.Util;
+
+/**
+ * Batch compiler which reports the compilation problems as {@link CompilerError}s and which uses
+ * shared classpath jars from a {@link ClasspathJarCache}.
+ */
+class CompilerMain extends Main {
+
+    private final ClasspathJarCache jarCache;
+
+    /**
+     * Access rules of the classpath elements by absolute path
+     */
+    private final Map<String, String> accessRules;
+
+    private final List<CompilerError> problems = new ArrayList<CompilerError>();
+
+    /**
+     * Jars acquired from the cache, which have to be released
+     */
+    private final List<FileSystem.Classpath> sharedJars = new ArrayList<FileSystem.Classpath>();
+
+    public CompilerMain(PrintWriter out, PrintWriter err, ClasspathJarCache jarCache, Map<String, String> accessRules) {
+        super(out, err, false);
+        this.jarCache = jarCache;
+        this.accessRules = accessRules;
+    }
+
+    /**
+     * Returns the problems reported by the compiler, in the order they were reported.
+     */
+    public List<CompilerError> getProblems() {
+        return problems;
+    }
+
+    @Override
+    public ICompilerRequestor getBatchRequestor() {
+        final ICompilerRequestor requestor = super.getBatchRequestor();
+        return new ICompilerRequestor() {
+            public void acceptResult(CompilationResult result) {
+                if (result.hasProblems()) {
+                    addProblems(result);
+                }
+                requestor.acceptResult(result);
+            }
+        };
+    }
+
+    void addProblems(CompilationResult result) {
+        CategorizedProblem[] resultProblems = result.getAllProblems();
+        int[] lineEnds = result.getLineSeparatorPositions();
+        for (int i = 0; i < resultProblems.length; i++) {
+            CategorizedProblem problem = resultProblems[i];
+            if (!problem.isError() && !problem.isWarning()) {
+                continue;
+            }
+            int line = problem.getSourceLineNumber();
+            int startCol = 0;
+            int endCol = 0;
+            if (lineEnds != null && line > 0) {
+                startCol = Util.searchColumnNumber(lineEnds, line, problem.getSourceStart());
+                endCol = Util.searchColumnNumber(lineEnds, line, problem.getSourceEnd());
+            }
+            char[] fileName = problem.getOriginatingFileName();
+            if (fileName == null) {
+                fileName = result.getFileName();
+            }
+            problems.add(new CompilerError(new String(fileName), problem.isError(), line, startCol, line, endCol,
+                    problem.getMessage()));
+        }
+    }
+
+    @Override
+    public FileSystem getLibraryAccess() {
+        FileSystem.Classpath[] classpaths = new FileSystem.Classpath[checkedClasspaths.length];
+        boolean[] shared = new boolean[classpaths.length];
+        for (int i = 0; i < classpaths.length; i++) {
+            classpaths[i] = checkedClasspaths[i];
+            if (jarCache != null && classpaths[i] instanceof ClasspathJar) {
+                // only jars from the -classpath argument, for which the access rules are known
+                String rules = accessRules.get(new File(classpaths[i].getPath()).getAbsolutePath());
+                if (rules != null) {
+                    FileSystem.Classpath sharedJar = jarCache.acquire(classpaths[i], rules);
+                    if (sharedJar != null) {
+                        sharedJars.add(sharedJar);
+                        classpaths[i] = sharedJar;
+                        shared[i] = true;
+                    }
+                }
+            }
+        }
+        return new SharedFileSystem(classpaths, filenames, shared);
+    }
+
+    /**
+     * Releases the jars acquired from the jar cache. Must be called when the compilation is done,
+     * even if it failed.
+     */
+    public void releaseSharedJars() {
+        for (FileSystem.Classpath sharedJar : sharedJars) {
+            jarCache.release(sharedJar);
+        }
+        sharedJars.clear();
+    }
+
+    /**
+     * Name environment which doesn't reset the shared classpath jars on cleanup.
+     */
+    private static class SharedFileSystem extends FileSystem {
+
+        private final FileSystem.Classpath[] classpaths;
+
+        private final boolean[] shared;
+
+        SharedFileSystem(FileSystem.Classpath[] classpaths, String[] initialFileNames, boolean[] shared) {
+            super(classpaths, initialFileNames);
+            this.classpaths = classpaths;
+            this.shared = shared;
+        }
+
+        @Override
+        public void cleanup() {
+            for (int i = 0; i < classpaths.length; i++) {
+                if (!shared[i]) {
+                    classpaths[i].reset();
+                }
+            }
+        }
+    }
+
+}
@@ -17,6 +17,7 @@ import java.io.PrintWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -31,12 +32,12 @@ import org.codehaus.plexus.compiler.CompilerError;
 import org.codehaus.plexus.compiler.CompilerException;
 import org.codehaus.plexus.compiler.CompilerOutputStyle;
 import org.codehaus.plexus.component.annotations.Component;
+import org.codehaus.plexus.personality.plexus.lifecycle.phase.Disposable;
 import org.codehaus.plexus.util.StringUtils;
 import org.codehaus.plexus.util.cli.CommandLineException;
 import org.codehaus.plexus.util.cli.CommandLineUtils;
 import org.codehaus.plexus.util.cli.Commandline;
 import org.eclipse.jdt.core.compiler.CharOperation;
-import org.eclipse.jdt.internal.compiler.batch.Main;
 import org.eclipse.jdt.internal.compiler.impl.CompilerOptions;
 import org.eclipse.jdt.internal.compiler.util.SuffixConstants;
 import org.eclipse.jdt.internal.compiler.util.Util;
@@ -47,7 +48,7 @@ import org.eclipse.jdt.internal.compiler.util.Util;
 
 @SuppressWarnings("unchecked")
 @Component(role = org.codehaus.plexus.compiler.Compiler.class, hint = "jdt")
-public class JDTCompiler extends AbstractCompiler {
+public class JDTCompiler extends AbstractCompiler implements Disposable {
 
     private static final String SEPARATOR = "----------";
 
@@ -59,16 +60,16 @@ public class JDTCompiler extends AbstractCompiler {
 
     private static final char[] ADAPTER_ACCESS = "ACCESS#".toCharArray(); //$NON-NLS-1$
 
+    /**
+     * Opened and indexed classpath jars, shared by all compilations in the build. The jars are
+     * closed when the build ends and the compiler component is disposed.
+     */
+    private final ClasspathJarCache jarCache = new ClasspathJarCache();
+
     String logFileName;
 
     Map customDefaultOptions;
 
-    private Map fileEncodings = null;
-
-    private Map dirEncodings = null;
-
-    private List accessRules = null;
-
     public JDTCompiler() {
         super(CompilerOutputStyle.ONE_OUTPUT_FILE_PER_INPUT_FILE, ".java", ".class", null);
     }
@@ -94,9 +95,9 @@ public class JDTCompiler extends AbstractCompiler {
                 "Compiling " + sourceFiles.length + " " + "source file" + (sourceFiles.length == 1 ? "" : "s") + " to "
                         + destinationDir.getAbsolutePath());
 
-        checkCompilerArgs(config.getCustomCompilerArguments());
+        List accessRules = checkCompilerArgs(config.getCustomCompilerArguments());
 
-        String[] args = buildCompilerArguments(config, sourceFiles);
+        String[] args = buildCompilerArguments(config, sourceFiles, accessRules);
 
         List messages;
 
@@ -109,7 +110,7 @@ public class JDTCompiler extends AbstractCompiler {
 
             messages = compileOutOfProcess(config.getWorkingDirectory(), executable, args);
         } else {
-            messages = compileInProcess(args);
+            messages = compileInProcess(args, getClasspathAccessRules(config.getClasspathEntries(), accessRules));
         }
 
         return messages;
@@ -120,6 +121,10 @@ public class JDTCompiler extends AbstractCompiler {
     }
 
     public String[] buildCompilerArguments(CompilerConfiguration config, String[] sourceFiles) {
+        return buildCompilerArguments(config, sourceFiles, checkCompilerArgs(config.getCustomCompilerArguments()));
+    }
+
+    private String[] buildCompilerArguments(CompilerConfiguration config, String[] sourceFiles, List accessRules) {
         List args = new ArrayList();
 
         // ----------------------------------------------------------------------
@@ -140,7 +145,7 @@ public class JDTCompiler extends AbstractCompiler {
         if (classpathEntries != null && !classpathEntries.isEmpty()) {
             args.add("-classpath");
 
-            String cp = createClasspathArgument(classpathEntries);
+            String cp = createClasspathArgument(classpathEntries, accessRules);
 
             args.add(cp);
         }
@@ -296,34 +301,64 @@ public class JDTCompiler extends AbstractCompiler {
 
     /**
      * Compile the java sources in the current JVM, without calling an external executable, using
-     * <code>com.sun.tools.javac.Main</code> class
+     * the JDT batch compiler. Classpath jars are shared with other compilations in the same JVM.
      * 
      * @param args
      *            arguments for the compiler as they would be used in the command line javac
+     * @param classpathAccessRules
+     *            access rules of the classpath elements by absolute path
      * @return List of CompilerError objects with the errors encountered.
      * @throws CompilerException
      */
-    List compileInProcess(String[] args) throws CompilerException {
-
-        List messages;
+    List compileInProcess(String[] args, Map<String, String> classpathAccessRules) throws CompilerException {
 
         StringWriter out = new StringWriter();
         StringWriter err = new StringWriter();
 
-        Main compiler = new Main(new PrintWriter(out), new PrintWriter(err), false);
+        CompilerMain compiler = new CompilerMain(new PrintWriter(out), new PrintWriter(err), jarCache,
+                classpathAccessRules);
         compiler.options.put(CompilerOptions.OPTION_ReportForbiddenReference, CompilerOptions.ERROR);
-        compiler.compile(args);
-
+        boolean success;
         try {
-            String output = err.toString();
-            System.out.println(output);
-            messages = parseModernStream(new BufferedReader(new StringReader(output)));
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            success = compiler.compile(args);
+        } finally {
+            compiler.releaseSharedJars();
+        }
+
+        String output = err.toString();
+        if (output.trim().length() > 0) {
+            // problem reports; the problems are also returned as messages
+            if (success) {
+                getLogger().info(output);
+            } else {
+                getLogger().warn(output);
+            }
+        }
+        if (out.toString().trim().length() > 0) {
+            getLogger().info(out.toString());
+        }
+
+        List messages = new ArrayList(compiler.getProblems());
+        if (!success && !hasErrors(messages)) {
+            // e.g. invalid arguments, which are not reported as problems of a compilation unit
+            messages.add(new CompilerError("Failure executing the JDT compiler:" + EOL + output, true));
+        }
+
+        if (getLogger().isDebugEnabled()) {
+            getLogger().debug("Classpath jar cache: " + jarCache.getStatistics());
         }
         return messages;
     }
 
+    private static boolean hasErrors(List messages) {
+        for (Iterator it = messages.iterator(); it.hasNext();) {
+            if (((CompilerError) it.next()).isError()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Parse the output from the compiler into a list of CompilerError objects
      * 
@@ -400,45 +435,48 @@ public class JDTCompiler extends AbstractCompiler {
      * @param classpath
      *            the given classpath entry
      */
-    private String createClasspathArgument(List classpath) {
+    private String createClasspathArgument(List classpath, List accessRules) {
         final String[] pathElements = (String[]) classpath.toArray(new String[classpath.size()]);
+        final String[] pathRules = getClasspathAccessRules(pathElements, accessRules);
 
-        // empty path return empty string
-        if (pathElements.length == 0) {
-            return "";
+        final StringBuilder result = new StringBuilder();
+        for (int i = 0, max = pathElements.length; i < max; i++) {
+            if (i > 0)
+                result.append(File.pathSeparatorChar);
+            result.append(pathElements[i]);
+            result.append(pathRules[i]);
         }
+        return result.toString();
+    }
 
-        // no access rules, can set the path directly
+    /**
+     * Returns the access rules of each classpath element, or an empty string for elements without
+     * access rules.
+     */
+    private String[] getClasspathAccessRules(String[] pathElements, List accessRules) {
+        String[] result = new String[pathElements.length];
+        Arrays.fill(result, "");
+
+        // no access rules
         if (accessRules == null) {
-            StringBuilder result = new StringBuilder();
-            for (int i = 0; i < pathElements.length; i++) {
-                result.append(pathElements[i]);
-                if (i < pathElements.length - 1) {
-                    result.append(File.pathSeparatorChar);
-                }
-            }
-            return result.toString();
+            return result;
         }
 
         int rulesLength = accessRules.size();
         String[] rules = (String[]) accessRules.toArray(new String[rulesLength]);
         int nextRule = 0;
-        final StringBuffer result = new StringBuffer();
 
         // access rules are expected in the same order as the classpath, but
         // there could
         // be elements in the classpath not in the access rules or access rules
         // not in the classpath
         for (int i = 0, max = pathElements.length; i < max; i++) {
-            if (i > 0)
-                result.append(File.pathSeparatorChar);
             String pathElement = pathElements[i];
-            result.append(pathElement);
             // the rules list is [path, rule, path, rule, ...]
             for (int j = nextRule; j < rulesLength; j += 2) {
                 String rule = rules[j];
                 if (pathElement.endsWith(rule)) {
-                    result.append(rules[j + 1]);
+                    result[i] = rules[j + 1];
                     nextRule = j + 2;
                     break;
                 }
@@ -451,7 +489,7 @@ public class JDTCompiler extends AbstractCompiler {
                     int ruleLength = rule.length();
                     if (pathElement
                             .regionMatches(false, pathElement.length() - ruleLength + 1, rule, 0, ruleLength - 1)) {
-                        result.append(rules[j + 1]);
+                        result[i] = rules[j + 1];
                         nextRule = j + 2;
                         break;
                     }
@@ -460,7 +498,7 @@ public class JDTCompiler extends AbstractCompiler {
                     // might
                     int ruleLength = rule.length();
                     if (pathElement.regionMatches(false, pathElement.length() - ruleLength - 1, rule, 0, ruleLength)) {
-                        result.append(rules[j + 1]);
+                        result[i] = rules[j + 1];
                         nextRule = j + 2;
                         break;
                     }
@@ -468,8 +506,22 @@ public class JDTCompiler extends AbstractCompiler {
             }
         }
 
-        String s = result.toString();
-        return s;
+        return result;
+    }
+
+    /**
+     * Returns the access rules of the classpath elements by absolute path.
+     */
+    private Map<String, String> getClasspathAccessRules(List classpath, List accessRules) {
+        Map<String, String> result = new HashMap<String, String>();
+        if (classpath != null) {
+            String[] pathElements = (String[]) classpath.toArray(new String[classpath.size()]);
+            String[] pathRules = getClasspathAccessRules(pathElements, accessRules);
+            for (int i = 0; i < pathElements.length; i++) {
+                result.put(new File(pathElements[i]).getAbsolutePath(), pathRules[i]);
+            }
+        }
+        return result;
     }
 
     /**
@@ -478,8 +530,13 @@ public class JDTCompiler extends AbstractCompiler {
      * 
      * @param args
      *            compiler arguments to process
+     * @return the access rules for the classpath as list [path, rule, path, rule, ...], or
+     *         <code>null</code> if there are no access rules
      */
-    private void checkCompilerArgs(Map args) {
+    private List checkCompilerArgs(Map args) {
+        Map fileEncodings = null;
+        Map dirEncodings = null;
+        List accessRules = null;
         for (Iterator iterator = args.keySet().iterator(); iterator.hasNext();) {
             String arg = (String) iterator.next();
             if (arg.charAt(0) == '@') {
@@ -542,7 +599,11 @@ public class JDTCompiler extends AbstractCompiler {
                 }
             }
         }
+        return accessRules;
+    }
 
+    public void dispose() {
+        jarCache.close();
     }
 
 }
@@ -246,11 +246,12 @@ public abstract class AbstractCompilerMojo extends AbstractMojo {
 
 	protected abstract List getClasspathElements() throws MojoExecutionException;
 
-	protected abstract List getCompileSourceRoots() throws MojoExecutionException;
-
-	protected abstract File getOutputDirectory();
-
-	public void execute() throws MojoExecutionException,
+	/**
+	 * Compiles the sources in the given source roots to the given output
+	 * directory. May be called concurrently for different output directories.
+	 */
+	protected void compileSources(File outputDirectory,
+			List<String> compileSourceRoots) throws MojoExecutionException,
 			CompilationFailureException {
 		// ----------------------------------------------------------------------
 		// Look up the compiler. This is done before other code than can
@@ -273,7 +274,7 @@ public abstract class AbstractCompilerMojo extends AbstractMojo {
 		//
 		// ----------------------------------------------------------------------
 
-		List<String> compileSourceRoots = removeEmptyCompileSourceRoots(getCompileSourceRoots());
+		compileSourceRoots = removeEmptyCompileSourceRoots(compileSourceRoots);
 
 		if (compileSourceRoots.isEmpty()) {
 			getLog().info("No sources to compile");
@@ -289,14 +290,15 @@ public abstract class AbstractCompilerMojo extends AbstractMojo {
 					"Classpath: "
 							+ getClasspathElements().toString().replace(',',
 									'\n'));
-			getLog().debug("Output directory: " + getOutputDirectory());
+			getLog().debug("Output directory: " + outputDirectory);
 		}
 
 		// ----------------------------------------------------------------------
 		// Create the compiler configuration
 		// ----------------------------------------------------------------------
 
-		CompilerConfiguration compilerConfiguration = getCompilerConfiguration(compileSourceRoots);
+		CompilerConfiguration compilerConfiguration = getCompilerConfiguration(
+				outputDirectory, compileSourceRoots);
 
 		// TODO: have an option to always compile (without need to clean)
 		Set staleSources;
@@ -350,7 +352,7 @@ public abstract class AbstractCompilerMojo extends AbstractMojo {
 
 			getLog().debug("Source roots:");
 
-			for (Iterator it = getCompileSourceRoots().iterator(); it.hasNext();) {
+			for (Iterator it = compileSourceRoots.iterator(); it.hasNext();) {
 				String root = (String) it.next();
 
 				getLog().debug(" " + root);
@@ -389,7 +391,7 @@ public abstract class AbstractCompilerMojo extends AbstractMojo {
 		List messages;
 
 		try {
-			messages = compiler.compile(compilerConfiguration);
+			messages = compile(compiler, compilerConfiguration);
 		} catch (Exception e) {
 			// TODO: don't catch Exception
 			throw new MojoExecutionException("Fatal error compiling", e);
@@ -416,11 +418,20 @@ public abstract class AbstractCompilerMojo extends AbstractMojo {
 		}
 	}
 
-	protected CompilerConfiguration getCompilerConfiguration(List<String> compileSourceRoots) throws MojoExecutionException {
+	/**
+	 * Compiles the source files of the given configuration.
+	 */
+	protected List compile(Compiler compiler,
+			CompilerConfiguration compilerConfiguration)
+			throws CompilerException {
+		return compiler.compile(compilerConfiguration);
+	}
+
+	protected CompilerConfiguration getCompilerConfiguration(File outputDirectory, List<String> compileSourceRoots) throws MojoExecutionException {
 
 		CompilerConfiguration compilerConfiguration = new CompilerConfiguration();
 
-		compilerConfiguration.setOutputLocation(getOutputDirectory()
+		compilerConfiguration.setOutputLocation(outputDirectory
 				.getAbsolutePath());
 
 		compilerConfiguration.setClasspathEntries(getClasspathElements());
@@ -527,7 +538,7 @@ public abstract class AbstractCompilerMojo extends AbstractMojo {
 		return true;
 	}
 
-	private Set computeStaleSources(
+	protected Set computeStaleSources(
 			CompilerConfiguration compilerConfiguration, Compiler compiler,
 			SourceInclusionScanner scanner) throws MojoExecutionException,
 			CompilerException {
@@ -542,7 +553,8 @@ public abstract class AbstractCompilerMojo extends AbstractMojo {
 					.getInputFileEnding(compilerConfiguration), compiler
 					.getOutputFileEnding(compilerConfiguration));
 
-			outputDirectory = getOutputDirectory();
+			outputDirectory = new File(compilerConfiguration
+					.getOutputLocation());
 		} else if (outputStyle == CompilerOutputStyle.ONE_OUTPUT_FILE_FOR_ALL_INPUT_FILES) {
 			mapping = new SingleTargetSourceMapping(compiler
 					.getInputFileEnding(compilerConfiguration), compiler
@@ -558,7 +570,8 @@ public abstract class AbstractCompilerMojo extends AbstractMojo {
 
 		Set staleSources = new HashSet();
 
-		for (Iterator it = getCompileSourceRoots().iterator(); it.hasNext();) {
+		for (Iterator it = compilerConfiguration.getSourceLocations()
+				.iterator(); it.hasNext();) {
 			String sourceRoot = (String) it.next();
 
 			File rootFile = new File(sourceRoot);
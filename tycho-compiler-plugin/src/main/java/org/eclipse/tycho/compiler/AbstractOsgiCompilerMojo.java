@@ -18,13 +18,24 @@ package org.eclipse.tycho.compiler;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.regex.Pattern;
 
 import org.apache.maven.artifact.Artifact;
@@ -36,12 +47,16 @@ import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.artifact.ProjectArtifact;
 import org.apache.maven.repository.RepositorySystem;
+import org.codehaus.plexus.compiler.Compiler;
 import org.codehaus.plexus.compiler.CompilerConfiguration;
+import org.codehaus.plexus.compiler.CompilerError;
+import org.codehaus.plexus.compiler.CompilerException;
+import org.codehaus.plexus.compiler.CompilerOutputStyle;
 import org.codehaus.plexus.compiler.util.scan.InclusionScanException;
 import org.codehaus.plexus.compiler.util.scan.SimpleSourceInclusionScanner;
 import org.codehaus.plexus.compiler.util.scan.SourceInclusionScanner;
 import org.codehaus.plexus.compiler.util.scan.StaleSourceScanner;
-import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.compiler.util.scan.mapping.SuffixMapping;
 import org.eclipse.tycho.classpath.ClasspathEntry;
 import org.eclipse.tycho.classpath.ClasspathEntry.AccessRule;
 import org.eclipse.tycho.classpath.JavaCompilerConfiguration;
@@ -49,14 +64,17 @@ import org.eclipse.tycho.classpath.SourcepathEntry;
 import org.eclipse.tycho.core.BundleProject;
 import org.eclipse.tycho.core.TychoProject;
 import org.eclipse.tycho.core.UnknownEnvironmentException;
+import org.eclipse.tycho.core.facade.FileChecksums;
 import org.eclipse.tycho.core.osgitools.DefaultClasspathEntry;
 import org.eclipse.tycho.core.osgitools.DefaultReactorProject;
 import org.eclipse.tycho.core.osgitools.OsgiBundleProject;
 import org.eclipse.tycho.core.osgitools.project.BuildOutputJar;
 import org.eclipse.tycho.core.osgitools.project.EclipsePluginProject;
+import org.eclipse.tycho.core.utils.DaemonThreadFactory;
 import org.eclipse.tycho.core.utils.ExecutionEnvironment;
 import org.eclipse.tycho.core.utils.ExecutionEnvironmentUtils;
 import org.eclipse.tycho.core.utils.MavenArtifactRef;
+import org.eclipse.tycho.core.utils.ThreadCountUtils;
 import org.eclipse.tycho.runtime.Adaptable;
 
 import copied.org.apache.maven.plugin.AbstractCompilerMojo;
@@ -139,9 +157,29 @@ public abstract class AbstractOsgiCompilerMojo extends AbstractCompilerMojo impl
     private Set<String> excludeResources = new HashSet<String>();
 
     /**
-     * Current build output jar
+     * Whether to compile only the changed sources and the sources which depend on classes with a
+     * changed structure. Otherwise, all sources are compiled which are newer than their class files.
+     * Likewise, only changed resources are copied, and copies of removed resources are deleted.
+     * 
+     * @parameter expression="${tycho.compiler.incremental}" default-value="true"
+     */
+    private boolean incremental;
+
+    /**
+     * Number of threads used to compile the build output jars of the project. Either an absolute
+     * number or a multiple of the available cores, e.g. <code>1.5C</code>. A build output jar is
+     * only compiled concurrently with the jars before it in <code>jars.compile.order</code> if
+     * their output folders are not on its compile classpath, e.g. because they are not on the
+     * <code>Bundle-ClassPath</code>.
+     * 
+     * @parameter expression="${tycho.compiler.threads}" default-value="1"
+     */
+    private String threads;
+
+    /**
+     * Incremental build states of the build output jars being compiled, by output directory
      */
-    private BuildOutputJar outputJar;
+    private final Map<File, IncrementalBuildState> states = new ConcurrentHashMap<File, IncrementalBuildState>();
 
     /**
      * @component role="org.eclipse.tycho.core.TychoProject"
@@ -153,11 +191,14 @@ public abstract class AbstractOsgiCompilerMojo extends AbstractCompilerMojo impl
             getLog().info("Using compile source roots from build.properties");
         }
 
-        for (BuildOutputJar jar : getEclipsePluginProject().getOutputJars()) {
-            this.outputJar = jar;
-            this.outputJar.getOutputDirectory().mkdirs();
-            super.execute();
-            copyResources();
+        List<BuildOutputJar> outputJars = getEclipsePluginProject().getOutputJars();
+        int compilerThreads = getCompilerThreads();
+        if (compilerThreads > 1 && outputJars.size() > 1) {
+            compileConcurrently(outputJars, compilerThreads);
+        } else {
+            for (BuildOutputJar jar : outputJars) {
+                compile(jar);
+            }
         }
 
         // this does not include classes from nested jars
@@ -167,12 +208,127 @@ public abstract class AbstractOsgiCompilerMojo extends AbstractCompilerMojo impl
         }
     }
 
+    private void compile(BuildOutputJar jar) throws MojoExecutionException, CompilationFailureException {
+        jar.getOutputDirectory().mkdirs();
+        compileSources(jar.getOutputDirectory(), getCompileSourceRoots(jar));
+        copyResources(jar);
+    }
+
+    /**
+     * Compiles the given build output jars using a bounded pool of threads. A jar is only scheduled
+     * once the jars before it whose output folders are on the compile classpath have been compiled.
+     */
+    private void compileConcurrently(List<BuildOutputJar> outputJars, int compilerThreads)
+            throws MojoExecutionException, CompilationFailureException {
+        Map<BuildOutputJar, Set<BuildOutputJar>> pendingUpstreamJars = getUpstreamJars(outputJars);
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(compilerThreads, outputJars.size()),
+                new DaemonThreadFactory("tycho-compiler-"));
+        try {
+            CompletionService<BuildOutputJar> completionService = new ExecutorCompletionService<BuildOutputJar>(
+                    executor);
+
+            int running = 0;
+            for (BuildOutputJar jar : new ArrayList<BuildOutputJar>(pendingUpstreamJars.keySet())) {
+                if (pendingUpstreamJars.get(jar).isEmpty()) {
+                    pendingUpstreamJars.remove(jar);
+                    completionService.submit(newCompileTask(jar));
+                    running++;
+                }
+            }
+
+            while (running > 0) {
+                BuildOutputJar compiledJar = takeCompiledJar(completionService);
+                running--;
+
+                for (BuildOutputJar jar : new ArrayList<BuildOutputJar>(pendingUpstreamJars.keySet())) {
+                    Set<BuildOutputJar> upstreamJars = pendingUpstreamJars.get(jar);
+                    upstreamJars.remove(compiledJar);
+                    if (upstreamJars.isEmpty()) {
+                        pendingUpstreamJars.remove(jar);
+                        completionService.submit(newCompileTask(jar));
+                        running++;
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns for each build output jar the jars before it in the compile order whose output
+     * folders are on its compile classpath.
+     */
+    private Map<BuildOutputJar, Set<BuildOutputJar>> getUpstreamJars(List<BuildOutputJar> outputJars)
+            throws MojoExecutionException {
+        Map<BuildOutputJar, Set<BuildOutputJar>> result = new LinkedHashMap<BuildOutputJar, Set<BuildOutputJar>>();
+        for (int i = 0; i < outputJars.size(); i++) {
+            Set<File> classpathLocations = new HashSet<File>();
+            for (String element : getClasspathElements(outputJars.get(i))) {
+                classpathLocations.add(new File(stripAccessRules(element)).getAbsoluteFile());
+            }
+            Set<BuildOutputJar> upstreamJars = new LinkedHashSet<BuildOutputJar>();
+            for (BuildOutputJar jar : outputJars.subList(0, i)) {
+                if (classpathLocations.contains(jar.getOutputDirectory().getAbsoluteFile())) {
+                    upstreamJars.add(jar);
+                }
+            }
+            result.put(outputJars.get(i), upstreamJars);
+        }
+        return result;
+    }
+
+    private Callable<BuildOutputJar> newCompileTask(final BuildOutputJar jar) {
+        return new Callable<BuildOutputJar>() {
+            public BuildOutputJar call() throws Exception {
+                compile(jar);
+                return jar;
+            }
+        };
+    }
+
+    private BuildOutputJar takeCompiledJar(CompletionService<BuildOutputJar> completionService)
+            throws MojoExecutionException, CompilationFailureException {
+        try {
+            return completionService.take().get();
+        } catch (InterruptedException e) {
+            throw new MojoExecutionException("Interrupted while compiling", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CompilationFailureException) {
+                throw (CompilationFailureException) cause;
+            }
+            if (cause instanceof MojoExecutionException) {
+                throw (MojoExecutionException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new MojoExecutionException("Could not compile", cause);
+        }
+    }
+
+    private int getCompilerThreads() throws MojoExecutionException {
+        try {
+            return ThreadCountUtils.parseThreadCount(threads);
+        } catch (NumberFormatException e) {
+            throw new MojoExecutionException("Invalid value tycho.compiler.threads=" + threads, e);
+        }
+    }
+
     /*
      * mimics the behavior of the PDE incremental builder which by default copies all (non-java)
      * resource files in source directories into the target folder
      */
-    private void copyResources() throws MojoExecutionException {
-        for (String sourceRoot : getCompileSourceRoots()) {
+    private void copyResources(BuildOutputJar outputJar) throws MojoExecutionException {
+        File outputDirectory = outputJar.getOutputDirectory();
+        // resources by path relative to the output directory; later source roots take precedence
+        Map<String, File> resources = new LinkedHashMap<String, File>();
+        for (String sourceRoot : getCompileSourceRoots(outputJar)) {
             // StaleSourceScanner.getIncludedSources throws IllegalStateException
             // if directory doesnt't exist
             File sourceRootFile = new File(sourceRoot);
@@ -188,16 +344,25 @@ public abstract class AbstractOsgiCompilerMojo extends AbstractCompilerMojo impl
             CopyMapping copyMapping = new CopyMapping();
             scanner.addSourceMapping(copyMapping);
             try {
-                scanner.getIncludedSources(sourceRootFile, this.outputJar.getOutputDirectory());
-                for (CopyMapping.SourceTargetPair sourceTargetPair : copyMapping.getSourceTargetPairs()) {
-                    FileUtils.copyFile(new File(sourceRoot, sourceTargetPair.source), sourceTargetPair.target);
-                }
+                scanner.getIncludedSources(sourceRootFile, outputDirectory);
             } catch (InclusionScanException e) {
                 throw new MojoExecutionException("Exception while scanning for resource files in " + sourceRoot, e);
-            } catch (IOException e) {
-                throw new MojoExecutionException("Exception copying resource files from " + sourceRoot + " to "
-                        + this.outputJar.getOutputDirectory(), e);
             }
+            for (CopyMapping.SourceTargetPair sourceTargetPair : copyMapping.getSourceTargetPairs()) {
+                String path = sourceTargetPair.source.replace('\\', '/');
+                resources.put(path, new File(sourceRoot, sourceTargetPair.source));
+            }
+        }
+
+        File stateFile = getResourceStateFile(outputDirectory);
+        ResourceCopyState state = incremental ? ResourceCopyState.load(stateFile) : new ResourceCopyState();
+        try {
+            int copied = state.copy(resources, outputDirectory, getCompilerThreads());
+            getLog().debug("Copied " + copied + " of " + resources.size() + " resource files to " + outputDirectory);
+            state.save(stateFile);
+        } catch (IOException e) {
+            stateFile.delete();
+            throw new MojoExecutionException("Exception copying resource files to " + outputDirectory, e);
         }
     }
 
@@ -206,9 +371,181 @@ public abstract class AbstractOsgiCompilerMojo extends AbstractCompilerMojo impl
         return ((OsgiBundleProject) getBundleProject()).getEclipsePluginProject(DefaultReactorProject.adapt(project));
     }
 
+    private File getBuildStateFile(File outputDirectory) {
+        return getStateFile(outputDirectory, ".state");
+    }
+
+    private File getResourceStateFile(File outputDirectory) {
+        return getStateFile(outputDirectory, ".resources");
+    }
+
+    /**
+     * Returns the state file with the given suffix for the given output directory. State files are
+     * keyed by the name and the hash of the absolute path of the output directory, so that output
+     * directories with the same name don't share their state.
+     */
+    private File getStateFile(File outputDirectory, String suffix) {
+        String path = outputDirectory.getAbsolutePath();
+        String hash;
+        try {
+            hash = FileChecksums.toHex(FileChecksums.newSHA1Digest().digest(path.getBytes("UTF-8")));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+        return new File(project.getBuild().getDirectory(), "incremental/" + outputDirectory.getName() + "-" + hash
+                + suffix);
+    }
+
     @Override
-    protected File getOutputDirectory() {
-        return outputJar.getOutputDirectory();
+    protected Set computeStaleSources(CompilerConfiguration compilerConfiguration, Compiler compiler,
+            SourceInclusionScanner scanner) throws MojoExecutionException, CompilerException {
+        if (!incremental
+                || !compiler.getCompilerOutputStyle().equals(CompilerOutputStyle.ONE_OUTPUT_FILE_PER_INPUT_FILE)) {
+            return super.computeStaleSources(compilerConfiguration, compiler, scanner);
+        }
+
+        File outputDirectory = new File(compilerConfiguration.getOutputLocation());
+        File stateFile = getBuildStateFile(outputDirectory);
+        IncrementalBuildState buildState = IncrementalBuildState.load(stateFile);
+        try {
+            Set<File> staleSources = buildState.getStaleSources(getConfigurationDigest(compilerConfiguration),
+                    getAllSources(compilerConfiguration, compiler), getUpstreamDirectories(compilerConfiguration));
+            if (staleSources.isEmpty()) {
+                // upstream class files may have changed without changing their structure
+                buildState.save(stateFile);
+            } else {
+                states.put(outputDirectory, buildState);
+            }
+            return staleSources;
+        } catch (IOException e) {
+            throw new MojoExecutionException("Could not determine the sources to compile", e);
+        }
+    }
+
+    @Override
+    protected List compile(Compiler compiler, CompilerConfiguration compilerConfiguration) throws CompilerException {
+        File outputDirectory = new File(compilerConfiguration.getOutputLocation());
+        IncrementalBuildState buildState = states.remove(outputDirectory);
+        if (buildState == null) {
+            return super.compile(compiler, compilerConfiguration);
+        }
+
+        File stateFile = getBuildStateFile(outputDirectory);
+        // the state is invalid until all compilation rounds have succeeded
+        stateFile.delete();
+
+        List messages = new ArrayList();
+        Set<File> sources = compilerConfiguration.getSourceFiles();
+        while (!sources.isEmpty()) {
+            long compilationStart = System.currentTimeMillis();
+            compilerConfiguration.setSourceFiles(sources);
+            List roundMessages = super.compile(compiler, compilerConfiguration);
+            messages.addAll(roundMessages);
+            for (Object message : roundMessages) {
+                if (((CompilerError) message).isError()) {
+                    return messages;
+                }
+            }
+
+            try {
+                sources = buildState.compiled(outputDirectory, sources, compilationStart);
+            } catch (IOException e) {
+                throw new CompilerException("Could not read the generated class files", e);
+            }
+            if (!sources.isEmpty()) {
+                getLog().info("Recompiling " + sources.size() + " dependent source file(s)");
+            }
+        }
+
+        try {
+            buildState.save(stateFile);
+        } catch (IOException e) {
+            // the next build is a full build
+            getLog().debug("Could not save the incremental build state to " + stateFile, e);
+        }
+        return messages;
+    }
+
+    /**
+     * Returns all sources in the compile source roots, with their path relative to the source root.
+     */
+    private Map<File, String> getAllSources(CompilerConfiguration compilerConfiguration, Compiler compiler)
+            throws MojoExecutionException, CompilerException {
+        SourceInclusionScanner scanner = getSourceInclusionScanner(compiler.getInputFileEnding(compilerConfiguration));
+        scanner.addSourceMapping(new SuffixMapping(compiler.getInputFileEnding(compilerConfiguration), compiler
+                .getOutputFileEnding(compilerConfiguration)));
+
+        Map<File, String> result = new LinkedHashMap<File, String>();
+        File outputDirectory = new File(compilerConfiguration.getOutputLocation());
+        for (Object sourceRoot : compilerConfiguration.getSourceLocations()) {
+            File sourceRootFile = new File((String) sourceRoot);
+            if (!sourceRootFile.isDirectory()) {
+                continue;
+            }
+            try {
+                for (Object source : scanner.getIncludedSources(sourceRootFile, outputDirectory)) {
+                    File sourceFile = (File) source;
+                    String relativePath = sourceFile.getPath().substring(sourceRootFile.getPath().length() + 1);
+                    result.put(sourceFile, relativePath.replace(File.separatorChar, '/'));
+                }
+            } catch (InclusionScanException e) {
+                throw new MojoExecutionException("Error scanning source root: '" + sourceRoot + "'", e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the class folders on the classpath, except for the output directory.
+     */
+    private List<File> getUpstreamDirectories(CompilerConfiguration compilerConfiguration) {
+        List<File> result = new ArrayList<File>();
+        File outputDirectory = new File(compilerConfiguration.getOutputLocation()).getAbsoluteFile();
+        for (Object entry : compilerConfiguration.getClasspathEntries()) {
+            File location = new File(stripAccessRules((String) entry)).getAbsoluteFile();
+            if (location.isDirectory() && !location.equals(outputDirectory)) {
+                result.add(location);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a digest of the compiler configuration and of the classpath jars. Class folders on
+     * the classpath are tracked by the incremental build state.
+     */
+    private String getConfigurationDigest(CompilerConfiguration compilerConfiguration) {
+        StringBuilder configuration = new StringBuilder();
+        for (Object entry : compilerConfiguration.getClasspathEntries()) {
+            configuration.append(entry);
+            File location = new File(stripAccessRules((String) entry));
+            if (location.isFile()) {
+                configuration.append(':').append(location.lastModified()).append(':').append(location.length());
+            }
+            configuration.append('\n');
+        }
+        configuration.append(compilerConfiguration.getSourceLocations()).append('\n');
+        configuration.append(compilerConfiguration.getSourceVersion()).append('\n');
+        configuration.append(compilerConfiguration.getTargetVersion()).append('\n');
+        configuration.append(compilerConfiguration.getSourceEncoding()).append('\n');
+        configuration.append(compilerConfiguration.isDebug()).append(compilerConfiguration.isOptimize());
+        configuration.append(compilerConfiguration.isShowWarnings());
+        configuration.append(compilerConfiguration.isShowDeprecation()).append('\n');
+        configuration.append(compilerConfiguration.getCustomCompilerArguments());
+        try {
+            MessageDigest digest = FileChecksums.newDigest("MD5");
+            return FileChecksums.toHex(digest.digest(configuration.toString().getBytes("UTF-8")));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String stripAccessRules(String classpathEntry) {
+        int rulesStart = classpathEntry.lastIndexOf('[');
+        if (rulesStart > 0 && classpathEntry.endsWith("]")) {
+            return classpathEntry.substring(0, rulesStart);
+        }
+        return classpathEntry;
     }
 
     public List<String> getClasspathElements() throws MojoExecutionException {
@@ -221,6 +558,39 @@ public abstract class AbstractOsgiCompilerMojo extends AbstractCompilerMojo impl
         return classpath;
     }
 
+    /**
+     * Returns the compile classpath of the given build output jar. The output folders of the jars
+     * after it in the compile order are left out, so that a jar is never compiled against classes
+     * which are only written later in the build, or concurrently. The output folder of the jar itself
+     * is always on its classpath, so that incremental compilation rounds can use the unchanged
+     * classes.
+     */
+    public List<String> getClasspathElements(BuildOutputJar outputJar) throws MojoExecutionException {
+        File outputDirectory = outputJar.getOutputDirectory().getAbsoluteFile();
+        Set<File> excludedLocations = new HashSet<File>();
+        boolean excluded = false;
+        for (BuildOutputJar jar : getEclipsePluginProject().getOutputJars()) {
+            if (excluded) {
+                excludedLocations.add(jar.getOutputDirectory().getAbsoluteFile());
+            }
+            excluded |= jar.getName().equals(outputJar.getName());
+        }
+
+        List<String> classpath = new ArrayList<String>();
+        boolean containsOutputDirectory = false;
+        for (String element : getClasspathElements()) {
+            File location = new File(stripAccessRules(element)).getAbsoluteFile();
+            if (!excludedLocations.contains(location)) {
+                classpath.add(element);
+                containsOutputDirectory |= location.equals(outputDirectory);
+            }
+        }
+        if (!containsOutputDirectory) {
+            classpath.add(outputDirectory.getPath());
+        }
+        return classpath;
+    }
+
     private BundleProject getBundleProject() throws MojoExecutionException {
         TychoProject projectType = projectTypes.get(project.getPackaging());
         if (!(projectType instanceof BundleProject)) {
@@ -250,8 +620,8 @@ public abstract class AbstractOsgiCompilerMojo extends AbstractCompilerMojo impl
         return result.toString();
     }
 
-    protected final List<String> getCompileSourceRoots() throws MojoExecutionException {
-        return usePdeSourceRoots ? getPdeCompileSourceRoots() : getConfiguredCompileSourceRoots();
+    protected final List<String> getCompileSourceRoots(BuildOutputJar outputJar) throws MojoExecutionException {
+        return usePdeSourceRoots ? getPdeCompileSourceRoots(outputJar) : getConfiguredCompileSourceRoots();
     }
 
     public List<SourcepathEntry> getSourcepath() throws MojoExecutionException {
@@ -290,8 +660,10 @@ public abstract class AbstractOsgiCompilerMojo extends AbstractCompilerMojo impl
         if (includes.isEmpty() && excludes.isEmpty()) {
             scanner = new StaleSourceScanner(staleMillis);
         } else {
+            // scanners are created concurrently for different build output jars
+            Set<String> includes = this.includes;
             if (includes.isEmpty()) {
-                includes.add("**/*.java");
+                includes = Collections.singleton("**/*.java");
             }
             scanner = new StaleSourceScanner(staleMillis, includes, excludes);
         }
@@ -302,11 +674,12 @@ public abstract class AbstractOsgiCompilerMojo extends AbstractCompilerMojo impl
         SourceInclusionScanner scanner = null;
 
         if (includes.isEmpty() && excludes.isEmpty()) {
-            includes = Collections.singleton("**/*." + inputFileEnding);
-            scanner = new SimpleSourceInclusionScanner(includes, Collections.EMPTY_SET);
+            scanner = new SimpleSourceInclusionScanner(Collections.singleton("**/*." + inputFileEnding),
+                    Collections.EMPTY_SET);
         } else {
+            Set<String> includes = this.includes;
             if (includes.isEmpty()) {
-                includes.add("**/*." + inputFileEnding);
+                includes = Collections.singleton("**/*." + inputFileEnding);
             }
             scanner = new SimpleSourceInclusionScanner(includes, excludes);
         }
@@ -314,7 +687,7 @@ public abstract class AbstractOsgiCompilerMojo extends AbstractCompilerMojo impl
         return scanner;
     }
 
-    protected List<String> getPdeCompileSourceRoots() throws MojoExecutionException {
+    protected List<String> getPdeCompileSourceRoots(BuildOutputJar outputJar) throws MojoExecutionException {
         ArrayList<String> roots = new ArrayList<String>();
         for (File folder : outputJar.getSourceFolders()) {
             try {
@@ -327,10 +700,15 @@ public abstract class AbstractOsgiCompilerMojo extends AbstractCompilerMojo impl
     }
 
     @Override
-    protected CompilerConfiguration getCompilerConfiguration(List<String> compileSourceRoots)
+    protected CompilerConfiguration getCompilerConfiguration(File outputDirectory, List<String> compileSourceRoots)
             throws MojoExecutionException {
-        CompilerConfiguration compilerConfiguration = super.getCompilerConfiguration(compileSourceRoots);
-        if (usePdeSourceRoots) {
+        CompilerConfiguration compilerConfiguration = super.getCompilerConfiguration(outputDirectory,
+                compileSourceRoots);
+        BuildOutputJar outputJar = getOutputJar(outputDirectory);
+        if (outputJar != null) {
+            compilerConfiguration.setClasspathEntries(getClasspathElements(outputJar));
+        }
+        if (usePdeSourceRoots && outputJar != null) {
             Properties props = getEclipsePluginProject().getBuildProperties();
             String encoding = props.getProperty("javacDefaultEncoding." + outputJar.getName());
             if (encoding != null) {
@@ -343,6 +721,15 @@ public abstract class AbstractOsgiCompilerMojo extends AbstractCompilerMojo impl
         return compilerConfiguration;
     }
 
+    private BuildOutputJar getOutputJar(File outputDirectory) throws MojoExecutionException {
+        for (BuildOutputJar jar : getEclipsePluginProject().getOutputJars()) {
+            if (jar.getOutputDirectory().getAbsoluteFile().equals(outputDirectory.getAbsoluteFile())) {
+                return jar;
+            }
+        }
+        return null;
+    }
+
     private void configureSourceAndTargetLevel(CompilerConfiguration compilerConfiguration)
             throws MojoExecutionException {
         String[] executionEnvironments = getExecutionEnvironments();
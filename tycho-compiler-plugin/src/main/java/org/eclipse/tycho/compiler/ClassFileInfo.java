@@ -0,0 +1,385 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.compiler;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.tycho.core.facade.FileChecksums;
+
+/**
+ * The information about a class file needed for incremental compilation: the name of the source
+ * file, the direct super types, the referenced types and a hash of the structure visible to other
+ * classes.
+ */
+class ClassFileInfo {
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final int ACC_PRIVATE = 0x0002;
+
+    private static final int ACC_STATIC = 0x0008;
+
+    private static final int ACC_FINAL = 0x0010;
+
+    /** ACC_SUPER for classes, ACC_SYNCHRONIZED for methods; neither is relevant for other classes */
+    private static final int ACC_SUPER = 0x0020;
+
+    private final String className;
+
+    private final String sourcePath;
+
+    private final Set<String> superTypes;
+
+    private final Set<String> referencedTypes;
+
+    private final String apiHash;
+
+    private final String constantsHash;
+
+    ClassFileInfo(String className, String sourcePath, Set<String> superTypes, Set<String> referencedTypes,
+            String apiHash, String constantsHash) {
+        this.className = className;
+        this.sourcePath = sourcePath;
+        this.superTypes = superTypes;
+        this.referencedTypes = referencedTypes;
+        this.apiHash = apiHash;
+        this.constantsHash = constantsHash;
+    }
+
+    /**
+     * Internal name of the class, e.g. <code>java/util/Map$Entry</code>
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * Path of the source file relative to the source root, e.g. <code>java/util/Map.java</code>,
+     * or <code>null</code> if the class file doesn't contain the name of the source file.
+     */
+    public String getSourcePath() {
+        return sourcePath;
+    }
+
+    /**
+     * Internal names of the super class and of the directly implemented interfaces, except for
+     * types from the <code>java</code> packages.
+     */
+    public Set<String> getSuperTypes() {
+        return superTypes;
+    }
+
+    /**
+     * Internal names of the types referenced by the class, except for types from the
+     * <code>java</code> packages.
+     */
+    public Set<String> getReferencedTypes() {
+        return referencedTypes;
+    }
+
+    /**
+     * Hash of the class declaration and of its non-private members.
+     */
+    public String getApiHash() {
+        return apiHash;
+    }
+
+    /**
+     * Hash of the values of the compile-time constants of the class. Compile-time constants are
+     * inlined by the compiler, so the referencing classes don't reference the declaring class.
+     */
+    public String getConstantsHash() {
+        return constantsHash;
+    }
+
+    public static ClassFileInfo read(File classFile) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(classFile)));
+        try {
+            return read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static ClassFileInfo read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a class file");
+        }
+        in.readUnsignedShort(); // minor version
+        in.readUnsignedShort(); // major version
+
+        Object[] pool = readConstantPool(in);
+
+        List<String> api = new ArrayList<String>();
+        List<String> constants = new ArrayList<String>();
+
+        int access = in.readUnsignedShort() & ~ACC_SUPER;
+        String className = getClassName(pool, in.readUnsignedShort());
+        int superClass = in.readUnsignedShort();
+        Set<String> superTypes = new LinkedHashSet<String>();
+        StringBuilder declaration = new StringBuilder();
+        declaration.append(access).append(' ').append(className);
+        declaration.append(" extends ");
+        if (superClass != 0) {
+            declaration.append(getClassName(pool, superClass));
+            addReferencedType(superTypes, getClassName(pool, superClass));
+        }
+        int interfaces = in.readUnsignedShort();
+        for (int i = 0; i < interfaces; i++) {
+            String interfaceName = getClassName(pool, in.readUnsignedShort());
+            declaration.append(i == 0 ? " implements " : ",").append(interfaceName);
+            addReferencedType(superTypes, interfaceName);
+        }
+
+        readMembers(in, pool, "field ", api, constants);
+        readMembers(in, pool, "method ", api, constants);
+
+        String sourceFile = null;
+        int attributes = in.readUnsignedShort();
+        for (int i = 0; i < attributes; i++) {
+            String name = (String) pool[in.readUnsignedShort()];
+            int length = in.readInt();
+            if ("SourceFile".equals(name)) {
+                sourceFile = (String) pool[in.readUnsignedShort()];
+            } else if ("Signature".equals(name)) {
+                declaration.append(" signature ").append(pool[in.readUnsignedShort()]);
+            } else if ("InnerClasses".equals(name)) {
+                int classes = in.readUnsignedShort();
+                for (int j = 0; j < classes; j++) {
+                    int innerClass = in.readUnsignedShort();
+                    in.readUnsignedShort(); // outer class
+                    in.readUnsignedShort(); // simple name
+                    int innerAccess = in.readUnsignedShort();
+                    if (innerClass != 0 && className.equals(getClassName(pool, innerClass))) {
+                        // the declared modifiers of a member class, e.g. static
+                        declaration.append(" inner ").append(innerAccess);
+                    }
+                }
+            } else {
+                skipFully(in, length);
+            }
+        }
+        api.add(declaration.toString());
+
+        String sourcePath = null;
+        if (sourceFile != null) {
+            int packageEnd = className.lastIndexOf('/');
+            sourcePath = packageEnd >= 0 ? className.substring(0, packageEnd + 1) + sourceFile : sourceFile;
+        }
+
+        Set<String> referencedTypes = getReferencedTypes(pool, className);
+        return new ClassFileInfo(className, sourcePath, Collections.unmodifiableSet(superTypes), referencedTypes,
+                hash(api), constants.isEmpty() ? "" : hash(constants));
+    }
+
+    private static Object[] readConstantPool(DataInputStream in) throws IOException {
+        int count = in.readUnsignedShort();
+        Object[] pool = new Object[count];
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+            case 1: // Utf8
+                pool[i] = in.readUTF();
+                break;
+            case 3: // Integer
+                pool[i] = Integer.valueOf(in.readInt());
+                break;
+            case 4: // Float
+                pool[i] = Float.valueOf(in.readFloat());
+                break;
+            case 5: // Long
+                pool[i] = Long.valueOf(in.readLong());
+                i++;
+                break;
+            case 6: // Double
+                pool[i] = Double.valueOf(in.readDouble());
+                i++;
+                break;
+            case 7: // Class
+                pool[i] = new ClassRef(in.readUnsignedShort());
+                break;
+            case 8: // String
+                pool[i] = new StringRef(in.readUnsignedShort());
+                break;
+            case 9: // Fieldref
+            case 10: // Methodref
+            case 11: // InterfaceMethodref
+            case 12: // NameAndType
+            case 17: // Dynamic
+            case 18: // InvokeDynamic
+                in.readInt();
+                break;
+            case 15: // MethodHandle
+                in.readUnsignedByte();
+                in.readUnsignedShort();
+                break;
+            case 16: // MethodType
+            case 19: // Module
+            case 20: // Package
+                in.readUnsignedShort();
+                break;
+            default:
+                throw new IOException("Unknown constant pool tag " + tag);
+            }
+        }
+        return pool;
+    }
+
+    private static void readMembers(DataInputStream in, Object[] pool, String kind, List<String> api,
+            List<String> constants) throws IOException {
+        int count = in.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            int access = in.readUnsignedShort();
+            StringBuilder member = new StringBuilder(kind);
+            member.append(access & ~ACC_SUPER).append(' ').append(pool[in.readUnsignedShort()]);
+            member.append(' ').append(pool[in.readUnsignedShort()]);
+
+            int attributes = in.readUnsignedShort();
+            for (int j = 0; j < attributes; j++) {
+                String name = (String) pool[in.readUnsignedShort()];
+                int length = in.readInt();
+                if ("Signature".equals(name)) {
+                    member.append(" signature ").append(pool[in.readUnsignedShort()]);
+                } else if ("Exceptions".equals(name)) {
+                    int exceptions = in.readUnsignedShort();
+                    for (int k = 0; k < exceptions; k++) {
+                        member.append(k == 0 ? " throws " : ",").append(getClassName(pool, in.readUnsignedShort()));
+                    }
+                } else if ("ConstantValue".equals(name)) {
+                    Object value = pool[in.readUnsignedShort()];
+                    if (value instanceof StringRef) {
+                        value = "\"" + pool[((StringRef) value).index] + "\"";
+                    }
+                    member.append(" = ").append(value);
+                    if ((access & (ACC_STATIC | ACC_FINAL)) == (ACC_STATIC | ACC_FINAL)) {
+                        constants.add(member.toString());
+                    }
+                } else {
+                    skipFully(in, length);
+                }
+            }
+
+            if ((access & ACC_PRIVATE) == 0) {
+                api.add(member.toString());
+            }
+        }
+    }
+
+    /**
+     * Collects the types referenced as class constants and in descriptors and signatures.
+     */
+    private static Set<String> getReferencedTypes(Object[] pool, String className) {
+        Set<String> result = new LinkedHashSet<String>();
+        for (int i = 1; i < pool.length; i++) {
+            Object entry = pool[i];
+            if (entry instanceof ClassRef) {
+                addReferencedType(result, getClassName(pool, i));
+            } else if (entry instanceof String) {
+                String string = (String) entry;
+                if (string.length() > 0 && "(<[L".indexOf(string.charAt(0)) >= 0) {
+                    addDescriptorTypes(result, string);
+                }
+            }
+        }
+        result.remove(className);
+        return Collections.unmodifiableSet(result);
+    }
+
+    private static void addDescriptorTypes(Set<String> result, String descriptor) {
+        int start = descriptor.indexOf('L');
+        while (start >= 0) {
+            int end = start + 1;
+            while (end < descriptor.length() && ";<".indexOf(descriptor.charAt(end)) < 0) {
+                end++;
+            }
+            if (end == descriptor.length()) {
+                break;
+            }
+            String type = descriptor.substring(start + 1, end);
+            if (type.indexOf('.') >= 0) {
+                // inner class of a parameterized type, e.g. Lp/Outer<TT;>.Inner;
+                type = type.substring(0, type.indexOf('.'));
+            }
+            addReferencedType(result, type);
+            start = descriptor.indexOf('L', end + 1);
+        }
+    }
+
+    private static void addReferencedType(Set<String> result, String type) {
+        if (type.startsWith("[")) {
+            int start = type.indexOf('L');
+            if (start < 0) {
+                return; // array of primitive type
+            }
+            type = type.substring(start + 1, type.length() - 1);
+        }
+        if (type.length() > 0 && !type.startsWith("java/")) {
+            result.add(type);
+        }
+    }
+
+    private static String getClassName(Object[] pool, int index) {
+        return (String) pool[((ClassRef) pool[index]).index];
+    }
+
+    private static void skipFully(DataInputStream in, int length) throws IOException {
+        int remaining = length;
+        while (remaining > 0) {
+            int skipped = in.skipBytes(remaining);
+            if (skipped <= 0) {
+                throw new IOException("Unexpected end of class file");
+            }
+            remaining -= skipped;
+        }
+    }
+
+    private static String hash(List<String> values) {
+        // independent of the member order
+        Collections.sort(values);
+        try {
+            MessageDigest digest = FileChecksums.newDigest("MD5");
+            for (String value : values) {
+                digest.update(value.getBytes("UTF-8"));
+                digest.update((byte) '\n');
+            }
+            return FileChecksums.toHex(digest.digest());
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static class ClassRef {
+        final int index;
+
+        ClassRef(int index) {
+            this.index = index;
+        }
+    }
+
+    private static class StringRef {
+        final int index;
+
+        StringRef(int index) {
+            this.index = index;
+        }
+    }
+}
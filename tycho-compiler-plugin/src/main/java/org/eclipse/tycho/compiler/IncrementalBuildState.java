@@ -0,0 +1,573 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.compiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent state of the incremental compilation of one build output jar.
+ * <p>
+ * The state records which classes have been generated from which source file, a hash of the
+ * structure of each class visible to other classes, and the types referenced by each class. On
+ * rebuild, only the changed sources and the sources referencing types with a changed structure are
+ * recompiled. A changed structure also affects the users of all subtypes, which may inherit the
+ * changed members. Class files in upstream class folders, e.g. of other reactor projects, are
+ * tracked in the same way, so that changes which don't affect their structure don't cause
+ * recompilation.
+ * <p>
+ * Class files are mapped to their source by the <code>SourceFile</code> attribute, or if it is
+ * missing, e.g. when compiling with <code>-g:none</code>, by the name of the top-level class. Class
+ * files which can't be mapped, i.e. secondary top-level classes without <code>SourceFile</code>
+ * attribute, are deleted on the next build, which is then a full build.
+ * <p>
+ * Changes which can't be tracked this way, e.g. of the compiler configuration, of classpath jars or
+ * of compile-time constants, cause a full rebuild.
+ */
+class IncrementalBuildState {
+
+    private static final int VERSION = 2;
+
+    /**
+     * Tolerance for the modification time of files written during compilation
+     */
+    private static final long TIMESTAMP_TOLERANCE = 2000;
+
+    private String configuration;
+
+    /**
+     * Compiled sources by absolute path
+     */
+    private Map<String, SourceEntry> sources = new LinkedHashMap<String, SourceEntry>();
+
+    /**
+     * Class files in upstream class folders by absolute path
+     */
+    private Map<String, UpstreamClass> upstreamClasses = new HashMap<String, UpstreamClass>();
+
+    /**
+     * Generated class files whose source is unknown, by absolute path
+     */
+    private Set<String> untrackedClassFiles = new LinkedHashSet<String>();
+
+    /**
+     * Classes of the sources being recompiled, by class name
+     */
+    private Map<String, ClassEntry> previousClasses = new HashMap<String, ClassEntry>();
+
+    /**
+     * All sources of the build output jar, with their path relative to the source root
+     */
+    private Map<File, String> allSources = Collections.emptyMap();
+
+    public static IncrementalBuildState load(File stateFile) {
+        IncrementalBuildState state = new IncrementalBuildState();
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(stateFile)));
+            try {
+                state.read(in);
+            } finally {
+                in.close();
+            }
+        } catch (FileNotFoundException e) {
+            // first build
+        } catch (IOException e) {
+            // corrupt state; start with a full build
+            state = new IncrementalBuildState();
+        }
+        return state;
+    }
+
+    /**
+     * Computes the sources to be compiled and deletes the class files generated from these sources
+     * and from removed sources.
+     * 
+     * @param configuration
+     *            digest of the compiler configuration and of the classpath jars
+     * @param allSources
+     *            all sources of the build output jar
+     * @param upstreamDirectories
+     *            class folders on the classpath which are not generated by this compilation
+     */
+    public Set<File> getStaleSources(String configuration, Map<File, String> allSources,
+            List<File> upstreamDirectories) throws IOException {
+        Set<String> changedTypes = new HashSet<String>();
+        Set<String> changedPackages = new HashSet<String>();
+        boolean fullBuild = !configuration.equals(this.configuration) || !untrackedClassFiles.isEmpty();
+        this.configuration = configuration;
+        this.allSources = allSources;
+
+        // the sources of these class files may have been removed
+        for (String classFile : untrackedClassFiles) {
+            new File(classFile).delete();
+        }
+        untrackedClassFiles.clear();
+
+        if (!fullBuild) {
+            fullBuild = !updateUpstreamClasses(upstreamDirectories, changedTypes, changedPackages);
+        } else {
+            upstreamClasses.clear();
+            updateUpstreamClasses(upstreamDirectories, changedTypes, changedPackages);
+        }
+
+        Set<File> stale = new LinkedHashSet<File>();
+        if (fullBuild) {
+            stale.addAll(allSources.keySet());
+        } else {
+            for (File source : allSources.keySet()) {
+                SourceEntry entry = sources.get(source.getAbsolutePath());
+                if (entry == null || entry.lastModified != source.lastModified() || entry.length != source.length()) {
+                    stale.add(source);
+                }
+            }
+        }
+
+        // removed sources
+        Set<String> allPaths = new HashSet<String>();
+        for (File source : allSources.keySet()) {
+            allPaths.add(source.getAbsolutePath());
+        }
+        for (String path : new ArrayList<String>(sources.keySet())) {
+            if (!allPaths.contains(path)) {
+                for (ClassEntry classEntry : sources.get(path).classes) {
+                    changedTypes.add(classEntry.className);
+                    changedPackages.add(getPackage(classEntry.className));
+                }
+                removeSource(path);
+            }
+        }
+        previousClasses.clear();
+
+        stale.addAll(getDependentSources(changedTypes, changedPackages, allSources.keySet()));
+        for (File source : stale) {
+            removeSource(source.getAbsolutePath());
+        }
+        return stale;
+    }
+
+    /**
+     * Records the class files generated from the given sources, and returns the sources which need
+     * to be recompiled because they reference classes with changed structure.
+     * 
+     * @param compilationStart
+     *            the time the compilation of the sources was started
+     */
+    public Set<File> compiled(File outputDirectory, Collection<File> compiledSources, long compilationStart)
+            throws IOException {
+        Map<String, File> compiledByRelativePath = new HashMap<String, File>();
+        for (File source : compiledSources) {
+            compiledByRelativePath.put(allSources.get(source), source);
+            SourceEntry entry = new SourceEntry(source.lastModified(), source.length());
+            sources.put(source.getAbsolutePath(), entry);
+        }
+
+        Set<String> knownClassFiles = new HashSet<String>();
+        for (SourceEntry entry : sources.values()) {
+            for (ClassEntry classEntry : entry.classes) {
+                knownClassFiles.add(classEntry.classFile);
+            }
+        }
+
+        Set<String> changedTypes = new HashSet<String>();
+        Set<String> changedPackages = new HashSet<String>();
+        boolean constantsChanged = false;
+        boolean untracked = false;
+        for (File classFile : listClassFiles(outputDirectory)) {
+            String path = classFile.getAbsolutePath();
+            if (knownClassFiles.contains(path) || untrackedClassFiles.contains(path)
+                    || classFile.lastModified() < compilationStart - TIMESTAMP_TOLERANCE) {
+                continue;
+            }
+            ClassFileInfo info = ClassFileInfo.read(classFile);
+            File source;
+            if (info.getSourcePath() != null) {
+                source = compiledByRelativePath.get(info.getSourcePath());
+                if (source == null) {
+                    // e.g. class files copied from a source folder
+                    continue;
+                }
+            } else {
+                // no debug information; assume the class is declared in the source of its top-level class
+                source = compiledByRelativePath.get(getTopLevelClassName(info.getClassName()) + ".java");
+                if (source == null) {
+                    untrackedClassFiles.add(path);
+                    untracked = true;
+                    continue;
+                }
+            }
+            ClassEntry classEntry = new ClassEntry(info.getClassName(), path, info.getApiHash(),
+                    info.getConstantsHash(), info.getSuperTypes(), info.getReferencedTypes());
+            sources.get(source.getAbsolutePath()).classes.add(classEntry);
+
+            ClassEntry previous = previousClasses.remove(classEntry.className);
+            if (previous == null) {
+                changedTypes.add(classEntry.className);
+                changedPackages.add(getPackage(classEntry.className));
+            } else {
+                if (!previous.apiHash.equals(classEntry.apiHash)) {
+                    changedTypes.add(classEntry.className);
+                }
+                constantsChanged |= !previous.constantsHash.equals(classEntry.constantsHash);
+            }
+        }
+
+        // classes which are no longer generated
+        for (ClassEntry previous : previousClasses.values()) {
+            changedTypes.add(previous.className);
+            changedPackages.add(getPackage(previous.className));
+            constantsChanged |= previous.constantsHash.length() > 0;
+        }
+        previousClasses.clear();
+
+        Set<File> recompile = new LinkedHashSet<File>();
+        if (constantsChanged || untracked) {
+            // constants are inlined, so there is no reference to the declaring class; for untracked
+            // classes, neither the structure nor the dependent sources are known
+            recompile.addAll(allSources.keySet());
+            recompile.removeAll(compiledSources);
+        } else {
+            // sources compiled together have already seen the changed classes
+            recompile.addAll(getDependentSources(changedTypes, changedPackages, allSources.keySet()));
+            recompile.removeAll(compiledSources);
+        }
+        for (File source : recompile) {
+            removeSource(source.getAbsolutePath());
+        }
+        return recompile;
+    }
+
+    public void save(File stateFile) throws IOException {
+        stateFile.getParentFile().mkdirs();
+        File tmpFile = new File(stateFile.getParentFile(), stateFile.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+        try {
+            write(out);
+        } finally {
+            out.close();
+        }
+        if (!tmpFile.renameTo(stateFile)) {
+            // on Windows, the target must not exist
+            stateFile.delete();
+            if (!tmpFile.renameTo(stateFile)) {
+                throw new IOException("Could not rename " + tmpFile + " to " + stateFile);
+            }
+        }
+    }
+
+    /**
+     * Updates the upstream class files, and adds the types with changed structure.
+     * 
+     * @return <code>false</code> if a full build is needed because compile-time constants have
+     *         changed
+     */
+    private boolean updateUpstreamClasses(List<File> upstreamDirectories, Set<String> changedTypes,
+            Set<String> changedPackages) throws IOException {
+        boolean constantsChanged = false;
+        Map<String, UpstreamClass> current = new HashMap<String, UpstreamClass>();
+        for (File directory : upstreamDirectories) {
+            for (File classFile : listClassFiles(directory)) {
+                String path = classFile.getAbsolutePath();
+                UpstreamClass previous = upstreamClasses.remove(path);
+                if (previous != null && previous.lastModified == classFile.lastModified()
+                        && previous.length == classFile.length()) {
+                    current.put(path, previous);
+                    continue;
+                }
+
+                ClassFileInfo info = ClassFileInfo.read(classFile);
+                UpstreamClass upstreamClass = new UpstreamClass(classFile.lastModified(), classFile.length(),
+                        info.getClassName(), info.getApiHash(), info.getConstantsHash(), info.getSuperTypes());
+                current.put(path, upstreamClass);
+                if (previous == null) {
+                    changedTypes.add(info.getClassName());
+                    changedPackages.add(getPackage(info.getClassName()));
+                } else {
+                    if (!previous.apiHash.equals(upstreamClass.apiHash)) {
+                        changedTypes.add(info.getClassName());
+                    }
+                    constantsChanged |= !previous.constantsHash.equals(upstreamClass.constantsHash);
+                }
+            }
+        }
+        for (UpstreamClass removed : upstreamClasses.values()) {
+            changedTypes.add(removed.className);
+            changedPackages.add(getPackage(removed.className));
+            constantsChanged |= removed.constantsHash.length() > 0;
+        }
+        upstreamClasses = current;
+        return !constantsChanged;
+    }
+
+    /**
+     * Returns the sources which reference one of the given types or one of their subtypes, or which
+     * are in one of the given packages. Added or removed types may change how simple type names in
+     * the same package are resolved.
+     */
+    private Set<File> getDependentSources(Set<String> changedTypes, Set<String> changedPackages, Set<File> allSources) {
+        Set<File> result = new LinkedHashSet<File>();
+        if (changedTypes.isEmpty()) {
+            return result;
+        }
+        changedTypes = addSubtypes(changedTypes);
+        for (File source : allSources) {
+            SourceEntry entry = sources.get(source.getAbsolutePath());
+            if (entry != null && entry.dependsOn(changedTypes, changedPackages)) {
+                result.add(source);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the given types and all their known subtypes. Subtypes inherit the members of their
+     * super types, so their users may be affected by a changed super type even though the subtypes
+     * themselves are unchanged.
+     */
+    private Set<String> addSubtypes(Set<String> types) {
+        Map<String, Set<String>> superTypes = new HashMap<String, Set<String>>();
+        for (SourceEntry entry : sources.values()) {
+            for (ClassEntry classEntry : entry.classes) {
+                superTypes.put(classEntry.className, classEntry.superTypes);
+            }
+        }
+        for (UpstreamClass upstreamClass : upstreamClasses.values()) {
+            superTypes.put(upstreamClass.className, upstreamClass.superTypes);
+        }
+
+        Set<String> result = new HashSet<String>(types);
+        boolean added = true;
+        while (added) {
+            added = false;
+            for (Map.Entry<String, Set<String>> entry : superTypes.entrySet()) {
+                if (!result.contains(entry.getKey()) && !Collections.disjoint(entry.getValue(), result)) {
+                    result.add(entry.getKey());
+                    added = true;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static String getTopLevelClassName(String className) {
+        int idx = className.indexOf('$', className.lastIndexOf('/') + 1);
+        return idx >= 0 ? className.substring(0, idx) : className;
+    }
+
+    /**
+     * Removes the given source from the state and deletes the class files generated from it.
+     */
+    private void removeSource(String path) {
+        SourceEntry entry = sources.remove(path);
+        if (entry != null) {
+            for (ClassEntry classEntry : entry.classes) {
+                previousClasses.put(classEntry.className, classEntry);
+                new File(classEntry.classFile).delete();
+            }
+        }
+    }
+
+    private static String getPackage(String className) {
+        int idx = className.lastIndexOf('/');
+        return idx >= 0 ? className.substring(0, idx) : "";
+    }
+
+    private static List<File> listClassFiles(File directory) {
+        List<File> result = new ArrayList<File>();
+        addClassFiles(directory, result);
+        return result;
+    }
+
+    private static void addClassFiles(File directory, List<File> result) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                addClassFiles(file, result);
+            } else if (file.getName().endsWith(".class")) {
+                result.add(file);
+            }
+        }
+    }
+
+    private void read(DataInputStream in) throws IOException {
+        if (in.readInt() != VERSION) {
+            throw new IOException("Unsupported version");
+        }
+        configuration = in.readUTF();
+
+        int sourceCount = in.readInt();
+        for (int i = 0; i < sourceCount; i++) {
+            String path = in.readUTF();
+            SourceEntry entry = new SourceEntry(in.readLong(), in.readLong());
+            int classCount = in.readInt();
+            for (int j = 0; j < classCount; j++) {
+                String className = in.readUTF();
+                String classFile = in.readUTF();
+                String apiHash = in.readUTF();
+                String constantsHash = in.readUTF();
+                Set<String> superTypes = readStrings(in);
+                Set<String> references = readStrings(in);
+                entry.classes.add(new ClassEntry(className, classFile, apiHash, constantsHash, superTypes,
+                        references));
+            }
+            sources.put(path, entry);
+        }
+
+        int upstreamCount = in.readInt();
+        for (int i = 0; i < upstreamCount; i++) {
+            String path = in.readUTF();
+            upstreamClasses.put(path, new UpstreamClass(in.readLong(), in.readLong(), in.readUTF(), in.readUTF(),
+                    in.readUTF(), readStrings(in)));
+        }
+
+        untrackedClassFiles.addAll(readStrings(in));
+    }
+
+    private static Set<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        Set<String> result = new LinkedHashSet<String>();
+        for (int i = 0; i < count; i++) {
+            result.add(in.readUTF());
+        }
+        return result;
+    }
+
+    private static void writeStrings(DataOutputStream out, Set<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    private void write(DataOutputStream out) throws IOException {
+        out.writeInt(VERSION);
+        out.writeUTF(configuration);
+
+        out.writeInt(sources.size());
+        for (Map.Entry<String, SourceEntry> source : sources.entrySet()) {
+            out.writeUTF(source.getKey());
+            out.writeLong(source.getValue().lastModified);
+            out.writeLong(source.getValue().length);
+            out.writeInt(source.getValue().classes.size());
+            for (ClassEntry classEntry : source.getValue().classes) {
+                out.writeUTF(classEntry.className);
+                out.writeUTF(classEntry.classFile);
+                out.writeUTF(classEntry.apiHash);
+                out.writeUTF(classEntry.constantsHash);
+                writeStrings(out, classEntry.superTypes);
+                writeStrings(out, classEntry.referencedTypes);
+            }
+        }
+
+        out.writeInt(upstreamClasses.size());
+        for (Map.Entry<String, UpstreamClass> upstreamClass : upstreamClasses.entrySet()) {
+            out.writeUTF(upstreamClass.getKey());
+            out.writeLong(upstreamClass.getValue().lastModified);
+            out.writeLong(upstreamClass.getValue().length);
+            out.writeUTF(upstreamClass.getValue().className);
+            out.writeUTF(upstreamClass.getValue().apiHash);
+            out.writeUTF(upstreamClass.getValue().constantsHash);
+            writeStrings(out, upstreamClass.getValue().superTypes);
+        }
+
+        writeStrings(out, untrackedClassFiles);
+    }
+
+    private static class SourceEntry {
+        final long lastModified;
+
+        final long length;
+
+        final List<ClassEntry> classes = new ArrayList<ClassEntry>();
+
+        SourceEntry(long lastModified, long length) {
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+
+        boolean dependsOn(Set<String> types, Set<String> packages) {
+            for (ClassEntry classEntry : classes) {
+                if (packages.contains(getPackage(classEntry.className))
+                        || !Collections.disjoint(classEntry.referencedTypes, types)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class ClassEntry {
+        final String className;
+
+        final String classFile;
+
+        final String apiHash;
+
+        final String constantsHash;
+
+        final Set<String> superTypes;
+
+        final Set<String> referencedTypes;
+
+        ClassEntry(String className, String classFile, String apiHash, String constantsHash, Set<String> superTypes,
+                Set<String> referencedTypes) {
+            this.className = className;
+            this.classFile = classFile;
+            this.apiHash = apiHash;
+            this.constantsHash = constantsHash;
+            this.superTypes = superTypes;
+            this.referencedTypes = referencedTypes;
+        }
+    }
+
+    private static class UpstreamClass {
+        final long lastModified;
+
+        final long length;
+
+        final String className;
+
+        final String apiHash;
+
+        final String constantsHash;
+
+        final Set<String> superTypes;
+
+        UpstreamClass(long lastModified, long length, String className, String apiHash, String constantsHash,
+                Set<String> superTypes) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.className = className;
+            this.apiHash = apiHash;
+            this.constantsHash = constantsHash;
+            this.superTypes = superTypes;
+        }
+    }
+}
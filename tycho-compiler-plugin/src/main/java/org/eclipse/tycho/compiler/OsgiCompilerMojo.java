@@ -24,6 +24,7 @@ import java.util.List;
  * @phase compile
  * @requiresDependencyResolution compile
  * @description Compiles application sources with eclipse plugin dependencies
+ * @threadSafe
  */
 public class OsgiCompilerMojo extends AbstractOsgiCompilerMojo {
 
@@ -26,6 +26,7 @@ import org.apache.maven.plugin.MojoExecutionException;
  * @phase test-compile
  * @requiresDependencyResolution test
  * @description Compiles test application sources with eclipse plugin dependencies
+ * @threadSafe
  */
 public class OsgiTestCompilerMojo extends AbstractOsgiCompilerMojo {
 
@@ -0,0 +1,255 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.compiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.tycho.core.facade.FileChecksums;
+import org.eclipse.tycho.core.utils.DaemonThreadFactory;
+
+/**
+ * Persistent state of the resources copied to one output directory. For each copied resource, the
+ * size, modification time and content hash of the source and the size and modification time of
+ * the copy are recorded. Resources are copied again if the content of the source has changed or if
+ * the copy has been modified or deleted since. Copies of resources which no longer exist are
+ * deleted unless they have been modified since they were made.
+ */
+class ResourceCopyState {
+
+    private static final int VERSION = 2;
+
+    /**
+     * Copied resources by path relative to the output directory
+     */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    public static ResourceCopyState load(File stateFile) {
+        ResourceCopyState state = new ResourceCopyState();
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(stateFile)));
+            try {
+                state.read(in);
+            } finally {
+                in.close();
+            }
+        } catch (FileNotFoundException e) {
+            // first build
+        } catch (IOException e) {
+            // corrupt state; all resources are copied again
+            state.entries.clear();
+        }
+        return state;
+    }
+
+    /**
+     * Copies the changed resources to the output directory and deletes the copies of resources
+     * which are no longer in the given map.
+     * 
+     * @param resources
+     *            the resources by path relative to the output directory
+     * @return the number of copied resources
+     */
+    public int copy(Map<String, File> resources, final File outputDirectory, int threads) throws IOException {
+        for (String path : new ArrayList<String>(entries.keySet())) {
+            if (!resources.containsKey(path)) {
+                Entry entry = entries.remove(path);
+                File target = new File(outputDirectory, path);
+                if (entry.matchesTarget(target)) {
+                    target.delete();
+                }
+            }
+        }
+
+        List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+        for (final Map.Entry<String, File> resource : resources.entrySet()) {
+            tasks.add(new Callable<Boolean>() {
+                public Boolean call() throws IOException {
+                    return Boolean.valueOf(copy(resource.getKey(), resource.getValue(), outputDirectory));
+                }
+            });
+        }
+
+        int copied = 0;
+        if (threads <= 1 || tasks.size() <= 1) {
+            for (Callable<Boolean> task : tasks) {
+                try {
+                    copied += task.call().booleanValue() ? 1 : 0;
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return copied;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("tycho-resources-"));
+        try {
+            for (Future<Boolean> result : executor.invokeAll(tasks)) {
+                copied += result.get().booleanValue() ? 1 : 0;
+            }
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while copying resources");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+        return copied;
+    }
+
+    /**
+     * Copies the given resource unless the existing copy is up to date.
+     * 
+     * @return <code>true</code> if the resource has been copied
+     */
+    boolean copy(String path, File source, File outputDirectory) throws IOException {
+        File target = new File(outputDirectory, path);
+        Entry entry = entries.get(path);
+        if (entry != null && entry.sourceLength == source.length() && entry.matchesTarget(target)) {
+            if (entry.sourceLastModified == source.lastModified()) {
+                return false;
+            }
+            // e.g. touched or checked out again
+            if (entry.hash.equals(FileChecksums.getSHA1(source))) {
+                entries.put(path, new Entry(source.length(), source.lastModified(), entry.hash, target.length(),
+                        target.lastModified()));
+                return false;
+            }
+        }
+
+        String hash = copyFile(source, target);
+        entries.put(path, new Entry(source.length(), source.lastModified(), hash, target.length(), target
+                .lastModified()));
+        return true;
+    }
+
+    public void save(File stateFile) throws IOException {
+        stateFile.getParentFile().mkdirs();
+        File tmpFile = new File(stateFile.getParentFile(), stateFile.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+        try {
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().sourceLength);
+                out.writeLong(entry.getValue().sourceLastModified);
+                out.writeUTF(entry.getValue().hash);
+                out.writeLong(entry.getValue().targetLength);
+                out.writeLong(entry.getValue().targetLastModified);
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmpFile.renameTo(stateFile)) {
+            // on Windows, the target must not exist
+            stateFile.delete();
+            if (!tmpFile.renameTo(stateFile)) {
+                throw new IOException("Could not rename " + tmpFile + " to " + stateFile);
+            }
+        }
+    }
+
+    private void read(DataInputStream in) throws IOException {
+        if (in.readInt() != VERSION) {
+            throw new IOException("Unsupported version");
+        }
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String path = in.readUTF();
+            entries.put(path, new Entry(in.readLong(), in.readLong(), in.readUTF(), in.readLong(), in.readLong()));
+        }
+    }
+
+    /**
+     * Copies the source to the target file and returns the hash of the copied content.
+     */
+    private static String copyFile(File source, File target) throws IOException {
+        target.getParentFile().mkdirs();
+        MessageDigest digest = FileChecksums.newSHA1Digest();
+        InputStream in = new FileInputStream(source);
+        try {
+            OutputStream out = new FileOutputStream(target);
+            try {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, n);
+                    out.write(buffer, 0, n);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        return FileChecksums.toHex(digest.digest());
+    }
+
+    private static class Entry {
+        final long sourceLength;
+
+        final long sourceLastModified;
+
+        final String hash;
+
+        final long targetLength;
+
+        final long targetLastModified;
+
+        Entry(long sourceLength, long sourceLastModified, String hash, long targetLength, long targetLastModified) {
+            this.sourceLength = sourceLength;
+            this.sourceLastModified = sourceLastModified;
+            this.hash = hash;
+            this.targetLength = targetLength;
+            this.targetLastModified = targetLastModified;
+        }
+
+        /**
+         * Returns <code>true</code> if the copy exists and hasn't been modified since it was made.
+         */
+        boolean matchesTarget(File target) {
+            return target.length() == targetLength && target.lastModified() == targetLastModified
+                    && target.isFile();
+        }
+    }
+}
@@ -11,8 +11,10 @@
 package org.eclipse.tycho.osgicompiler.test;
 
 import java.io.File;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.bcel.classfile.ClassFormatException;
 import org.apache.bcel.classfile.ClassParser;
@@ -22,6 +24,7 @@ import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.util.FileUtils;
 import org.eclipse.tycho.classpath.SourcepathEntry;
 import org.eclipse.tycho.compiler.AbstractOsgiCompilerMojo;
+import org.eclipse.tycho.core.osgitools.project.BuildOutputJar;
 import org.eclipse.tycho.testing.AbstractTychoMojoTestCase;
 
 import copied.org.apache.maven.plugin.CompilationFailureException;
@@ -30,6 +33,7 @@ public class OsgiCompilerTest extends AbstractTychoMojoTestCase {
 
     private static final int TARGET_1_4 = 48;
     private static final int TARGET_1_5 = 49;
+    private static final long OLD_TIMESTAMP = 1000000000000L;
 
     protected File storage;
 
@@ -181,6 +185,49 @@ public class OsgiCompilerTest extends AbstractTychoMojoTestCase {
         assertEquals(2, sourcepath.size());
     }
 
+    public void test_multipleOutputJars_classpath() throws Exception {
+        File basedir = getBasedir("projects/multijar");
+        List<MavenProject> projects = getSortedProjects(basedir, null);
+
+        MavenProject project = projects.get(0);
+        AbstractOsgiCompilerMojo mojo = getMojo(projects, project);
+        Map<String, BuildOutputJar> outputJars = mojo.getEclipsePluginProject().getOutputJarMap();
+        File dotOutput = outputJars.get(".").getOutputDirectory();
+        File libraryOutput = outputJars.get("library.jar").getOutputDirectory();
+
+        // output folders of the jars compiled after a jar are not on its classpath, its own folder is
+        List<String> dotClasspath = mojo.getClasspathElements(outputJars.get("."));
+        assertTrue(dotClasspath.contains(dotOutput.getAbsolutePath()));
+        assertFalse(dotClasspath.contains(libraryOutput.getAbsolutePath()));
+        List<String> libraryClasspath = mojo.getClasspathElements(outputJars.get("library.jar"));
+        assertTrue(libraryClasspath.contains(dotOutput.getAbsolutePath()));
+        assertTrue(libraryClasspath.contains(libraryOutput.getAbsolutePath()));
+    }
+
+    public void test_multipleOutputJarsConcurrently() throws Exception {
+        File basedir = getBasedir("projects/multijarIndependent");
+        List<MavenProject> projects = getSortedProjects(basedir, null);
+
+        MavenProject project = projects.get(0);
+        AbstractOsgiCompilerMojo mojo = getMojo(projects, project);
+        Map<String, BuildOutputJar> outputJars = mojo.getEclipsePluginProject().getOutputJarMap();
+
+        // a.jar and b.jar are not on the Bundle-ClassPath, so they only depend on .
+        List<String> aClasspath = mojo.getClasspathElements(outputJars.get("a.jar"));
+        assertTrue(aClasspath.contains(outputJars.get(".").getOutputDirectory().getAbsolutePath()));
+        List<String> bClasspath = mojo.getClasspathElements(outputJars.get("b.jar"));
+        assertTrue(bClasspath.contains(outputJars.get(".").getOutputDirectory().getAbsolutePath()));
+        assertTrue(bClasspath.contains(outputJars.get("b.jar").getOutputDirectory().getAbsolutePath()));
+        assertFalse(bClasspath.contains(outputJars.get("a.jar").getOutputDirectory().getAbsolutePath()));
+
+        setVariableValueToObject(mojo, "threads", "2");
+        mojo.execute();
+
+        assertTrue(new File(project.getBasedir(), "target/classes/api/Api.class").canRead());
+        assertTrue(new File(project.getBasedir(), "target/a.jar-classes/a/A.class").canRead());
+        assertTrue(new File(project.getBasedir(), "target/b.jar-classes/b/B.class").canRead());
+    }
+
     public void test_multipleOutputJars_getSourcepath() throws Exception {
         File basedir = getBasedir("projects/multijar");
         List<MavenProject> projects = getSortedProjects(basedir, null);
@@ -218,6 +265,152 @@ public class OsgiCompilerTest extends AbstractTychoMojoTestCase {
         assertFalse(new File(project.getBasedir(), "target/classes/testresources/Test.aj").canRead());
     }
 
+    public void testIncrementalCompilation() throws Exception {
+        File basedir = getBasedir("projects/incremental/p001");
+        List<MavenProject> projects = getSortedProjects(basedir, null);
+        MavenProject project = projects.get(0);
+        File classA = new File(project.getBasedir(), "target/classes/incremental/A.class");
+        File classB = new File(project.getBasedir(), "target/classes/incremental/B.class");
+
+        getMojo(projects, project).execute();
+        assertTrue(classA.canRead());
+        assertTrue(classB.canRead());
+
+        // nothing changed
+        markAsOld(classA, classB);
+        getMojo(projects, project).execute();
+        assertTrue(isOld(classA));
+        assertTrue(isOld(classB));
+
+        // implementation change doesn't affect the dependent class
+        writeClassA(project, "public String getName() { return \"changed\"; }");
+        getMojo(projects, project).execute();
+        assertFalse(isOld(classA));
+        assertTrue(isOld(classB));
+
+        // API change requires recompilation of the dependent class
+        markAsOld(classA, classB);
+        writeClassA(project, "public String getName() { return \"A\"; } public int getSize() { return 0; }");
+        getMojo(projects, project).execute();
+        assertFalse(isOld(classA));
+        assertFalse(isOld(classB));
+    }
+
+    public void testIncrementalCompilationOfDependentClass() throws Exception {
+        File basedir = getBasedir("projects/incremental/p001");
+        List<MavenProject> projects = getSortedProjects(basedir, null);
+        MavenProject project = projects.get(0);
+        File classA = new File(project.getBasedir(), "target/classes/incremental/A.class");
+        File classB = new File(project.getBasedir(), "target/classes/incremental/B.class");
+
+        getMojo(projects, project).execute();
+        assertTrue(classB.canRead());
+
+        // only B is compiled, against the unchanged A.class in the output folder
+        markAsOld(classA, classB);
+        FileUtils.fileWrite(new File(project.getBasedir(), "src/incremental/B.java").getAbsolutePath(),
+                "package incremental; public class B { public String getName() { return \"B\" + new A().getName(); }"
+                        + " }");
+        getMojo(projects, project).execute();
+        assertTrue(isOld(classA));
+        assertFalse(isOld(classB));
+    }
+
+    public void testIncrementalCompilationInheritedApiChange() throws Exception {
+        File basedir = getBasedir("projects/incremental/p003");
+        List<MavenProject> projects = getSortedProjects(basedir, null);
+        MavenProject project = projects.get(0);
+        File classB = new File(project.getBasedir(), "target/classes/incremental/B.class");
+        File classC = new File(project.getBasedir(), "target/classes/incremental/C.class");
+
+        getMojo(projects, project).execute();
+        assertTrue(classC.canRead());
+
+        // C only references B, but calls a method B inherits from A
+        markAsOld(classB, classC);
+        writeClassA(project, "public Object getName() { return \"A\"; }");
+        getMojo(projects, project).execute();
+        assertFalse(isOld(classC));
+    }
+
+    public void testIncrementalCompilationWithoutDebugInfo() throws Exception {
+        File basedir = getBasedir("projects/incremental/p002");
+        List<MavenProject> projects = getSortedProjects(basedir, null);
+        MavenProject project = projects.get(0);
+        File classA = new File(project.getBasedir(), "target/classes/incremental/A.class");
+        File classHelper = new File(project.getBasedir(), "target/classes/incremental/Helper.class");
+        File classB = new File(project.getBasedir(), "target/classes/incremental/B.class");
+
+        getMojo(projects, project).execute();
+        assertTrue(classA.canRead());
+        assertTrue(classHelper.canRead());
+        assertTrue(classB.canRead());
+
+        // class files without SourceFile attribute are removed together with their source
+        assertTrue(new File(project.getBasedir(), "src/incremental/A.java").delete());
+        getMojo(projects, project).execute();
+        assertFalse(classA.exists());
+        assertFalse(classHelper.exists());
+        assertTrue(classB.canRead());
+    }
+
+    public void testIncrementalResourceCopy() throws Exception {
+        File basedir = getBasedir("projects/incremental/p001");
+        List<MavenProject> projects = getSortedProjects(basedir, null);
+        MavenProject project = projects.get(0);
+        File resource = new File(project.getBasedir(), "src/incremental/resource.properties");
+        File copiedResource = new File(project.getBasedir(), "target/classes/incremental/resource.properties");
+
+        FileUtils.fileWrite(resource.getAbsolutePath(), "key=value");
+        getMojo(projects, project).execute();
+        assertEquals("key=value", FileUtils.fileRead(copiedResource));
+
+        // changed resource is copied again
+        FileUtils.fileWrite(resource.getAbsolutePath(), "key=changed");
+        getMojo(projects, project).execute();
+        assertEquals("key=changed", FileUtils.fileRead(copiedResource));
+
+        // copy of a removed resource is deleted
+        assertTrue(resource.delete());
+        getMojo(projects, project).execute();
+        assertFalse(copiedResource.exists());
+    }
+
+    public void testIncrementalStateOfOutputFoldersWithSameName() throws Exception {
+        File basedir = getBasedir("projects/multijarSameName");
+        List<MavenProject> projects = getSortedProjects(basedir, null);
+        MavenProject project = projects.get(0);
+
+        getMojo(projects, project).execute();
+
+        File aResource = new File(project.getBasedir(), "target/a/lib.jar-classes/a/a.properties");
+        assertEquals("key=a", FileUtils.fileRead(aResource).trim());
+        File bResource = new File(project.getBasedir(), "target/b/lib.jar-classes/b/b.properties");
+        assertEquals("key=b", FileUtils.fileRead(bResource).trim());
+        // a/lib.jar and b/lib.jar have output folders with the same name, but separate states
+        String[] resourceStates = new File(project.getBasedir(), "target/incremental").list(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".resources");
+            }
+        });
+        assertEquals(3, resourceStates.length);
+    }
+
+    private void markAsOld(File... files) {
+        for (File file : files) {
+            assertTrue(file.setLastModified(OLD_TIMESTAMP));
+        }
+    }
+
+    private boolean isOld(File file) {
+        return file.lastModified() == OLD_TIMESTAMP;
+    }
+
+    private void writeClassA(MavenProject project, String body) throws IOException {
+        FileUtils.fileWrite(new File(project.getBasedir(), "src/incremental/A.java").getAbsolutePath(),
+                "package incremental; public class A { " + body + " }");
+    }
+
     public void testExecutionEnvironment() throws Exception {
         File basedir = getBasedir("projects/executionEnvironment");
         List<MavenProject> projects = getSortedProjects(basedir, null);
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.core.maven;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.maven.MavenExecutionException;
+import org.apache.maven.artifact.ArtifactUtils;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.logging.Logger;
+import org.eclipse.tycho.ReactorProject;
+import org.eclipse.tycho.core.utils.DaemonThreadFactory;
+import org.eclipse.tycho.resolver.TychoDependencyResolver;
+
+/**
+ * Resolves the target platforms of all reactor projects using a bounded pool of worker threads.
+ * <p>
+ * A project is only scheduled once all reactor projects it explicitly depends on in its pom.xml
+ * (parent and dependencies) have been resolved, so the guarantees of the sequential, topologically
+ * sorted resolution are preserved for these projects.
+ */
+public class ParallelReactorResolver {
+
+    private final TychoDependencyResolver resolver;
+
+    private final Logger logger;
+
+    private final int threads;
+
+    public ParallelReactorResolver(TychoDependencyResolver resolver, Logger logger, int threads) {
+        this.resolver = resolver;
+        this.logger = logger;
+        this.threads = threads;
+    }
+
+    public void resolveProjects(final MavenSession session, List<MavenProject> projects,
+            final List<ReactorProject> reactorProjects) throws MavenExecutionException {
+        Map<MavenProject, Set<MavenProject>> pendingUpstreamProjects = getUpstreamProjects(projects);
+
+        logger.info("Resolving target platforms of " + projects.size() + " projects using " + threads + " threads");
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("tycho-resolver-"));
+        try {
+            CompletionService<MavenProject> completionService = new ExecutorCompletionService<MavenProject>(executor);
+
+            int running = 0;
+            for (MavenProject project : new ArrayList<MavenProject>(pendingUpstreamProjects.keySet())) {
+                if (pendingUpstreamProjects.get(project).isEmpty()) {
+                    pendingUpstreamProjects.remove(project);
+                    completionService.submit(newResolveTask(session, project, reactorProjects));
+                    running++;
+                }
+            }
+
+            while (running > 0) {
+                MavenProject resolvedProject = takeResolvedProject(completionService);
+                running--;
+
+                for (MavenProject project : new ArrayList<MavenProject>(pendingUpstreamProjects.keySet())) {
+                    Set<MavenProject> upstreamProjects = pendingUpstreamProjects.get(project);
+                    upstreamProjects.remove(resolvedProject);
+                    if (upstreamProjects.isEmpty()) {
+                        pendingUpstreamProjects.remove(project);
+                        completionService.submit(newResolveTask(session, project, reactorProjects));
+                        running++;
+                    }
+                }
+            }
+
+            if (!pendingUpstreamProjects.isEmpty()) {
+                // cannot happen for a reactor which Maven was able to sort
+                throw new IllegalStateException("Cyclic dependencies between projects "
+                        + pendingUpstreamProjects.keySet());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Callable<MavenProject> newResolveTask(final MavenSession session, final MavenProject project,
+            final List<ReactorProject> reactorProjects) {
+        return new Callable<MavenProject>() {
+            public MavenProject call() throws Exception {
+                resolver.resolveProject(session, project, reactorProjects);
+                return project;
+            }
+        };
+    }
+
+    private MavenProject takeResolvedProject(CompletionService<MavenProject> completionService)
+            throws MavenExecutionException {
+        try {
+            return completionService.take().get();
+        } catch (InterruptedException e) {
+            throw new MavenExecutionException("Interrupted while resolving target platforms", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new MavenExecutionException("Could not resolve target platform", cause);
+        }
+    }
+
+    /**
+     * Returns the reactor projects each project references in its pom.xml, in reactor order.
+     */
+    static Map<MavenProject, Set<MavenProject>> getUpstreamProjects(List<MavenProject> projects) {
+        Map<String, MavenProject> projectsByKey = new HashMap<String, MavenProject>();
+        for (MavenProject project : projects) {
+            projectsByKey.put(ArtifactUtils.key(project.getGroupId(), project.getArtifactId(), project.getVersion()),
+                    project);
+        }
+
+        Map<MavenProject, Set<MavenProject>> result = new LinkedHashMap<MavenProject, Set<MavenProject>>();
+        for (MavenProject project : projects) {
+            Set<MavenProject> upstreamProjects = new LinkedHashSet<MavenProject>();
+
+            MavenProject parent = project.getParent();
+            if (parent != null && projects.contains(parent)) {
+                upstreamProjects.add(parent);
+            }
+
+            for (Dependency dependency : project.getDependencies()) {
+                MavenProject otherProject = projectsByKey.get(ArtifactUtils.key(dependency.getGroupId(),
+                        dependency.getArtifactId(), dependency.getVersion()));
+                if (otherProject != null && otherProject != project) {
+                    upstreamProjects.add(otherProject);
+                }
+            }
+
+            result.put(project, upstreamProjects);
+        }
+        return result;
+    }
+}
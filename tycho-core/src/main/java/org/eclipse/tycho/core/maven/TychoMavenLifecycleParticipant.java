@@ -27,11 +27,19 @@ import org.eclipse.tycho.ReactorProject;
 import org.eclipse.tycho.core.osgitools.BundleReader;
 import org.eclipse.tycho.core.osgitools.DefaultBundleReader;
 import org.eclipse.tycho.core.osgitools.DefaultReactorProject;
+import org.eclipse.tycho.core.utils.ThreadCountUtils;
 import org.eclipse.tycho.equinox.embedder.EquinoxEmbedder;
 import org.eclipse.tycho.resolver.TychoDependencyResolver;
 
 @Component(role = AbstractMavenLifecycleParticipant.class, hint = "TychoMavenLifecycleListener")
 public class TychoMavenLifecycleParticipant extends AbstractMavenLifecycleParticipant implements Disposable {
+    /**
+     * Number of threads used to resolve the target platforms of the reactor projects. Either an
+     * absolute number or a multiple of the available cores, e.g. <code>1.5C</code>. Defaults to 1,
+     * i.e. projects are resolved one after the other.
+     */
+    public static final String PROP_RESOLVER_THREADS = "tycho.resolver.threads";
+
     @Requirement
     private Logger logger;
 
@@ -87,8 +95,29 @@ public class TychoMavenLifecycleParticipant extends AbstractMavenLifecyclePartic
 
         List<ReactorProject> reactorProjects = DefaultReactorProject.adapt(session);
 
-        for (MavenProject project : projects) {
-            resolver.resolveProject(session, project, reactorProjects);
+        int threads = getResolverThreads(session);
+        if (threads > 1 && projects.size() > 1) {
+            new ParallelReactorResolver(resolver, logger, threads).resolveProjects(session, projects, reactorProjects);
+        } else {
+            for (MavenProject project : projects) {
+                resolver.resolveProject(session, project, reactorProjects);
+            }
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Bundle manifest cache: " + ((DefaultBundleReader) bundleReader).getManifestCacheStatistics());
+        }
+    }
+
+    private int getResolverThreads(MavenSession session) throws MavenExecutionException {
+        String value = session.getUserProperties().getProperty(PROP_RESOLVER_THREADS);
+        if (value == null) {
+            value = session.getSystemProperties().getProperty(PROP_RESOLVER_THREADS);
+        }
+        try {
+            return ThreadCountUtils.parseThreadCount(value);
+        } catch (NumberFormatException e) {
+            throw new MavenExecutionException("Invalid value " + PROP_RESOLVER_THREADS + "=" + value, e);
         }
     }
 
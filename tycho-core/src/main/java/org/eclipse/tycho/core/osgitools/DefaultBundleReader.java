@@ -14,9 +14,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.Properties;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
@@ -43,20 +41,53 @@ public class DefaultBundleReader extends AbstractLogEnabled implements BundleRea
 
     private File cacheDir;
 
-    private static final Map<File, Manifest> manifestCache = new HashMap<File, Manifest>();
+    private static final ManifestCache manifestCache = new ManifestCache();
 
     @Requirement(hint = "zip")
     private UnArchiver zipUnArchiver;
 
     public Manifest loadManifest(File bundleLocation) {
-        Manifest manifest = manifestCache.get(bundleLocation);
+        File manifestFile = getManifestFile(bundleLocation);
+        Manifest manifest = manifestCache.get(bundleLocation, manifestFile);
         if (manifest == null) {
             manifest = doLoadManifest(bundleLocation);
-            manifestCache.put(bundleLocation, manifest);
+            if (manifest != null) {
+                // not-a-bundle results are not cached, they are re-evaluated on the next request
+                // only jars are stored on disk; directories are usually reactor projects which change often
+                manifestCache.put(bundleLocation, manifestFile, manifest, bundleLocation.isFile());
+            }
         }
         return manifest;
     }
 
+    /**
+     * Returns the file which determines the manifest of the given bundle.
+     */
+    private static File getManifestFile(File bundleLocation) {
+        if (bundleLocation.isDirectory()) {
+            File manifest = new File(bundleLocation, JarFile.MANIFEST_NAME);
+            if (manifest.isFile()) {
+                return manifest;
+            }
+            File pluginXml = new File(bundleLocation, "plugin.xml");
+            if (pluginXml.isFile()) {
+                return pluginXml;
+            }
+            File fragmentXml = new File(bundleLocation, "fragment.xml");
+            if (fragmentXml.isFile()) {
+                return fragmentXml;
+            }
+        }
+        return bundleLocation;
+    }
+
+    /**
+     * Returns hit and miss counts of the manifest cache.
+     */
+    public String getManifestCacheStatistics() {
+        return manifestCache.getStatistics();
+    }
+
     private Manifest doLoadManifest(File bundleLocation) {
         try {
             if (bundleLocation.isDirectory()) {
@@ -127,7 +158,7 @@ public class DefaultBundleReader extends AbstractLogEnabled implements BundleRea
         }
     }
 
-    private File convertPluginManifest(File bundleLocation) throws PluginConversionException {
+    private synchronized File convertPluginManifest(File bundleLocation) throws PluginConversionException {
         PluginConverterImpl converter = new PluginConverterImpl(null, null);
         String name = bundleLocation.getName();
         if (name.endsWith(".jar")) {
@@ -156,6 +187,7 @@ public class DefaultBundleReader extends AbstractLogEnabled implements BundleRea
 
     public void setLocationRepository(File basedir) {
         this.cacheDir = new File(basedir, CACHE_PATH);
+        manifestCache.setCacheDir(cacheDir);
     }
 
     public Properties toProperties(Manifest mf) {
@@ -189,7 +221,7 @@ public class DefaultBundleReader extends AbstractLogEnabled implements BundleRea
         return elements != null && elements.length > 0 && "dir".equals(elements[0].getValue());
     }
 
-    public File getEntry(File bundleLocation, String path) {
+    public synchronized File getEntry(File bundleLocation, String path) {
         if (bundleLocation.isDirectory()) {
             File file = new File(bundleLocation, path);
             return file.exists() ? file : null;
@@ -47,6 +47,10 @@ public class DefaultClasspathEntry implements ClasspathEntry {
             return isDiscouraged() == other.isDiscouraged() && getPattern().equals(other.getPattern());
         }
 
+        public int hashCode() {
+            return pattern.hashCode() * 31 + (discouraged ? 1 : 0);
+        }
+
         public String getPattern() {
             return pattern;
         }
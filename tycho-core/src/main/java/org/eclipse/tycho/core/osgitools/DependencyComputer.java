@@ -13,8 +13,11 @@ package org.eclipse.tycho.core.osgitools;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 
 import org.codehaus.plexus.component.annotations.Component;
@@ -24,6 +27,7 @@ import org.eclipse.osgi.service.resolver.BundleSpecification;
 import org.eclipse.osgi.service.resolver.ExportPackageDescription;
 import org.eclipse.osgi.service.resolver.HostSpecification;
 import org.eclipse.osgi.service.resolver.ImportPackageSpecification;
+import org.eclipse.osgi.service.resolver.State;
 import org.eclipse.osgi.service.resolver.StateHelper;
 import org.eclipse.tycho.classpath.ClasspathEntry.AccessRule;
 import org.eclipse.tycho.core.osgitools.DefaultClasspathEntry.DefaultAccessRule;
@@ -36,10 +40,29 @@ import org.eclipse.tycho.core.osgitools.DefaultClasspathEntry.DefaultAccessRule;
  * 
  * Note that some functionality, namely SecondaryDependencies, ExtraClasspathEntries and
  * isPatchFragment, has been removed due to time constraints.
+ * 
+ * Entries and access rules are collected in hash-based collections which preserve insertion order,
+ * so that the computation is linear in the number of dependencies and visible packages. The visible
+ * packages of a bundle are cached for the most recently used resolver states.
  */
 @Component(role = DependencyComputer.class)
 public class DependencyComputer {
 
+    /**
+     * Number of resolver states for which visible packages are cached
+     */
+    private static final int MAX_CACHED_STATES = 4;
+
+    private final Map<State, VisiblePackages> visiblePackagesCache = new LinkedHashMap<State, VisiblePackages>(16,
+            0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<State, VisiblePackages> eldest) {
+            return size() > MAX_CACHED_STATES;
+        }
+    };
+
     public static class DependencyEntry {
         public final BundleDescription desc;
         public final List<AccessRule> rules;
@@ -57,17 +80,34 @@ public class DependencyComputer {
                 return false;
             }
             DependencyEntry other = (DependencyEntry) obj;
-            return desc.equals(other.desc) && rules.equals(other.rules);
+            return desc.equals(other.desc) && (rules == null ? other.rules == null : rules.equals(other.rules));
+        }
+
+        public int hashCode() {
+            return desc.hashCode() * 31 + (rules != null ? rules.hashCode() : 0);
         }
     }
 
-    public List<DependencyEntry> computeDependencies(StateHelper helper, BundleDescription desc) {
-        ArrayList<DependencyEntry> entries = new ArrayList<DependencyEntry>();
+    /**
+     * Visible packages of the bundles in a resolver state with a given time stamp
+     */
+    private static class VisiblePackages {
+        final long timeStamp;
+
+        final Map<BundleDescription, ExportPackageDescription[]> packages = new HashMap<BundleDescription, ExportPackageDescription[]>();
+
+        VisiblePackages(long timeStamp) {
+            this.timeStamp = timeStamp;
+        }
+    }
 
+    public List<DependencyEntry> computeDependencies(StateHelper helper, BundleDescription desc) {
         if (desc == null)
-            return entries;
+            return new ArrayList<DependencyEntry>();
 
-        Map<BundleDescription, ArrayList<AccessRule>> map = retrieveVisiblePackagesFromState(helper, desc);
+        Set<DependencyEntry> entries = new LinkedHashSet<DependencyEntry>();
+
+        Map<BundleDescription, Set<AccessRule>> map = retrieveVisiblePackagesFromState(helper, desc);
 
         HashSet<BundleDescription> added = new HashSet<BundleDescription>();
 
@@ -103,12 +143,12 @@ public class DependencyComputer {
 //			System.err.println(i + "\t" + entries.get(i).desc);
 //		}
 
-        return entries;
+        return new ArrayList<DependencyEntry>(entries);
     }
 
-    private Map<BundleDescription, ArrayList<AccessRule>> retrieveVisiblePackagesFromState(StateHelper helper,
+    private Map<BundleDescription, Set<AccessRule>> retrieveVisiblePackagesFromState(StateHelper helper,
             BundleDescription desc) {
-        Map<BundleDescription, ArrayList<AccessRule>> visiblePackages = new HashMap<BundleDescription, ArrayList<AccessRule>>();
+        Map<BundleDescription, Set<AccessRule>> visiblePackages = new HashMap<BundleDescription, Set<AccessRule>>();
         addVisiblePackagesFromState(helper, desc, visiblePackages);
         if (desc.getHost() != null)
             addVisiblePackagesFromState(helper, (BundleDescription) desc.getHost().getSupplier(), visiblePackages);
@@ -116,22 +156,48 @@ public class DependencyComputer {
     }
 
     private void addVisiblePackagesFromState(StateHelper helper, BundleDescription desc,
-            Map<BundleDescription, ArrayList<AccessRule>> visiblePackages) {
+            Map<BundleDescription, Set<AccessRule>> visiblePackages) {
         if (desc == null)
             return;
-        ExportPackageDescription[] exports = helper.getVisiblePackages(desc);
+        ExportPackageDescription[] exports = getVisiblePackages(helper, desc);
         for (int i = 0; i < exports.length; i++) {
             BundleDescription exporter = exports[i].getExporter();
             if (exporter == null)
                 continue;
-            ArrayList<AccessRule> list = visiblePackages.get(exporter);
-            if (list == null)
-                list = new ArrayList<AccessRule>();
-            AccessRule rule = getRule(helper, desc, exports[i]);
-            if (!list.contains(rule))
-                list.add(rule);
-            visiblePackages.put(exporter, list);
+            Set<AccessRule> list = visiblePackages.get(exporter);
+            if (list == null) {
+                list = new LinkedHashSet<AccessRule>();
+                visiblePackages.put(exporter, list);
+            }
+            list.add(getRule(helper, desc, exports[i]));
+        }
+    }
+
+    private ExportPackageDescription[] getVisiblePackages(StateHelper helper, BundleDescription desc) {
+        State state = desc.getContainingState();
+        if (state == null) {
+            return helper.getVisiblePackages(desc);
+        }
+
+        VisiblePackages cache;
+        synchronized (visiblePackagesCache) {
+            cache = visiblePackagesCache.get(state);
+            if (cache == null || cache.timeStamp != state.getTimeStamp()) {
+                cache = new VisiblePackages(state.getTimeStamp());
+                visiblePackagesCache.put(state, cache);
+            }
+            ExportPackageDescription[] exports = cache.packages.get(desc);
+            if (exports != null) {
+                return exports;
+            }
+        }
+
+        // don't block other threads while computing
+        ExportPackageDescription[] exports = helper.getVisiblePackages(desc);
+        synchronized (visiblePackagesCache) {
+            cache.packages.put(desc, exports);
         }
+        return exports;
     }
 
     private AccessRule getRule(StateHelper helper, BundleDescription desc, ExportPackageDescription export) {
@@ -142,7 +208,7 @@ public class DependencyComputer {
     }
 
     protected void addDependencyViaImportPackage(BundleDescription desc, HashSet<BundleDescription> added,
-            Map<BundleDescription, ArrayList<AccessRule>> map, ArrayList<DependencyEntry> entries) {
+            Map<BundleDescription, Set<AccessRule>> map, Set<DependencyEntry> entries) {
         if (desc == null || !added.add(desc))
             return;
 
@@ -158,12 +224,12 @@ public class DependencyComputer {
     }
 
     private void addDependency(BundleDescription desc, HashSet<BundleDescription> added,
-            Map<BundleDescription, ArrayList<AccessRule>> map, ArrayList<DependencyEntry> entries) {
+            Map<BundleDescription, Set<AccessRule>> map, Set<DependencyEntry> entries) {
         addDependency(desc, added, map, entries, true);
     }
 
     private void addDependency(BundleDescription desc, HashSet<BundleDescription> added,
-            Map<BundleDescription, ArrayList<AccessRule>> map, ArrayList<DependencyEntry> entries, boolean useInclusion) {
+            Map<BundleDescription, Set<AccessRule>> map, Set<DependencyEntry> entries, boolean useInclusion) {
         if (desc == null || !added.add(desc))
             return;
 
@@ -196,30 +262,28 @@ public class DependencyComputer {
     }
 
     private boolean addPlugin(BundleDescription desc, boolean useInclusions,
-            Map<BundleDescription, ArrayList<AccessRule>> map, ArrayList<DependencyEntry> entries) {
+            Map<BundleDescription, Set<AccessRule>> map, Set<DependencyEntry> entries) {
         if (EquinoxResolver.SYSTEM_BUNDLE_SYMBOLIC_NAME.equals(desc.getSymbolicName())) {
             return false;
         }
         List<AccessRule> rules = useInclusions ? getInclusions(map, desc) : null;
-        DependencyEntry entry = new DependencyEntry(desc, rules);
-        if (!entries.contains(entry))
-            entries.add(entry);
+        entries.add(new DependencyEntry(desc, rules));
         return true;
     }
 
-    private List<AccessRule> getInclusions(Map<BundleDescription, ArrayList<AccessRule>> map, BundleDescription desc) {
-        ArrayList<AccessRule> rules;
+    private List<AccessRule> getInclusions(Map<BundleDescription, Set<AccessRule>> map, BundleDescription desc) {
+        Set<AccessRule> rules;
 
         if (desc.getHost() != null)
             rules = map.get((BundleDescription) desc.getHost().getSupplier());
         else
             rules = map.get(desc);
 
-        return rules != null ? rules : new ArrayList<AccessRule>();
+        return rules != null ? new ArrayList<AccessRule>(rules) : new ArrayList<AccessRule>();
     }
 
     private void addHostPlugin(HostSpecification hostSpec, HashSet<BundleDescription> added,
-            Map<BundleDescription, ArrayList<AccessRule>> map, ArrayList<DependencyEntry> entries) {
+            Map<BundleDescription, Set<AccessRule>> map, Set<DependencyEntry> entries) {
         BaseDescription desc = hostSpec.getSupplier();
 
         if (desc instanceof BundleDescription) {
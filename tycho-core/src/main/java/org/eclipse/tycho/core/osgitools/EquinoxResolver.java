@@ -13,10 +13,18 @@ package org.eclipse.tycho.core.osgitools;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Dictionary;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 
 import org.apache.maven.project.MavenProject;
@@ -41,12 +49,51 @@ import org.eclipse.tycho.core.utils.PlatformPropertiesUtils;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.Constants;
 
+/**
+ * Creates resolved Equinox states of bundle projects.
+ * <p>
+ * Parsing bundle manifests into bundle descriptions is expensive, so the descriptions are cached by
+ * platform properties, bundle location and manifest time stamp. Each description gets an id which
+ * is unique across all states, so that copies of cached descriptions can be added to any state. In
+ * addition, the unresolved state with the non-reactor bundles of a target platform is cached per
+ * target platform and platform properties. The states of the projects are created from copies of
+ * this base state.
+ */
 @Component(role = EquinoxResolver.class)
 public class EquinoxResolver {
     public static final String SYSTEM_BUNDLE_SYMBOLIC_NAME = "system.bundle";
 
+    /**
+     * Number of cached base states
+     */
+    private static final int MAX_BASE_STATES = 4;
+
     private static StateObjectFactory factory = StateObjectFactory.defaultFactory;
 
+    private final ConcurrentMap<File, Long> bundleIds = new ConcurrentHashMap<File, Long>();
+
+    // the system bundle has id 0
+    private final AtomicLong nextBundleId = new AtomicLong(1);
+
+    private final Map<List<Object>, State> baseStates = new LinkedHashMap<List<Object>, State>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, State> eldest) {
+            return size() > MAX_BASE_STATES;
+        }
+    };
+
+    private final Map<Map<Object, Object>, BundleDescriptions> bundleDescriptions = new LinkedHashMap<Map<Object, Object>, BundleDescriptions>(
+            16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Map<Object, Object>, BundleDescriptions> eldest) {
+            return size() > MAX_BASE_STATES;
+        }
+    };
+
     @Requirement
     private BundleReader manifestReader;
 
@@ -129,31 +176,94 @@ public class EquinoxResolver {
     }
 
     protected State newState(TargetPlatform platform, Properties properties) throws BundleException {
-        State state = factory.createState(true);
-
-        state.setPlatformProperties(properties);
-
-        // add system bundle
-        state.addBundle(factory.createBundleDescription(state, getSystemBundleManifest(properties), "", 0));
-
-        long id = 1;
-
         // make sure reactor projects override anything from target platform
         // that has the same bundle symbolic name
+        ArrayList<File> bundles = new ArrayList<File>();
         ArrayList<ArtifactDescriptor> projects = new ArrayList<ArtifactDescriptor>();
         for (ArtifactDescriptor artifact : platform.getArtifacts(ArtifactKey.TYPE_ECLIPSE_PLUGIN)) {
             if (artifact.getMavenProject() != null) {
                 projects.add(artifact);
             } else {
-                addBundle(state, id++, artifact.getLocation(), false);
+                bundles.add(artifact.getLocation());
             }
         }
+
+        BundleDescriptions descriptions = getBundleDescriptions(properties);
+        State baseState = getBaseState(bundles, properties, descriptions);
+
+        State state = factory.createState(true);
+        state.setPlatformProperties(properties);
+        for (BundleDescription bundle : baseState.getBundles()) {
+            state.addBundle(factory.createBundleDescription(bundle));
+        }
+
         for (ArtifactDescriptor artifact : projects) {
-            addBundle(state, id++, artifact.getLocation(), true);
+            addBundle(state, descriptions.get(artifact.getLocation()), true);
         }
         return state;
     }
 
+    /**
+     * Returns the unresolved state with the system bundle and the given bundles. The returned state
+     * must not be modified.
+     */
+    private State getBaseState(List<File> bundles, Properties properties, BundleDescriptions descriptions)
+            throws BundleException {
+        List<Object> key = new ArrayList<Object>();
+        key.add(new HashMap<Object, Object>(properties));
+        for (File bundle : bundles) {
+            key.add(bundle);
+            key.add(Long.valueOf(bundle != null ? getManifestTimestamp(bundle) : 0));
+        }
+
+        synchronized (baseStates) {
+            State baseState = baseStates.get(key);
+            if (baseState != null) {
+                return baseState;
+            }
+        }
+
+        State baseState = factory.createState(false);
+        baseState.setPlatformProperties(properties);
+
+        // add system bundle
+        baseState.addBundle(factory.createBundleDescription(baseState, getSystemBundleManifest(properties), "", 0));
+
+        for (File bundle : bundles) {
+            addBundle(baseState, descriptions.get(bundle), false);
+        }
+
+        synchronized (baseStates) {
+            baseStates.put(key, baseState);
+        }
+        return baseState;
+    }
+
+    /**
+     * Returns the cached descriptions for the given platform properties.
+     */
+    private BundleDescriptions getBundleDescriptions(Properties properties) {
+        Map<Object, Object> key = new HashMap<Object, Object>(properties);
+        synchronized (bundleDescriptions) {
+            BundleDescriptions descriptions = bundleDescriptions.get(key);
+            if (descriptions == null) {
+                descriptions = new BundleDescriptions(properties);
+                bundleDescriptions.put(key, descriptions);
+            }
+            return descriptions;
+        }
+    }
+
+    private static long getManifestTimestamp(File bundleLocation) {
+        if (bundleLocation.isDirectory()) {
+            File manifest = new File(bundleLocation, JarFile.MANIFEST_NAME);
+            if (manifest.isFile()) {
+                return manifest.lastModified();
+            }
+        }
+        return bundleLocation.lastModified();
+    }
+
     public void addBundle(State state, long id, File bundleLocation, boolean override) throws BundleException {
         if (bundleLocation == null || !bundleLocation.exists()) {
             throw new IllegalArgumentException("bundleLocation not found: " + bundleLocation);
@@ -163,6 +273,10 @@ public class EquinoxResolver {
 
         BundleDescription descriptor = factory.createBundleDescription(state, mf, bundleLocation.getAbsolutePath(), id);
 
+        addBundle(state, descriptor, override);
+    }
+
+    private void addBundle(State state, BundleDescription descriptor, boolean override) {
         if (override) {
             BundleDescription[] conflicts = state.getBundles(descriptor.getSymbolicName());
             if (conflicts != null) {
@@ -178,6 +292,75 @@ public class EquinoxResolver {
         state.addBundle(descriptor);
     }
 
+    /**
+     * Cached bundle descriptions which have been created with the same platform properties as the
+     * states they are added to.
+     */
+    private class BundleDescriptions {
+        private final ConcurrentMap<File, CachedBundleDescription> descriptions = new ConcurrentHashMap<File, CachedBundleDescription>();
+
+        /**
+         * State which is only used to create the descriptions; the descriptions are never added to
+         * it. Projects may be resolved concurrently, so access to it is synchronized on the state.
+         */
+        private final State factoryState = factory.createState(false);
+
+        BundleDescriptions(Properties properties) {
+            factoryState.setPlatformProperties(properties);
+        }
+
+        /**
+         * Returns a copy of the cached description of the given bundle, which can be added to any
+         * state with the same platform properties.
+         */
+        BundleDescription get(File bundleLocation) throws BundleException {
+            if (bundleLocation == null || !bundleLocation.exists()) {
+                throw new IllegalArgumentException("bundleLocation not found: " + bundleLocation);
+            }
+
+            long timestamp = getManifestTimestamp(bundleLocation);
+            CachedBundleDescription cached = descriptions.get(bundleLocation);
+            if (cached == null || cached.timestamp != timestamp) {
+                Dictionary mf = loadManifest(bundleLocation);
+                BundleDescription description;
+                synchronized (factoryState) {
+                    description = factory.createBundleDescription(factoryState, mf,
+                            bundleLocation.getAbsolutePath(), getBundleId(bundleLocation));
+                }
+                cached = new CachedBundleDescription(timestamp, description);
+                descriptions.put(bundleLocation, cached);
+            }
+            return factory.createBundleDescription(cached.description);
+        }
+    }
+
+    /**
+     * Returns the id of the given bundle location, which is the same for all descriptions of the
+     * location, so that ids remain unique in each state.
+     */
+    private long getBundleId(File bundleLocation) {
+        Long id = bundleIds.get(bundleLocation);
+        if (id == null) {
+            Long newId = Long.valueOf(nextBundleId.getAndIncrement());
+            id = bundleIds.putIfAbsent(bundleLocation, newId);
+            if (id == null) {
+                id = newId;
+            }
+        }
+        return id.longValue();
+    }
+
+    private static class CachedBundleDescription {
+        final long timestamp;
+
+        final BundleDescription description;
+
+        CachedBundleDescription(long timestamp, BundleDescription description) {
+            this.timestamp = timestamp;
+            this.description = description;
+        }
+    }
+
     private Dictionary loadManifest(File bundleLocation) {
         Manifest m = manifestReader.loadManifest(bundleLocation);
         if (m == null) {
@@ -0,0 +1,318 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.core.osgitools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+
+/**
+ * Thread-safe cache of bundle manifests with a bounded number of entries. Entries are validated
+ * against the modification time and length of the file the manifest was read from.
+ * <p>
+ * Manifests of bundle jars can additionally be stored in an append-only journal file, so that
+ * subsequent builds don't need to open the jars again. Each journal record is protected by a
+ * checksum; a corrupt or incomplete record ends the journal. The journal is compacted when it is
+ * loaded and contains many obsolete records.
+ */
+public class ManifestCache {
+
+    public static final String JOURNAL_NAME = "manifests.journal";
+
+    public static final int DEFAULT_MAX_ENTRIES = 20000;
+
+    /**
+     * Upper bound for the length of journal records, used to detect corrupt records
+     */
+    private static final int MAX_RECORD_LENGTH = 16 * 1024 * 1024;
+
+    private final Map<File, Entry> entries;
+
+    private final AtomicInteger hits = new AtomicInteger();
+
+    private final AtomicInteger journalHits = new AtomicInteger();
+
+    private final AtomicInteger misses = new AtomicInteger();
+
+    private File journalFile;
+
+    public ManifestCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public ManifestCache(final int maxEntries) {
+        this.entries = new LinkedHashMap<File, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<File, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Sets the directory of the journal file and loads the journal.
+     */
+    public synchronized void setCacheDir(File cacheDir) {
+        File journalFile = new File(cacheDir, JOURNAL_NAME);
+        if (journalFile.equals(this.journalFile)) {
+            return;
+        }
+        this.journalFile = journalFile;
+
+        try {
+            loadJournal();
+        } catch (IOException e) {
+            // the journal is only an optimization
+            journalFile.delete();
+        }
+    }
+
+    /**
+     * Returns the cached manifest of the given bundle, or <code>null</code> if there is no entry or
+     * if the manifest file has changed since the manifest has been cached.
+     *
+     * @param manifestFile
+     *            the file the manifest is read from, i.e. the jar or manifest file
+     */
+    public Manifest get(File bundleLocation, File manifestFile) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(bundleLocation.getAbsoluteFile());
+        }
+        if (entry != null && entry.matches(manifestFile)) {
+            try {
+                if (entry.fromJournal) {
+                    journalHits.incrementAndGet();
+                }
+                hits.incrementAndGet();
+                return entry.getManifest();
+            } catch (IOException e) {
+                // corrupt journal record
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Caches the manifest of the given bundle.
+     *
+     * @param persistent
+     *            whether the manifest shall also be added to the journal
+     */
+    public void put(File bundleLocation, File manifestFile, Manifest manifest, boolean persistent) {
+        Entry entry = new Entry(manifestFile.lastModified(), manifestFile.length(), manifest);
+        synchronized (this) {
+            entries.put(bundleLocation.getAbsoluteFile(), entry);
+            if (persistent && journalFile != null) {
+                try {
+                    appendToJournal(bundleLocation, entry);
+                } catch (IOException e) {
+                    // the journal is only an optimization
+                }
+            }
+        }
+    }
+
+    public String getStatistics() {
+        int size;
+        synchronized (this) {
+            size = entries.size();
+        }
+        return hits.get() + " hits (" + journalHits.get() + " from disk), " + misses.get() + " misses, " + size
+                + " entries";
+    }
+
+    private void loadJournal() throws IOException {
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+        } catch (FileNotFoundException e) {
+            return;
+        }
+
+        int records = 0;
+        boolean corrupt = false;
+        try {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                long checksum = in.readLong();
+                if (length < 0 || length > MAX_RECORD_LENGTH) {
+                    corrupt = true;
+                    break;
+                }
+                byte[] record = new byte[length];
+                in.readFully(record);
+                if (checksum != getChecksum(record)) {
+                    corrupt = true;
+                    break;
+                }
+
+                DataInputStream recordIn = new DataInputStream(new ByteArrayInputStream(record));
+                File bundleLocation = new File(recordIn.readUTF());
+                long lastModified = recordIn.readLong();
+                long fileLength = recordIn.readLong();
+                byte[] manifest = new byte[recordIn.readInt()];
+                recordIn.readFully(manifest);
+
+                entries.put(bundleLocation, new Entry(lastModified, fileLength, manifest));
+                records++;
+            }
+        } catch (EOFException e) {
+            // incomplete last record
+            corrupt = true;
+        } finally {
+            in.close();
+        }
+
+        if (corrupt || records > 2 * entries.size() + 100) {
+            compactJournal();
+        }
+    }
+
+    private void compactJournal() throws IOException {
+        File tmpFile = new File(journalFile.getParentFile(), journalFile.getName() + ".tmp");
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(tmpFile));
+        try {
+            for (Map.Entry<File, Entry> entry : new ArrayList<Map.Entry<File, Entry>>(entries.entrySet())) {
+                if (entry.getValue().isPersistent()) {
+                    os.write(toRecord(entry.getKey(), entry.getValue()));
+                }
+            }
+        } finally {
+            os.close();
+        }
+        journalFile.delete();
+        if (!tmpFile.renameTo(journalFile)) {
+            tmpFile.delete();
+        }
+    }
+
+    private void appendToJournal(File bundleLocation, Entry entry) throws IOException {
+        byte[] record = toRecord(bundleLocation, entry);
+
+        journalFile.getParentFile().mkdirs();
+        // a single write per record, so that records of concurrent builds are not interleaved
+        OutputStream os = new FileOutputStream(journalFile, true);
+        try {
+            os.write(record);
+        } finally {
+            os.close();
+        }
+    }
+
+    private static byte[] toRecord(File bundleLocation, Entry entry) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeUTF(bundleLocation.getAbsolutePath());
+        out.writeLong(entry.lastModified);
+        out.writeLong(entry.length);
+        byte[] manifest = entry.getManifestBytes();
+        out.writeInt(manifest.length);
+        out.write(manifest);
+        out.flush();
+        byte[] payload = buffer.toByteArray();
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream(payload.length + 12);
+        DataOutputStream recordOut = new DataOutputStream(record);
+        recordOut.writeInt(payload.length);
+        recordOut.writeLong(getChecksum(payload));
+        recordOut.write(payload);
+        recordOut.flush();
+        return record.toByteArray();
+    }
+
+    private static long getChecksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    private static class Entry {
+        final long lastModified;
+
+        final long length;
+
+        final boolean fromJournal;
+
+        private byte[] manifestBytes;
+
+        private Manifest manifest;
+
+        Entry(long lastModified, long length, Manifest manifest) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.manifest = manifest;
+            this.fromJournal = false;
+        }
+
+        Entry(long lastModified, long length, byte[] manifestBytes) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.manifestBytes = manifestBytes;
+            this.fromJournal = true;
+        }
+
+        boolean matches(File manifestFile) {
+            return manifestFile.lastModified() == lastModified && manifestFile.length() == length;
+        }
+
+        /**
+         * Returns true if the entry has been read from or written to the journal.
+         */
+        synchronized boolean isPersistent() {
+            return manifestBytes != null;
+        }
+
+        /**
+         * Returns the manifest, which is parsed on first access for entries read from the journal.
+         */
+        synchronized Manifest getManifest() throws IOException {
+            if (manifest == null) {
+                manifest = new Manifest(new ByteArrayInputStream(manifestBytes));
+            }
+            return manifest;
+        }
+
+        synchronized byte[] getManifestBytes() throws IOException {
+            if (manifestBytes == null) {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                manifest.write(buffer);
+                manifestBytes = buffer.toByteArray();
+            }
+            return manifestBytes;
+        }
+    }
+
+}
@@ -208,17 +208,20 @@ public class OsgiBundleProject extends AbstractTychoProject implements BundlePro
     }
 
     public EclipsePluginProjectImpl getEclipsePluginProject(ReactorProject otherProject) {
-        EclipsePluginProjectImpl pdeProject = (EclipsePluginProjectImpl) otherProject
-                .getContextValue(TychoConstants.CTX_ECLIPSE_PLUGIN_PROJECT);
-        if (pdeProject == null) {
-            try {
-                pdeProject = new EclipsePluginProjectImpl(otherProject);
-                otherProject.setContextValue(TychoConstants.CTX_ECLIPSE_PLUGIN_PROJECT, pdeProject);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+        // other projects may be resolved concurrently, see TychoMavenLifecycleParticipant
+        synchronized (otherProject) {
+            EclipsePluginProjectImpl pdeProject = (EclipsePluginProjectImpl) otherProject
+                    .getContextValue(TychoConstants.CTX_ECLIPSE_PLUGIN_PROJECT);
+            if (pdeProject == null) {
+                try {
+                    pdeProject = new EclipsePluginProjectImpl(otherProject);
+                    otherProject.setContextValue(TychoConstants.CTX_ECLIPSE_PLUGIN_PROJECT, pdeProject);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
             }
+            return pdeProject;
         }
-        return pdeProject;
     }
 
     public List<ClasspathEntry> getClasspath(MavenProject project) {
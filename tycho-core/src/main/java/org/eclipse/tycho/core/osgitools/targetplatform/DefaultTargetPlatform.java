@@ -72,21 +72,25 @@ public class DefaultTargetPlatform implements TargetPlatform {
     public void addArtifact(ArtifactDescriptor artifact) {
         ArtifactKey key = normalizeKey(artifact.getKey());
 
-        ArtifactKey cachedKey = KEY_CACHE.get(key);
-        if (cachedKey != null) {
-            key = cachedKey;
-        } else {
-            KEY_CACHE.put(key, key);
+        synchronized (KEY_CACHE) {
+            ArtifactKey cachedKey = KEY_CACHE.get(key);
+            if (cachedKey != null) {
+                key = cachedKey;
+            } else {
+                KEY_CACHE.put(key, key);
+            }
         }
 
         artifact = normalizeArtifact(artifact);
 
-        ArtifactDescriptor cachedArtifact = ARTIFACT_CACHE.get(key);
-        if (cachedArtifact != null && eq(cachedArtifact.getLocation(), artifact.getLocation())
-                && eq(cachedArtifact.getMavenProject(), artifact.getMavenProject())) {
-            artifact = cachedArtifact;
-        } else {
-            ARTIFACT_CACHE.put(key, artifact);
+        synchronized (ARTIFACT_CACHE) {
+            ArtifactDescriptor cachedArtifact = ARTIFACT_CACHE.get(key);
+            if (cachedArtifact != null && eq(cachedArtifact.getLocation(), artifact.getLocation())
+                    && eq(cachedArtifact.getMavenProject(), artifact.getMavenProject())) {
+                artifact = cachedArtifact;
+            } else {
+                ARTIFACT_CACHE.put(key, artifact);
+            }
         }
 
         artifacts.put(key, artifact);
@@ -0,0 +1,35 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.core.utils;
+
+public class ThreadCountUtils {
+
+    /**
+     * Parses a number of threads, which is either an absolute number or a multiple of the available
+     * cores, e.g. <code>1.5C</code>. The result is at least 1.
+     * 
+     * @param value
+     *            the number of threads, or <code>null</code> for a single thread
+     * @throws NumberFormatException
+     *             if the value is neither a number nor a multiple of the available cores
+     */
+    public static int parseThreadCount(String value) throws NumberFormatException {
+        if (value == null) {
+            return 1;
+        }
+        value = value.trim();
+        if (value.endsWith("C")) {
+            float factor = Float.parseFloat(value.substring(0, value.length() - 1));
+            return Math.max(1, (int) (factor * Runtime.getRuntime().availableProcessors()));
+        }
+        return Math.max(1, Integer.parseInt(value));
+    }
+}
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.core.test;
+
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+
+import org.eclipse.osgi.service.resolver.BundleDescription;
+import org.eclipse.osgi.service.resolver.State;
+import org.eclipse.osgi.service.resolver.StateObjectFactory;
+import org.eclipse.tycho.core.osgitools.DependencyComputer;
+import org.eclipse.tycho.core.osgitools.DependencyComputer.DependencyEntry;
+import org.eclipse.tycho.testing.AbstractTychoMojoTestCase;
+import org.osgi.framework.Constants;
+
+/**
+ * Measures how the classpath computation of {@link DependencyComputer} scales with the number of
+ * bundles and imported packages, in synthetic states with up to 400 bundles exporting 50 packages
+ * each. With linear scaling, the time per package stays roughly the same for all sizes.
+ * <p>
+ * Not run as part of the build; run it with <code>mvn test -Pbenchmark</code> in this project.
+ */
+public class DependencyComputerBenchmark extends AbstractTychoMojoTestCase {
+
+    private static final int ITERATIONS = 5;
+
+    private static final int PACKAGES_PER_BUNDLE = 50;
+
+    private static final int[] BUNDLES = { 25, 50, 100, 200, 400 };
+
+    private DependencyComputer dependencyComputer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        dependencyComputer = lookup(DependencyComputer.class);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        dependencyComputer = null;
+        super.tearDown();
+    }
+
+    public void testComputeDependencies() throws Exception {
+        for (int i = 0; i < ITERATIONS; i++) {
+            for (int bundles : BUNDLES) {
+                run(bundles);
+            }
+        }
+    }
+
+    private void run(int bundles) {
+        State state = newState(bundles);
+        BundleDescription consumer = state.getBundleByLocation("consumer");
+        assertTrue(consumer.isResolved());
+
+        // a new state for each run, so that no cached visible packages are used
+        long start = System.nanoTime();
+        List<DependencyEntry> dependencies = dependencyComputer.computeDependencies(state.getStateHelper(), consumer);
+        long micros = (System.nanoTime() - start) / 1000;
+
+        assertEquals(bundles, dependencies.size());
+        int packages = bundles * PACKAGES_PER_BUNDLE;
+        System.out.println(bundles + " bundles, " + packages + " packages: " + micros / 1000 + " ms, "
+                + micros / packages + " us per package");
+    }
+
+    private static State newState(int bundles) {
+        StateObjectFactory factory = StateObjectFactory.defaultFactory;
+        State state = factory.createState(true);
+        StringBuilder imports = new StringBuilder();
+        for (int i = 0; i < bundles; i++) {
+            StringBuilder exports = new StringBuilder();
+            for (int j = 0; j < PACKAGES_PER_BUNDLE; j++) {
+                String packageName = "p" + i + ".q" + j;
+                exports.append(j > 0 ? "," : "").append(packageName);
+                imports.append(imports.length() > 0 ? "," : "").append(packageName);
+            }
+            state.addBundle(factory.createBundleDescription(state, newManifest("b" + i, exports.toString(), null),
+                    "b" + i, i + 1));
+        }
+        state.addBundle(factory.createBundleDescription(state, newManifest("consumer", null, imports.toString()),
+                "consumer", bundles + 1));
+        state.resolve(false);
+        return state;
+    }
+
+    private static Dictionary<String, String> newManifest(String symbolicName, String exports, String imports) {
+        Dictionary<String, String> manifest = new Hashtable<String, String>();
+        manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+        manifest.put(Constants.BUNDLE_SYMBOLICNAME, symbolicName);
+        manifest.put(Constants.BUNDLE_VERSION, "1.0.0");
+        if (exports != null) {
+            manifest.put(Constants.EXPORT_PACKAGE, exports);
+        }
+        if (imports != null) {
+            manifest.put(Constants.IMPORT_PACKAGE, imports);
+        }
+        return manifest;
+    }
+}
@@ -11,6 +11,8 @@
 package org.eclipse.tycho.core.test;
 
 import java.io.File;
+import java.util.Dictionary;
+import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
 
@@ -19,6 +21,7 @@ import org.apache.maven.execution.MavenExecutionResult;
 import org.apache.maven.project.MavenProject;
 import org.eclipse.osgi.service.resolver.BundleDescription;
 import org.eclipse.osgi.service.resolver.State;
+import org.eclipse.osgi.service.resolver.StateObjectFactory;
 import org.eclipse.tycho.core.TargetPlatform;
 import org.eclipse.tycho.core.TychoConstants;
 import org.eclipse.tycho.core.osgitools.DependencyComputer;
@@ -28,6 +31,7 @@ import org.eclipse.tycho.core.utils.MavenSessionUtils;
 import org.eclipse.tycho.testing.AbstractTychoMojoTestCase;
 import org.junit.Assert;
 import org.junit.Test;
+import org.osgi.framework.Constants;
 
 public class DependencyComputerTest extends AbstractTychoMojoTestCase {
     private DependencyComputer dependencyComputer;
@@ -79,4 +83,55 @@ public class DependencyComputerTest extends AbstractTychoMojoTestCase {
 
         Assert.assertEquals(0, result.getProject().getDependencies().size());
     }
+
+    @Test
+    public void testAccessRulesOfManyImportedPackages() throws Exception {
+        // 200 bundles exporting 50 packages each, all imported by one bundle; every package must end up
+        // in the access rules of its exporter
+        int bundles = 200;
+        int packages = 50;
+
+        StateObjectFactory factory = StateObjectFactory.defaultFactory;
+        State state = factory.createState(true);
+        StringBuilder imports = new StringBuilder();
+        for (int i = 0; i < bundles; i++) {
+            StringBuilder exports = new StringBuilder();
+            for (int j = 0; j < packages; j++) {
+                String packageName = "p" + i + ".q" + j;
+                exports.append(j > 0 ? "," : "").append(packageName);
+                imports.append(imports.length() > 0 ? "," : "").append(packageName);
+            }
+            state.addBundle(factory.createBundleDescription(state, newManifest("b" + i, exports.toString(), null),
+                    "b" + i, i + 1));
+        }
+        state.addBundle(factory.createBundleDescription(state, newManifest("consumer", null, imports.toString()),
+                "consumer", bundles + 1));
+        state.resolve(false);
+
+        BundleDescription consumer = state.getBundleByLocation("consumer");
+        Assert.assertTrue(consumer.isResolved());
+
+        List<DependencyEntry> dependencies = dependencyComputer.computeDependencies(state.getStateHelper(), consumer);
+        Assert.assertEquals(bundles, dependencies.size());
+        for (DependencyEntry entry : dependencies) {
+            Assert.assertEquals(packages, entry.rules.size());
+        }
+
+        // repeated computations on the same state give the same result
+        Assert.assertEquals(dependencies, dependencyComputer.computeDependencies(state.getStateHelper(), consumer));
+    }
+
+    private static Dictionary<String, String> newManifest(String symbolicName, String exports, String imports) {
+        Dictionary<String, String> manifest = new Hashtable<String, String>();
+        manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+        manifest.put(Constants.BUNDLE_SYMBOLICNAME, symbolicName);
+        manifest.put(Constants.BUNDLE_VERSION, "1.0.0");
+        if (exports != null) {
+            manifest.put(Constants.EXPORT_PACKAGE, exports);
+        }
+        if (imports != null) {
+            manifest.put(Constants.IMPORT_PACKAGE, imports);
+        }
+        return manifest;
+    }
 }
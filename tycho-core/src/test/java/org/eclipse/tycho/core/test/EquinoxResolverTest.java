@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.core.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.eclipse.osgi.service.resolver.State;
+import org.eclipse.osgi.util.ManifestElement;
+import org.eclipse.tycho.ArtifactKey;
+import org.eclipse.tycho.core.osgitools.BundleReader;
+import org.eclipse.tycho.core.osgitools.DefaultArtifactKey;
+import org.eclipse.tycho.core.osgitools.EquinoxResolver;
+import org.eclipse.tycho.core.osgitools.targetplatform.DefaultTargetPlatform;
+import org.eclipse.tycho.testing.AbstractTychoMojoTestCase;
+
+public class EquinoxResolverTest extends AbstractTychoMojoTestCase {
+
+    private File tempDir;
+
+    private File api;
+
+    private File consumer;
+
+    private DefaultTargetPlatform platform;
+
+    private CountingBundleReader bundleReader;
+
+    private EquinoxResolver resolver;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        tempDir = File.createTempFile("resolver", "");
+        tempDir.delete();
+        tempDir.mkdirs();
+
+        api = new File(tempDir, "api");
+        writeManifest(api, "api", "1.0.0", "Export-Package: api\n");
+        consumer = new File(tempDir, "consumer");
+        writeManifest(consumer, "consumer", "1.0.0", "Import-Package: api\n");
+
+        platform = new DefaultTargetPlatform();
+        platform.addArtifactFile(new DefaultArtifactKey(ArtifactKey.TYPE_ECLIPSE_PLUGIN, "api", "1.0.0"), api, null);
+        platform.addArtifactFile(new DefaultArtifactKey(ArtifactKey.TYPE_ECLIPSE_PLUGIN, "consumer", "1.0.0"),
+                consumer, null);
+
+        resolver = lookup(EquinoxResolver.class);
+        bundleReader = new CountingBundleReader(lookup(BundleReader.class));
+        setVariableValueToObject(resolver, "manifestReader", bundleReader);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        resolver = null;
+        bundleReader = null;
+        FileUtils.deleteDirectory(tempDir);
+        super.tearDown();
+    }
+
+    public void testCachedDescriptions() throws Exception {
+        State state = resolver.newResolvedState(consumer, platform);
+        assertEquals(2, bundleReader.loadedManifests);
+        assertTrue(state.getBundleByLocation(api.getAbsolutePath()).isResolved());
+
+        // manifests are unchanged, so neither is parsed again
+        bundleReader.loadedManifests = 0;
+        state = resolver.newResolvedState(consumer, platform);
+        assertEquals(0, bundleReader.loadedManifests);
+        assertEquals("1.0.0", state.getBundleByLocation(api.getAbsolutePath()).getVersion().toString());
+        assertTrue(state.getBundleByLocation(consumer.getAbsolutePath()).isResolved());
+    }
+
+    public void testChangedManifest() throws Exception {
+        resolver.newResolvedState(consumer, platform);
+
+        File manifest = new File(api, JarFile.MANIFEST_NAME);
+        long lastModified = manifest.lastModified();
+        writeManifest(api, "api", "1.1.0", "Export-Package: api\n");
+        manifest.setLastModified(lastModified + 10000);
+
+        // only the changed manifest is parsed again
+        bundleReader.loadedManifests = 0;
+        State state = resolver.newResolvedState(consumer, platform);
+        assertEquals(1, bundleReader.loadedManifests);
+        assertEquals("1.1.0", state.getBundleByLocation(api.getAbsolutePath()).getVersion().toString());
+        assertTrue(state.getBundleByLocation(consumer.getAbsolutePath()).isResolved());
+    }
+
+    private static void writeManifest(File bundle, String symbolicName, String version, String headers)
+            throws IOException {
+        File file = new File(bundle, JarFile.MANIFEST_NAME);
+        file.getParentFile().mkdirs();
+        String manifest = "Manifest-Version: 1.0\n" //
+                + "Bundle-ManifestVersion: 2\n" //
+                + "Bundle-SymbolicName: " + symbolicName + "\n" //
+                + "Bundle-Version: " + version + "\n" //
+                + headers;
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(manifest.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static class CountingBundleReader implements BundleReader {
+        private final BundleReader delegate;
+
+        int loadedManifests;
+
+        CountingBundleReader(BundleReader delegate) {
+            this.delegate = delegate;
+        }
+
+        public synchronized Manifest loadManifest(File bundleLocation) {
+            loadedManifests++;
+            return delegate.loadManifest(bundleLocation);
+        }
+
+        public Properties toProperties(Manifest mf) {
+            return delegate.toProperties(mf);
+        }
+
+        public ManifestElement[] parseHeader(String header, Manifest mf) {
+            return delegate.parseHeader(header, mf);
+        }
+
+        public boolean isDirectoryShape(Manifest mf) {
+            return delegate.isDirectoryShape(mf);
+        }
+
+        public File getEntry(File bundleLocation, String path) {
+            return delegate.getEntry(bundleLocation, path);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.core.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.eclipse.tycho.core.osgitools.ManifestCache;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ManifestCacheTest {
+
+    private File cacheDir;
+
+    private File bundle;
+
+    @Before
+    public void setUp() throws IOException {
+        cacheDir = File.createTempFile("cache", "");
+        cacheDir.delete();
+        cacheDir.mkdirs();
+        bundle = new File(cacheDir, "bundle.jar");
+        writeFile(bundle, "content");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(cacheDir);
+    }
+
+    @Test
+    public void testPersistentEntry() throws IOException {
+        ManifestCache cache = new ManifestCache();
+        cache.setCacheDir(cacheDir);
+        cache.put(bundle, bundle, newManifest("bundle"), true);
+
+        ManifestCache otherCache = new ManifestCache();
+        otherCache.setCacheDir(cacheDir);
+        Manifest manifest = otherCache.get(bundle, bundle);
+        Assert.assertNotNull(manifest);
+        Assert.assertEquals("bundle", manifest.getMainAttributes().getValue("Bundle-SymbolicName"));
+    }
+
+    @Test
+    public void testChangedFile() throws IOException {
+        ManifestCache cache = new ManifestCache();
+        cache.put(bundle, bundle, newManifest("bundle"), false);
+
+        writeFile(bundle, "changed content");
+
+        Assert.assertNull(cache.get(bundle, bundle));
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        File otherBundle = new File(cacheDir, "other.jar");
+        writeFile(otherBundle, "content");
+
+        ManifestCache cache = new ManifestCache(1);
+        cache.put(bundle, bundle, newManifest("bundle"), false);
+        cache.put(otherBundle, otherBundle, newManifest("other"), false);
+
+        Assert.assertNull(cache.get(bundle, bundle));
+        Assert.assertNotNull(cache.get(otherBundle, otherBundle));
+    }
+
+    @Test
+    public void testCorruptJournal() throws IOException {
+        writeFile(new File(cacheDir, ManifestCache.JOURNAL_NAME), "corrupt");
+
+        ManifestCache cache = new ManifestCache();
+        cache.setCacheDir(cacheDir);
+        Assert.assertNull(cache.get(bundle, bundle));
+    }
+
+    private static Manifest newManifest(String symbolicName) {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue("Bundle-SymbolicName", symbolicName);
+        return manifest;
+    }
+
+    private static void writeFile(File file, String content) throws IOException {
+        OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(content.getBytes("UTF-8"));
+        } finally {
+            os.close();
+        }
+    }
+}
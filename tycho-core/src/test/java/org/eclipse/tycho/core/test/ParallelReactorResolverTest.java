@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.core.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Model;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.eclipse.tycho.ReactorProject;
+import org.eclipse.tycho.core.maven.ParallelReactorResolver;
+import org.eclipse.tycho.resolver.DependencyVisitor;
+import org.eclipse.tycho.resolver.TychoDependencyResolver;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParallelReactorResolverTest {
+
+    private static final List<ReactorProject> NO_REACTOR_PROJECTS = Collections.emptyList();
+
+    private final Logger logger = new ConsoleLogger(Logger.LEVEL_DISABLED, "test");
+
+    @Test
+    public void testAllProjectsResolved() throws Exception {
+        List<MavenProject> projects = new ArrayList<MavenProject>();
+        for (int i = 0; i < 20; i++) {
+            projects.add(newProject("p" + i));
+        }
+
+        RecordingResolver resolver = new RecordingResolver(null);
+        new ParallelReactorResolver(resolver, logger, 4).resolveProjects(null, projects, NO_REACTOR_PROJECTS);
+
+        Assert.assertEquals(20, resolver.resolved.size());
+        Assert.assertTrue(resolver.resolved.containsAll(projects));
+    }
+
+    @Test
+    public void testUpstreamProjectsResolvedFirst() throws Exception {
+        MavenProject p1 = newProject("p1");
+        MavenProject p2 = newProject("p2");
+        MavenProject p3 = newProject("p3");
+        addDependency(p2, p1);
+        addDependency(p3, p2);
+
+        List<MavenProject> projects = new ArrayList<MavenProject>();
+        projects.add(p1);
+        projects.add(p2);
+        projects.add(p3);
+
+        RecordingResolver resolver = new RecordingResolver(null);
+        new ParallelReactorResolver(resolver, logger, 3).resolveProjects(null, projects, NO_REACTOR_PROJECTS);
+
+        Assert.assertEquals(projects, resolver.resolved);
+    }
+
+    @Test
+    public void testResolutionFailurePropagated() throws Exception {
+        MavenProject p1 = newProject("p1");
+        MavenProject p2 = newProject("p2");
+        addDependency(p2, p1);
+
+        List<MavenProject> projects = new ArrayList<MavenProject>();
+        projects.add(p1);
+        projects.add(p2);
+
+        RecordingResolver resolver = new RecordingResolver(p1);
+        try {
+            new ParallelReactorResolver(resolver, logger, 2).resolveProjects(null, projects, NO_REACTOR_PROJECTS);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        Assert.assertFalse(resolver.resolved.contains(p2));
+    }
+
+    private static MavenProject newProject(String artifactId) {
+        Model model = new Model();
+        model.setGroupId("test");
+        model.setArtifactId(artifactId);
+        model.setVersion("1.0.0");
+        return new MavenProject(model);
+    }
+
+    private static void addDependency(MavenProject project, MavenProject otherProject) {
+        Dependency dependency = new Dependency();
+        dependency.setGroupId(otherProject.getGroupId());
+        dependency.setArtifactId(otherProject.getArtifactId());
+        dependency.setVersion(otherProject.getVersion());
+        project.getModel().addDependency(dependency);
+    }
+
+    private static class RecordingResolver implements TychoDependencyResolver {
+        final List<MavenProject> resolved = Collections.synchronizedList(new ArrayList<MavenProject>());
+
+        private final MavenProject failingProject;
+
+        RecordingResolver(MavenProject failingProject) {
+            this.failingProject = failingProject;
+        }
+
+        public void setupProject(MavenSession session, MavenProject project, ReactorProject reactorProject) {
+        }
+
+        public void resolveProject(MavenSession session, MavenProject project, List<ReactorProject> reactorProjects) {
+            if (project == failingProject) {
+                throw new IllegalStateException("cannot resolve " + project);
+            }
+            resolved.add(project);
+        }
+
+        public void traverse(MavenProject project, DependencyVisitor visitor) {
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.core.test;
+
+import junit.framework.TestCase;
+
+import org.eclipse.tycho.core.utils.ThreadCountUtils;
+
+public class ThreadCountUtilsTest extends TestCase {
+
+    public void testAbsoluteCount() {
+        assertEquals(1, ThreadCountUtils.parseThreadCount(null));
+        assertEquals(4, ThreadCountUtils.parseThreadCount(" 4 "));
+        assertEquals(1, ThreadCountUtils.parseThreadCount("0"));
+    }
+
+    public void testMultipleOfCores() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        assertEquals(cores, ThreadCountUtils.parseThreadCount("1C"));
+        assertEquals(2 * cores, ThreadCountUtils.parseThreadCount("2.0C"));
+        assertEquals(Math.max(1, cores / 2), ThreadCountUtils.parseThreadCount("0.5C"));
+    }
+
+    public void testInvalidCount() {
+        try {
+            ThreadCountUtils.parseThreadCount("many");
+            fail();
+        } catch (NumberFormatException e) {
+            // expected
+        }
+    }
+}
@@ -11,8 +11,11 @@
 package org.eclipse.tycho.equinox.launching.internal;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedHashMap;
@@ -22,6 +25,8 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.jar.Manifest;
 
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.LegacySupport;
 import org.codehaus.plexus.PlexusContainer;
 import org.codehaus.plexus.archiver.ArchiverException;
 import org.codehaus.plexus.archiver.UnArchiver;
@@ -36,20 +41,31 @@ import org.eclipse.tycho.ArtifactDescriptor;
 import org.eclipse.tycho.ArtifactKey;
 import org.eclipse.tycho.core.TychoConstants;
 import org.eclipse.tycho.core.osgitools.BundleReader;
+import org.eclipse.tycho.core.osgitools.DefaultBundleReader;
 import org.eclipse.tycho.equinox.launching.BundleStartLevel;
 import org.eclipse.tycho.equinox.launching.EquinoxInstallation;
 import org.eclipse.tycho.equinox.launching.EquinoxInstallationDescription;
 import org.eclipse.tycho.equinox.launching.EquinoxInstallationFactory;
 import org.osgi.framework.Constants;
 
+/**
+ * Creates Equinox installations. Bundles which need to be directory-shaped are exploded into a
+ * cache in the local Maven repository, which is shared between installations and builds, see
+ * {@link ExplodedBundleCache}.
+ */
 @Component(role = EquinoxInstallationFactory.class)
 public class DefaultEquinoxInstallationFactory implements EquinoxInstallationFactory {
+    public static final String EXPLODED_BUNDLES_CACHE_PATH = DefaultBundleReader.CACHE_PATH + "/exploded-bundles";
+
     @Requirement
     private PlexusContainer plexus;
 
     @Requirement
     private BundleReader manifestReader;
 
+    @Requirement
+    private LegacySupport buildContext;
+
     @Requirement
     private Logger log;
 
@@ -59,6 +75,7 @@ public class DefaultEquinoxInstallationFactory implements EquinoxInstallationFac
         Map<String, BundleStartLevel> startLevel = description.getBundleStartLevel();
 
         Map<ArtifactKey, File> effective = new LinkedHashMap<ArtifactKey, File>();
+        ExplodedBundleCache cache = getExplodedBundleCache();
 
         for (ArtifactDescriptor artifact : description.getBundles()) {
             ArtifactKey key = artifact.getKey();
@@ -69,11 +86,17 @@ public class DefaultEquinoxInstallationFactory implements EquinoxInstallationFac
 
             if (!file.isDirectory() && directoryShape) {
                 String filename = key.getId() + "_" + key.getVersion();
-                File unpacked = new File(location, "plugins/" + filename);
-
-                unpacked.mkdirs();
-
-                unpack(file, unpacked);
+                File unpacked;
+                if (cache != null) {
+                    try {
+                        unpacked = cache.getExplodedBundle(filename, file);
+                    } catch (IOException e) {
+                        throw new RuntimeException("Could not explode bundle " + file, e);
+                    }
+                } else {
+                    unpacked = new File(location, "plugins/" + filename);
+                    unpackIfModified(file, unpacked);
+                }
 
                 effective.put(key, unpacked);
             } else {
@@ -128,11 +151,16 @@ public class DefaultEquinoxInstallationFactory implements EquinoxInstallationFac
             }
 
             new File(location, "configuration").mkdir();
-            FileOutputStream fos = new FileOutputStream(new File(location, TychoConstants.CONFIG_INI_PATH));
-            try {
-                p.store(fos, null);
-            } finally {
-                fos.close();
+            File configIni = new File(location, TychoConstants.CONFIG_INI_PATH);
+            if (!p.equals(loadProperties(configIni))) {
+                FileOutputStream fos = new FileOutputStream(configIni);
+                try {
+                    p.store(fos, null);
+                } finally {
+                    fos.close();
+                }
+            } else {
+                log.debug("Equinox configuration " + configIni + " is up to date");
             }
 
             return new DefaultEquinoxInstallation(description, location);
@@ -141,6 +169,64 @@ public class DefaultEquinoxInstallationFactory implements EquinoxInstallationFac
         }
     }
 
+    private ExplodedBundleCache getExplodedBundleCache() {
+        MavenSession session = buildContext.getSession();
+        if (session == null || session.getLocalRepository() == null) {
+            return null;
+        }
+        File cacheDir = new File(session.getLocalRepository().getBasedir(), EXPLODED_BUNDLES_CACHE_PATH);
+        return new ExplodedBundleCache(cacheDir) {
+            @Override
+            protected void unpack(File source, File destination) {
+                DefaultEquinoxInstallationFactory.this.unpack(source, destination);
+            }
+        };
+    }
+
+    /**
+     * Unpacks the given jar unless the destination directory is newer than the jar. The jar is
+     * unpacked into a temporary directory which is then renamed, so that a partially unpacked jar is
+     * never taken for up-to-date.
+     */
+    private void unpackIfModified(File source, File destination) {
+        if (destination.isDirectory() && destination.lastModified() >= source.lastModified()) {
+            return;
+        }
+        File tmpDir = new File(destination.getParentFile(), destination.getName() + ".tmp" + System.nanoTime());
+        try {
+            unpack(source, tmpDir);
+            FileUtils.deleteDirectory(destination);
+            if (!tmpDir.renameTo(destination)) {
+                throw new IOException("Could not rename " + tmpDir + " to " + destination);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not unpack " + source + " to " + destination, e);
+        } finally {
+            if (tmpDir.exists()) {
+                try {
+                    FileUtils.deleteDirectory(tmpDir);
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private static Properties loadProperties(File file) throws IOException {
+        Properties properties = new Properties();
+        try {
+            InputStream is = new FileInputStream(file);
+            try {
+                properties.load(is);
+            } finally {
+                is.close();
+            }
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        return properties;
+    }
+
     protected void unpack(File source, File destination) {
         UnArchiver unzip;
         try {
@@ -175,7 +261,7 @@ public class DefaultEquinoxInstallationFactory implements EquinoxInstallationFac
 
             File bundleDir = new File(location, "plugins/" + id[0].getValue() + "_" + version[0].getValue());
             if (bundleFile.isFile()) {
-                unpack(bundleFile, bundleDir);
+                unpackIfModified(bundleFile, bundleDir);
             } else {
                 FileUtils.copyDirectoryStructure(bundleFile, bundleDir);
             }
@@ -0,0 +1,367 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.equinox.launching.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.eclipse.tycho.core.facade.FileChecksums;
+
+/**
+ * Cache of exploded bundle jars, shared between Equinox installations and builds. The cache is
+ * content-addressed, i.e. bundle jars with the same checksum are only exploded once.
+ * <p>
+ * Each entry is a directory <code>&lt;id&gt;_&lt;version&gt;_&lt;sha1&gt;</code> which contains the
+ * exploded bundle and a listing of its files. Entries are unpacked into a temporary directory which
+ * is renamed when complete, so that partially unpacked bundles are never used. Entries which no
+ * longer match their listing, e.g. because tests have modified files of the exploded bundle, are
+ * replaced. Entries of a bundle which have not been used for a day are deleted when a new entry of
+ * the bundle is created, so that rebuilt bundles don't accumulate in the cache.
+ * <p>
+ * Installations reference the entries in place, so an entry must not be replaced or deleted while
+ * a build uses it. Each entry has a lock file <code>&lt;entry&gt;.lock</code>. A build holds a shared
+ * lock on the entries it uses until it ends, and entries are only created, replaced or deleted under
+ * an exclusive lock. If a modified entry is in use, the jar is exploded into an alternative entry
+ * <code>&lt;id&gt;_&lt;version&gt;_&lt;sha1&gt;-&lt;n&gt;</code> instead. Lock files are never deleted,
+ * because builds which are about to lock them would then lock a different file than later builds.
+ */
+abstract class ExplodedBundleCache {
+
+    static final long MAX_UNUSED_MILLIS = 24L * 60 * 60 * 1000;
+
+    /**
+     * Number of entries of a bundle jar, for the case that entries are modified while in use
+     */
+    private static final int MAX_ENTRIES_PER_JAR = 20;
+
+    private static final String CONTENTS_FILE = "contents.properties";
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final String LOCK_SUFFIX = ".lock";
+
+    /**
+     * Locks of the entries of all caches in this JVM, by canonical lock file. A JVM must hold at
+     * most one lock on a file.
+     */
+    private static final Map<File, EntryLock> LOCKS = new HashMap<File, EntryLock>();
+
+    private enum EntryState {
+        IN_USE, EXISTING, CREATED
+    }
+
+    private final File cacheDir;
+
+    ExplodedBundleCache(File cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * Unpacks the given bundle jar into the given directory.
+     */
+    protected abstract void unpack(File source, File destination);
+
+    /**
+     * Returns the exploded copy of the given bundle jar, which is unpacked if it is not yet in the
+     * cache or if the cached copy has been modified. The returned directory is locked until the JVM
+     * exits.
+     * 
+     * @param filename
+     *            the name of the exploded bundle directory, i.e. <code>&lt;id&gt;_&lt;version&gt;</code>
+     */
+    public File getExplodedBundle(String filename, File file) throws IOException {
+        String entryName = filename + "_" + FileChecksums.getSHA1(file);
+        for (int i = 0; i < MAX_ENTRIES_PER_JAR; i++) {
+            File entry = new File(cacheDir, i == 0 ? entryName : entryName + "-" + i);
+            EntryState state = use(entry, filename, file);
+            if (state != EntryState.IN_USE) {
+                if (state == EntryState.CREATED) {
+                    deleteUnusedEntries(filename);
+                }
+                return new File(entry, filename);
+            }
+        }
+        throw new IOException("All cache entries of " + file + " in " + cacheDir
+                + " have been modified while being in use");
+    }
+
+    /**
+     * Locks the given entry for use, and creates or replaces it if necessary.
+     * 
+     * @return {@link EntryState#IN_USE} if the entry has been modified, but can't be replaced
+     *         because it is in use
+     */
+    private EntryState use(File entry, String filename, File file) throws IOException {
+        EntryLock lock = getLock(entry);
+        synchronized (lock) {
+            if (lock.isHeld()) {
+                // used by this JVM
+                return isUnmodified(entry, filename) ? EntryState.EXISTING : EntryState.IN_USE;
+            }
+
+            // waits while another build creates, replaces or deletes the entry
+            lock.lockShared();
+            if (isUnmodified(entry, filename)) {
+                // marks the entry as used
+                entry.setLastModified(System.currentTimeMillis());
+                return EntryState.EXISTING;
+            }
+
+            lock.release();
+            if (!lock.tryLockExclusive()) {
+                // another build uses the entry, or is creating it
+                lock.lockShared();
+                if (isUnmodified(entry, filename)) {
+                    return EntryState.EXISTING;
+                }
+                lock.release();
+                return EntryState.IN_USE;
+            }
+            try {
+                // may have been replaced by another build in the meantime
+                if (!isUnmodified(entry, filename)) {
+                    if (entry.exists()) {
+                        delete(entry);
+                    }
+                    create(entry, filename, file);
+                }
+            } finally {
+                lock.release();
+            }
+            lock.lockShared();
+            return EntryState.CREATED;
+        }
+    }
+
+    private void create(File entry, String filename, File file) throws IOException {
+        File tmpDir = newTmpDir(entry);
+        try {
+            unpack(file, new File(tmpDir, filename));
+            writeContents(new File(tmpDir, filename), new File(tmpDir, CONTENTS_FILE));
+            if (!tmpDir.renameTo(entry)) {
+                throw new IOException("Could not rename " + tmpDir + " to " + entry);
+            }
+        } finally {
+            if (tmpDir.exists()) {
+                // unpacking failed
+                deleteQuietly(tmpDir);
+            }
+        }
+    }
+
+    private File newTmpDir(File entry) {
+        return new File(cacheDir, entry.getName() + TMP_SUFFIX + System.nanoTime());
+    }
+
+    /**
+     * Deletes the given entry, which must be locked exclusively or be a temporary directory. The
+     * entry is renamed first, so that a partially deleted entry never has the name of an entry.
+     */
+    private void delete(File entry) throws IOException {
+        File tmpDir = newTmpDir(entry);
+        if (!entry.renameTo(tmpDir)) {
+            throw new IOException("Could not rename " + entry + " to " + tmpDir);
+        }
+        deleteQuietly(tmpDir);
+    }
+
+    /**
+     * Deletes the entries of the given bundle which have not been used for some time, unless they
+     * are in use.
+     */
+    private void deleteUnusedEntries(String filename) {
+        Pattern entryName = Pattern.compile(Pattern.quote(filename) + "_[0-9a-f]{40}(-\\d+)?");
+        Pattern tmpName = Pattern.compile(entryName.pattern() + Pattern.quote(TMP_SUFFIX) + "\\d+");
+        long unusedSince = System.currentTimeMillis() - MAX_UNUSED_MILLIS;
+        File[] files = cacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (!file.isDirectory() || file.lastModified() >= unusedSince) {
+                continue;
+            }
+            try {
+                if (tmpName.matcher(file.getName()).matches()) {
+                    // left behind by a build which has been killed
+                    delete(file);
+                } else if (entryName.matcher(file.getName()).matches()) {
+                    deleteIfUnlocked(file);
+                }
+            } catch (IOException e) {
+                // deleted with the next entry of the bundle
+            }
+        }
+    }
+
+    private void deleteIfUnlocked(File entry) throws IOException {
+        EntryLock lock = getLock(entry);
+        synchronized (lock) {
+            if (lock.isHeld() || !lock.tryLockExclusive()) {
+                return;
+            }
+            try {
+                if (entry.isDirectory()) {
+                    delete(entry);
+                }
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    private EntryLock getLock(File entry) throws IOException {
+        File lockFile = new File(cacheDir, entry.getName() + LOCK_SUFFIX).getCanonicalFile();
+        synchronized (LOCKS) {
+            EntryLock lock = LOCKS.get(lockFile);
+            if (lock == null) {
+                lock = new EntryLock(lockFile);
+                LOCKS.put(lockFile, lock);
+            }
+            return lock;
+        }
+    }
+
+    /**
+     * Releases the locks of all entries used by this JVM. Only for tests, which simulate other
+     * builds this way.
+     */
+    static void releaseLocks() {
+        synchronized (LOCKS) {
+            for (EntryLock lock : LOCKS.values()) {
+                synchronized (lock) {
+                    lock.close();
+                }
+            }
+            LOCKS.clear();
+        }
+    }
+
+    private static void deleteQuietly(File dir) {
+        try {
+            FileUtils.deleteDirectory(dir);
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    private static void writeContents(File bundleDir, File contentsFile) throws IOException {
+        Properties contents = new Properties();
+        listContents(bundleDir, "", contents);
+        OutputStream os = new FileOutputStream(contentsFile);
+        try {
+            contents.store(os, null);
+        } finally {
+            os.close();
+        }
+    }
+
+    private static boolean isUnmodified(File entry, String filename) throws IOException {
+        File contentsFile = new File(entry, CONTENTS_FILE);
+        if (!contentsFile.isFile()) {
+            return false;
+        }
+        Properties expected = new Properties();
+        InputStream is = new FileInputStream(contentsFile);
+        try {
+            expected.load(is);
+        } finally {
+            is.close();
+        }
+        Properties actual = new Properties();
+        listContents(new File(entry, filename), "", actual);
+        return expected.equals(actual);
+    }
+
+    /**
+     * Adds the length and modification time of each file in the given directory, by relative path.
+     */
+    private static void listContents(File dir, String prefix, Properties contents) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String path = prefix + file.getName();
+            if (file.isDirectory()) {
+                listContents(file, path + "/", contents);
+            } else {
+                contents.setProperty(path, file.length() + ":" + file.lastModified());
+            }
+        }
+    }
+
+    /**
+     * File lock of a cache entry. Access is synchronized on the instance.
+     */
+    private static final class EntryLock {
+        private final File file;
+
+        private RandomAccessFile raf;
+
+        private FileLock lock;
+
+        EntryLock(File file) {
+            this.file = file;
+        }
+
+        boolean isHeld() {
+            return lock != null;
+        }
+
+        void lockShared() throws IOException {
+            lock = open().getChannel().lock(0, Long.MAX_VALUE, true);
+        }
+
+        boolean tryLockExclusive() throws IOException {
+            lock = open().getChannel().tryLock();
+            return lock != null;
+        }
+
+        void release() throws IOException {
+            if (lock != null) {
+                lock.release();
+                lock = null;
+            }
+        }
+
+        void close() {
+            try {
+                release();
+                if (raf != null) {
+                    raf.close();
+                }
+            } catch (IOException e) {
+                // released when the JVM exits
+            }
+            raf = null;
+        }
+
+        private RandomAccessFile open() throws IOException {
+            if (raf == null) {
+                file.getParentFile().mkdirs();
+                raf = new RandomAccessFile(file, "rw");
+            }
+            return raf;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.equinox.launching.internal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+public class ExplodedBundleCacheTest extends TestCase {
+
+    private File basedir;
+
+    private File cacheDir;
+
+    private int unpacked;
+
+    private boolean failUnpack;
+
+    @Override
+    protected void setUp() throws Exception {
+        ExplodedBundleCache.releaseLocks();
+        basedir = new File("target/ExplodedBundleCacheTest").getAbsoluteFile();
+        FileUtils.deleteDirectory(basedir);
+        cacheDir = new File(basedir, "cache");
+        cacheDir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ExplodedBundleCache.releaseLocks();
+    }
+
+    public void testBundleIsOnlyUnpackedOnce() throws Exception {
+        File jar = createJar("bundle.jar", "content");
+
+        File first = newCache().getExplodedBundle("bundle_1.0.0", jar);
+        File second = newCache().getExplodedBundle("bundle_1.0.0", jar);
+
+        assertEquals(first, second);
+        assertEquals("content", FileUtils.fileRead(new File(first, "file.txt")));
+        assertEquals(1, unpacked);
+    }
+
+    public void testPartialUnpackIsNotUsed() throws Exception {
+        File jar = createJar("bundle.jar", "content");
+
+        failUnpack = true;
+        try {
+            newCache().getExplodedBundle("bundle_1.0.0", jar);
+            fail();
+        } catch (RuntimeException e) {
+            // expected
+        }
+        // only the lock file of the entry remains
+        String[] files = cacheDir.list();
+        assertEquals(1, files.length);
+        assertTrue(files[0], files[0].endsWith(".lock"));
+
+        failUnpack = false;
+        File bundleDir = newCache().getExplodedBundle("bundle_1.0.0", jar);
+        assertEquals("content", FileUtils.fileRead(new File(bundleDir, "file.txt")));
+    }
+
+    public void testModifiedBundleIsUnpackedAgain() throws Exception {
+        File jar = createJar("bundle.jar", "content");
+        File bundleDir = newCache().getExplodedBundle("bundle_1.0.0", jar);
+
+        // e.g. a test writing into its bundle
+        FileUtils.fileWrite(new File(bundleDir, "file.txt").getAbsolutePath(), "modified content");
+        FileUtils.fileWrite(new File(bundleDir, "added.txt").getAbsolutePath(), "added");
+
+        // the build which has used the entry has ended
+        ExplodedBundleCache.releaseLocks();
+        File replacedDir = newCache().getExplodedBundle("bundle_1.0.0", jar);
+        assertEquals(bundleDir, replacedDir);
+        assertEquals("content", FileUtils.fileRead(new File(replacedDir, "file.txt")));
+        assertFalse(new File(replacedDir, "added.txt").exists());
+        assertEquals(2, unpacked);
+    }
+
+    public void testModifiedBundleInUseIsNotReplaced() throws Exception {
+        File jar = createJar("bundle.jar", "content");
+        File bundleDir = newCache().getExplodedBundle("bundle_1.0.0", jar);
+
+        FileUtils.fileWrite(new File(bundleDir, "file.txt").getAbsolutePath(), "modified content");
+
+        // the modified entry is still in use, so the bundle is unpacked into another entry
+        File otherDir = newCache().getExplodedBundle("bundle_1.0.0", jar);
+        assertFalse(bundleDir.equals(otherDir));
+        assertEquals("modified content", FileUtils.fileRead(new File(bundleDir, "file.txt")));
+        assertEquals("content", FileUtils.fileRead(new File(otherDir, "file.txt")));
+        assertEquals(2, unpacked);
+
+        // the other entry is reused
+        assertEquals(otherDir, newCache().getExplodedBundle("bundle_1.0.0", jar));
+        assertEquals(2, unpacked);
+    }
+
+    public void testUnusedEntriesOfRebuiltBundleAreDeleted() throws Exception {
+        File jar = createJar("bundle.jar", "old content");
+        File oldEntry = newCache().getExplodedBundle("bundle_1.0.0", jar).getParentFile();
+        oldEntry.setLastModified(System.currentTimeMillis() - 2 * ExplodedBundleCache.MAX_UNUSED_MILLIS);
+        File otherJar = createJar("other.jar", "other content");
+        File otherEntry = newCache().getExplodedBundle("other_1.0.0", otherJar).getParentFile();
+        otherEntry.setLastModified(System.currentTimeMillis() - 2 * ExplodedBundleCache.MAX_UNUSED_MILLIS);
+
+        ExplodedBundleCache.releaseLocks();
+        jar = createJar("bundle.jar", "rebuilt content");
+        File newEntry = newCache().getExplodedBundle("bundle_1.0.0", jar).getParentFile();
+
+        assertTrue(newEntry.isDirectory());
+        assertFalse(oldEntry.exists());
+        // only entries of the same bundle are deleted
+        assertTrue(otherEntry.isDirectory());
+    }
+
+    public void testUnusedEntriesInUseAreKept() throws Exception {
+        File jar = createJar("bundle.jar", "old content");
+        File oldEntry = newCache().getExplodedBundle("bundle_1.0.0", jar).getParentFile();
+        oldEntry.setLastModified(System.currentTimeMillis() - 2 * ExplodedBundleCache.MAX_UNUSED_MILLIS);
+
+        // e.g. a long-running test runtime of this build still uses the old entry
+        jar = createJar("bundle.jar", "rebuilt content");
+        newCache().getExplodedBundle("bundle_1.0.0", jar);
+
+        assertTrue(oldEntry.isDirectory());
+    }
+
+    public void testRecentlyUsedEntriesOfRebuiltBundleAreKept() throws Exception {
+        File jar = createJar("bundle.jar", "old content");
+        File oldEntry = newCache().getExplodedBundle("bundle_1.0.0", jar).getParentFile();
+
+        jar = createJar("bundle.jar", "rebuilt content");
+        newCache().getExplodedBundle("bundle_1.0.0", jar);
+
+        assertTrue(oldEntry.isDirectory());
+    }
+
+    private ExplodedBundleCache newCache() {
+        return new ExplodedBundleCache(cacheDir) {
+            @Override
+            protected void unpack(File source, File destination) {
+                try {
+                    extract(source, destination);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                if (failUnpack) {
+                    throw new RuntimeException("Unpacking failed");
+                }
+                unpacked++;
+            }
+        };
+    }
+
+    private File createJar(String name, String content) throws IOException {
+        File jar = new File(basedir, name);
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(jar));
+        try {
+            zos.putNextEntry(new ZipEntry("file.txt"));
+            zos.write(content.getBytes("UTF-8"));
+            zos.closeEntry();
+        } finally {
+            zos.close();
+        }
+        return jar;
+    }
+
+    private static void extract(File jar, File destination) throws IOException {
+        ZipFile zip = new ZipFile(jar);
+        try {
+            ZipEntry entry = zip.getEntry("file.txt");
+            destination.mkdirs();
+            FileOutputStream os = new FileOutputStream(new File(destination, entry.getName()));
+            try {
+                IOUtil.copy(zip.getInputStream(entry), os);
+            } finally {
+                os.close();
+            }
+        } finally {
+            zip.close();
+        }
+    }
+}
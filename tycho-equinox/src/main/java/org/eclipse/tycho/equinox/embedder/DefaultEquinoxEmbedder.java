@@ -11,14 +11,27 @@
 package org.eclipse.tycho.equinox.embedder;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.codehaus.plexus.component.annotations.Component;
 import org.codehaus.plexus.component.annotations.Requirement;
 import org.codehaus.plexus.logging.AbstractLogEnabled;
+import org.codehaus.plexus.personality.plexus.lifecycle.phase.Disposable;
 import org.eclipse.core.runtime.adaptor.EclipseStarter;
+import org.eclipse.tycho.core.facade.FileChecksums;
 import org.eclipse.tycho.equinox.EquinoxRuntimeLocator;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -27,8 +40,33 @@ import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceReference;
 import org.osgi.service.packageadmin.PackageAdmin;
 
+/**
+ * Starts an embedded Equinox framework with the Tycho OSGi runtime. The framework configuration
+ * area, which holds the resolved state of the framework, is kept per distinct set of runtime
+ * bundles, so that subsequent builds with the same runtime don't need to install and resolve the
+ * bundles again. A build holds a shared lock on its configuration area until the framework is shut
+ * down, so that concurrent builds only prune areas which are not in use.
+ * <p>
+ * Bundles are started according to their activation policy, i.e. bundles with lazy activation
+ * policy are only activated when their classes are first used. Declarative services and the
+ * bundles which declare service components are started eagerly, like in the Tycho p2 runtime
+ * product, so that the components are registered.
+ */
 @Component(role = EquinoxEmbedder.class)
-public class DefaultEquinoxEmbedder extends AbstractLogEnabled implements EquinoxEmbedder {
+public class DefaultEquinoxEmbedder extends AbstractLogEnabled implements EquinoxEmbedder, Disposable {
+    /**
+     * Number of configuration areas which are kept for different sets of runtime bundles
+     */
+    private static final int MAX_CONFIGURATIONS = 5;
+
+    private static final String CONFIGURATION_LOCK = ".tycho.lock";
+
+    /**
+     * Bundles which are started eagerly, regardless of their activation policy
+     */
+    private static final Set<String> EAGER_BUNDLES = new HashSet<String>(Arrays.asList("org.eclipse.equinox.common",
+            "org.eclipse.equinox.ds", "org.eclipse.core.runtime"));
+
     @Requirement(role = EquinoxLifecycleListener.class)
     private Map<String, EquinoxLifecycleListener> lifecycleListeners;
 
@@ -39,6 +77,13 @@ public class DefaultEquinoxEmbedder extends AbstractLogEnabled implements Equino
 
     private String[] nonFrameworkArgs;
 
+    private String startupStatistics;
+
+    /**
+     * Shared lock on the configuration area in use, held until the framework is shut down
+     */
+    private FileLock configurationLock;
+
     public synchronized void start() throws Exception {
         if (frameworkContext != null) {
             return;
@@ -59,6 +104,7 @@ public class DefaultEquinoxEmbedder extends AbstractLogEnabled implements Equino
     }
 
     protected void doStart() throws Exception {
+        long start = System.currentTimeMillis();
         List<File> locations = equinoxLocator.getRuntimeLocations();
 
         if (locations == null || locations.isEmpty() || !locations.get(0).isDirectory()) {
@@ -70,21 +116,30 @@ public class DefaultEquinoxEmbedder extends AbstractLogEnabled implements Equino
 
         System.setProperty("osgi.framework.useSystemProperties", "false"); //$NON-NLS-1$ //$NON-NLS-2$
 
-        Map<String, String> properties = new HashMap<String, String>();
-        properties.put("osgi.install.area", frameworkLocation);
-        properties.put("osgi.syspath", frameworkLocation + "/plugins");
-        properties.put("osgi.configuration.area", frameworkLocation + "/configuration");
-
         StringBuilder bundles = new StringBuilder();
-        addBundlesDir(bundles, new File(frameworkDir, "plugins").listFiles(), false);
+        List<File> bundleFiles = new ArrayList<File>();
+        addBundlesDir(bundles, bundleFiles, new File(frameworkDir, "plugins").listFiles(), false);
         for (int i = 1; i < locations.size(); i++) {
             File location = locations.get(i);
             if (location.isDirectory()) {
-                addBundlesDir(bundles, location.listFiles(), true);
+                addBundlesDir(bundles, bundleFiles, location.listFiles(), true);
             } else {
                 bundles.append(',').append(getReferenceUrl(location));
+                bundleFiles.add(location);
             }
         }
+
+        File configurationsDir = new File(frameworkDir, "configurations");
+        File configurationDir = new File(configurationsDir, getConfigurationKey(bundles.toString(), bundleFiles));
+        configurationLock = lockConfiguration(configurationDir);
+        // marks the configuration area as recently used
+        configurationDir.setLastModified(System.currentTimeMillis());
+        pruneConfigurations(configurationsDir, configurationDir);
+
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put("osgi.install.area", frameworkLocation);
+        properties.put("osgi.syspath", frameworkLocation + "/plugins");
+        properties.put("osgi.configuration.area", configurationDir.getAbsolutePath());
         properties.put("osgi.bundles", bundles.toString());
 
         // this tells framework to use our classloader as parent, so it can see classes that we see
@@ -113,12 +168,14 @@ public class DefaultEquinoxEmbedder extends AbstractLogEnabled implements Equino
         // TODO switch to org.eclipse.osgi.launch.Equinox
         // EclipseStarter is not helping here
 
+        long frameworkStart = System.currentTimeMillis();
         EclipseStarter.setInitialProperties(properties);
 
         EclipseStarter.startup(nonFrameworkArgs != null ? nonFrameworkArgs : new String[0], null);
 
         frameworkContext = EclipseStarter.getSystemBundleContext();
 
+        long bundlesStart = System.currentTimeMillis();
         PackageAdmin packageAdmin = null;
         ServiceReference packageAdminRef = frameworkContext.getServiceReference(PackageAdmin.class.getName());
         if (packageAdminRef != null) {
@@ -132,7 +189,12 @@ public class DefaultEquinoxEmbedder extends AbstractLogEnabled implements Equino
         for (Bundle bundle : frameworkContext.getBundles()) {
             if ((packageAdmin.getBundleType(bundle) & PackageAdmin.BUNDLE_TYPE_FRAGMENT) == 0) {
                 try {
-                    bundle.start();
+                    if (isEagerBundle(bundle)) {
+                        bundle.start();
+                    } else {
+                        // bundles with lazy activation policy are activated on first class load
+                        bundle.start(Bundle.START_ACTIVATION_POLICY);
+                    }
                 } catch (BundleException e) {
                     getLogger().warn("Could not start bundle " + bundle.getSymbolicName(), e);
                 }
@@ -140,17 +202,164 @@ public class DefaultEquinoxEmbedder extends AbstractLogEnabled implements Equino
         }
 
         frameworkContext.ungetService(packageAdminRef);
+
+        long listenersStart = System.currentTimeMillis();
         for (EquinoxLifecycleListener listener : lifecycleListeners.values()) {
             listener.afterFrameworkStarted(this);
         }
+        long end = System.currentTimeMillis();
+
+        startupStatistics = "locating runtime " + (frameworkStart - start) + "ms, framework startup "
+                + (bundlesStart - frameworkStart) + "ms, starting bundles " + (listenersStart - bundlesStart)
+                + "ms, lifecycle listeners " + (end - listenersStart) + "ms, total " + (end - start) + "ms";
+        getLogger().debug("Equinox started: " + startupStatistics);
+    }
+
+    private static boolean isEagerBundle(Bundle bundle) {
+        return EAGER_BUNDLES.contains(bundle.getSymbolicName())
+                || bundle.getHeaders("").get("Service-Component") != null;
+    }
+
+    /**
+     * Returns the durations of the framework startup phases, or <code>null</code> if the framework
+     * has not been started.
+     */
+    public synchronized String getStartupStatistics() {
+        return startupStatistics;
+    }
+
+    /**
+     * Returns a key for the given runtime bundles, which changes when bundles are added, removed
+     * or modified.
+     */
+    private static String getConfigurationKey(String bundles, List<File> bundleFiles) {
+        MessageDigest digest = FileChecksums.newDigest("MD5");
+        StringBuilder input = new StringBuilder(bundles);
+        for (File file : bundleFiles) {
+            input.append('\n').append(file.getAbsolutePath()).append(':').append(file.lastModified()).append(':')
+                    .append(file.length());
+            if (file.isDirectory()) {
+                File manifest = new File(file, "META-INF/MANIFEST.MF");
+                input.append(':').append(manifest.lastModified()).append(':').append(manifest.length());
+            }
+        }
+        try {
+            digest.update(input.toString().getBytes("UTF-8"));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return FileChecksums.toHex(digest.digest());
+    }
+
+    /**
+     * Creates the given configuration area if necessary and acquires a shared lock on it. The lock
+     * prevents that concurrent builds prune the area.
+     */
+    private static FileLock lockConfiguration(File configurationDir) throws IOException {
+        File lockFile = new File(configurationDir, CONFIGURATION_LOCK);
+        while (true) {
+            configurationDir.mkdirs();
+            RandomAccessFile file = new RandomAccessFile(lockFile, "rw");
+            FileLock lock = null;
+            try {
+                lock = file.getChannel().lock(0, Long.MAX_VALUE, true);
+                // a concurrent build may have pruned the area while we were waiting for the lock
+                if (lockFile.isFile()) {
+                    return lock;
+                }
+            } finally {
+                if (lock == null || !lock.isValid() || !lockFile.isFile()) {
+                    file.close();
+                }
+            }
+        }
     }
 
-    private void addBundlesDir(StringBuilder bundles, File[] files, boolean absolute) {
+    /**
+     * Deletes the least recently used configuration areas which are not in use by any build.
+     */
+    private void pruneConfigurations(File configurationsDir, File currentConfiguration) {
+        File[] configurations = configurationsDir.listFiles();
+        if (configurations == null || configurations.length <= MAX_CONFIGURATIONS) {
+            return;
+        }
+        List<File> sorted = new ArrayList<File>(Arrays.asList(configurations));
+        Collections.sort(sorted, new Comparator<File>() {
+            public int compare(File f1, File f2) {
+                long diff = f2.lastModified() - f1.lastModified();
+                return diff > 0 ? 1 : diff < 0 ? -1 : 0;
+            }
+        });
+        for (File configuration : sorted.subList(MAX_CONFIGURATIONS, sorted.size())) {
+            if (configuration.equals(currentConfiguration) || !configuration.isDirectory()) {
+                continue;
+            }
+            try {
+                pruneConfiguration(configuration);
+            } catch (IOException e) {
+                getLogger().debug("Could not delete Equinox configuration area " + configuration, e);
+            }
+        }
+    }
+
+    /**
+     * Deletes the given configuration area unless a build holds a lock on it. Areas without lock
+     * file are kept because it cannot be determined whether they are in use.
+     */
+    private void pruneConfiguration(File configuration) throws IOException {
+        File lockFile = new File(configuration, CONFIGURATION_LOCK);
+        if (!lockFile.isFile()) {
+            return;
+        }
+        File trash = new File(configuration.getParentFile(), configuration.getName() + ".deleted-"
+                + System.currentTimeMillis());
+        RandomAccessFile file = new RandomAccessFile(lockFile, "rw");
+        try {
+            FileLock lock;
+            try {
+                lock = file.getChannel().tryLock();
+            } catch (OverlappingFileLockException e) {
+                // in use in this JVM
+                return;
+            }
+            if (lock == null) {
+                // in use by a concurrent build
+                return;
+            }
+            try {
+                // builds which wait for the lock notice that the area has moved away; on Windows, the
+                // rename fails because the lock file is open, and the area is kept
+                if (!configuration.renameTo(trash)) {
+                    return;
+                }
+            } finally {
+                lock.release();
+            }
+        } finally {
+            file.close();
+        }
+        if (!delete(trash)) {
+            getLogger().debug("Could not delete Equinox configuration area " + trash);
+        }
+    }
+
+    private static boolean delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        return file.delete();
+    }
+
+    private void addBundlesDir(StringBuilder bundles, List<File> bundleFiles, File[] files, boolean absolute) {
         if (files != null) {
             for (File file : files) {
                 if (file.getName().startsWith("org.eclipse.osgi_")) {
                     continue;
                 }
+                bundleFiles.add(file);
 
                 if (bundles.length() > 0) {
                     bundles.append(',');
@@ -211,6 +420,29 @@ public class DefaultEquinoxEmbedder extends AbstractLogEnabled implements Equino
         return clazz.cast(frameworkContext.getService(serviceReferences[0]));
     }
 
+    /**
+     * Shuts down the framework and releases the lock on its configuration area.
+     */
+    public synchronized void dispose() {
+        if (frameworkContext != null) {
+            try {
+                EclipseStarter.shutdown();
+            } catch (Exception e) {
+                getLogger().warn("Could not shut down Equinox", e);
+            }
+            frameworkContext = null;
+        }
+        if (configurationLock != null) {
+            try {
+                // also closes the lock file
+                configurationLock.channel().close();
+            } catch (IOException e) {
+                getLogger().debug("Could not release the lock on the Equinox configuration area", e);
+            }
+            configurationLock = null;
+        }
+    }
+
     public void setNonFrameworkArgs(String[] args) {
         if (frameworkContext != null) {
             throw new IllegalStateException("Cannot set non-framework arguments after the framework was started");
@@ -0,0 +1,43 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.test.surefire;
+
+import java.io.File;
+
+import org.apache.maven.it.VerificationException;
+import org.apache.maven.it.Verifier;
+import org.codehaus.plexus.util.FileUtils;
+import org.eclipse.tycho.test.AbstractTychoIntegrationTest;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestClassTimeoutTest extends AbstractTychoIntegrationTest {
+
+    @Test
+    public void testTimedOutTestClassIsReportedAsFailure() throws Exception {
+        Verifier verifier = getVerifier("/surefire.testClassTimeout");
+        verifier.getSystemProperties().setProperty("tycho.surefire.testClassTimeout", "5");
+        try {
+            verifier.executeGoal("integration-test");
+            Assert.fail();
+        } catch (VerificationException e) {
+            // expected
+        }
+        verifier.verifyTextInLog("Test class bundle.SlowTest did not complete within 5 seconds");
+
+        File reportsDir = new File(verifier.getBasedir(), "target/surefire-reports");
+        String slowReport = FileUtils.fileRead(new File(reportsDir, "TEST-bundle.SlowTest.xml"), "UTF-8");
+        Assert.assertTrue(slowReport.contains("<failure message=\"Test class bundle.SlowTest did not complete"));
+        String quickReport = FileUtils.fileRead(new File(reportsDir, "TEST-bundle.QuickTest.xml"), "UTF-8");
+        Assert.assertFalse(quickReport.contains("<failure"));
+    }
+
+}
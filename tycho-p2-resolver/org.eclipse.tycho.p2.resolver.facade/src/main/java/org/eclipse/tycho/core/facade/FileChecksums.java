@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.core.facade;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * SHA-1 checksums of files, e.g. to key caches by the content of artifacts. Used on the Maven side
+ * and on the OSGi side, so that both compute checksums in the same way and compute them only once
+ * per file.
+ */
+public class FileChecksums {
+
+    /**
+     * Number of memoized checksums
+     */
+    private static final int MAX_CHECKSUMS = 10000;
+
+    /**
+     * Checksums by file, valid as long as the modification time and length of the file don't change.
+     * Only the most recently used checksums are kept; access is synchronized on the map.
+     */
+    private static final Map<File, Checksum> CHECKSUMS = new LinkedHashMap<File, Checksum>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, Checksum> eldest) {
+            return size() > MAX_CHECKSUMS;
+        }
+    };
+
+    /**
+     * Returns the SHA-1 checksum of the content of the given file as hex string. The checksum is
+     * memoized until the file is modified or until the checksums of many other files have been
+     * computed.
+     */
+    public static String getSHA1(File file) throws IOException {
+        File key = file.getAbsoluteFile();
+        long lastModified = file.lastModified();
+        long length = file.length();
+        Checksum checksum;
+        synchronized (CHECKSUMS) {
+            checksum = CHECKSUMS.get(key);
+        }
+        if (checksum != null && checksum.lastModified == lastModified && checksum.length == length) {
+            return checksum.value;
+        }
+
+        MessageDigest digest = newSHA1Digest();
+        InputStream is = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        } finally {
+            is.close();
+        }
+        String value = toHex(digest.digest());
+        synchronized (CHECKSUMS) {
+            CHECKSUMS.put(key, new Checksum(lastModified, length, value));
+        }
+        return value;
+    }
+
+    public static MessageDigest newSHA1Digest() {
+        return newDigest("SHA-1");
+    }
+
+    public static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the given digest as lower case hex string.
+     */
+    public static String toHex(byte[] bytes) {
+        StringBuilder result = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            result.append(Character.forDigit((b >> 4) & 0xf, 16));
+            result.append(Character.forDigit(b & 0xf, 16));
+        }
+        return result.toString();
+    }
+
+    private static final class Checksum {
+        final long lastModified;
+
+        final long length;
+
+        final String value;
+
+        Checksum(long lastModified, long length, String value) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.value = value;
+        }
+    }
+}
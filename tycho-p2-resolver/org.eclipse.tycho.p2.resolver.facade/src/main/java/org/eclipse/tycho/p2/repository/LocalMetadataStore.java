@@ -0,0 +1,376 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.p2.repository;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Store of the content of the p2 metadata (or artifact) XML files of all Tycho projects in the local
+ * Maven repository. Reading the store, which is a single memory-mapped file, is faster than opening
+ * and reading one XML file per project. The store only holds the XML text: the content of each
+ * project is still parsed by p2 when the local repository is loaded, and each XML file is still
+ * checked for modifications.
+ * <p>
+ * The XML files in the local repository remain the source of truth: each entry records the last
+ * modification time and length of its XML file, and is re-read from the XML file if these don't
+ * match. Entries with a wrong checksum are re-read in the same way, and a missing or corrupt store
+ * is rebuilt from the XML files.
+ * <p>
+ * The store is written to a new temporary file which then replaces the old store. Builds which
+ * save the store at the same time are serialized with a file lock.
+ * <p>
+ * File format: magic number, format version, number of entries, followed by the entries. Each entry
+ * consists of the GAV (UTF-8), the modification time and length of the XML file, the length and
+ * CRC-32 checksum of the content of the XML file, and the content itself.
+ * <p>
+ * Instances are thread-safe; the contents of several projects can be requested concurrently.
+ */
+public class LocalMetadataStore {
+
+    public static final String METADATA_STORE_RELPATH = ".meta/p2-local-metadata.xmlstore";
+
+    public static final String ARTIFACTS_STORE_RELPATH = ".meta/p2-artifacts.xmlstore";
+
+    private static final int MAGIC = 0x54504d53;
+
+    private static final int FORMAT_VERSION = 2;
+
+    private static final String ENCODING = "UTF-8";
+
+    /**
+     * On Windows, a file cannot be replaced while it is mapped, and there is no way to unmap a file
+     * explicitly. The store is therefore read into memory there.
+     */
+    private static final boolean MAP_STORE = File.separatorChar != '\\';
+
+    private final File basedir;
+
+    private final File storeFile;
+
+    private final String classifier;
+
+    private final String extension;
+
+    private final Map<GAV, Entry> entries = new LinkedHashMap<GAV, Entry>();
+
+    private boolean dirty;
+
+    public LocalMetadataStore(File basedir, String relpath, String classifier, String extension) {
+        this.basedir = basedir;
+        this.storeFile = new File(basedir, relpath);
+        this.classifier = classifier;
+        this.extension = extension;
+
+        try {
+            read();
+        } catch (FileNotFoundException e) {
+            // store has not been created yet
+            dirty = true;
+        } catch (IOException e) {
+            // corrupt store; rebuild from XML files
+            entries.clear();
+            dirty = true;
+        }
+    }
+
+    public static LocalMetadataStore newMetadataStore(File basedir) {
+        return new LocalMetadataStore(basedir, METADATA_STORE_RELPATH, RepositoryLayoutHelper.CLASSIFIER_P2_METADATA,
+                RepositoryLayoutHelper.EXTENSION_P2_METADATA);
+    }
+
+    public static LocalMetadataStore newArtifactsStore(File basedir) {
+        return new LocalMetadataStore(basedir, ARTIFACTS_STORE_RELPATH, RepositoryLayoutHelper.CLASSIFIER_P2_ARTIFACTS,
+                RepositoryLayoutHelper.EXTENSION_P2_ARTIFACTS);
+    }
+
+    /**
+     * Updates the entries of the given project in the metadata and the artifacts store.
+     */
+    public static void updateProject(File basedir, GAV gav) throws IOException {
+        LocalMetadataStore metadataStore = newMetadataStore(basedir);
+        metadataStore.update(gav);
+        metadataStore.save();
+
+        LocalMetadataStore artifactsStore = newArtifactsStore(basedir);
+        artifactsStore.update(gav);
+        artifactsStore.save();
+    }
+
+    /**
+     * Returns the content of the XML file of the given project. The content is taken from the store
+     * if it is up-to-date, otherwise the XML file is read and the store is updated.
+     *
+     * @throws FileNotFoundException
+     *             if the project has no XML file
+     */
+    public InputStream getContents(GAV gav) throws IOException {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(gav);
+        }
+        if (entry == null || !entry.isUpToDate(getSourceFile(gav)) || !entry.isIntact()) {
+            entry = update(gav);
+            if (entry == null) {
+                throw new FileNotFoundException(getSourceFile(gav).getAbsolutePath());
+            }
+        }
+        return entry.openStream();
+    }
+
+    /**
+     * Re-reads the XML file of the given project into the store. If the XML file does not exist, the
+     * project is removed from the store.
+     */
+    public Entry update(GAV gav) throws IOException {
+        File source = getSourceFile(gav);
+
+        // get the time stamp before reading the content, so that concurrent changes are detected next time
+        long lastModified = source.lastModified();
+        long length = source.length();
+        byte[] content;
+        try {
+            // read without holding the lock, so that several projects can be read concurrently
+            content = readFully(source);
+        } catch (FileNotFoundException e) {
+            synchronized (this) {
+                if (entries.remove(gav) != null) {
+                    dirty = true;
+                }
+            }
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        Entry entry = new Entry(lastModified, length, checksum(buffer), buffer);
+        synchronized (this) {
+            entries.put(gav, entry);
+            dirty = true;
+        }
+        return entry;
+    }
+
+    /**
+     * Writes the store if it has been changed.
+     * 
+     * @throws IOException
+     *             if the store could not be written or replaced, e.g. because another process has
+     *             it open on Windows
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+
+        storeFile.getParentFile().mkdirs();
+        RandomAccessFile lockFile = new RandomAccessFile(new File(storeFile.getParentFile(), storeFile.getName()
+                + ".lock"), "rw");
+        try {
+            // other builds using the same local repository may save the store at the same time
+            FileLock lock = lockFile.getChannel().lock();
+            try {
+                File tmpFile = File.createTempFile(storeFile.getName(), ".tmp", storeFile.getParentFile());
+                try {
+                    write(tmpFile);
+                    if (!storeFile.delete() && storeFile.exists()) {
+                        throw new IOException("Could not replace " + storeFile
+                                + "; the file is probably in use by another process");
+                    }
+                    if (!tmpFile.renameTo(storeFile)) {
+                        throw new IOException("Could not rename " + tmpFile + " to " + storeFile);
+                    }
+                } finally {
+                    // only exists if the store could not be replaced
+                    tmpFile.delete();
+                }
+            } finally {
+                lock.release();
+            }
+        } finally {
+            lockFile.close();
+        }
+        dirty = false;
+    }
+
+    private void write(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<GAV, Entry> entry : entries.entrySet()) {
+                byte[] gav = entry.getKey().toExternalForm().getBytes(ENCODING);
+                out.writeInt(gav.length);
+                out.write(gav);
+                out.writeLong(entry.getValue().lastModified);
+                out.writeLong(entry.getValue().length);
+
+                ByteBuffer content = entry.getValue().content.duplicate();
+                out.writeInt(content.remaining());
+                out.writeLong(entry.getValue().checksum);
+                byte[] buffer = new byte[Math.min(content.remaining(), 8192)];
+                while (content.hasRemaining()) {
+                    int n = Math.min(buffer.length, content.remaining());
+                    content.get(buffer, 0, n);
+                    out.write(buffer, 0, n);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private void read() throws IOException {
+        FileInputStream is = new FileInputStream(storeFile);
+        try {
+            FileChannel channel = is.getChannel();
+            ByteBuffer buffer;
+            if (MAP_STORE) {
+                // the mapping remains valid after the channel has been closed
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } else {
+                buffer = ByteBuffer.wrap(readFully(is, (int) channel.size()));
+            }
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                throw new IOException("Unsupported format of " + storeFile);
+            }
+
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                GAV gav = GAV.parse(readString(buffer));
+                long lastModified = buffer.getLong();
+                long length = buffer.getLong();
+                int contentLength = buffer.getInt();
+                long checksum = buffer.getLong();
+
+                ByteBuffer content = buffer.slice();
+                content.limit(contentLength);
+                buffer.position(buffer.position() + contentLength);
+
+                // the checksum is verified when the entry is used
+                entries.put(gav, new Entry(lastModified, length, checksum, content));
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated file " + storeFile);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupt file " + storeFile);
+        } finally {
+            is.close();
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) throws UnsupportedEncodingException {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, ENCODING);
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        InputStream is = new FileInputStream(file);
+        try {
+            return readFully(is, (int) file.length());
+        } finally {
+            is.close();
+        }
+    }
+
+    private static byte[] readFully(InputStream is, int expectedLength) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream(expectedLength);
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = is.read(buffer)) != -1) {
+            result.write(buffer, 0, n);
+        }
+        return result.toByteArray();
+    }
+
+    static long checksum(ByteBuffer content) {
+        ByteBuffer buffer = content.duplicate();
+        CRC32 crc = new CRC32();
+        if (buffer.hasArray()) {
+            crc.update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            byte[] bytes = new byte[Math.min(buffer.remaining(), 8192)];
+            while (buffer.hasRemaining()) {
+                int n = Math.min(bytes.length, buffer.remaining());
+                buffer.get(bytes, 0, n);
+                crc.update(bytes, 0, n);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private File getSourceFile(GAV gav) {
+        return new File(basedir, RepositoryLayoutHelper.getRelativePath(gav, classifier, extension));
+    }
+
+    static final class Entry {
+        final long lastModified;
+
+        final long length;
+
+        final long checksum;
+
+        final ByteBuffer content;
+
+        private volatile boolean verified;
+
+        Entry(long lastModified, long length, long checksum, ByteBuffer content) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.checksum = checksum;
+            this.content = content;
+        }
+
+        boolean isUpToDate(File source) {
+            return source.lastModified() == lastModified && source.length() == length;
+        }
+
+        /**
+         * Returns <code>true</code> if the content matches the checksum.
+         */
+        boolean isIntact() {
+            if (!verified) {
+                verified = checksum(content) == checksum;
+            }
+            return verified;
+        }
+
+        InputStream openStream() {
+            ByteBuffer buffer = content.duplicate();
+            if (buffer.hasArray()) {
+                return new ByteArrayInputStream(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer
+                        .remaining());
+            }
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return new ByteArrayInputStream(bytes);
+        }
+    }
+}
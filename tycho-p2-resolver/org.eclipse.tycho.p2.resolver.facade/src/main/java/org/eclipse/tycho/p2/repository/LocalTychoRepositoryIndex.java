@@ -10,27 +10,76 @@
  *******************************************************************************/
 package org.eclipse.tycho.p2.repository;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Simplistic local Maven repository index to allow efficient lookup of all installed Tycho
  * projects.
+ * <p>
+ * The index file is an append-only journal: new projects are appended under an inter-process lock,
+ * so that concurrent builds sharing the local repository don't lose each other's entries. The file
+ * is only rewritten (compacted) if projects are removed or if it contains many duplicate or
+ * incomplete lines, e.g. written by older versions without locking. Parsed index files are cached
+ * in-process as long as their modification time and length don't change.
+ * <p>
+ * Locks and cached files are keyed by canonical path, so that different spellings of the same local
+ * repository share them.
  */
 public class LocalTychoRepositoryIndex extends DefaultTychoRepositoryIndex {
-    private final File indexFile;
 
     public static final String ARTIFACTS_INDEX_RELPATH = ".meta/p2-artifacts.properties";
 
     public static final String METADATA_INDEX_RELPATH = ".meta/p2-local-metadata.properties";
 
+    public static final String LOCK_RELPATH = ".meta/p2-index.lock";
+
+    /**
+     * Minimum number of redundant lines before an index file is compacted
+     */
+    private static final int COMPACTION_THRESHOLD = 64;
+
+    private static final ConcurrentMap<File, Snapshot> SNAPSHOTS = new ConcurrentHashMap<File, Snapshot>();
+
+    private static final Map<File, IndexLock> LOCKS = new HashMap<File, IndexLock>();
+
+    private final File basedir;
+
+    private final File indexFile;
+
+    /**
+     * Projects added to this index since it was read or saved
+     */
+    private final Set<GAV> addedGavs = new LinkedHashSet<GAV>();
+
+    /**
+     * Projects removed from this index since it was read or saved
+     */
+    private final Set<GAV> removedGavs = new LinkedHashSet<GAV>();
+
     public LocalTychoRepositoryIndex(File basedir, String relpath) {
-        this.indexFile = new File(basedir, relpath);
+        this.basedir = getCanonicalFile(basedir);
+        this.indexFile = new File(this.basedir, relpath);
         try {
-            this.gavs = read(new FileInputStream(indexFile));
+            this.gavs = new LinkedHashSet<GAV>(readSnapshot(indexFile).gavs);
         } catch (IOException e) {
             // lets assume index does not exist yet
             this.gavs = new LinkedHashSet<GAV>();
@@ -53,20 +102,273 @@ public class LocalTychoRepositoryIndex extends DefaultTychoRepositoryIndex {
         }
     }
 
+    @Override
+    public void addProject(GAV gav) {
+        super.addProject(gav);
+        addedGavs.add(gav);
+        removedGavs.remove(gav);
+    }
+
+    /**
+     * Removes the given project from this index. The project is removed from the index file with the
+     * next {@link #save()}.
+     */
+    public void removeProject(GAV gav) {
+        gavs.remove(gav);
+        removedGavs.add(gav);
+        addedGavs.remove(gav);
+    }
+
+    /**
+     * Appends the projects added to this index which are not yet in the index file, and rewrites the
+     * index file without the projects removed from this index. Changes made to the index file by
+     * other processes since this index was read are merged into this index.
+     */
     public void save() throws IOException {
+        lock(basedir);
+
+        try {
+            Snapshot current;
+            try {
+                current = readSnapshot(indexFile);
+            } catch (FileNotFoundException e) {
+                current = Snapshot.EMPTY;
+            }
+
+            List<GAV> missing = new ArrayList<GAV>();
+            for (GAV gav : addedGavs) {
+                if (!current.gavs.contains(gav)) {
+                    missing.add(gav);
+                }
+            }
+            boolean removed = false;
+            for (GAV gav : removedGavs) {
+                removed |= current.gavs.contains(gav);
+            }
+
+            Set<GAV> merged = new LinkedHashSet<GAV>(current.gavs);
+            merged.addAll(missing);
+            merged.removeAll(removedGavs);
+            gavs = merged;
+            addedGavs.clear();
+            removedGavs.clear();
+
+            int redundantLines = current.lines - current.gavs.size();
+            if (removed || current.length > current.validLength
+                    || redundantLines >= Math.max(COMPACTION_THRESHOLD, current.gavs.size() / 4)) {
+                compact();
+            } else if (!missing.isEmpty()) {
+                append(missing, current);
+            }
+        } finally {
+            unlock(basedir);
+        }
+    }
+
+    private void append(List<GAV> missing, Snapshot current) throws IOException {
         indexFile.getParentFile().mkdirs();
 
-        write(new FileOutputStream(indexFile));
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        for (GAV gav : missing) {
+            buffer.write((gav.toExternalForm() + EOL).getBytes(ENCODING));
+        }
+        byte[] bytes = buffer.toByteArray();
+
+        // a single write, so that readers which don't hold the lock never see a partial line in the middle
+        OutputStream os = new FileOutputStream(indexFile, true);
+        try {
+            os.write(bytes);
+        } finally {
+            os.close();
+        }
+
+        long length = current.length + bytes.length;
+        SNAPSHOTS.put(indexFile, new Snapshot(indexFile.lastModified(), length, length, current.lines
+                + missing.size(), Collections.unmodifiableSet(new LinkedHashSet<GAV>(gavs))));
+    }
+
+    private void compact() throws IOException {
+        indexFile.getParentFile().mkdirs();
+
+        File tmpFile = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+        write(new FileOutputStream(tmpFile));
+
+        if (!tmpFile.renameTo(indexFile)) {
+            // on Windows, the target must not exist
+            indexFile.delete();
+            if (!tmpFile.renameTo(indexFile)) {
+                throw new IOException("Could not rename " + tmpFile + " to " + indexFile);
+            }
+        }
+        SNAPSHOTS.remove(indexFile);
+    }
+
+    /**
+     * Acquires the lock for the index files in the given local repository. The lock is held by the
+     * current thread and, via a file lock, by the current process. The lock is reentrant.
+     */
+    public static void lock(File basedir) throws IOException {
+        IndexLock lock = getLock(basedir);
+        lock.threadLock.lock();
+        if (lock.threadLock.getHoldCount() == 1) {
+            try {
+                lock.acquireFileLock(new File(basedir, LOCK_RELPATH));
+            } catch (IOException e) {
+                lock.threadLock.unlock();
+                throw e;
+            }
+        }
     }
 
     public static void unlock(File basedir) {
-        // TODO Auto-generated method stub
+        IndexLock lock = getLock(basedir);
+        try {
+            if (lock.threadLock.getHoldCount() == 1) {
+                lock.releaseFileLock();
+            }
+        } finally {
+            lock.threadLock.unlock();
+        }
+    }
+
+    private static IndexLock getLock(File basedir) {
+        synchronized (LOCKS) {
+            File key = getCanonicalFile(basedir);
+            IndexLock lock = LOCKS.get(key);
+            if (lock == null) {
+                lock = new IndexLock();
+                LOCKS.put(key, lock);
+            }
+            return lock;
+        }
+    }
+
+    private static File getCanonicalFile(File file) {
+        try {
+            return file.getCanonicalFile();
+        } catch (IOException e) {
+            // same key for the same spelling at least
+            return file.getAbsoluteFile();
+        }
+    }
+
+    private static Snapshot readSnapshot(File indexFile) throws IOException {
+        // get the time stamp before reading the content, so that concurrent changes are detected next time
+        long lastModified = indexFile.lastModified();
+        long length = indexFile.length();
+
+        Snapshot snapshot = SNAPSHOTS.get(indexFile);
+        if (snapshot != null && snapshot.lastModified == lastModified && snapshot.length == length) {
+            return snapshot;
+        }
+
+        byte[] content = readFully(indexFile);
+        Set<GAV> gavs = new LinkedHashSet<GAV>();
+        int lines = 0;
+        int start = 0;
+        for (int i = 0; i < content.length; i++) {
+            if (content[i] == '\n') {
+                String line = new String(content, start, i - start, ENCODING).trim();
+                if (line.length() > 0) {
+                    try {
+                        gavs.add(GAV.parse(line));
+                    } catch (IllegalArgumentException e) {
+                        // corrupt line; counts as redundant and is removed by the next compaction
+                    }
+                    lines++;
+                }
+                start = i + 1;
+            }
+        }
 
+        // an incomplete last line is still being written and is therefore ignored
+        snapshot = new Snapshot(lastModified, content.length, start, lines, Collections.unmodifiableSet(gavs));
+        if (content.length == length) {
+            SNAPSHOTS.put(indexFile, snapshot);
+        }
+        return snapshot;
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        InputStream is = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream result = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                result.write(buffer, 0, n);
+            }
+            return result.toByteArray();
+        } finally {
+            is.close();
+        }
     }
 
-    public static void lock(File basedir) {
-        // TODO Auto-generated method stub
+    private static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(0, 0, 0, 0, Collections.<GAV> emptySet());
+
+        final long lastModified;
+
+        final long length;
+
+        /**
+         * Length of the complete lines
+         */
+        final long validLength;
+
+        /**
+         * Number of non-empty lines
+         */
+        final int lines;
 
+        final Set<GAV> gavs;
+
+        Snapshot(long lastModified, long length, long validLength, int lines, Set<GAV> gavs) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.validLength = validLength;
+            this.lines = lines;
+            this.gavs = gavs;
+        }
     }
 
+    private static final class IndexLock {
+        final ReentrantLock threadLock = new ReentrantLock();
+
+        private RandomAccessFile file;
+
+        private FileLock fileLock;
+
+        void acquireFileLock(File lockFile) throws IOException {
+            lockFile.getParentFile().mkdirs();
+            file = new RandomAccessFile(lockFile, "rw");
+            try {
+                fileLock = file.getChannel().lock();
+            } catch (IOException e) {
+                file.close();
+                file = null;
+                throw e;
+            }
+        }
+
+        void releaseFileLock() {
+            try {
+                if (fileLock != null) {
+                    fileLock.release();
+                }
+            } catch (IOException e) {
+                // closing the file releases the lock as well
+            } finally {
+                fileLock = null;
+                try {
+                    if (file != null) {
+                        file.close();
+                    }
+                } catch (IOException e) {
+                    // ignore
+                }
+                file = null;
+            }
+        }
+    }
 }
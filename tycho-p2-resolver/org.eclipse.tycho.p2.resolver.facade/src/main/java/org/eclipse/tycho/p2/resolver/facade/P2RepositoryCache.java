@@ -30,4 +30,16 @@ public interface P2RepositoryCache {
 
     public void putRepository(URI location, Object metadataRepository, Object artifactRepository);
 
+    /**
+     * Returns the indexed installable units of a set of repositories, or <code>null</code> if the
+     * index for the given set of repositories has not been built (or has been garbage collected).
+     * 
+     * @param repositorySetKey
+     *            key identifying the repositories and their content; must implement equals and
+     *            hashCode
+     */
+    public Object getInstallableUnitIndex(Object repositorySetKey);
+
+    public void putInstallableUnitIndex(Object repositorySetKey, Object index);
+
 }
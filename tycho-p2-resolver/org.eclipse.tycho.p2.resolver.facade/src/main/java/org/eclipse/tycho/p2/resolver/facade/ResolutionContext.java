@@ -45,6 +45,17 @@ public interface ResolutionContext {
 
     public void setOffline(boolean offline);
 
+    /**
+     * Sets the number of threads used to download artifacts from p2 repositories. The default value
+     * of 1 disables concurrent downloads.
+     */
+    public void setDownloadThreads(int downloadThreads);
+
+    /**
+     * Sets the maximum number of concurrent requests to a single p2 repository.
+     */
+    public void setMaxConnectionsPerRepository(int maxConnectionsPerRepository);
+
     /**
      * Releases all resources used by the resolver instance
      */
@@ -14,6 +14,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
@@ -23,6 +24,10 @@ import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
 import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.metadata.IArtifactKey;
 import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.metadata.VersionRange;
+import org.eclipse.equinox.p2.query.QueryUtil;
+import org.eclipse.equinox.p2.repository.artifact.ArtifactDescriptorQuery;
+import org.eclipse.equinox.p2.repository.artifact.ArtifactKeyQuery;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactDescriptor;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactRepository;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactRequest;
@@ -169,6 +174,24 @@ public class LocalArtifactRepositoryTest {
         Assert.assertTrue(repo.contains(desc));
     }
 
+    @Test
+    public void artifactIsNotContainedBeforeItIsWritten() throws Exception {
+        LocalArtifactRepository repo = new LocalArtifactRepository(basedir);
+
+        ArtifactDescriptor desc = newBundleArtifactDescriptor(false);
+
+        OutputStream os = repo.getOutputStream(desc);
+        os.write(new byte[] { 111 });
+        File file = new File(basedir,
+                "p2/osgi/bundle/org.eclipse.tycho.test.p2/1.0.0/org.eclipse.tycho.test.p2-1.0.0.jar");
+        Assert.assertFalse(file.exists());
+        Assert.assertFalse(repo.contains(desc.getArtifactKey()));
+
+        os.close();
+        Assert.assertTrue(file.exists());
+        Assert.assertTrue(repo.contains(desc.getArtifactKey()));
+    }
+
     @Test
     public void reload() throws Exception {
         LocalArtifactRepository repo = new LocalArtifactRepository(basedir);
@@ -185,6 +208,31 @@ public class LocalArtifactRepositoryTest {
         Assert.assertTrue(repo.contains(p2Artifact.getArtifactKey()));
     }
 
+    @Test
+    public void invalidArtifactsFileContributesNoDescriptors() throws Exception {
+        LocalArtifactRepository repo = new LocalArtifactRepository(basedir);
+        ArtifactDescriptor desc = newBundleArtifactDescriptor(true);
+        writeDummyArtifact(repo, desc);
+        repo.save();
+
+        // cut the file after the descriptor, so that the descriptor is parsed before the error
+        File artifactsFile = new File(basedir,
+                "group/org.eclipse.tycho.test.maven/1.0.0/org.eclipse.tycho.test.maven-1.0.0-p2artifacts.xml");
+        RandomAccessFile file = new RandomAccessFile(artifactsFile, "rw");
+        try {
+            byte[] content = new byte[(int) file.length()];
+            file.readFully(content);
+            int end = new String(content, "UTF-8").indexOf("</artifact>");
+            Assert.assertTrue(end > 0);
+            file.setLength(end + "</artifact>".length());
+        } finally {
+            file.close();
+        }
+
+        repo = new LocalArtifactRepository(basedir);
+        Assert.assertFalse(repo.contains(desc.getArtifactKey()));
+    }
+
     @Test
     public void testGetArtifactsNoRequests() {
         LocalArtifactRepository repo = new LocalArtifactRepository(basedir);
@@ -247,4 +295,30 @@ public class LocalArtifactRepositoryTest {
         Assert.assertArrayEquals(content, destination.toByteArray());
     }
 
+    @Test
+    public void queryIndexFollowsChanges() throws Exception {
+        IProgressMonitor monitor = new NullProgressMonitor();
+        LocalArtifactRepository repo = new LocalArtifactRepository(basedir);
+        ArtifactDescriptor p2Artifact = newBundleArtifactDescriptor(false);
+        IArtifactKey key = p2Artifact.getArtifactKey();
+        writeDummyArtifact(repo, p2Artifact, new byte[] { 1 });
+
+        Assert.assertEquals(1, repo.query(new ArtifactKeyQuery(key), monitor).toSet().size());
+        Assert.assertEquals(1, repo.descriptorQueryable().query(
+                QueryUtil.<IArtifactDescriptor> createMatchQuery("artifactKey == $0", key), monitor).toSet().size());
+
+        // the indexes must reflect descriptors added after the first query
+        ArtifactDescriptor mavenArtifact = newBundleArtifactDescriptor(true);
+        writeDummyArtifact(repo, mavenArtifact, new byte[] { 2 });
+        ArtifactKeyQuery mavenQuery = new ArtifactKeyQuery(PublisherHelper.OSGI_BUNDLE_CLASSIFIER,
+                "org.eclipse.tycho.test.maven", VersionRange.emptyRange);
+        Assert.assertEquals(1, repo.query(mavenQuery, monitor).toSet().size());
+        Assert.assertEquals(2, repo.query(ArtifactKeyQuery.ALL_KEYS, monitor).toSet().size());
+
+        // ... and descriptors removed after the last query
+        repo.removeDescriptor(repo.getArtifactDescriptors(key)[0]);
+        Assert.assertTrue(repo.query(new ArtifactKeyQuery(key), monitor).isEmpty());
+        Assert.assertEquals(1, repo.descriptorQueryable().query(ArtifactDescriptorQuery.ALL_DESCRIPTORS, monitor)
+                .toSet().size());
+    }
 }
@@ -11,8 +11,11 @@
 package org.eclipse.tycho.p2.maven.repository.tests;
 
 import java.io.File;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
 import junit.framework.Assert;
@@ -20,6 +23,7 @@ import junit.framework.Assert;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
 import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
 import org.eclipse.equinox.p2.metadata.MetadataFactory;
@@ -29,11 +33,15 @@ import org.eclipse.equinox.p2.query.IQueryResult;
 import org.eclipse.equinox.p2.query.QueryUtil;
 import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
 import org.eclipse.tycho.p2.maven.repository.LocalMetadataRepository;
+import org.eclipse.tycho.p2.maven.repository.xmlio.MetadataIO;
+import org.eclipse.tycho.p2.repository.GAV;
+import org.eclipse.tycho.p2.repository.LocalMetadataStore;
 import org.eclipse.tycho.p2.repository.LocalRepositoryReader;
 import org.eclipse.tycho.p2.repository.LocalTychoRepositoryIndex;
 import org.eclipse.tycho.p2.repository.RepositoryLayoutHelper;
 import org.junit.Test;
 
+@SuppressWarnings("restriction")
 public class LocalMetadataRepositoryTest {
     private IProgressMonitor monitor = new NullProgressMonitor();
 
@@ -100,4 +108,110 @@ public class LocalMetadataRepositoryTest {
         Assert.assertEquals(1, ius.size());
     }
 
+    @Test
+    public void staleMetadataStoreEntry() throws Exception {
+        File location = new File("target/metadataStoreRepo");
+        LocalMetadataRepository repository = createRepository(location, "group", "artifact", "version");
+
+        IInstallableUnit iu = createIU("test", "group", "artifact", "version");
+        repository.addInstallableUnits(Arrays.asList(iu));
+        Assert.assertTrue(new File(location, LocalMetadataStore.METADATA_STORE_RELPATH).isFile());
+
+        // change the XML file behind the back of the store
+        GAV gav = RepositoryLayoutHelper.getGAV(iu.getProperties());
+        File xmlFile = new File(location, RepositoryLayoutHelper.getRelativePath(gav,
+                RepositoryLayoutHelper.CLASSIFIER_P2_METADATA, RepositoryLayoutHelper.EXTENSION_P2_METADATA));
+        long lastModified = xmlFile.lastModified();
+        new MetadataIO().writeXML(Collections.singleton(createIU("changed", "group", "artifact", "version")),
+                xmlFile);
+        xmlFile.setLastModified(lastModified - 10000);
+
+        repository = (LocalMetadataRepository) loadRepository(location);
+
+        Set<IInstallableUnit> ius = repository.getGAVs().get(gav);
+        Assert.assertEquals(1, ius.size());
+        Assert.assertEquals("changed", ius.iterator().next().getId());
+    }
+
+    @Test
+    public void corruptMetadataStoreEntry() throws Exception {
+        File location = new File("target/corruptMetadataStoreRepo");
+        LocalMetadataRepository repository = createRepository(location, "group", "artifact", "version");
+
+        IInstallableUnit iu = createIU("test", "group", "artifact", "version");
+        repository.addInstallableUnits(Arrays.asList(iu));
+
+        // damage the content of the entry without changing the length of the store
+        File storeFile = new File(location, LocalMetadataStore.METADATA_STORE_RELPATH);
+        RandomAccessFile file = new RandomAccessFile(storeFile, "rw");
+        try {
+            byte[] store = new byte[(int) file.length()];
+            file.readFully(store);
+            int index = new String(store, "ISO-8859-1").indexOf("'test'");
+            Assert.assertTrue(index > 0);
+            file.seek(index + 2);
+            file.write('a');
+        } finally {
+            file.close();
+        }
+
+        repository = (LocalMetadataRepository) loadRepository(location);
+
+        Set<IInstallableUnit> ius = repository.getGAVs().get(RepositoryLayoutHelper.getGAV(iu.getProperties()));
+        Assert.assertEquals(1, ius.size());
+        Assert.assertEquals("test", ius.iterator().next().getId());
+
+        // no temporary files are left behind
+        for (File file : storeFile.getParentFile().listFiles()) {
+            Assert.assertFalse(file.getName(), file.getName().endsWith(".tmp"));
+        }
+    }
+
+    @Test
+    public void concurrentLoading() throws Exception {
+        File location = new File("target/concurrentLoadingRepo");
+        LocalMetadataRepository repository = createRepository(location, "group", "artifact", "version");
+
+        List<IInstallableUnit> ius = new ArrayList<IInstallableUnit>();
+        for (int i = 0; i < 100; i++) {
+            ius.add(createIU("test" + i, "group", "artifact" + i, "version"));
+        }
+        repository.addInstallableUnits(ius);
+
+        repository = (LocalMetadataRepository) loadRepository(location);
+
+        Assert.assertEquals(100, repository.query(QueryUtil.ALL_UNITS, monitor).toSet().size());
+        // the GAVs are merged in index order, independent of the loader threads
+        List<GAV> indexedGAVs = new LocalTychoRepositoryIndex(location,
+                LocalTychoRepositoryIndex.METADATA_INDEX_RELPATH).getProjectGAVs();
+        Assert.assertEquals(indexedGAVs, new ArrayList<GAV>(repository.getGAVs().keySet()));
+    }
+
+    @Test
+    public void queryIndexFollowsChanges() throws Exception {
+        File location = new File("target/queryIndexRepo");
+        LocalMetadataRepository repository = createRepository(location, "group", "artifact", "version");
+
+        repository.addInstallableUnits(Arrays.asList(createIU("test", "group", "artifact", "version")));
+        Assert.assertEquals(1, repository.query(QueryUtil.createIUQuery("test"), monitor).toSet().size());
+        Assert.assertNotNull(repository.getIndex(InstallableUnit.MEMBER_ID));
+
+        // the index must reflect units added after the first query
+        repository.addInstallableUnits(Arrays.asList(createIU("test2", "group", "artifact2", "version")));
+        Assert.assertEquals(1, repository.query(QueryUtil.createIUQuery("test2"), monitor).toSet().size());
+        Assert.assertEquals(2, repository.query(QueryUtil.ALL_UNITS, monitor).toSet().size());
+    }
+
+    private static IInstallableUnit createIU(String id, String groupId, String artifactId, String version) {
+        InstallableUnitDescription iud = new MetadataFactory.InstallableUnitDescription();
+        iud.setId(id);
+        iud.setVersion(Version.parseVersion("1.0.0"));
+
+        iud.setProperty(RepositoryLayoutHelper.PROP_GROUP_ID, groupId);
+        iud.setProperty(RepositoryLayoutHelper.PROP_ARTIFACT_ID, artifactId);
+        iud.setProperty(RepositoryLayoutHelper.PROP_VERSION, version);
+
+        return MetadataFactory.createInstallableUnit(iud);
+    }
+
 }
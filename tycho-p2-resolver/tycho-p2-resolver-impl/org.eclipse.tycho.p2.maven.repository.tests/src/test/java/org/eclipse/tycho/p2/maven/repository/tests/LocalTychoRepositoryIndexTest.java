@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.p2.maven.repository.tests;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.eclipse.tycho.p2.repository.GAV;
+import org.eclipse.tycho.p2.repository.LocalTychoRepositoryIndex;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LocalTychoRepositoryIndexTest {
+
+    private final File basedir = new File("target/indexRepository").getAbsoluteFile();
+
+    private final File indexFile = new File(basedir, LocalTychoRepositoryIndex.METADATA_INDEX_RELPATH);
+
+    @Before
+    public void cleanupRepository() {
+        indexFile.delete();
+    }
+
+    @Test
+    public void concurrentlyAddedProjects() throws IOException {
+        LocalTychoRepositoryIndex index = newIndex();
+        LocalTychoRepositoryIndex otherIndex = newIndex();
+
+        index.addProject("group", "a", "1.0.0");
+        otherIndex.addProject("group", "b", "1.0.0");
+        index.save();
+        otherIndex.save();
+
+        Assert.assertEquals(2, newIndex().getProjectGAVs().size());
+        Assert.assertEquals(2, otherIndex.getProjectGAVs().size());
+    }
+
+    @Test
+    public void incompleteLineIsIgnored() throws IOException {
+        writeIndexFile("group:a:1.0.0\ngroup:b:1.0");
+
+        LocalTychoRepositoryIndex index = newIndex();
+        Assert.assertEquals(1, index.getProjectGAVs().size());
+
+        // saving repairs the index file
+        index.addProject("group", "c", "1.0.0");
+        index.save();
+
+        LocalTychoRepositoryIndex savedIndex = newIndex();
+        Assert.assertEquals(2, savedIndex.getProjectGAVs().size());
+        Assert.assertEquals(new GAV("group", "c", "1.0.0"), savedIndex.getProjectGAVs().get(1));
+    }
+
+    @Test
+    public void compaction() throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            content.append("group:a:1.0.0\n");
+        }
+        writeIndexFile(content.toString());
+
+        LocalTychoRepositoryIndex index = newIndex();
+        index.save();
+
+        Assert.assertEquals("group:a:1.0.0\n".length(), indexFile.length());
+    }
+
+    @Test
+    public void removedProjects() throws IOException {
+        LocalTychoRepositoryIndex index = newIndex();
+        index.addProject("group", "a", "1.0.0");
+        index.addProject("group", "b", "1.0.0");
+        index.save();
+
+        LocalTychoRepositoryIndex otherIndex = newIndex();
+        index.removeProject(new GAV("group", "a", "1.0.0"));
+        index.save();
+        Assert.assertEquals(1, index.getProjectGAVs().size());
+
+        // an index read before the removal doesn't add the removed project again
+        otherIndex.addProject("group", "c", "1.0.0");
+        otherIndex.save();
+        Assert.assertEquals(2, otherIndex.getProjectGAVs().size());
+        Assert.assertFalse(newIndex().getProjectGAVs().contains(new GAV("group", "a", "1.0.0")));
+    }
+
+    @Test
+    public void lockIsSharedByDifferentSpellingsOfRepository() throws IOException {
+        File otherSpelling = new File(basedir, "../" + basedir.getName());
+
+        LocalTychoRepositoryIndex.lock(basedir);
+        try {
+            // would fail with an OverlappingFileLockException if the file was locked a second time
+            LocalTychoRepositoryIndex.lock(otherSpelling);
+            LocalTychoRepositoryIndex.unlock(otherSpelling);
+        } finally {
+            LocalTychoRepositoryIndex.unlock(basedir);
+        }
+    }
+
+    private LocalTychoRepositoryIndex newIndex() {
+        return new LocalTychoRepositoryIndex(basedir, LocalTychoRepositoryIndex.METADATA_INDEX_RELPATH);
+    }
+
+    private void writeIndexFile(String content) throws IOException {
+        indexFile.getParentFile().mkdirs();
+        OutputStream os = new FileOutputStream(indexFile);
+        try {
+            os.write(content.getBytes("UTF-8"));
+        } finally {
+            os.close();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.p2.maven.repository.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.tycho.p2.maven.repository.xmlio.ArtifactsIO;
+import org.eclipse.tycho.p2.maven.repository.xmlio.MetadataIO;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Compares reading many p2content.xml and p2artifacts.xml files with one {@link MetadataIO} or
+ * {@link ArtifactsIO} per file, which was the behaviour before the parsers pooled instances and
+ * doesn't share anything between the files, with reading them with a single instance, which shares
+ * the strings, requirements and capabilities repeated across the files.
+ * <p>
+ * The parsers need the OSGi runtime of the tests, so this is a test class, but it is not run as
+ * part of the build. Run it with <code>mvn integration-test -Pbenchmark</code> in this project; the
+ * number of files can be set with <code>-Dbenchmark.files=...</code>.
+ */
+public class MetadataIOBenchmark {
+
+    private static final int ITERATIONS = 5;
+
+    private static final int FILES = Integer.getInteger("benchmark.files", 5000).intValue();
+
+    private static final File MODULE_DIR = new File("resources/repositories/module/target");
+
+    @Test
+    public void readMetadata() throws Exception {
+        final byte[] content = readFile(new File(MODULE_DIR, "p2content.xml"));
+        for (int i = 0; i < ITERATIONS; i++) {
+            run("MetadataIO per file", new Reader() {
+                public void read(List<Object> parsed) throws IOException {
+                    for (int file = 0; file < FILES; file++) {
+                        parsed.addAll(new MetadataIO().readXML(new ByteArrayInputStream(content)));
+                    }
+                }
+            });
+            run("shared MetadataIO", new Reader() {
+                public void read(List<Object> parsed) throws IOException {
+                    MetadataIO io = new MetadataIO();
+                    for (int file = 0; file < FILES; file++) {
+                        parsed.addAll(io.readXML(new ByteArrayInputStream(content)));
+                    }
+                }
+            });
+        }
+    }
+
+    @Test
+    public void readArtifacts() throws Exception {
+        final byte[] content = readFile(new File(MODULE_DIR, "p2artifacts.xml"));
+        for (int i = 0; i < ITERATIONS; i++) {
+            run("ArtifactsIO per file", new Reader() {
+                public void read(List<Object> parsed) throws IOException {
+                    for (int file = 0; file < FILES; file++) {
+                        parsed.addAll(new ArtifactsIO().readXML(new ByteArrayInputStream(content)));
+                    }
+                }
+            });
+            run("shared ArtifactsIO", new Reader() {
+                public void read(List<Object> parsed) throws IOException {
+                    ArtifactsIO io = new ArtifactsIO();
+                    for (int file = 0; file < FILES; file++) {
+                        parsed.addAll(io.readXML(new ByteArrayInputStream(content)));
+                    }
+                }
+            });
+        }
+    }
+
+    private interface Reader {
+        /**
+         * Reads all files and adds the parsed objects to the given list.
+         */
+        void read(List<Object> parsed) throws IOException;
+    }
+
+    private static void run(String name, Reader reader) throws IOException {
+        gc();
+        long heapBefore = usedHeap();
+        long start = System.nanoTime();
+
+        // the parsed objects are kept until the heap has been measured
+        List<Object> parsed = new ArrayList<Object>();
+        reader.read(parsed);
+
+        long millis = (System.nanoTime() - start) / 1000000;
+        gc();
+        long retainedKB = (usedHeap() - heapBefore) / 1024;
+        Assert.assertFalse(parsed.isEmpty());
+        System.out.println(name + ": " + parsed.size() + " objects from " + FILES + " files in " + millis
+                + " ms, " + retainedKB + " KB retained");
+    }
+
+    private static void gc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        InputStream is = new FileInputStream(file);
+        try {
+            byte[] bytes = new byte[8192];
+            int n;
+            while ((n = is.read(bytes)) != -1) {
+                buffer.write(bytes, 0, n);
+            }
+        } finally {
+            is.close();
+        }
+        return buffer.toByteArray();
+    }
+}
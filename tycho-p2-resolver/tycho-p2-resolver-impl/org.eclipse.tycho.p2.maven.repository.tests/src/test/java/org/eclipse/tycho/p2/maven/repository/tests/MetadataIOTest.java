@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.p2.maven.repository.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.IProvidedCapability;
+import org.eclipse.equinox.p2.metadata.IRequirement;
+import org.eclipse.equinox.p2.metadata.MetadataFactory;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.metadata.VersionRange;
+import org.eclipse.tycho.p2.maven.repository.xmlio.MetadataIO;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetadataIOTest {
+
+    @Test
+    public void testSharedRequirementsAndCapabilities() throws IOException {
+        MetadataIO io = new MetadataIO();
+
+        IInstallableUnit a = read(io, createIU("a")).iterator().next();
+        IInstallableUnit b = read(io, createIU("b")).iterator().next();
+
+        Assert.assertEquals("a", a.getId());
+        Assert.assertEquals("b", b.getId());
+        Assert.assertSame(a.getRequirements().iterator().next(), b.getRequirements().iterator().next());
+        Assert.assertSame(getPackageCapability(a), getPackageCapability(b));
+    }
+
+    @Test
+    public void testSharedStrings() throws IOException {
+        MetadataIO io = new MetadataIO();
+
+        IInstallableUnit a = read(io, createIU("a")).iterator().next();
+        IInstallableUnit a2 = read(io, createIU("a")).iterator().next();
+
+        Assert.assertNotSame(a, a2);
+        Assert.assertSame(a.getId(), a2.getId());
+        Assert.assertSame(a.getVersion(), a2.getVersion());
+        Assert.assertSame(a.getProperty(IInstallableUnit.PROP_NAME), a2.getProperty(IInstallableUnit.PROP_NAME));
+    }
+
+    @Test
+    public void testReadOrder() throws IOException {
+        Set<IInstallableUnit> units = new LinkedHashSet<IInstallableUnit>();
+        units.add(createIU("b"));
+        units.add(createIU("a"));
+
+        Iterator<IInstallableUnit> read = new MetadataIO().readXML(new ByteArrayInputStream(write(units)))
+                .iterator();
+
+        Assert.assertEquals("b", read.next().getId());
+        Assert.assertEquals("a", read.next().getId());
+        Assert.assertFalse(read.hasNext());
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidXML() throws IOException {
+        new MetadataIO().readXML(new ByteArrayInputStream("<units><unit/></units>".getBytes("UTF-8")));
+    }
+
+    private static IProvidedCapability getPackageCapability(IInstallableUnit unit) {
+        for (Iterator<IProvidedCapability> it = unit.getProvidedCapabilities().iterator(); it.hasNext();) {
+            IProvidedCapability capability = it.next();
+            if ("java.package".equals(capability.getNamespace())) {
+                return capability;
+            }
+        }
+        throw new AssertionError("No package capability");
+    }
+
+    private static Set<IInstallableUnit> read(MetadataIO io, IInstallableUnit unit) throws IOException {
+        Set<IInstallableUnit> units = new LinkedHashSet<IInstallableUnit>();
+        units.add(unit);
+        return io.readXML(new ByteArrayInputStream(write(units)));
+    }
+
+    private static byte[] write(Set<IInstallableUnit> units) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        new MetadataIO().writeXML(units, buffer);
+        return buffer.toByteArray();
+    }
+
+    static IInstallableUnit createIU(String id) {
+        InstallableUnitDescription iud = new MetadataFactory.InstallableUnitDescription();
+        iud.setId(id);
+        iud.setVersion(Version.parseVersion("1.0.0"));
+        iud.setProperty(IInstallableUnit.PROP_NAME, "Example bundle");
+        iud.setRequirements(new IRequirement[] { MetadataFactory.createRequirement("java.package",
+                "org.osgi.framework", new VersionRange("[1.5.0,2.0.0)"), (String) null, false, false) });
+        iud.setCapabilities(new IProvidedCapability[] {
+                MetadataFactory.createProvidedCapability(IInstallableUnit.NAMESPACE_IU_ID, id, iud.getVersion()),
+                MetadataFactory.createProvidedCapability("java.package", "org.example", iud.getVersion()) });
+        return MetadataFactory.createInstallableUnit(iud);
+    }
+}
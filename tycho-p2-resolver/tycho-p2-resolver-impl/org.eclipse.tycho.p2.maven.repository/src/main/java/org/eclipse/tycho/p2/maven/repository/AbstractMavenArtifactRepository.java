@@ -17,8 +17,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -38,6 +42,7 @@ import org.eclipse.equinox.p2.repository.artifact.IArtifactRequest;
 import org.eclipse.equinox.p2.repository.artifact.IFileArtifactRepository;
 import org.eclipse.equinox.p2.repository.artifact.spi.AbstractArtifactRepository;
 import org.eclipse.equinox.p2.repository.artifact.spi.ArtifactDescriptor;
+import org.eclipse.tycho.core.facade.MavenLogger;
 import org.eclipse.tycho.p2.maven.repository.xmlio.ArtifactsIO;
 import org.eclipse.tycho.p2.repository.GAV;
 import org.eclipse.tycho.p2.repository.RepositoryLayoutHelper;
@@ -45,7 +50,10 @@ import org.eclipse.tycho.p2.repository.RepositoryReader;
 import org.eclipse.tycho.p2.repository.TychoRepositoryIndex;
 
 /**
- * Base class for p2 artifact repositories with GAV-based artifact storage.
+ * Base class for p2 artifact repositories with GAV-based artifact storage. Access to the
+ * descriptors is synchronized on the repository instance, so that artifacts can be downloaded
+ * concurrently. Queries for artifact keys are answered from an index over the artifact ids, and
+ * queries for descriptors from an index over the artifact keys.
  */
 public abstract class AbstractMavenArtifactRepository extends AbstractArtifactRepository implements
         IFileArtifactRepository {
@@ -53,6 +61,13 @@ public abstract class AbstractMavenArtifactRepository extends AbstractArtifactRe
 
     private static final IArtifactDescriptor[] ARTIFACT_DESCRIPTOR_ARRAY = new IArtifactDescriptor[0];
 
+    /**
+     * The member names used in p2 expressions, see ArtifactKey and ArtifactDescriptor
+     */
+    private static final String MEMBER_ID = "id";
+
+    private static final String MEMBER_ARTIFACT_KEY = "artifactKey";
+
     // TODO where do we need multiple descriptors per artifact key? do we support storing pack200 compressed files in the local Maven repo?
     protected Map<IArtifactKey, Set<IArtifactDescriptor>> descriptorsMap = new HashMap<IArtifactKey, Set<IArtifactDescriptor>>();
 
@@ -60,6 +75,15 @@ public abstract class AbstractMavenArtifactRepository extends AbstractArtifactRe
 
     private final RepositoryReader contentLocator;
 
+    private final MavenLogger logger;
+
+    /**
+     * Snapshots of the current content; created on the first query after a change
+     */
+    private ArtifactIndex<IArtifactKey> keyIndex;
+
+    private ArtifactIndex<IArtifactDescriptor> descriptorIndex;
+
     @Deprecated
     protected AbstractMavenArtifactRepository(URI uri, TychoRepositoryIndex projectIndex,
             RepositoryReader contentLocator) {
@@ -68,55 +92,94 @@ public abstract class AbstractMavenArtifactRepository extends AbstractArtifactRe
 
     protected AbstractMavenArtifactRepository(IProvisioningAgent agent, URI uri, TychoRepositoryIndex projectIndex,
             RepositoryReader contentLocator) {
-        this(agent, uri, contentLocator);
+        this(agent, uri, projectIndex, contentLocator, null);
+    }
+
+    /**
+     * @param logger
+     *            the logger to report projects which cannot be loaded, or <code>null</code>
+     */
+    protected AbstractMavenArtifactRepository(IProvisioningAgent agent, URI uri, TychoRepositoryIndex projectIndex,
+            RepositoryReader contentLocator, MavenLogger logger) {
+        this(agent, uri, contentLocator, logger);
 
         loadMaven(projectIndex);
     }
 
     protected AbstractMavenArtifactRepository(IProvisioningAgent agent, URI uri, RepositoryReader contentLocator) {
+        this(agent, uri, contentLocator, null);
+    }
+
+    private AbstractMavenArtifactRepository(IProvisioningAgent agent, URI uri, RepositoryReader contentLocator,
+            MavenLogger logger) {
         super(agent, "Maven Local Repository", AbstractMavenArtifactRepository.class.getName(), VERSION, uri, null,
                 null, null);
         this.contentLocator = contentLocator;
+        this.logger = logger;
     }
 
     protected void loadMaven(TychoRepositoryIndex projectIndex) {
+        // shared by all loader threads, so that the descriptors share their strings
         final ArtifactsIO io = new ArtifactsIO();
 
-        for (final GAV gav : projectIndex.getProjectGAVs()) {
-            try {
-                final InputStream is = contentLocator.getContents(gav, RepositoryLayoutHelper.CLASSIFIER_P2_ARTIFACTS,
-                        RepositoryLayoutHelper.EXTENSION_P2_ARTIFACTS);
+        // the descriptors of a project are only added once its whole artifacts file has been parsed, so
+        // that a project with an invalid artifacts file contributes no descriptors at all
+        new ProjectContentLoader<Set<IArtifactDescriptor>>(logger) {
+            @Override
+            protected Set<IArtifactDescriptor> load(GAV gav) throws IOException {
+                InputStream is = openContents(gav);
                 try {
-                    final Set<IArtifactDescriptor> gavDescriptors = io.readXML(is);
-                    for (IArtifactDescriptor descriptor : gavDescriptors) {
-                        internalAddDescriptor(descriptor);
-                    }
+                    return io.readXML(is);
                 } finally {
                     is.close();
                 }
-            } catch (IOException e) {
-                // TODO throw properly typed exception if repository cannot be loaded
-                e.printStackTrace();
             }
-        }
+
+            @Override
+            protected void merge(GAV gav, Set<IArtifactDescriptor> gavDescriptors) {
+                internalAddDescriptors(gavDescriptors);
+            }
+        }.loadAll(projectIndex.getProjectGAVs(), isConcurrentLoadingSupported());
+    }
+
+    /**
+     * Returns <code>true</code> if {@link #openContents(GAV)} may be called concurrently.
+     */
+    protected boolean isConcurrentLoadingSupported() {
+        return false;
+    }
+
+    /**
+     * Returns the logger passed to the constructor, or <code>null</code>.
+     */
+    protected MavenLogger getLogger() {
+        return logger;
+    }
+
+    /**
+     * Opens the p2 artifacts XML file of the given project.
+     */
+    protected InputStream openContents(GAV gav) throws IOException {
+        return contentLocator.getContents(gav, RepositoryLayoutHelper.CLASSIFIER_P2_ARTIFACTS,
+                RepositoryLayoutHelper.EXTENSION_P2_ARTIFACTS);
     }
 
     @Override
-    public boolean contains(IArtifactDescriptor descriptor) {
+    public synchronized boolean contains(IArtifactDescriptor descriptor) {
         if (descriptor == null)
             throw new NullPointerException();
         return descriptors.contains(descriptor);
     }
 
     @Override
-    public boolean contains(IArtifactKey key) {
+    public synchronized boolean contains(IArtifactKey key) {
         if (key == null)
             throw new NullPointerException();
         return descriptorsMap.containsKey(key);
     }
 
     @Override
-    public IArtifactDescriptor[] getArtifactDescriptors(IArtifactKey key) {
+    public synchronized IArtifactDescriptor[] getArtifactDescriptors(IArtifactKey key) {
         Set<IArtifactDescriptor> descriptors = descriptorsMap.get(key);
         if (descriptors == null) {
             return ARTIFACT_DESCRIPTOR_ARRAY;
@@ -140,12 +203,19 @@ public abstract class AbstractMavenArtifactRepository extends AbstractArtifactRe
     }
 
     @Override
-    public void addDescriptor(IArtifactDescriptor descriptor) {
+    public synchronized void addDescriptor(IArtifactDescriptor descriptor) {
         super.addDescriptor(descriptor);
         internalAddDescriptor(descriptor);
     }
 
-    protected final void internalAddDescriptor(IArtifactDescriptor descriptor) {
+    private synchronized void internalAddDescriptors(Collection<IArtifactDescriptor> newDescriptors) {
+        for (IArtifactDescriptor descriptor : newDescriptors) {
+            internalAddDescriptor(descriptor);
+        }
+    }
+
+    protected final synchronized void internalAddDescriptor(IArtifactDescriptor descriptor) {
+        descriptorsChanged();
         descriptors.add(descriptor);
 
         IArtifactKey key = descriptor.getArtifactKey();
@@ -161,7 +231,7 @@ public abstract class AbstractMavenArtifactRepository extends AbstractArtifactRe
 
     // TODO shouldn't this be implemented in the super class from p2?
     @Override
-    public void addDescriptors(IArtifactDescriptor[] descriptors) {
+    public synchronized void addDescriptors(IArtifactDescriptor[] descriptors) {
         super.addDescriptors(descriptors);
 
         for (IArtifactDescriptor descriptor : descriptors) {
@@ -179,18 +249,58 @@ public abstract class AbstractMavenArtifactRepository extends AbstractArtifactRe
         return gav;
     }
 
+    /**
+     * Must be called by subclasses which change {@link #descriptors} or {@link #descriptorsMap}
+     * directly.
+     */
+    protected final synchronized void descriptorsChanged() {
+        keyIndex = null;
+        descriptorIndex = null;
+    }
+
     public IQueryResult<IArtifactKey> query(IQuery<IArtifactKey> query, IProgressMonitor monitor) {
-        return query.perform(descriptorsMap.keySet().iterator());
+        // the snapshot is immutable, so the query doesn't need to hold the lock
+        return getKeyIndex().query(query, monitor);
     }
 
     public IQueryable<IArtifactDescriptor> descriptorQueryable() {
         return new IQueryable<IArtifactDescriptor>() {
             public IQueryResult<IArtifactDescriptor> query(IQuery<IArtifactDescriptor> query, IProgressMonitor monitor) {
-                return query.perform(descriptors.iterator());
+                return getDescriptorIndex().query(query, monitor);
             }
         };
     }
 
+    private synchronized ArtifactIndex<IArtifactKey> getKeyIndex() {
+        if (keyIndex == null) {
+            Map<Object, List<IArtifactKey>> keysById = new HashMap<Object, List<IArtifactKey>>();
+            for (IArtifactKey key : descriptorsMap.keySet()) {
+                List<IArtifactKey> keys = keysById.get(key.getId());
+                if (keys == null) {
+                    keys = new ArrayList<IArtifactKey>(1);
+                    keysById.put(key.getId(), keys);
+                }
+                keys.add(key);
+            }
+            keyIndex = new ArtifactIndex<IArtifactKey>(new ArrayList<IArtifactKey>(descriptorsMap.keySet()),
+                    MEMBER_ID, keysById);
+        }
+        return keyIndex;
+    }
+
+    private synchronized ArtifactIndex<IArtifactDescriptor> getDescriptorIndex() {
+        if (descriptorIndex == null) {
+            Map<Object, Collection<IArtifactDescriptor>> descriptorsByKey;
+            descriptorsByKey = new HashMap<Object, Collection<IArtifactDescriptor>>(descriptorsMap.size() * 2);
+            for (Map.Entry<IArtifactKey, Set<IArtifactDescriptor>> entry : descriptorsMap.entrySet()) {
+                descriptorsByKey.put(entry.getKey(), new ArrayList<IArtifactDescriptor>(entry.getValue()));
+            }
+            descriptorIndex = new ArtifactIndex<IArtifactDescriptor>(new LinkedHashSet<IArtifactDescriptor>(
+                    descriptors), MEMBER_ARTIFACT_KEY, descriptorsByKey);
+        }
+        return descriptorIndex;
+    }
+
     // TODO shouldn't this be implemented in the super class from p2?
     @Override
     public IStatus getArtifacts(IArtifactRequest[] requests, IProgressMonitor monitor) {
@@ -241,7 +351,7 @@ public abstract class AbstractMavenArtifactRepository extends AbstractArtifactRe
         return Status.OK_STATUS;
     }
 
-    public File getArtifactFile(IArtifactKey key) {
+    public synchronized File getArtifactFile(IArtifactKey key) {
         Set<IArtifactDescriptor> descriptors = descriptorsMap.get(key);
         if (descriptors.isEmpty())
             return null;
@@ -15,29 +15,41 @@ import java.io.InputStream;
 import java.net.URI;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.index.IIndex;
+import org.eclipse.equinox.p2.metadata.index.IIndexProvider;
 import org.eclipse.equinox.p2.query.IQuery;
 import org.eclipse.equinox.p2.query.IQueryResult;
 import org.eclipse.equinox.p2.repository.IRepositoryReference;
 import org.eclipse.equinox.p2.repository.metadata.spi.AbstractMetadataRepository;
+import org.eclipse.tycho.core.facade.MavenLogger;
 import org.eclipse.tycho.p2.maven.repository.xmlio.MetadataIO;
 import org.eclipse.tycho.p2.repository.GAV;
 import org.eclipse.tycho.p2.repository.RepositoryLayoutHelper;
 import org.eclipse.tycho.p2.repository.RepositoryReader;
 import org.eclipse.tycho.p2.repository.TychoRepositoryIndex;
 
-public abstract class AbstractMavenMetadataRepository extends AbstractMetadataRepository {
+/**
+ * Base class for p2 metadata repositories with GAV-based storage. Queries are answered from id and
+ * capability indexes, like in p2's own repositories.
+ */
+public abstract class AbstractMavenMetadataRepository extends AbstractMetadataRepository implements
+        IIndexProvider<IInstallableUnit> {
 //    private static final String REPOSITORY_TYPE = AbstractMavenMetadataRepository.class.getName();
 //
 //    private static final String REPOSITORY_VERSION = "1.0.0";
 
+    private static final AtomicLong REVISIONS = new AtomicLong();
+
     protected final TychoRepositoryIndex projectIndex;
 
     protected final RepositoryReader contentLocator;
@@ -46,6 +58,17 @@ public abstract class AbstractMavenMetadataRepository extends AbstractMetadataRe
 
     protected Map<GAV, Set<IInstallableUnit>> unitsMap = new LinkedHashMap<GAV, Set<IInstallableUnit>>();
 
+    private volatile long revision = REVISIONS.incrementAndGet();
+
+    private final MavenLogger logger;
+
+    /**
+     * Index of the units at {@link #indexRevision}; guarded by the repository instance
+     */
+    private InstallableUnitIndex index;
+
+    private long indexRevision;
+
     public AbstractMavenMetadataRepository(URI location, TychoRepositoryIndex projectIndex,
             RepositoryReader contentLocator) {
         this(Activator.getProvisioningAgent(), location, projectIndex, contentLocator);
@@ -53,6 +76,15 @@ public abstract class AbstractMavenMetadataRepository extends AbstractMetadataRe
 
     public AbstractMavenMetadataRepository(IProvisioningAgent agent, URI location, TychoRepositoryIndex projectIndex,
             RepositoryReader contentLocator) {
+        this(agent, location, projectIndex, contentLocator, null);
+    }
+
+    /**
+     * @param logger
+     *            the logger to report projects which cannot be loaded, or <code>null</code>
+     */
+    public AbstractMavenMetadataRepository(IProvisioningAgent agent, URI location, TychoRepositoryIndex projectIndex,
+            RepositoryReader contentLocator, MavenLogger logger) {
         // super( location.toString(), REPOSITORY_TYPE, REPOSITORY_VERSION, location, null, null, properties );
         super(agent);
 
@@ -60,6 +92,7 @@ public abstract class AbstractMavenMetadataRepository extends AbstractMetadataRe
 
         this.projectIndex = projectIndex;
         this.contentLocator = contentLocator;
+        this.logger = logger;
 
         if (projectIndex != null && contentLocator != null) {
             load();
@@ -67,26 +100,65 @@ public abstract class AbstractMavenMetadataRepository extends AbstractMetadataRe
     }
 
     protected void load() {
-        MetadataIO io = new MetadataIO();
+        // shared by all loader threads, so that the units share their requirements and capabilities
+        final MetadataIO io = new MetadataIO();
 
-        for (GAV gav : projectIndex.getProjectGAVs()) {
-            try {
-                InputStream is = contentLocator.getContents(gav, RepositoryLayoutHelper.CLASSIFIER_P2_METADATA,
-                        RepositoryLayoutHelper.EXTENSION_P2_METADATA);
+        new ProjectContentLoader<Set<IInstallableUnit>>(logger) {
+            @Override
+            protected Set<IInstallableUnit> load(GAV gav) throws IOException {
+                InputStream is = openContents(gav);
                 try {
-                    Set<IInstallableUnit> gavUnits = io.readXML(is);
-
-                    unitsMap.put(gav, gavUnits);
-                    units.addAll(gavUnits);
+                    return io.readXML(is);
                 } finally {
                     is.close();
                 }
-            } catch (IOException e) {
-                // TODO throw properly typed exception if repository cannot be loaded
-                e.printStackTrace();
             }
 
-        }
+            @Override
+            protected void merge(GAV gav, Set<IInstallableUnit> gavUnits) {
+                unitsMap.put(gav, gavUnits);
+                units.addAll(gavUnits);
+            }
+        }.loadAll(projectIndex.getProjectGAVs(), isConcurrentLoadingSupported());
+
+        contentChanged();
+    }
+
+    /**
+     * Returns <code>true</code> if {@link #openContents(GAV)} may be called concurrently.
+     */
+    protected boolean isConcurrentLoadingSupported() {
+        return false;
+    }
+
+    /**
+     * Returns the logger passed to the constructor, or <code>null</code>.
+     */
+    protected MavenLogger getLogger() {
+        return logger;
+    }
+
+    /**
+     * Opens the p2 metadata XML file of the given project.
+     */
+    protected InputStream openContents(GAV gav) throws IOException {
+        return contentLocator.getContents(gav, RepositoryLayoutHelper.CLASSIFIER_P2_METADATA,
+                RepositoryLayoutHelper.EXTENSION_P2_METADATA);
+    }
+
+    /**
+     * Must be called by subclasses whenever installable units are added or removed.
+     */
+    protected void contentChanged() {
+        revision = REVISIONS.incrementAndGet();
+    }
+
+    /**
+     * Returns a number which changes whenever the content of this repository changes. Revisions are
+     * unique across all repository instances, so they can be used in cache keys.
+     */
+    public long getRevision() {
+        return revision;
     }
 
     @Override
@@ -94,7 +166,32 @@ public abstract class AbstractMavenMetadataRepository extends AbstractMetadataRe
     }
 
     public IQueryResult<IInstallableUnit> query(IQuery<IInstallableUnit> query, IProgressMonitor monitor) {
-        return query.perform(units.iterator());
+        return getUnitIndex().query(query, monitor);
+    }
+
+    public IIndex<IInstallableUnit> getIndex(String memberName) {
+        return getUnitIndex().getIndex(memberName);
+    }
+
+    public Iterator<IInstallableUnit> everything() {
+        return getUnitIndex().everything();
+    }
+
+    public Object getManagedProperty(Object client, String memberName, Object key) {
+        return getUnitIndex().getManagedProperty(client, memberName, key);
+    }
+
+    /**
+     * Returns a snapshot of the current content. The snapshot is only taken on the first query
+     * after the content has changed, and its indexes are only built when a query needs them.
+     */
+    private synchronized InstallableUnitIndex getUnitIndex() {
+        long currentRevision = revision;
+        if (index == null || indexRevision != currentRevision) {
+            index = new InstallableUnitIndex(units);
+            indexRevision = currentRevision;
+        }
+        return index;
     }
 
     /**
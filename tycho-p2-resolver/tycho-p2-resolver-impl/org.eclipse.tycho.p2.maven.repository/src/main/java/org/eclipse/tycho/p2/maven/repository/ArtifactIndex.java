@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.p2.maven.repository;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.equinox.internal.p2.metadata.index.Index;
+import org.eclipse.equinox.internal.p2.metadata.index.IndexProvider;
+import org.eclipse.equinox.p2.metadata.expression.IEvaluationContext;
+import org.eclipse.equinox.p2.metadata.expression.IExpression;
+import org.eclipse.equinox.p2.metadata.index.IIndex;
+
+/**
+ * Immutable snapshot of the artifact keys or descriptors of an artifact repository, with an index
+ * over one member, e.g. the id of the artifact keys. Like p2's
+ * {@link org.eclipse.equinox.internal.p2.metadata.index.IdIndex}, the index only answers queries
+ * which compare the indexed member with constants; all other queries scan all elements.
+ */
+@SuppressWarnings("restriction")
+class ArtifactIndex<T> extends IndexProvider<T> {
+
+    private final Collection<T> elements;
+
+    private final String memberName;
+
+    private final Map<Object, ? extends Collection<T>> elementsByMember;
+
+    private final IIndex<T> memberIndex = new MemberIndex();
+
+    /**
+     * @param elementsByMember
+     *            the elements by the value of the indexed member; not copied, so neither the map
+     *            nor its values may be changed afterwards
+     */
+    ArtifactIndex(Collection<T> elements, String memberName, Map<Object, ? extends Collection<T>> elementsByMember) {
+        this.elements = elements;
+        this.memberName = memberName;
+        this.elementsByMember = elementsByMember;
+    }
+
+    public IIndex<T> getIndex(String memberName) {
+        if (this.memberName.equals(memberName)) {
+            return memberIndex;
+        }
+        return null;
+    }
+
+    public Iterator<T> everything() {
+        return elements.iterator();
+    }
+
+    public Object getManagedProperty(Object client, String memberName, Object key) {
+        return null;
+    }
+
+    private Collection<T> getElements(Object memberValue) {
+        Collection<T> result = elementsByMember.get(memberValue);
+        if (result == null) {
+            return Collections.emptySet();
+        }
+        return result;
+    }
+
+    private class MemberIndex extends Index<T> {
+        public Iterator<T> getCandidates(IEvaluationContext ctx, IExpression variable, IExpression booleanExpr) {
+            Object queriedValues = getQueriedIDs(ctx, variable, memberName, booleanExpr, null);
+            if (queriedValues == null) {
+                // the query doesn't restrict the indexed member -> full scan
+                return null;
+            }
+
+            if (!(queriedValues instanceof Object[])) {
+                return getElements(queriedValues).iterator();
+            }
+            Set<T> result = new LinkedHashSet<T>();
+            for (Object value : (Object[]) queriedValues) {
+                result.addAll(getElements(value));
+            }
+            return result.iterator();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.p2.maven.repository;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
+import org.eclipse.equinox.internal.p2.metadata.index.CapabilityIndex;
+import org.eclipse.equinox.internal.p2.metadata.index.IdIndex;
+import org.eclipse.equinox.internal.p2.metadata.index.IndexProvider;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.index.IIndex;
+
+/**
+ * Immutable, indexed set of installable units.
+ * <p>
+ * In contrast to {@link org.eclipse.equinox.internal.p2.director.QueryableArray}, a single instance
+ * can be queried concurrently, e.g. by the slicers and projectors of all projects which share the
+ * same set of repositories. The id and capability indexes are built on first use, so queries which
+ * don't need them (like {@link org.eclipse.equinox.p2.query.QueryUtil#ALL_UNITS}) don't pay for
+ * them.
+ */
+@SuppressWarnings("restriction")
+public class InstallableUnitIndex extends IndexProvider<IInstallableUnit> {
+
+    private final Set<IInstallableUnit> units;
+
+    private volatile IIndex<IInstallableUnit> idIndex;
+
+    private volatile IIndex<IInstallableUnit> capabilityIndex;
+
+    public InstallableUnitIndex(Collection<IInstallableUnit> units) {
+        this.units = Collections.unmodifiableSet(new LinkedHashSet<IInstallableUnit>(units));
+    }
+
+    public IIndex<IInstallableUnit> getIndex(String memberName) {
+        if (InstallableUnit.MEMBER_ID.equals(memberName)) {
+            IIndex<IInstallableUnit> result = idIndex;
+            if (result == null) {
+                synchronized (this) {
+                    if (idIndex == null) {
+                        idIndex = new IdIndex(units.iterator());
+                    }
+                    result = idIndex;
+                }
+            }
+            return result;
+        }
+        if (InstallableUnit.MEMBER_PROVIDED_CAPABILITIES.equals(memberName)) {
+            IIndex<IInstallableUnit> result = capabilityIndex;
+            if (result == null) {
+                synchronized (this) {
+                    if (capabilityIndex == null) {
+                        capabilityIndex = new CapabilityIndex(units.iterator());
+                    }
+                    result = capabilityIndex;
+                }
+            }
+            return result;
+        }
+        return null;
+    }
+
+    public Iterator<IInstallableUnit> everything() {
+        return units.iterator();
+    }
+
+    public boolean contains(IInstallableUnit unit) {
+        return units.contains(unit);
+    }
+
+    public Object getManagedProperty(Object client, String memberName, Object key) {
+        // translated properties are not supported
+        return null;
+    }
+
+    public int size() {
+        return units.size();
+    }
+}
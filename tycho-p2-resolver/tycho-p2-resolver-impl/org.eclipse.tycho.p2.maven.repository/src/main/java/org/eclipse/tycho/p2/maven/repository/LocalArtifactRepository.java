@@ -14,7 +14,9 @@ import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.HashSet;
 import java.util.Set;
@@ -24,8 +26,10 @@ import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.metadata.IArtifactKey;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactDescriptor;
 import org.eclipse.equinox.p2.repository.artifact.spi.ArtifactDescriptor;
+import org.eclipse.tycho.core.facade.MavenLogger;
 import org.eclipse.tycho.p2.maven.repository.xmlio.ArtifactsIO;
 import org.eclipse.tycho.p2.repository.GAV;
+import org.eclipse.tycho.p2.repository.LocalMetadataStore;
 import org.eclipse.tycho.p2.repository.LocalRepositoryReader;
 import org.eclipse.tycho.p2.repository.LocalTychoRepositoryIndex;
 import org.eclipse.tycho.p2.repository.RepositoryLayoutHelper;
@@ -36,6 +40,9 @@ public class LocalArtifactRepository extends AbstractMavenArtifactRepository {
 
     private final Set<IArtifactKey> changedDescriptors = new HashSet<IArtifactKey>();
 
+    // no initializer because this field is already set while the super constructor loads the repository
+    private LocalMetadataStore store;
+
     public LocalArtifactRepository(File location) {
         this(Activator.getProvisioningAgent(), location);
     }
@@ -49,6 +56,55 @@ public class LocalArtifactRepository extends AbstractMavenArtifactRepository {
         super(Activator.getProvisioningAgent(), location.toURI(), projectIndex, contentLocator);
     }
 
+    /**
+     * Projects which cannot be loaded are reported to the given logger.
+     */
+    public LocalArtifactRepository(File location, TychoRepositoryIndex projectIndex, RepositoryReader contentLocator,
+            MavenLogger logger) {
+        super(Activator.getProvisioningAgent(), location.toURI(), projectIndex, contentLocator, logger);
+    }
+
+    @Override
+    protected void loadMaven(TychoRepositoryIndex projectIndex) {
+        super.loadMaven(projectIndex);
+
+        if (store != null) {
+            saveStore();
+        }
+    }
+
+    @Override
+    protected InputStream openContents(GAV gav) throws IOException {
+        if (!(getContentLocator() instanceof LocalRepositoryReader)) {
+            return super.openContents(gav);
+        }
+        return getStore().getContents(gav);
+    }
+
+    @Override
+    protected boolean isConcurrentLoadingSupported() {
+        // the store is thread-safe
+        return getContentLocator() instanceof LocalRepositoryReader;
+    }
+
+    private void saveStore() {
+        try {
+            getStore().save();
+        } catch (IOException e) {
+            // the store is only an optimization; the XML files are up-to-date
+            if (getLogger() != null) {
+                getLogger().warn("Could not save the p2 data store of the local repository", e);
+            }
+        }
+    }
+
+    private synchronized LocalMetadataStore getStore() {
+        if (store == null) {
+            store = LocalMetadataStore.newArtifactsStore(getBasedir());
+        }
+        return store;
+    }
+
     private void saveMaven() {
         File location = getBasedir();
 
@@ -81,6 +137,7 @@ public class LocalArtifactRepository extends AbstractMavenArtifactRepository {
                     } finally {
                         os.close();
                     }
+                    getStore().update(gav);
                 } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
@@ -93,6 +150,8 @@ public class LocalArtifactRepository extends AbstractMavenArtifactRepository {
             throw new RuntimeException(e);
         }
 
+        saveStore();
+
         changedDescriptors.clear();
     }
 
@@ -102,7 +161,7 @@ public class LocalArtifactRepository extends AbstractMavenArtifactRepository {
         return relpath;
     }
 
-    public void save() {
+    public synchronized void save() {
         saveMaven();
     }
 
@@ -118,29 +177,25 @@ public class LocalArtifactRepository extends AbstractMavenArtifactRepository {
         File file = new File(basedir, RepositoryLayoutHelper.getRelativePath(gav, null, null));
         file.getParentFile().mkdirs();
 
-        // TODO ideally, repository index should be updated after artifact has been written to the file
-
         ArtifactDescriptor newDescriptor = new ArtifactDescriptor(descriptor);
         newDescriptor.setRepository(this);
-        descriptors.add(newDescriptor);
-
-        IArtifactKey key = newDescriptor.getArtifactKey();
-        Set<IArtifactDescriptor> keyDescriptors = descriptorsMap.get(key);
-        if (keyDescriptors == null) {
-            keyDescriptors = new HashSet<IArtifactDescriptor>();
-            descriptorsMap.put(key, keyDescriptors);
-        }
-        keyDescriptors.add(newDescriptor);
-
-        changedDescriptors.add(key);
 
+        // the artifact is written to a temporary file, so that neither the file nor the descriptor
+        // are visible, e.g. to contains(), before the artifact is complete
         try {
-            return new FileOutputStream(file);
-        } catch (FileNotFoundException e) {
+            File tmpFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            return new ArtifactOutputStream(tmpFile, file, newDescriptor);
+        } catch (IOException e) {
             throw new ProvisionException("Could not create artifact file", e);
         }
     }
 
+    private synchronized void addWrittenDescriptor(ArtifactDescriptor descriptor) {
+        internalAddDescriptor(descriptor);
+
+        changedDescriptors.add(descriptor.getArtifactKey());
+    }
+
     private File getBasedir() {
         return new File(getLocation());
     }
@@ -151,20 +206,20 @@ public class LocalArtifactRepository extends AbstractMavenArtifactRepository {
     }
 
     @Override
-    public boolean contains(IArtifactDescriptor descriptor) {
+    public synchronized boolean contains(IArtifactDescriptor descriptor) {
         // TODO there should not be a descriptor if the file doesn't exist!
         return super.contains(descriptor) && getArtifactFile(descriptor).canRead();
     }
 
     @Override
-    public void addDescriptor(IArtifactDescriptor descriptor) {
+    public synchronized void addDescriptor(IArtifactDescriptor descriptor) {
         super.addDescriptor(descriptor);
 
         changedDescriptors.add(descriptor.getArtifactKey());
     }
 
     @Override
-    public void removeDescriptor(IArtifactDescriptor descriptor) {
+    public synchronized void removeDescriptor(IArtifactDescriptor descriptor) {
         super.removeDescriptor(descriptor);
 
         IArtifactKey key = descriptor.getArtifactKey();
@@ -179,6 +234,7 @@ public class LocalArtifactRepository extends AbstractMavenArtifactRepository {
         }
 
         descriptors.remove(descriptor);
+        descriptorsChanged();
         getArtifactFile(descriptor).delete();
 
         changedDescriptors.remove(descriptor.getArtifactKey());
@@ -186,4 +242,52 @@ public class LocalArtifactRepository extends AbstractMavenArtifactRepository {
         // TODO who needs this method?
     }
 
+    /**
+     * Moves the temporary file to the artifact file and adds the descriptor when the artifact has
+     * been written completely.
+     */
+    private final class ArtifactOutputStream extends FilterOutputStream {
+        private final File tmpFile;
+
+        private final File file;
+
+        private final ArtifactDescriptor descriptor;
+
+        private boolean closed;
+
+        ArtifactOutputStream(File tmpFile, File file, ArtifactDescriptor descriptor) throws FileNotFoundException {
+            super(new FileOutputStream(tmpFile));
+            this.tmpFile = tmpFile;
+            this.file = file;
+            this.descriptor = descriptor;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                super.close();
+            } catch (IOException e) {
+                tmpFile.delete();
+                throw e;
+            }
+            if (!tmpFile.renameTo(file)) {
+                // on Windows, the target must not exist
+                file.delete();
+                if (!tmpFile.renameTo(file)) {
+                    tmpFile.delete();
+                    throw new IOException("Could not rename " + tmpFile + " to " + file);
+                }
+            }
+            addWrittenDescriptor(descriptor);
+        }
+    }
 }
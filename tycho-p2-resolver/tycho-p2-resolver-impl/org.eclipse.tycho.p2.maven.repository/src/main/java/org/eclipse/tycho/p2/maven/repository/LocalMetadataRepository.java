@@ -12,14 +12,18 @@ package org.eclipse.tycho.p2.maven.repository;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.util.Collection;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.tycho.core.facade.MavenLogger;
 import org.eclipse.tycho.p2.maven.repository.xmlio.MetadataIO;
 import org.eclipse.tycho.p2.repository.GAV;
+import org.eclipse.tycho.p2.repository.LocalMetadataStore;
+import org.eclipse.tycho.p2.repository.LocalRepositoryReader;
 import org.eclipse.tycho.p2.repository.LocalTychoRepositoryIndex;
 import org.eclipse.tycho.p2.repository.RepositoryLayoutHelper;
 import org.eclipse.tycho.p2.repository.RepositoryReader;
@@ -29,6 +33,9 @@ public class LocalMetadataRepository extends AbstractMavenMetadataRepository {
 
     private Set<GAV> changedGAVs = new LinkedHashSet<GAV>();
 
+    // no initializer because this field is already set while the super constructor loads the repository
+    private LocalMetadataStore store;
+
     /**
      * Create new repository
      */
@@ -49,6 +56,55 @@ public class LocalMetadataRepository extends AbstractMavenMetadataRepository {
         super(location, projectIndex, contentLocator);
     }
 
+    /**
+     * Local existing repository; projects which cannot be loaded are reported to the given logger
+     */
+    public LocalMetadataRepository(URI location, TychoRepositoryIndex projectIndex, RepositoryReader contentLocator,
+            MavenLogger logger) {
+        super(Activator.getProvisioningAgent(), location, projectIndex, contentLocator, logger);
+    }
+
+    @Override
+    protected void load() {
+        super.load();
+
+        if (store != null) {
+            saveStore();
+        }
+    }
+
+    @Override
+    protected InputStream openContents(GAV gav) throws IOException {
+        if (!(contentLocator instanceof LocalRepositoryReader)) {
+            return super.openContents(gav);
+        }
+        return getStore().getContents(gav);
+    }
+
+    @Override
+    protected boolean isConcurrentLoadingSupported() {
+        // the store is thread-safe
+        return contentLocator instanceof LocalRepositoryReader;
+    }
+
+    private void saveStore() {
+        try {
+            getStore().save();
+        } catch (IOException e) {
+            // the store is only an optimization; the XML files are up-to-date
+            if (getLogger() != null) {
+                getLogger().warn("Could not save the p2 data store of the local repository", e);
+            }
+        }
+    }
+
+    private synchronized LocalMetadataStore getStore() {
+        if (store == null) {
+            store = LocalMetadataStore.newMetadataStore(new File(getLocation()));
+        }
+        return store;
+    }
+
     @Override
     public void addInstallableUnits(Collection<IInstallableUnit> newUnits) {
         for (IInstallableUnit unit : newUnits) {
@@ -61,7 +117,9 @@ public class LocalMetadataRepository extends AbstractMavenMetadataRepository {
     }
 
     public void addInstallableUnit(IInstallableUnit unit, GAV gav) {
-        this.units.add(unit);
+        if (this.units.add(unit)) {
+            contentChanged();
+        }
 
         Set<IInstallableUnit> gavUnits = unitsMap.get(gav);
         if (gavUnits == null) {
@@ -76,7 +134,6 @@ public class LocalMetadataRepository extends AbstractMavenMetadataRepository {
     public void save() {
         File basedir = new File(getLocation());
 
-        // XXX lock
         LocalTychoRepositoryIndex index = new LocalTychoRepositoryIndex(basedir,
                 LocalTychoRepositoryIndex.METADATA_INDEX_RELPATH);
 
@@ -96,6 +153,7 @@ public class LocalMetadataRepository extends AbstractMavenMetadataRepository {
                     io.writeXML(gavUnits, file);
 
                     index.addProject(gav);
+                    getStore().update(gav);
                 } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
@@ -108,6 +166,8 @@ public class LocalMetadataRepository extends AbstractMavenMetadataRepository {
             throw new RuntimeException(e);
         }
 
+        saveStore();
+
         changedGAVs.clear();
     }
 
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.p2.maven.repository;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
+import org.eclipse.tycho.core.facade.MavenLogger;
+import org.eclipse.tycho.p2.repository.GAV;
+import org.eclipse.tycho.p2.util.DaemonThreadFactory;
+
+/**
+ * Loads the p2 data of the projects in a GAV-based repository. If enabled, the per-project files
+ * are read and parsed concurrently. The results returned by {@link #load(GAV)} are always merged
+ * in the calling thread and in the order of the GAVs, so that ordered content of the repository
+ * doesn't depend on thread scheduling. Loaders for unordered content may instead add the content
+ * while loading it, and return <code>null</code>.
+ */
+@SuppressWarnings("restriction")
+abstract class ProjectContentLoader<T> {
+
+    /**
+     * Below this number of projects, starting threads costs more than it saves
+     */
+    private static final int MIN_PROJECTS_PER_THREAD = 8;
+
+    private final MavenLogger logger;
+
+    /**
+     * @param logger
+     *            the logger to report projects which cannot be loaded, or <code>null</code> to report
+     *            them to the p2 log
+     */
+    ProjectContentLoader(MavenLogger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Reads the p2 data of the given project. Called concurrently if concurrent loading is enabled.
+     */
+    protected abstract T load(GAV gav) throws IOException;
+
+    /**
+     * Adds the p2 data of the given project to the repository. Always called in the thread which
+     * called {@link #loadAll(Collection, boolean)}. Does nothing by default.
+     */
+    protected void merge(GAV gav, T content) {
+    }
+
+    void loadAll(Collection<GAV> gavs, boolean concurrent) {
+        int threads = Math.min(gavs.size() / MIN_PROJECTS_PER_THREAD, Runtime.getRuntime().availableProcessors());
+        if (!concurrent || threads < 2) {
+            for (GAV gav : gavs) {
+                try {
+                    merge(gav, load(gav));
+                } catch (IOException e) {
+                    reportFailure(gav, e);
+                }
+            }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new DaemonThreadFactory("tycho-repository-loader-"));
+        try {
+            List<Future<T>> futures = new ArrayList<Future<T>>(gavs.size());
+            for (final GAV gav : gavs) {
+                futures.add(executor.submit(new Callable<T>() {
+                    public T call() throws IOException {
+                        return load(gav);
+                    }
+                }));
+            }
+
+            int i = 0;
+            for (GAV gav : gavs) {
+                try {
+                    merge(gav, getContent(futures.get(i++)));
+                } catch (IOException e) {
+                    reportFailure(gav, e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private T getContent(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while loading the p2 data of the repository", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private void reportFailure(GAV gav, IOException e) {
+        String message = "Could not load p2 data of " + gav.toExternalForm() + ": " + e.getMessage();
+        if (logger != null) {
+            logger.warn(message, e);
+        } else {
+            LogHelper.log(new Status(IStatus.WARNING, Activator.ID, message, e));
+        }
+    }
+}
@@ -16,6 +16,9 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
@@ -29,9 +32,25 @@ import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
+/**
+ * Reads and writes the p2 artifacts files of Maven artifacts.
+ * <p>
+ * Descriptors are passed to the consumer while the files are parsed. The artifact ids,
+ * classifiers and property keys of all descriptors read by the same instance are shared. Instances
+ * are thread-safe.
+ */
 @SuppressWarnings("restriction")
 public class ArtifactsIO {
 
+    /**
+     * Callback for artifact descriptors read from an artifacts file.
+     */
+    public interface ArtifactDescriptorConsumer {
+        void accept(IArtifactDescriptor descriptor);
+    }
+
+    private final InstancePool pool = new InstancePool();
+
     private static class Writer35M7 extends SimpleArtifactRepositoryIO.Writer {
 
         public Writer35M7(OutputStream output) throws IOException {
@@ -47,10 +66,20 @@ public class ArtifactsIO {
 
     private static class Parser35M7 extends SimpleArtifactRepositoryIO.Parser {
 
-        private Set<IArtifactDescriptor> artifacts;
+        private final Set<IArtifactDescriptor> artifacts;
+
+        private final InstancePool pool;
 
-        public Parser35M7(BundleContext context, String bundleId) {
+        public Parser35M7(BundleContext context, String bundleId, Set<IArtifactDescriptor> artifacts,
+                InstancePool pool) {
             super(context, bundleId);
+            this.artifacts = artifacts;
+            this.pool = pool;
+        }
+
+        @Override
+        protected String intern(String string) {
+            return pool.intern(string);
         }
 
         public synchronized void parse(InputStream stream) throws IOException {
@@ -62,8 +91,8 @@ public class ArtifactsIO {
                 ArtifactsHandler artifactsHandler = new ArtifactsHandler();
                 xmlReader.setContentHandler(new RepositoryDocHandler(ARTIFACTS_ELEMENT, artifactsHandler));
                 xmlReader.parse(new InputSource(stream));
-                if (isValidXML()) {
-                    artifacts = artifactsHandler.getArtifacts();
+                if (!isValidXML()) {
+                    throw new IOException("Invalid p2 artifacts: " + status.getMessage());
                 }
             } catch (SAXException e) {
                 throw new IOException(e.getMessage());
@@ -81,15 +110,9 @@ public class ArtifactsIO {
 
         protected class ArtifactsHandler extends RootHandler {
 
-            private Set<IArtifactDescriptor> artifacts = new LinkedHashSet<IArtifactDescriptor>();
-
             public ArtifactsHandler() {
             }
 
-            public Set<IArtifactDescriptor> getArtifacts() {
-                return artifacts;
-            }
-
             public void startElement(String name, Attributes attributes) {
                 if (name.equals(ARTIFACT_ELEMENT)) {
                     new ArtifactHandler(this, attributes, artifacts);
@@ -103,18 +126,60 @@ public class ArtifactsIO {
             }
         }
 
-        public Set<IArtifactDescriptor> getArtifacts() {
-            return artifacts;
+    }
+
+    /**
+     * Passes the descriptors to the consumer as soon as they have been parsed, instead of
+     * collecting them.
+     */
+    private static final class ConsumingSet extends AbstractSet<IArtifactDescriptor> {
+
+        private final ArtifactDescriptorConsumer consumer;
+
+        ConsumingSet(ArtifactDescriptorConsumer consumer) {
+            this.consumer = consumer;
         }
 
+        @Override
+        public boolean add(IArtifactDescriptor descriptor) {
+            consumer.accept(descriptor);
+            return true;
+        }
+
+        @Override
+        public Iterator<IArtifactDescriptor> iterator() {
+            return Collections.<IArtifactDescriptor> emptySet().iterator();
+        }
+
+        @Override
+        public int size() {
+            return 0;
+        }
     }
 
     public Set<IArtifactDescriptor> readXML(InputStream is) throws IOException {
-        Parser35M7 parser = new Parser35M7(Activator.getContext(), Activator.ID);
-
-        parser.parse(is);
+        final Set<IArtifactDescriptor> descriptors = new LinkedHashSet<IArtifactDescriptor>();
+        readXML(is, new ArtifactDescriptorConsumer() {
+            public void accept(IArtifactDescriptor descriptor) {
+                descriptors.add(descriptor);
+            }
+        });
+        return descriptors;
+    }
 
-        return parser.getArtifacts();
+    /**
+     * Reads the artifact descriptors from the given stream and passes each descriptor to the
+     * consumer as soon as it has been parsed.
+     * <p>
+     * Errors may only be detected at the end of the stream. In this case, the descriptors which
+     * have already been passed to the consumer stay where the consumer has put them; callers which
+     * need all or nothing must collect the descriptors and only use them if no exception is thrown.
+     * 
+     * @throws IOException
+     *             if the stream cannot be read or does not contain valid p2 artifacts XML
+     */
+    public void readXML(InputStream is, ArtifactDescriptorConsumer consumer) throws IOException {
+        new Parser35M7(Activator.getContext(), Activator.ID, new ConsumingSet(consumer), pool).parse(is);
     }
 
     public void writeXML(Set<IArtifactDescriptor> descriptors, OutputStream os) throws IOException {
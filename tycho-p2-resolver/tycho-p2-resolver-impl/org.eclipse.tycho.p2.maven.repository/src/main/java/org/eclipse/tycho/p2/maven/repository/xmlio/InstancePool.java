@@ -0,0 +1,43 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.p2.maven.repository.xmlio;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Thread-safe pool of canonical instances of immutable objects, e.g. of the strings, requirements
+ * and capabilities which are repeated in many parsed installable units. The pool only holds the
+ * instances as long as the pool itself is referenced.
+ */
+class InstancePool {
+
+    private final ConcurrentMap<Object, Object> instances = new ConcurrentHashMap<Object, Object>();
+
+    /**
+     * Returns the canonical instance which is equal to the given object.
+     */
+    @SuppressWarnings("unchecked")
+    <T> T intern(T object) {
+        if (object == null) {
+            return null;
+        }
+        Object existing = instances.putIfAbsent(object, object);
+        return existing != null ? (T) existing : object;
+    }
+
+    <T> T[] intern(T[] objects) {
+        for (int i = 0; i < objects.length; i++) {
+            objects[i] = intern(objects[i]);
+        }
+        return objects;
+    }
+}
@@ -17,9 +17,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -31,6 +33,8 @@ import org.eclipse.equinox.internal.p2.metadata.repository.Messages;
 import org.eclipse.equinox.internal.p2.metadata.repository.io.MetadataParser;
 import org.eclipse.equinox.internal.p2.metadata.repository.io.MetadataWriter;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.IProvidedCapability;
+import org.eclipse.equinox.p2.metadata.IRequirement;
 import org.eclipse.equinox.p2.metadata.MetadataFactory;
 import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
 import org.eclipse.tycho.p2.maven.repository.Activator;
@@ -38,8 +42,23 @@ import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
+/**
+ * Reads and writes the p2 metadata files of Maven artifacts.
+ * <p>
+ * All units read by the same instance share their ids, versions and property values, and their
+ * requirements and provided capabilities, i.e. equal instances of these are only held once in
+ * memory. (The strings within the requirements and capabilities are not shared, unless the whole
+ * requirement or capability is.) Instances are thread-safe.
+ */
 @SuppressWarnings("restriction")
 public class MetadataIO {
+
+    private static final IRequirement[] EMPTY_REQUIREMENTS = new IRequirement[0];
+
+    private static final IProvidedCapability[] EMPTY_CAPABILITIES = new IProvidedCapability[0];
+
+    private final InstancePool pool = new InstancePool();
+
     private static class Writer extends MetadataWriter {
 
         public Writer(OutputStream output) throws UnsupportedEncodingException {
@@ -62,10 +81,11 @@ public class MetadataIO {
 
     private static class Parser extends MetadataParser {
 
-        private List<InstallableUnitDescription> units;
+        private final List<InstallableUnitDescription> units;
 
-        public Parser() {
+        public Parser(List<InstallableUnitDescription> units) {
             super(Activator.getContext(), Activator.ID);
+            this.units = units;
         }
 
         @Override
@@ -91,8 +111,8 @@ public class MetadataIO {
                 InstallableUnitsHandler repositoryHandler = new InstallableUnitsHandler();
                 xmlReader.setContentHandler(new RepositoryDocHandler(INSTALLABLE_UNITS_ELEMENT, repositoryHandler));
                 xmlReader.parse(new InputSource(stream));
-                if (isValidXML()) {
-                    units = repositoryHandler.getUnits();
+                if (!isValidXML()) {
+                    throw new IOException("Invalid p2 metadata: " + status.getMessage());
                 }
             } catch (SAXException e) {
                 if (!(e.getException() instanceof OperationCanceledException))
@@ -124,18 +144,12 @@ public class MetadataIO {
 
         private final class InstallableUnitsHandler extends RootHandler {
 
-            private List<InstallableUnitDescription> units = new ArrayList<InstallableUnitDescription>();
-
             @Override
             protected void handleRootAttributes(Attributes attributes) {
                 // TODO Auto-generated method stub
 
             }
 
-            public List<InstallableUnitDescription> getUnits() {
-                return units;
-            }
-
             @Override
             public void startElement(String name, Attributes attributes) throws SAXException {
                 if (name.equals(INSTALLABLE_UNIT_ELEMENT)) {
@@ -146,25 +160,58 @@ public class MetadataIO {
             }
         }
 
-        public List<InstallableUnitDescription> getUnits() {
-            return units;
-        }
     }
 
-    public Set<IInstallableUnit> readXML(InputStream is) throws IOException {
-        Parser parser = new Parser();
+    /**
+     * Creates the units as soon as their descriptions have been parsed, so that the descriptions
+     * don't need to be kept.
+     */
+    private final class UnitCreatingList extends AbstractList<InstallableUnitDescription> {
 
-        parser.parse(is, new NullProgressMonitor());
+        private final Set<IInstallableUnit> units;
 
-        Set<IInstallableUnit> units = new LinkedHashSet<IInstallableUnit>();
+        UnitCreatingList(Set<IInstallableUnit> units) {
+            this.units = units;
+        }
+
+        @Override
+        public boolean add(InstallableUnitDescription description) {
+            units.add(MetadataFactory.createInstallableUnit(intern(description)));
+            return true;
+        }
+
+        @Override
+        public InstallableUnitDescription get(int index) {
+            throw new IndexOutOfBoundsException();
+        }
 
-        for (InstallableUnitDescription desc : parser.getUnits()) {
-            units.add(MetadataFactory.createInstallableUnit(desc));
+        @Override
+        public int size() {
+            return 0;
         }
+    }
 
+    public Set<IInstallableUnit> readXML(InputStream is) throws IOException {
+        Set<IInstallableUnit> units = new LinkedHashSet<IInstallableUnit>();
+        new Parser(new UnitCreatingList(units)).parse(is, new NullProgressMonitor());
         return units;
     }
 
+    private InstallableUnitDescription intern(InstallableUnitDescription description) {
+        description.setId(pool.intern(description.getId()));
+        description.setVersion(pool.intern(description.getVersion()));
+        // the keys stay as they are: p2 keeps the original key when a property is replaced
+        List<Map.Entry<String, String>> properties = new ArrayList<Map.Entry<String, String>>(description
+                .getProperties().entrySet());
+        for (Map.Entry<String, String> property : properties) {
+            description.setProperty(property.getKey(), pool.intern(property.getValue()));
+        }
+        description.setRequirements(pool.intern(description.getRequirements().toArray(EMPTY_REQUIREMENTS)));
+        description.setMetaRequirements(pool.intern(description.getMetaRequirements().toArray(EMPTY_REQUIREMENTS)));
+        description.setCapabilities(pool.intern(description.getProvidedCapabilities().toArray(EMPTY_CAPABILITIES)));
+        return description;
+    }
+
     public void writeXML(Set<IInstallableUnit> units, OutputStream os) throws IOException {
         new Writer(os).write(units);
     }
@@ -269,6 +269,14 @@ public class SimpleArtifactRepositoryIO {
             return theRepository;
         }
 
+        /**
+         * Returns a canonical instance of the given string. Subclasses may override this method to
+         * share the strings which are repeated in many artifact descriptors.
+         */
+        protected String intern(String string) {
+            return string;
+        }
+
         protected Object getRootObject() {
             return theRepository;
         }
@@ -441,7 +449,8 @@ public class SimpleArtifactRepositoryIO {
                 String[] values = parseRequiredAttributes(attributes, required);
                 Version version = checkVersion(ARTIFACT_ELEMENT, VERSION_ATTRIBUTE, values[2]);
                 // TODO: resolve access restriction on ArtifactKey construction
-                currentArtifact = new ArtifactDescriptor(new ArtifactKey(values[0], values[1], version));
+                currentArtifact = new ArtifactDescriptor(new ArtifactKey(intern(values[0]), intern(values[1]),
+                        version));
             }
 
             public void startElement(String name, Attributes attributes) {
@@ -472,7 +481,10 @@ public class SimpleArtifactRepositoryIO {
                 if (isValidXML() && currentArtifact != null) {
                     Map properties = (propertiesHandler == null ? new OrderedProperties(0) : propertiesHandler
                             .getProperties());
-                    currentArtifact.addProperties(properties);
+                    for (Iterator iter = properties.entrySet().iterator(); iter.hasNext();) {
+                        Map.Entry property = (Map.Entry) iter.next();
+                        currentArtifact.setProperty(intern((String) property.getKey()), (String) property.getValue());
+                    }
 
                     properties = (repositoryPropertiesHandler == null ? new OrderedProperties(0)
                             : repositoryPropertiesHandler.getProperties());
@@ -27,4 +27,11 @@ public class P2RepositoryCacheImpl implements P2RepositoryCache {
     public void putRepository(URI location, Object metadataRepository, Object artifactRepository) {
     }
 
+    public Object getInstallableUnitIndex(Object repositorySetKey) {
+        return null;
+    }
+
+    public void putInstallableUnitIndex(Object repositorySetKey, Object index) {
+    }
+
 }
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.p2.resolver.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.List;
+
+import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.query.QueryUtil;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactRepository;
+import org.eclipse.tycho.p2.impl.Activator;
+import org.eclipse.tycho.p2.impl.resolver.ArtifactRepositorySnapshot;
+import org.eclipse.tycho.p2.impl.resolver.MetadataRepositorySnapshot;
+import org.eclipse.tycho.p2.impl.test.MavenLoggerStub;
+import org.eclipse.tycho.p2.impl.test.P2RepositoryCacheImpl;
+import org.eclipse.tycho.test.util.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+@SuppressWarnings("restriction")
+public class MetadataRepositorySnapshotTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private HttpServer server;
+
+    private File repository;
+
+    private URI location;
+
+    private File localRepository;
+
+    private File cacheDir;
+
+    @Before
+    public void setUp() throws Exception {
+        repository = tempFolder.newFolder("e342");
+        copy(new File("resources/repositories/e342/content.xml"), new File(repository, "content.xml"));
+        copy(new File("resources/repositories/e342/artifacts.xml"), new File(repository, "artifacts.xml"));
+
+        server = HttpServer.startServer();
+        location = new URI(server.addServer("e342", repository));
+
+        localRepository = tempFolder.newFolder("localrepo");
+        cacheDir = new File(localRepository, MetadataRepositorySnapshot.CACHE_RELPATH);
+    }
+
+    @After
+    public void stopHttpServer() throws Exception {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testUnchangedRepository() throws Exception {
+        loadRepository();
+
+        MetadataRepositorySnapshot snapshot = MetadataRepositorySnapshot.load(cacheDir, location, false,
+                new MavenLoggerStub());
+
+        Assert.assertNotNull(snapshot);
+        Assert.assertFalse(snapshot.query(QueryUtil.ALL_UNITS, null).isEmpty());
+    }
+
+    @Test
+    public void testChangedRepository() throws Exception {
+        loadRepository();
+
+        File content = new File(repository, "content.xml");
+        content.setLastModified(content.lastModified() + 10000);
+
+        Assert.assertNull(MetadataRepositorySnapshot.load(cacheDir, location, false, new MavenLoggerStub()));
+    }
+
+    @Test
+    public void testOffline() throws Exception {
+        loadRepository();
+
+        server.stop();
+        server = null;
+
+        Assert.assertNotNull(MetadataRepositorySnapshot.load(cacheDir, location, true, new MavenLoggerStub()));
+    }
+
+    @Test
+    public void testArtifactRepositorySnapshot() throws Exception {
+        loadRepository();
+
+        File artifactCacheDir = new File(localRepository, ArtifactRepositorySnapshot.CACHE_RELPATH);
+        List<IArtifactRepository> snapshot = ArtifactRepositorySnapshot.load(artifactCacheDir, location, false,
+                Activator.newProvisioningAgent(), new MavenLoggerStub());
+
+        Assert.assertNotNull(snapshot);
+        Assert.assertEquals(1, snapshot.size());
+        // artifacts are downloaded from the original repository
+        Assert.assertEquals(location, snapshot.get(0).getLocation());
+        Assert.assertTrue(snapshot.get(0).contains(new ArtifactKey("osgi.bundle", "org.eclipse.osgi",
+                Version.parseVersion("3.4.3.R34x_v20081215-1030"))));
+    }
+
+    @Test
+    public void testChangedArtifactRepository() throws Exception {
+        loadRepository();
+
+        File artifacts = new File(repository, "artifacts.xml");
+        artifacts.setLastModified(artifacts.lastModified() + 10000);
+
+        File artifactCacheDir = new File(localRepository, ArtifactRepositorySnapshot.CACHE_RELPATH);
+        Assert.assertNull(ArtifactRepositorySnapshot.load(artifactCacheDir, location, false,
+                Activator.newProvisioningAgent(), new MavenLoggerStub()));
+    }
+
+    private void loadRepository() {
+        ResolutionContextImpl context = new ResolutionContextImpl(localRepository, new MavenLoggerStub());
+        context.setRepositoryCache(new P2RepositoryCacheImpl());
+        context.addP2Repository(location);
+        context.stop();
+    }
+
+    private static void copy(File source, File target) throws IOException {
+        InputStream is = new FileInputStream(source);
+        try {
+            OutputStream os = new FileOutputStream(target);
+            try {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ((n = is.read(buffer)) != -1) {
+                    os.write(buffer, 0, n);
+                }
+            } finally {
+                os.close();
+            }
+        } finally {
+            is.close();
+        }
+    }
+}
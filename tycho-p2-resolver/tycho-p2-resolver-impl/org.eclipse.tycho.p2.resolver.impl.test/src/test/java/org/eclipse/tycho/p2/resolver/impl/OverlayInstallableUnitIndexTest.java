@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.p2.resolver.impl;
+
+import static org.eclipse.tycho.test.util.InstallableUnitUtil.createIU;
+import static org.eclipse.tycho.test.util.InstallableUnitUtil.createIUCapability;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.MetadataFactory;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.metadata.VersionRange;
+import org.eclipse.equinox.p2.query.IQuery;
+import org.eclipse.equinox.p2.query.QueryUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OverlayInstallableUnitIndexTest {
+
+    private final IInstallableUnit external = createIU("external", "1.0.0");
+
+    private final IInstallableUnit externalReactorId = createIU("reactor", "0.9.0");
+
+    private final IInstallableUnit reactor = createIU("reactor", "1.0.0");
+
+    private final IInstallableUnit capability = createIUCapability("provider", "1.0.0", "capability", "1.0.0");
+
+    @Test
+    public void testEverything() {
+        OverlayInstallableUnitIndex index = newIndex();
+
+        Set<IInstallableUnit> units = index.query(QueryUtil.ALL_UNITS, new NullProgressMonitor()).toUnmodifiableSet();
+
+        Assert.assertEquals(3, units.size());
+        Assert.assertTrue(units.contains(reactor));
+        Assert.assertTrue(units.contains(external));
+        Assert.assertTrue(units.contains(capability));
+    }
+
+    @Test
+    public void testExternalUnitWithReactorIdHidden() {
+        OverlayInstallableUnitIndex index = newIndex();
+
+        Set<IInstallableUnit> units = index.query(QueryUtil.createIUQuery("reactor"), new NullProgressMonitor())
+                .toUnmodifiableSet();
+
+        Assert.assertEquals(Collections.singleton(reactor), units);
+        Assert.assertFalse(index.contains(externalReactorId));
+    }
+
+    @Test
+    public void testCapabilityQuery() {
+        OverlayInstallableUnitIndex index = newIndex();
+
+        IQuery<IInstallableUnit> query = QueryUtil.createMatchQuery(MetadataFactory.createRequirement(
+                IInstallableUnit.NAMESPACE_IU_ID, "capability", new VersionRange(Version.create("1.0.0"), true,
+                        Version.create("2.0.0"), false), null, false, false).getMatches());
+        Set<IInstallableUnit> units = index.query(query, new NullProgressMonitor()).toUnmodifiableSet();
+
+        Assert.assertEquals(Collections.singleton(capability), units);
+    }
+
+    @Test
+    public void testSharedIndexNotModified() {
+        FingerprintedInstallableUnitIndex shared = newSharedIndex();
+        newIndex(shared);
+
+        Assert.assertEquals(3, shared.size());
+        Assert.assertTrue(shared.contains(externalReactorId));
+    }
+
+    private OverlayInstallableUnitIndex newIndex() {
+        return newIndex(newSharedIndex());
+    }
+
+    private OverlayInstallableUnitIndex newIndex(FingerprintedInstallableUnitIndex shared) {
+        List<IInstallableUnit> projectUnits = new ArrayList<IInstallableUnit>();
+        projectUnits.add(reactor);
+        return new OverlayInstallableUnitIndex(projectUnits, shared, Collections.singleton("reactor"));
+    }
+
+    private FingerprintedInstallableUnitIndex newSharedIndex() {
+        List<IInstallableUnit> externalUnits = new ArrayList<IInstallableUnit>();
+        externalUnits.add(external);
+        externalUnits.add(externalReactorId);
+        externalUnits.add(capability);
+        return new FingerprintedInstallableUnitIndex(externalUnits);
+    }
+}
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.p2.resolver.impl;
+
+import static org.eclipse.tycho.test.util.InstallableUnitUtil.createIURequirement;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.IRequirement;
+import org.eclipse.equinox.p2.metadata.MetadataFactory;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.query.CollectionResult;
+import org.eclipse.tycho.p2.impl.resolver.ProjectorResolutionStrategy;
+import org.eclipse.tycho.p2.impl.test.MavenLoggerStub;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProjectorResolutionStrategyTest {
+
+    @Test
+    public void testResolveSeveralEnvironments() {
+        IInstallableUnit root = createIURequirement("root", "1.0.0", "fragment", "[1.0.0,2.0.0)");
+        IInstallableUnit linux = createIUWithFilter("fragment", "1.0.0.linux", "(osgi.os=linux)");
+        IInstallableUnit win32 = createIUWithFilter("fragment", "1.0.0.win32", "(osgi.os=win32)");
+
+        List<IInstallableUnit> available = new ArrayList<IInstallableUnit>();
+        available.add(root);
+        available.add(linux);
+        available.add(win32);
+
+        List<Map<String, String>> environments = new ArrayList<Map<String, String>>();
+        environments.add(createEnvironment("linux", "gtk", "x86"));
+        environments.add(createEnvironment("win32", "win32", "x86"));
+        environments.add(createEnvironment("linux", "gtk", "x86_64"));
+
+        Set<IInstallableUnit> rootIUs = new LinkedHashSet<IInstallableUnit>();
+        rootIUs.add(root);
+
+        ProjectorResolutionStrategy strategy = new ProjectorResolutionStrategy(environments, new MavenLoggerStub());
+        strategy.setAvailableInstallableUnits(new CollectionResult<IInstallableUnit>(available));
+        strategy.setRootInstallableUnits(rootIUs);
+        strategy.setAdditionalRequirements(new ArrayList<IRequirement>());
+
+        List<Collection<IInstallableUnit>> result = strategy.resolveAll(new NullProgressMonitor());
+
+        Assert.assertEquals(3, result.size());
+        Assert.assertTrue(result.get(0).contains(linux));
+        Assert.assertFalse(result.get(0).contains(win32));
+        Assert.assertTrue(result.get(1).contains(win32));
+        Assert.assertFalse(result.get(1).contains(linux));
+        Assert.assertTrue(result.get(2).contains(linux));
+        Assert.assertFalse(result.get(2).contains(win32));
+    }
+
+    private static Map<String, String> createEnvironment(String os, String ws, String arch) {
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put("osgi.os", os);
+        properties.put("osgi.ws", ws);
+        properties.put("osgi.arch", arch);
+        return properties;
+    }
+
+    private static IInstallableUnit createIUWithFilter(String id, String version, String filter) {
+        InstallableUnitDescription description = new InstallableUnitDescription();
+        description.setId(id);
+        description.setVersion(Version.create(version));
+        description.setFilter(filter);
+        description.addProvidedCapabilities(Collections.singletonList(MetadataFactory
+                .createProvidedCapability(IInstallableUnit.NAMESPACE_IU_ID, id, Version.create(version))));
+        return MetadataFactory.createInstallableUnit(description);
+    }
+}
@@ -17,6 +17,7 @@ import static org.eclipse.tycho.p2.test.matcher.InstallableUnitMatchers.hasId;
 import static org.eclipse.tycho.p2.test.matcher.InstallableUnitMatchers.hasVersion;
 import static org.eclipse.tycho.test.util.ResourceUtil.resourceFile;
 import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 
@@ -30,7 +31,9 @@ import org.eclipse.tycho.p2.impl.test.MavenLoggerStub;
 import org.eclipse.tycho.p2.metadata.IArtifactFacade;
 import org.eclipse.tycho.repository.test.util.LocalRepositoryStub;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class ResolutionContextBundlePublisherTest {
 
@@ -38,6 +41,9 @@ public class ResolutionContextBundlePublisherTest {
     private static final String ARTIFACT_ID = "dummy-artifact";
     private static final String VERSION = "0.8.15-SNAPSHOT";
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     private ResolutionContextBundlePublisher subject;
     private LocalRepositoryStub localRepo;
 
@@ -89,4 +95,41 @@ public class ResolutionContextBundlePublisherTest {
 
         assertNull(unit);
     }
+
+    @Test
+    public void testCachedPomDependencyOnBundle() throws Exception {
+        File bundleFile = resourceFile("pom-dependencies/org.eclipse.osgi_3.5.2.R35x_v20100126.jar");
+        IArtifactFacade bundleArtifact = new ArtifactMock(bundleFile, GROUP_ID, ARTIFACT_ID, VERSION, "jar");
+        localRepo.addArtifact(bundleArtifact);
+        File cacheDir = tempFolder.newFolder("cache");
+
+        IInstallableUnit publishedUnit = new ResolutionContextBundlePublisher(localRepo.getArtifactProvider(),
+                cacheDir, new MavenLoggerStub(true)).attemptToPublishBundle(bundleArtifact);
+        assertEquals(2, cacheDir.list().length);
+
+        ResolutionContextBundlePublisher cachingSubject = new ResolutionContextBundlePublisher(
+                localRepo.getArtifactProvider(), cacheDir, new MavenLoggerStub(true));
+        IInstallableUnit cachedUnit = cachingSubject.attemptToPublishBundle(bundleArtifact);
+
+        assertEquals(publishedUnit, cachedUnit);
+        assertThat(cachedUnit, hasGAV(GROUP_ID, ARTIFACT_ID, VERSION));
+        IArtifactKey artifactOfTheUnit = cachedUnit.getArtifacts().iterator().next();
+        assertThat(cachingSubject.getArtifactRepoOfPublishedBundles(), entry(artifactOfTheUnit).hasContent(bundleFile));
+    }
+
+    @Test
+    public void testCachedPomDependencyOnPlainJar() throws Exception {
+        File jarFile = resourceFile("pom-dependencies/non-bundle.jar");
+        IArtifactFacade jarArtifact = new ArtifactMock(jarFile, GROUP_ID, ARTIFACT_ID, VERSION, "jar");
+        File cacheDir = tempFolder.newFolder("cache");
+
+        new ResolutionContextBundlePublisher(localRepo.getArtifactProvider(), cacheDir, new MavenLoggerStub(true))
+                .attemptToPublishBundle(jarArtifact);
+        assertEquals(1, cacheDir.list().length);
+
+        IInstallableUnit unit = new ResolutionContextBundlePublisher(localRepo.getArtifactProvider(), cacheDir,
+                new MavenLoggerStub(true)).attemptToPublishBundle(jarArtifact);
+
+        assertNull(unit);
+    }
 }
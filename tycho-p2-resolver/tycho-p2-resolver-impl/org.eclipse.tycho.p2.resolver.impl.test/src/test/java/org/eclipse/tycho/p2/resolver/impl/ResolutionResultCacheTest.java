@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.p2.resolver.impl;
+
+import static org.eclipse.tycho.test.util.InstallableUnitUtil.createIU;
+import static org.eclipse.tycho.test.util.InstallableUnitUtil.createIURequirement;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.IUpdateDescriptor;
+import org.eclipse.equinox.p2.metadata.MetadataFactory;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitFragmentDescription;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.metadata.VersionRange;
+import org.eclipse.equinox.p2.metadata.VersionedId;
+import org.eclipse.tycho.p2.impl.resolver.InstallableUnitDigest;
+import org.eclipse.tycho.p2.impl.resolver.ResolutionResultCache;
+import org.eclipse.tycho.p2.impl.test.MavenLoggerStub;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ResolutionResultCacheTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testMissingEntry() throws Exception {
+        ResolutionResultCache cache = new ResolutionResultCache(tempFolder.newFolder("cache"), new MavenLoggerStub());
+
+        Assert.assertNull(cache.get("0123456789abcdef"));
+    }
+
+    @Test
+    public void testPersistentEntry() throws Exception {
+        List<IInstallableUnit> units = new ArrayList<IInstallableUnit>();
+        units.add(createIU("a", "1.0.0"));
+        units.add(createIU("b", "2.0.0.qualifier"));
+
+        File cacheDir = tempFolder.newFolder("cache");
+        new ResolutionResultCache(cacheDir, new MavenLoggerStub()).put("0123456789abcdef", units);
+
+        List<VersionedId> cached = new ResolutionResultCache(cacheDir, new MavenLoggerStub()).get("0123456789abcdef");
+        Assert.assertEquals(2, cached.size());
+        Assert.assertEquals(new VersionedId("a", "1.0.0"), cached.get(0));
+        Assert.assertEquals(new VersionedId("b", "2.0.0.qualifier"), cached.get(1));
+    }
+
+    @Test
+    public void testDigestIndependentOfOrder() {
+        List<IInstallableUnit> units = new ArrayList<IInstallableUnit>();
+        units.add(createIU("a", "1.0.0"));
+        units.add(createIURequirement("b", "1.0.0", "a", "[1.0.0,2.0.0)"));
+        List<IInstallableUnit> reversedUnits = new ArrayList<IInstallableUnit>();
+        reversedUnits.add(units.get(1));
+        reversedUnits.add(units.get(0));
+
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put("osgi.os", "linux");
+        properties.put("osgi.ws", "gtk");
+        Map<String, String> reversedProperties = new LinkedHashMap<String, String>();
+        reversedProperties.put("osgi.ws", "gtk");
+        reversedProperties.put("osgi.os", "linux");
+
+        Assert.assertEquals(
+                new InstallableUnitDigest().updateUnits(units.iterator()).update(properties).toHexString(),
+                new InstallableUnitDigest().updateUnits(reversedUnits.iterator()).update(reversedProperties)
+                        .toHexString());
+    }
+
+    @Test
+    public void testDigestOfRequirements() {
+        String digest = new InstallableUnitDigest().update(createIURequirement("b", "1.0.0", "a", "[1.0.0,2.0.0)"))
+                .toHexString();
+        String otherDigest = new InstallableUnitDigest().update(
+                createIURequirement("b", "1.0.0", "a", "[1.0.0,3.0.0)")).toHexString();
+
+        Assert.assertFalse(digest.equals(otherDigest));
+    }
+
+    @Test
+    public void testDigestOfUpdateDescriptorAndFragmentHost() {
+        String digest = new InstallableUnitDigest().update(createFragment("[1.0.0,2.0.0)", "[0.0.0,1.0.0)"))
+                .toHexString();
+        String otherHostDigest = new InstallableUnitDigest().update(
+                createFragment("[1.0.0,3.0.0)", "[0.0.0,1.0.0)")).toHexString();
+        String otherUpdateDigest = new InstallableUnitDigest().update(
+                createFragment("[1.0.0,2.0.0)", "[0.0.0,0.5.0)")).toHexString();
+
+        Assert.assertFalse(digest.equals(otherHostDigest));
+        Assert.assertFalse(digest.equals(otherUpdateDigest));
+    }
+
+    private static IInstallableUnit createFragment(String hostRange, String updateRange) {
+        InstallableUnitFragmentDescription description = new InstallableUnitFragmentDescription();
+        description.setId("fragment");
+        description.setVersion(Version.create("1.0.0"));
+        description.setHost(MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "host",
+                new VersionRange(hostRange), (String) null, false, false));
+        description.setUpdateDescriptor(MetadataFactory.createUpdateDescriptor("fragment",
+                new VersionRange(updateRange), IUpdateDescriptor.NORMAL, null));
+        return MetadataFactory.createInstallableUnitFragment(description);
+    }
+}
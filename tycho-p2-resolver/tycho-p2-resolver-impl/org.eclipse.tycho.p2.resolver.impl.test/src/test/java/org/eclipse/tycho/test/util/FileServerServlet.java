@@ -45,6 +45,15 @@ public class FileServerServlet extends AbstractMonitorServlet {
 
         addUri(req);
 
+        // allow clients to revalidate cached content
+        long lastModified = file.lastModified() / 1000 * 1000;
+        long ifModifiedSince = req.getDateHeader("If-Modified-Since");
+        if (ifModifiedSince != -1 && lastModified <= ifModifiedSince) {
+            res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        res.setDateHeader("Last-Modified", lastModified);
+
         InputStream input = new FileInputStream(file);
         try {
             OutputStream output = res.getOutputStream();
@@ -0,0 +1,247 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.p2.impl.resolver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.internal.p2.artifact.repository.simple.SimpleArtifactRepository;
+import org.eclipse.equinox.internal.p2.artifact.repository.simple.SimpleArtifactRepositoryFactory;
+import org.eclipse.equinox.internal.p2.artifact.repository.simple.SimpleArtifactRepositoryIO;
+import org.eclipse.equinox.p2.core.IProvisioningAgent;
+import org.eclipse.equinox.p2.core.ProvisionException;
+import org.eclipse.equinox.p2.repository.ICompositeRepository;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactRepository;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactRepositoryManager;
+import org.eclipse.tycho.core.facade.MavenLogger;
+import org.eclipse.tycho.p2.impl.resolver.MetadataRepositorySnapshot.Validator;
+
+/**
+ * Persistent snapshot of the artifact descriptors of a remote (http or https) p2 artifact
+ * repository, so that later builds neither need to download the index files of the repository nor
+ * of its children in order to download artifacts from it.
+ * <p>
+ * A snapshot is a directory with a copy of the index of each simple repository, i.e. of the
+ * repository itself or, for composite repositories, of all simple repositories it is composed of.
+ * Like a {@link MetadataRepositorySnapshot}, it records the modification times of the index files of
+ * the repository and of all its children, and is revalidated by querying these times.
+ * <p>
+ * The copies are loaded as simple repositories at the location of the original repositories, so
+ * artifacts are downloaded from the same locations, with the same mapping rules and processing
+ * steps as with the original repositories.
+ */
+@SuppressWarnings("restriction")
+public class ArtifactRepositorySnapshot {
+
+    public static final String CACHE_RELPATH = ".cache/tycho/p2-artifact-repository-snapshots";
+
+    private static final int VERSION = 1;
+
+    private static final String INDEX_FILE = "snapshot";
+
+    private static final String[] SIMPLE_INDEX_FILES = { "artifacts.jar", "artifacts.xml" };
+
+    private static final String[] COMPOSITE_INDEX_FILES = { "compositeArtifacts.jar", "compositeArtifacts.xml" };
+
+    /**
+     * Returns the simple repositories of the snapshot of the given repository, or <code>null</code>
+     * if there is no snapshot or if the repository has changed since the snapshot has been taken.
+     */
+    public static List<IArtifactRepository> load(File cacheDir, URI location, boolean offline,
+            IProvisioningAgent agent, MavenLogger logger) {
+        File dir = MetadataRepositorySnapshot.getSnapshotFile(cacheDir, location);
+        try {
+            List<URI> locations = new ArrayList<URI>();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(dir,
+                    INDEX_FILE))));
+            try {
+                if (in.readInt() != VERSION || !location.toString().equals(in.readUTF())) {
+                    return null;
+                }
+                int count = in.readInt();
+                boolean changed = false;
+                for (int i = 0; i < count; i++) {
+                    Validator validator = new Validator(new URI(in.readUTF()), in.readLong());
+                    if (!offline && !changed && !validator.isUnchanged()) {
+                        logger.debug("Artifact repository snapshot of " + location + " is outdated: "
+                                + validator.location + " has changed");
+                        changed = true;
+                    }
+                }
+                if (changed) {
+                    return null;
+                }
+                count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    locations.add(new URI(in.readUTF()));
+                }
+            } finally {
+                in.close();
+            }
+
+            SimpleArtifactRepositoryFactory factory = new SimpleArtifactRepositoryFactory();
+            factory.setAgent(agent);
+            List<IArtifactRepository> repositories = new ArrayList<IArtifactRepository>();
+            for (int i = 0; i < locations.size(); i++) {
+                SimpleArtifactRepository repository = (SimpleArtifactRepository) factory.load(
+                        new File(dir, Integer.toString(i)).toURI(), 0, new NullProgressMonitor());
+                if (repository == null) {
+                    throw new IOException("Missing repository " + i);
+                }
+                // mirror requests resolve the artifact locations against the original repository
+                repository.initializeAfterLoad(locations.get(i));
+                repositories.add(repository);
+            }
+            return repositories;
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            logger.debug("Could not read artifact repository snapshot " + dir + ": " + e.getMessage());
+            return null;
+        } catch (URISyntaxException e) {
+            logger.debug("Could not read artifact repository snapshot " + dir + ": " + e.getMessage());
+            return null;
+        } catch (ProvisionException e) {
+            logger.debug("Could not read artifact repository snapshot " + dir + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Takes a snapshot of the given repository, which must have been loaded from a remote location
+     * with the given repository manager. Repositories whose index files can't be revalidated, or
+     * which are composed of other than simple repositories, are skipped.
+     */
+    public static void save(File cacheDir, IArtifactRepository repository, IArtifactRepositoryManager manager,
+            IProvisioningAgent agent, MavenLogger logger) {
+        URI location = repository.getLocation();
+        File dir = MetadataRepositorySnapshot.getSnapshotFile(cacheDir, location);
+        File tmpDir = null;
+        try {
+            List<Validator> validators = new ArrayList<Validator>();
+            List<SimpleArtifactRepository> repositories = new ArrayList<SimpleArtifactRepository>();
+            if (!collect(repository, manager, validators, repositories)) {
+                logger.debug("Not taking a snapshot of artifact repository " + location
+                        + ": index files can't be revalidated");
+                return;
+            }
+
+            cacheDir.mkdirs();
+            tmpDir = File.createTempFile(dir.getName(), ".tmp", cacheDir);
+            tmpDir.delete();
+            if (!tmpDir.mkdir()) {
+                throw new IOException("Could not create directory " + tmpDir);
+            }
+
+            for (int i = 0; i < repositories.size(); i++) {
+                File repositoryDir = new File(tmpDir, Integer.toString(i));
+                repositoryDir.mkdir();
+                // closes the stream
+                new SimpleArtifactRepositoryIO(agent).write(repositories.get(i), new FileOutputStream(new File(
+                        repositoryDir, "artifacts.xml")));
+            }
+
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(
+                    tmpDir, INDEX_FILE))));
+            try {
+                out.writeInt(VERSION);
+                out.writeUTF(location.toString());
+                out.writeInt(validators.size());
+                for (Validator validator : validators) {
+                    out.writeUTF(validator.location.toString());
+                    out.writeLong(validator.lastModified);
+                }
+                out.writeInt(repositories.size());
+                for (SimpleArtifactRepository simpleRepository : repositories) {
+                    out.writeUTF(simpleRepository.getLocation().toString());
+                }
+            } finally {
+                out.close();
+            }
+
+            delete(dir);
+            if (!tmpDir.renameTo(dir)) {
+                throw new IOException("Could not rename " + tmpDir + " to " + dir);
+            }
+        } catch (IOException e) {
+            // the snapshot is only an optimization
+            logger.debug("Could not write artifact repository snapshot " + dir + ": " + e.getMessage());
+        } finally {
+            if (tmpDir != null) {
+                delete(tmpDir);
+            }
+        }
+    }
+
+    private static boolean collect(IArtifactRepository repository, IArtifactRepositoryManager manager,
+            List<Validator> validators, List<SimpleArtifactRepository> repositories) throws IOException {
+        URI location = repository.getLocation();
+        if (!MetadataRepositorySnapshot.isSupported(location)) {
+            return false;
+        }
+
+        boolean composite = repository instanceof ICompositeRepository<?>;
+        if (!composite && !(repository instanceof SimpleArtifactRepository)) {
+            return false;
+        }
+        Validator validator = null;
+        for (String name : composite ? COMPOSITE_INDEX_FILES : SIMPLE_INDEX_FILES) {
+            validator = Validator.fetch(MetadataRepositorySnapshot.getChildURI(location, name));
+            if (validator != null) {
+                break;
+            }
+        }
+        if (validator == null || !validator.isUsable()) {
+            return false;
+        }
+        validators.add(validator);
+
+        if (!composite) {
+            repositories.add((SimpleArtifactRepository) repository);
+            return true;
+        }
+        for (URI child : ((ICompositeRepository<?>) repository).getChildren()) {
+            IArtifactRepository childRepository;
+            try {
+                // the children have been loaded together with the composite repository
+                childRepository = manager.loadRepository(child, new NullProgressMonitor());
+            } catch (ProvisionException e) {
+                return false;
+            }
+            if (!collect(childRepository, manager, validators, repositories)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
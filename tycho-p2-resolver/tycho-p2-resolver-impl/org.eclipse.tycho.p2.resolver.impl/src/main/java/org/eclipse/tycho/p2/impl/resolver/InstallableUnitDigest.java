@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.p2.impl.resolver;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.IInstallableUnitFragment;
+import org.eclipse.equinox.p2.metadata.IInstallableUnitPatch;
+import org.eclipse.equinox.p2.metadata.IProvidedCapability;
+import org.eclipse.equinox.p2.metadata.IRequirement;
+import org.eclipse.equinox.p2.metadata.IRequirementChange;
+import org.eclipse.equinox.p2.metadata.IUpdateDescriptor;
+import org.eclipse.equinox.p2.metadata.expression.IMatchExpression;
+import org.eclipse.tycho.core.facade.FileChecksums;
+
+/**
+ * SHA-1 digest over the parts of installable units (and other resolver input) which are relevant
+ * for dependency resolution. The digest is stable across builds, i.e. it does not depend on
+ * iteration order of unordered collections or on object identities.
+ */
+public class InstallableUnitDigest {
+
+    private final MessageDigest digest;
+
+    public InstallableUnitDigest() {
+        digest = FileChecksums.newSHA1Digest();
+    }
+
+    public InstallableUnitDigest update(String value) {
+        try {
+            digest.update(String.valueOf(value).getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        // separator, so that ("ab", "c") and ("a", "bc") have different digests
+        digest.update((byte) 0);
+        return this;
+    }
+
+    /**
+     * Adds the installable units in an order independent way.
+     */
+    public InstallableUnitDigest updateUnits(Iterator<IInstallableUnit> units) {
+        List<String> unitDigests = new ArrayList<String>();
+        while (units.hasNext()) {
+            unitDigests.add(new InstallableUnitDigest().update(units.next()).toHexString());
+        }
+        Collections.sort(unitDigests);
+        for (String unitDigest : unitDigests) {
+            update(unitDigest);
+        }
+        return this;
+    }
+
+    /**
+     * Adds all parts of the installable unit which the slicer and the projector evaluate, including
+     * the host of fragments, the changes of patches and the update descriptor.
+     */
+    public InstallableUnitDigest update(IInstallableUnit unit) {
+        update(unit.getId());
+        update(unit.getVersion().toString());
+        update(String.valueOf(unit.getFilter()));
+        update(String.valueOf(unit.isSingleton()));
+        update(unit.getProperties());
+        update("requirements");
+        updateRequirements(unit.getRequirements());
+        update("metaRequirements");
+        updateRequirements(unit.getMetaRequirements());
+        update("capabilities");
+        for (IProvidedCapability capability : unit.getProvidedCapabilities()) {
+            update(capability.getNamespace());
+            update(capability.getName());
+            update(capability.getVersion().toString());
+        }
+        if (unit instanceof IInstallableUnitFragment) {
+            update("host");
+            updateRequirements(((IInstallableUnitFragment) unit).getHost());
+        }
+        if (unit instanceof IInstallableUnitPatch) {
+            updatePatch((IInstallableUnitPatch) unit);
+        }
+        IUpdateDescriptor updateDescriptor = unit.getUpdateDescriptor();
+        if (updateDescriptor != null) {
+            update("update");
+            for (IMatchExpression<IInstallableUnit> updated : updateDescriptor.getIUsBeingUpdated()) {
+                update(String.valueOf(updated));
+            }
+            update(String.valueOf(updateDescriptor.getSeverity()));
+        }
+        return this;
+    }
+
+    private void updatePatch(IInstallableUnitPatch patch) {
+        update("applicabilityScope");
+        for (IRequirement[] scope : patch.getApplicabilityScope()) {
+            updateRequirements(Arrays.asList(scope));
+            update("|");
+        }
+        update("requirementsChange");
+        for (IRequirementChange change : patch.getRequirementsChange()) {
+            updateRequirement(change.applyOn());
+            updateRequirement(change.newValue());
+        }
+        update("lifeCycle");
+        updateRequirement(patch.getLifeCycle());
+    }
+
+    public InstallableUnitDigest updateRequirements(Collection<IRequirement> requirements) {
+        for (IRequirement requirement : requirements) {
+            updateRequirement(requirement);
+        }
+        return this;
+    }
+
+    private void updateRequirement(IRequirement requirement) {
+        if (requirement == null) {
+            update((String) null);
+            return;
+        }
+        update(String.valueOf(requirement.getMatches()));
+        update(String.valueOf(requirement.getFilter()));
+        update(requirement.getMin() + ":" + requirement.getMax() + ":" + requirement.isGreedy());
+    }
+
+    public InstallableUnitDigest update(Map<String, String> properties) {
+        for (Map.Entry<String, String> entry : new TreeMap<String, String>(properties).entrySet()) {
+            update(entry.getKey());
+            update(entry.getValue());
+        }
+        return this;
+    }
+
+    public String toHexString() {
+        return FileChecksums.toHex(digest.digest());
+    }
+}
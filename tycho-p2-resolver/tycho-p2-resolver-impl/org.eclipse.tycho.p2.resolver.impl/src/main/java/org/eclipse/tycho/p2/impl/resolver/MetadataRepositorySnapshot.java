@@ -0,0 +1,308 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.p2.impl.resolver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.internal.p2.repository.RepositoryTransport;
+import org.eclipse.equinox.p2.core.ProvisionException;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.query.IQuery;
+import org.eclipse.equinox.p2.query.IQueryResult;
+import org.eclipse.equinox.p2.query.QueryUtil;
+import org.eclipse.equinox.p2.repository.ICompositeRepository;
+import org.eclipse.equinox.p2.repository.IRepositoryReference;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepositoryManager;
+import org.eclipse.equinox.p2.repository.metadata.spi.AbstractMetadataRepository;
+import org.eclipse.tycho.core.facade.FileChecksums;
+import org.eclipse.tycho.core.facade.MavenLogger;
+import org.eclipse.tycho.p2.maven.repository.xmlio.MetadataIO;
+
+/**
+ * Persistent snapshot of the installable units of a remote (http or https) p2 metadata
+ * repository, so that later builds neither need to download nor to load the repository (and, for
+ * composite repositories, all its children) as long as it doesn't change.
+ * <p>
+ * A snapshot records the modification times of the index files of the repository and of all its
+ * children. It is revalidated by querying these times with p2's transport, which doesn't transfer
+ * any content and uses the same proxy settings and credentials as loading the repository; in
+ * offline builds, snapshots are used without revalidation.
+ * <p>
+ * The units are stored in p2's XML format (compressed), and are only parsed when the repository is
+ * first queried. The snapshot therefore saves the download and the loading of the repository and
+ * its children, but not the parsing of the units.
+ *
+ * @see ArtifactRepositorySnapshot
+ */
+@SuppressWarnings("restriction")
+public class MetadataRepositorySnapshot extends AbstractMetadataRepository {
+
+    public static final String CACHE_RELPATH = ".cache/tycho/p2-repository-snapshots";
+
+    private static final int VERSION = 2;
+
+    private static final String[] SIMPLE_INDEX_FILES = { "content.jar", "content.xml" };
+
+    private static final String[] COMPOSITE_INDEX_FILES = { "compositeContent.jar", "compositeContent.xml" };
+
+    private byte[] compressedUnits;
+
+    private Set<IInstallableUnit> units;
+
+    private MetadataRepositorySnapshot(URI location, byte[] compressedUnits) {
+        super(null);
+        setLocation(location);
+        this.compressedUnits = compressedUnits;
+    }
+
+    /**
+     * Returns the snapshot of the given repository, or <code>null</code> if there is no snapshot or
+     * if the repository has changed since the snapshot has been taken.
+     */
+    public static MetadataRepositorySnapshot load(File cacheDir, URI location, boolean offline, MavenLogger logger) {
+        File file = getSnapshotFile(cacheDir, location);
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != VERSION || !location.toString().equals(in.readUTF())) {
+                    return null;
+                }
+                int count = in.readInt();
+                boolean changed = false;
+                for (int i = 0; i < count; i++) {
+                    Validator validator = new Validator(new URI(in.readUTF()), in.readLong());
+                    if (!offline && !changed && !validator.isUnchanged()) {
+                        logger.debug("Repository snapshot of " + location + " is outdated: " + validator.location
+                                + " has changed");
+                        changed = true;
+                    }
+                }
+                if (changed) {
+                    return null;
+                }
+                byte[] compressedUnits = new byte[in.readInt()];
+                in.readFully(compressedUnits);
+                return new MetadataRepositorySnapshot(location, compressedUnits);
+            } finally {
+                in.close();
+            }
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            logger.debug("Could not read repository snapshot " + file + ": " + e.getMessage());
+            return null;
+        } catch (URISyntaxException e) {
+            logger.debug("Could not read repository snapshot " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Takes a snapshot of the given repository, which must have been loaded from a remote location
+     * with the given repository manager. Repositories whose index files can't be revalidated are
+     * skipped.
+     */
+    public static void save(File cacheDir, IMetadataRepository repository, IMetadataRepositoryManager manager,
+            MavenLogger logger) {
+        URI location = repository.getLocation();
+        File file = getSnapshotFile(cacheDir, location);
+        File tmpFile = null;
+        try {
+            List<Validator> validators = new ArrayList<Validator>();
+            if (!collectValidators(repository, manager, validators)) {
+                logger.debug("Not taking a snapshot of repository " + location + ": index files can't be revalidated");
+                return;
+            }
+
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            OutputStream gzip = new GZIPOutputStream(buffer);
+            Set<IInstallableUnit> units = repository.query(QueryUtil.ALL_UNITS, new NullProgressMonitor()).toSet();
+            new MetadataIO().writeXML(units, gzip);
+            gzip.close();
+
+            cacheDir.mkdirs();
+            tmpFile = File.createTempFile(file.getName(), ".tmp", cacheDir);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            try {
+                out.writeInt(VERSION);
+                out.writeUTF(location.toString());
+                out.writeInt(validators.size());
+                for (Validator validator : validators) {
+                    out.writeUTF(validator.location.toString());
+                    out.writeLong(validator.lastModified);
+                }
+                out.writeInt(buffer.size());
+                buffer.writeTo(out);
+            } finally {
+                out.close();
+            }
+
+            if (!tmpFile.renameTo(file)) {
+                // on Windows, the target must not exist
+                file.delete();
+                if (!tmpFile.renameTo(file)) {
+                    throw new IOException("Could not rename " + tmpFile + " to " + file);
+                }
+            }
+        } catch (IOException e) {
+            // the snapshot is only an optimization
+            logger.debug("Could not write repository snapshot " + file + ": " + e.getMessage());
+        } finally {
+            if (tmpFile != null) {
+                tmpFile.delete();
+            }
+        }
+    }
+
+    public static boolean isSupported(URI location) {
+        String scheme = location.getScheme();
+        return "http".equals(scheme) || "https".equals(scheme);
+    }
+
+    private static boolean collectValidators(IMetadataRepository repository, IMetadataRepositoryManager manager,
+            List<Validator> validators) throws IOException {
+        URI location = repository.getLocation();
+        if (!isSupported(location)) {
+            return false;
+        }
+
+        boolean composite = repository instanceof ICompositeRepository<?>;
+        Validator validator = null;
+        for (String name : composite ? COMPOSITE_INDEX_FILES : SIMPLE_INDEX_FILES) {
+            validator = Validator.fetch(getChildURI(location, name));
+            if (validator != null) {
+                break;
+            }
+        }
+        if (validator == null || !validator.isUsable()) {
+            return false;
+        }
+        validators.add(validator);
+
+        if (composite) {
+            for (URI child : ((ICompositeRepository<?>) repository).getChildren()) {
+                IMetadataRepository childRepository;
+                try {
+                    // the children have been loaded together with the composite repository
+                    childRepository = manager.loadRepository(child, new NullProgressMonitor());
+                } catch (ProvisionException e) {
+                    return false;
+                }
+                if (!collectValidators(childRepository, manager, validators)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    static URI getChildURI(URI location, String name) {
+        String base = location.toString();
+        return URI.create(base.endsWith("/") ? base + name : base + "/" + name);
+    }
+
+    static File getSnapshotFile(File cacheDir, URI location) {
+        try {
+            byte[] hash = FileChecksums.newDigest("MD5").digest(location.toString().getBytes("UTF-8"));
+            return new File(cacheDir, FileChecksums.toHex(hash));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void initialize(RepositoryState state) {
+    }
+
+    public synchronized IQueryResult<IInstallableUnit> query(IQuery<IInstallableUnit> query, IProgressMonitor monitor) {
+        if (units == null) {
+            try {
+                units = Collections.unmodifiableSet(new LinkedHashSet<IInstallableUnit>(new MetadataIO()
+                        .readXML(new GZIPInputStream(new ByteArrayInputStream(compressedUnits)))));
+            } catch (IOException e) {
+                throw new RuntimeException("Could not read repository snapshot of " + getLocation(), e);
+            }
+            compressedUnits = null;
+        }
+        return query.perform(units.iterator());
+    }
+
+    public Collection<IRepositoryReference> getReferences() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Modification time of an index file of a remote repository
+     */
+    static final class Validator {
+        final URI location;
+
+        final long lastModified;
+
+        Validator(URI location, long lastModified) {
+            this.location = location;
+            this.lastModified = lastModified;
+        }
+
+        boolean isUsable() {
+            return lastModified > 0;
+        }
+
+        /**
+         * Returns the current validator of the given file, or <code>null</code> if it doesn't exist.
+         */
+        static Validator fetch(URI location) throws IOException {
+            try {
+                return new Validator(location, RepositoryTransport.getInstance().getLastModified(location,
+                        new NullProgressMonitor()));
+            } catch (FileNotFoundException e) {
+                return null;
+            } catch (Exception e) {
+                // CoreException or AuthenticationFailedException
+                throw new IOException("Could not get the modification time of " + location + ": " + e.getMessage());
+            }
+        }
+
+        boolean isUnchanged() {
+            try {
+                Validator current = fetch(location);
+                return current != null && current.lastModified == lastModified;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+}
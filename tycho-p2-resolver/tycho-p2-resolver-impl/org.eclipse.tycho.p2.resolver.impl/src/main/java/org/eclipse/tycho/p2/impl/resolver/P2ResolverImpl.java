@@ -64,10 +64,14 @@ public class P2ResolverImpl implements P2Resolver {
     public List<P2ResolutionResult> resolveProject(ResolutionContext context, File projectLocation) {
         this.context = (ResolutionContextImpl) context;
 
-        ArrayList<P2ResolutionResult> results = new ArrayList<P2ResolutionResult>();
+        // all environments are resolved at once, so that the slice can be shared
+        ProjectorResolutionStrategy strategy = new ProjectorResolutionStrategy(environments, logger);
+        strategy.setResultCache(this.context.getResolutionResultCache());
+        initStrategy(projectLocation, strategy);
 
-        for (Map<String, String> properties : environments) {
-            results.add(resolveProject(projectLocation, new ProjectorResolutionStrategy(properties, logger)));
+        ArrayList<P2ResolutionResult> results = new ArrayList<P2ResolutionResult>();
+        for (Collection<IInstallableUnit> newState : strategy.resolveAll(monitor)) {
+            results.add(createResolutionResult(projectLocation, newState));
         }
 
         return results;
@@ -80,6 +84,7 @@ public class P2ResolverImpl implements P2Resolver {
 
     public P2ResolutionResult resolveMetadata(ResolutionContext context, Map<String, String> properties) {
         ProjectorResolutionStrategy strategy = new ProjectorResolutionStrategy(properties, logger);
+        strategy.setResultCache(((ResolutionContextImpl) context).getResolutionResultCache());
         strategy.setAvailableInstallableUnits(((ResolutionContextImpl) context)
                 .gatherAvailableInstallableUnits(monitor));
         strategy.setRootInstallableUnits(new HashSet<IInstallableUnit>());
@@ -93,15 +98,23 @@ public class P2ResolverImpl implements P2Resolver {
     }
 
     protected P2ResolutionResult resolveProject(File projectLocation, ResolutionStrategy strategy) {
+        initStrategy(projectLocation, strategy);
+
+        Collection<IInstallableUnit> newState = strategy.resolve(monitor);
+
+        return createResolutionResult(projectLocation, newState);
+    }
+
+    private void initStrategy(File projectLocation, ResolutionStrategy strategy) {
         context.assertNoDuplicateReactorUIs();
 
         strategy.setAvailableInstallableUnits(context.gatherAvailableInstallableUnits(monitor));
         LinkedHashSet<IInstallableUnit> projectIUs = context.getReactorProjectIUs(projectLocation);
         strategy.setRootInstallableUnits(projectIUs);
         strategy.setAdditionalRequirements(additionalRequirements);
+    }
 
-        Collection<IInstallableUnit> newState = strategy.resolve(monitor);
-
+    private P2ResolutionResult createResolutionResult(File projectLocation, Collection<IInstallableUnit> newState) {
         context.downloadArtifacts(newState);
 
         // TODO check if needed by all callers
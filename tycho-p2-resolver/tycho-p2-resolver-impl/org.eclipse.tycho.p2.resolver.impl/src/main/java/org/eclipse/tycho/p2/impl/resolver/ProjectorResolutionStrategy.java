@@ -12,16 +12,25 @@ package org.eclipse.tycho.p2.impl.resolver;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.equinox.internal.p2.director.Explanation;
+import org.eclipse.equinox.internal.p2.director.PermissiveSlicer;
 import org.eclipse.equinox.internal.p2.director.Projector;
 import org.eclipse.equinox.internal.p2.director.QueryableArray;
 import org.eclipse.equinox.internal.p2.director.SimplePlanner;
@@ -36,28 +45,52 @@ import org.eclipse.equinox.p2.metadata.MetadataFactory;
 import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
 import org.eclipse.equinox.p2.metadata.Version;
 import org.eclipse.equinox.p2.metadata.VersionRange;
+import org.eclipse.equinox.p2.metadata.VersionedId;
 import org.eclipse.equinox.p2.metadata.expression.IMatchExpression;
+import org.eclipse.equinox.p2.query.IQueryResult;
 import org.eclipse.equinox.p2.query.IQueryable;
 import org.eclipse.equinox.p2.query.QueryUtil;
 import org.eclipse.tycho.core.facade.MavenLogger;
+import org.eclipse.tycho.p2.maven.repository.InstallableUnitIndex;
+import org.eclipse.tycho.p2.resolver.impl.OverlayInstallableUnitIndex;
+import org.eclipse.tycho.p2.util.DaemonThreadFactory;
 import org.eclipse.tycho.p2.util.StatusTool;
 
 @SuppressWarnings("restriction")
 public class ProjectorResolutionStrategy extends ResolutionStrategy {
     private static final IInstallableUnit[] IU_ARRAY = new IInstallableUnit[0];
 
-    private final Map<String, String> properties;
+    private final List<Map<String, String>> environments;
 
     private final MavenLogger logger;
 
+    private ResolutionResultCache resultCache;
+
     public ProjectorResolutionStrategy(Map<String, String> properties, MavenLogger logger) {
-        this.properties = properties;
+        this(Collections.singletonList(properties), logger);
+    }
+
+    /**
+     * Creates a strategy which resolves the same root IUs for several target environments. The
+     * available IUs are sliced once for all environments, and the environments are then solved
+     * concurrently.
+     */
+    public ProjectorResolutionStrategy(List<Map<String, String>> environments, MavenLogger logger) {
+        this.environments = environments;
         this.logger = logger;
     }
 
     public Collection<IInstallableUnit> resolve(IProgressMonitor monitor) {
-        Map<String, String> newSelectionContext = SimplePlanner.createSelectionContext(properties);
+        if (environments.size() != 1) {
+            throw new IllegalStateException("Use resolveAll to resolve for several environments");
+        }
+        return resolveAll(monitor).get(0);
+    }
 
+    /**
+     * Returns the resolved IUs for each environment, in the order of the environments.
+     */
+    public List<Collection<IInstallableUnit>> resolveAll(IProgressMonitor monitor) {
         // additional requirements can be either ius or bundles, and apparently projector does not like bundle
         // requirements to be listed directly under entryPointIU (i.e. the first Project.encode parameter)
         // To workaround this, we do the following
@@ -71,13 +104,63 @@ public class ProjectorResolutionStrategy extends ResolutionStrategy {
         rootWithExtraIUs.addAll(rootIUs);
         rootWithExtraIUs.addAll(extraIUs);
 
+        List<Collection<IInstallableUnit>> result = new ArrayList<Collection<IInstallableUnit>>();
+        List<Integer> unresolved = new ArrayList<Integer>();
+        List<Map<String, String>> selectionContexts = new ArrayList<Map<String, String>>();
+        List<String> resultCacheKeys = new ArrayList<String>();
+        for (int i = 0; i < environments.size(); i++) {
+            Map<String, String> newSelectionContext = SimplePlanner.createSelectionContext(environments.get(i));
+            String resultCacheKey = getResultCacheKey(newSelectionContext);
+            selectionContexts.add(newSelectionContext);
+            resultCacheKeys.add(resultCacheKey);
+
+            Collection<IInstallableUnit> cachedState = null;
+            if (resultCacheKey != null) {
+                cachedState = getCachedResult(resultCacheKey, monitor);
+            }
+            if (cachedState != null) {
+                logger.debug("Using cached resolution result " + resultCacheKey);
+                cachedState.addAll(extraIUs);
+            } else {
+                unresolved.add(Integer.valueOf(i));
+            }
+            result.add(cachedState);
+        }
+
+        if (unresolved.isEmpty()) {
+            return result;
+        }
+
         if (logger.isExtendedDebugEnabled()) {
             logger.debug("Available IUs:\n" + ResolverDebugUtils.toDebugString(availableIUs, false, monitor));
             logger.debug("Root IUs:\n" + ResolverDebugUtils.toDebugString(rootIUs, true));
             logger.debug("Extra IUs:\n" + ResolverDebugUtils.toDebugString(rootIUs, true));
         }
 
-        Slicer slicer = new Slicer(availableIUs, newSelectionContext, false);
+        if (unresolved.size() == 1) {
+            int i = unresolved.get(0).intValue();
+            Map<String, String> newSelectionContext = selectionContexts.get(i);
+            IQueryable<IInstallableUnit> slice = slice(new Slicer(availableIUs, newSelectionContext, false),
+                    rootWithExtraIUs, monitor);
+            result.set(i, solve(slice, newSelectionContext, extraIUs, resultCacheKeys.get(i), monitor));
+            return result;
+        }
+
+        // slice once for all environments (i.e. consider all filters to be satisfied); the environment
+        // specific filters are then evaluated by the projectors. The slice is copied into an eagerly
+        // indexed collection so that it can be queried by the projectors concurrently.
+        Slicer slicer = new PermissiveSlicer(availableIUs, new HashMap<String, String>(),
+                true /* includeOptionalDependencies */, false /* everythingGreedy */, true /* evalFilterTo */,
+                false /* considerOnlyStrictDependency */, false /* onlySingleton */);
+        IQueryable<IInstallableUnit> slice = new InstallableUnitIndex(slice(slicer, rootWithExtraIUs, monitor).query(
+                QueryUtil.ALL_UNITS, monitor).toUnmodifiableSet());
+
+        solveConcurrently(slice, unresolved, selectionContexts, extraIUs, resultCacheKeys, result);
+        return result;
+    }
+
+    private IQueryable<IInstallableUnit> slice(Slicer slicer, Set<IInstallableUnit> rootWithExtraIUs,
+            IProgressMonitor monitor) {
         IQueryable<IInstallableUnit> slice = slicer.slice(rootWithExtraIUs.toArray(IU_ARRAY), monitor);
 
         if (slice == null) {
@@ -88,7 +171,54 @@ public class ProjectorResolutionStrategy extends ResolutionStrategy {
         if (logger.isExtendedDebugEnabled()) {
             logger.debug("Slice:\n" + ResolverDebugUtils.toDebugString(slice, false, monitor));
         }
+        return slice;
+    }
+
+    private void solveConcurrently(final IQueryable<IInstallableUnit> slice, List<Integer> unresolved,
+            List<Map<String, String>> selectionContexts, final Set<IInstallableUnit> extraIUs,
+            List<String> resultCacheKeys, List<Collection<IInstallableUnit>> result) {
+        int threads = Math.min(unresolved.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("tycho-projector-"));
+        try {
+            List<Future<Collection<IInstallableUnit>>> futures = new ArrayList<Future<Collection<IInstallableUnit>>>();
+            for (Integer i : unresolved) {
+                final Map<String, String> newSelectionContext = selectionContexts.get(i.intValue());
+                final String resultCacheKey = resultCacheKeys.get(i.intValue());
+                futures.add(executor.submit(new Callable<Collection<IInstallableUnit>>() {
+                    public Collection<IInstallableUnit> call() {
+                        return solve(slice, newSelectionContext, extraIUs, resultCacheKey, new LoggingProgressMonitor(
+                                logger));
+                    }
+                }));
+            }
 
+            for (int j = 0; j < futures.size(); j++) {
+                result.set(unresolved.get(j).intValue(), getSolution(futures.get(j)));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Collection<IInstallableUnit> getSolution(Future<Collection<IInstallableUnit>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private Collection<IInstallableUnit> solve(IQueryable<IInstallableUnit> slice, Map<String, String> newSelectionContext,
+            Set<IInstallableUnit> extraIUs, String resultCacheKey, IProgressMonitor monitor) {
         Projector projector = new Projector(slice, newSelectionContext, new HashSet<IInstallableUnit>(), false);
         projector.encode(createMetaIU(rootIUs), extraIUs.toArray(IU_ARRAY) /* alreadyExistingRoots */,
                 new QueryableArray(IU_ARRAY) /* installed IUs */, rootIUs /* newRoots */, monitor);
@@ -109,9 +239,57 @@ public class ProjectorResolutionStrategy extends ResolutionStrategy {
             logger.debug("Resolved IUs:\n" + ResolverDebugUtils.toDebugString(newState, false));
         }
 
+        if (resultCacheKey != null) {
+            Set<IInstallableUnit> cachedState = new LinkedHashSet<IInstallableUnit>(newState);
+            // the synthetic IUs are not available on cache lookup; they are re-created instead
+            cachedState.removeAll(extraIUs);
+            resultCache.put(resultCacheKey, cachedState);
+        }
+
         return newState;
     }
 
+    public void setResultCache(ResolutionResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Returns the digest of all input of the resolution, or <code>null</code> if the result cannot
+     * be cached.
+     */
+    private String getResultCacheKey(Map<String, String> selectionContext) {
+        if (resultCache == null || !(availableIUs instanceof OverlayInstallableUnitIndex)) {
+            // no stable fingerprint of the available IUs
+            return null;
+        }
+
+        InstallableUnitDigest digest = new InstallableUnitDigest();
+        digest.update(((OverlayInstallableUnitIndex) availableIUs).getFingerprint());
+        digest.updateUnits(rootIUs.iterator());
+        digest.updateRequirements(additionalRequirements);
+        digest.update(selectionContext);
+        return digest.toHexString();
+    }
+
+    private Collection<IInstallableUnit> getCachedResult(String key, IProgressMonitor monitor) {
+        List<VersionedId> cachedIds = resultCache.get(key);
+        if (cachedIds == null) {
+            return null;
+        }
+
+        Collection<IInstallableUnit> result = new LinkedHashSet<IInstallableUnit>();
+        for (VersionedId id : cachedIds) {
+            IQueryResult<IInstallableUnit> units = availableIUs.query(QueryUtil.createIUQuery(id), monitor);
+            if (units.isEmpty()) {
+                // should not happen because the available IUs are part of the key
+                logger.debug("Ignoring cached resolution result " + key + ": " + id + " is not available");
+                return null;
+            }
+            result.add(units.iterator().next());
+        }
+        return result;
+    }
+
     private void fixSWT(Collection<IInstallableUnit> ius, Map<String, String> newSelectionContext,
             IProgressMonitor monitor) {
         boolean swt = false;
@@ -193,5 +371,4 @@ public class ProjectorResolutionStrategy extends ResolutionStrategy {
 
         return result;
     }
-
 }
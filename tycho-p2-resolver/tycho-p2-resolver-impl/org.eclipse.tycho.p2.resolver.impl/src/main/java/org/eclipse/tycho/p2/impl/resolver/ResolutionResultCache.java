@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.p2.impl.resolver;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.VersionedId;
+import org.eclipse.tycho.core.facade.MavenLogger;
+
+/**
+ * Persistent cache of dependency resolution results, i.e. of the ids and versions of the
+ * installable units selected by the p2 projector. There is one file per entry, named after the
+ * digest of the resolver input (see {@link InstallableUnitDigest}), so entries never need to be
+ * invalidated and concurrent builds at worst write the same entry twice.
+ */
+public class ResolutionResultCache {
+
+    public static final String CACHE_PATH = ".cache/tycho/p2-resolution";
+
+    private static final String ENCODING = "UTF-8";
+
+    private final File cacheDir;
+
+    private final MavenLogger logger;
+
+    public ResolutionResultCache(File cacheDir, MavenLogger logger) {
+        this.cacheDir = cacheDir;
+        this.logger = logger;
+    }
+
+    /**
+     * Returns the cached resolution result, or <code>null</code> if there is none.
+     */
+    public List<VersionedId> get(String key) {
+        File file = new File(cacheDir, key);
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+            try {
+                List<VersionedId> result = new ArrayList<VersionedId>();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.length() > 0) {
+                        result.add(VersionedId.parse(line));
+                    }
+                }
+                return result;
+            } finally {
+                reader.close();
+            }
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            logger.debug("Could not read cached resolution result " + file + ": " + e.getMessage());
+            return null;
+        } catch (IllegalArgumentException e) {
+            // corrupt entry
+            logger.debug("Could not read cached resolution result " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public void put(String key, Collection<IInstallableUnit> units) {
+        File file = new File(cacheDir, key);
+        File tmpFile = null;
+        try {
+            cacheDir.mkdirs();
+            tmpFile = File.createTempFile(key, ".tmp", cacheDir);
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), ENCODING));
+            try {
+                for (IInstallableUnit unit : units) {
+                    writer.write(new VersionedId(unit.getId(), unit.getVersion()).toString());
+                    writer.newLine();
+                }
+            } finally {
+                writer.close();
+            }
+            // entries with the same key have the same content, so it doesn't matter who wins
+            if (!tmpFile.renameTo(file) && !file.isFile()) {
+                logger.debug("Could not write cached resolution result " + file);
+            }
+        } catch (IOException e) {
+            logger.debug("Could not write cached resolution result " + file + ": " + e.getMessage());
+        } finally {
+            if (tmpFile != null) {
+                tmpFile.delete();
+            }
+        }
+    }
+}
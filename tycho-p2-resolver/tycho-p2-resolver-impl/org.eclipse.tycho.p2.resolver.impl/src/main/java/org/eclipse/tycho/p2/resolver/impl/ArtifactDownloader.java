@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.p2.resolver.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.p2.metadata.IArtifactKey;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactRepository;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactRequest;
+import org.eclipse.tycho.core.facade.MavenLogger;
+import org.eclipse.tycho.p2.maven.repository.AbstractMavenArtifactRepository;
+import org.eclipse.tycho.p2.maven.repository.LocalArtifactRepository;
+import org.eclipse.tycho.p2.maven.repository.MavenMirrorRequest;
+import org.eclipse.tycho.p2.util.DaemonThreadFactory;
+
+/**
+ * Downloads artifacts into the local Maven repository using a bounded number of threads.
+ * <p>
+ * Each artifact is requested from the repositories in the configured order, until one of them
+ * provides it. The number of concurrent requests to each repository is limited; a request waits for
+ * a free connection to the next repository rather than skipping it.
+ * Artifacts which are being downloaded by another project are not downloaded again; instead the
+ * other download is awaited.
+ */
+public class ArtifactDownloader {
+
+    /**
+     * Downloads in progress in this JVM
+     */
+    private static final ConcurrentMap<IArtifactKey, Future<Boolean>> DOWNLOADS = new ConcurrentHashMap<IArtifactKey, Future<Boolean>>();
+
+    private final LocalArtifactRepository localRepository;
+
+    private final List<IArtifactRepository> repositories;
+
+    private final Map<IArtifactRepository, Semaphore> connections = new HashMap<IArtifactRepository, Semaphore>();
+
+    private final int threads;
+
+    private final MavenLogger logger;
+
+    public ArtifactDownloader(LocalArtifactRepository localRepository, List<IArtifactRepository> repositories,
+            int threads, int connectionsPerRepository, MavenLogger logger) {
+        this.localRepository = localRepository;
+        this.repositories = new ArrayList<IArtifactRepository>(repositories);
+        this.threads = threads;
+        this.logger = logger;
+
+        for (IArtifactRepository repository : repositories) {
+            // the Maven repository readers are not known to be thread-safe
+            int permits = repository instanceof AbstractMavenArtifactRepository ? 1 : connectionsPerRepository;
+            connections.put(repository, new Semaphore(Math.max(1, permits), true));
+        }
+    }
+
+    /**
+     * Downloads the given artifacts and returns the ones which could not be downloaded from any
+     * repository.
+     */
+    public List<IArtifactKey> download(Collection<IArtifactKey> keys) {
+        List<IArtifactKey> failed = new ArrayList<IArtifactKey>();
+
+        if (threads <= 1 || keys.size() <= 1) {
+            for (IArtifactKey key : keys) {
+                if (!download(key)) {
+                    failed.add(key);
+                }
+            }
+            return failed;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, keys.size()),
+                new DaemonThreadFactory("tycho-download-"));
+        try {
+            Map<IArtifactKey, Future<Boolean>> results = new HashMap<IArtifactKey, Future<Boolean>>();
+            for (final IArtifactKey key : keys) {
+                results.put(key, executor.submit(new Callable<Boolean>() {
+                    public Boolean call() {
+                        return Boolean.valueOf(download(key));
+                    }
+                }));
+            }
+
+            for (IArtifactKey key : keys) {
+                if (!getResult(results.get(key))) {
+                    failed.add(key);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return failed;
+    }
+
+    private boolean download(final IArtifactKey key) {
+        FutureTask<Boolean> download = new FutureTask<Boolean>(new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                return Boolean.valueOf(downloadFromAnyRepository(key));
+            }
+        });
+
+        Future<Boolean> otherDownload = DOWNLOADS.putIfAbsent(key, download);
+        if (otherDownload != null) {
+            // the other project may use different repositories
+            return getResult(otherDownload) || downloadFromAnyRepository(key);
+        }
+
+        try {
+            download.run();
+            return getResult(download);
+        } finally {
+            DOWNLOADS.remove(key, download);
+        }
+    }
+
+    private boolean downloadFromAnyRepository(IArtifactKey key) {
+        for (IArtifactRepository repository : repositories) {
+            Semaphore connection = connections.get(repository);
+            connection.acquireUninterruptibly();
+            try {
+                logger.debug("Downloading " + key.toExternalForm() + " from " + repository.getLocation());
+
+                MavenMirrorRequest request = new MavenMirrorRequest(key, localRepository);
+                repository.getArtifacts(new IArtifactRequest[] { request }, new NullProgressMonitor());
+
+                IStatus result = request.getResult();
+                if (result != null && result.isOK()) {
+                    return true;
+                }
+            } finally {
+                connection.release();
+            }
+        }
+        return false;
+    }
+
+    private static boolean getResult(Future<Boolean> future) {
+        try {
+            return future.get().booleanValue();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.p2.resolver.impl;
+
+import java.util.Collection;
+
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.tycho.p2.impl.resolver.InstallableUnitDigest;
+import org.eclipse.tycho.p2.maven.repository.InstallableUnitIndex;
+
+/**
+ * {@link InstallableUnitIndex} which can compute a digest of its units, for use in keys of the
+ * resolution result cache.
+ */
+public class FingerprintedInstallableUnitIndex extends InstallableUnitIndex {
+
+    private volatile String fingerprint;
+
+    public FingerprintedInstallableUnitIndex(Collection<IInstallableUnit> units) {
+        super(units);
+    }
+
+    /**
+     * Returns a digest of the resolution relevant content of the units, which is stable across
+     * builds. The digest is only computed once.
+     */
+    public String getFingerprint() {
+        if (fingerprint == null) {
+            fingerprint = new InstallableUnitDigest().updateUnits(everything()).toHexString();
+        }
+        return fingerprint;
+    }
+}
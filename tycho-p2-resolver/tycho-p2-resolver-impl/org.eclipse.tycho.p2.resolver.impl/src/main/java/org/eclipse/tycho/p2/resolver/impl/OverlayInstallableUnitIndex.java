@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.p2.resolver.impl;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.eclipse.equinox.internal.p2.metadata.index.IndexProvider;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.expression.IEvaluationContext;
+import org.eclipse.equinox.p2.metadata.expression.IExpression;
+import org.eclipse.equinox.p2.metadata.index.IIndex;
+import org.eclipse.tycho.p2.impl.resolver.InstallableUnitDigest;
+
+/**
+ * The installable units available to a single project: the project specific units (from the
+ * reactor and from POM dependencies) on top of a shared {@link FingerprintedInstallableUnitIndex}
+ * of the external repositories. Units from the shared index which have the same id as a reactor
+ * unit, or which are equal to one of the project specific units, are hidden.
+ */
+@SuppressWarnings("restriction")
+public class OverlayInstallableUnitIndex extends IndexProvider<IInstallableUnit> {
+
+    private final FingerprintedInstallableUnitIndex projectUnits;
+
+    private final FingerprintedInstallableUnitIndex sharedUnits;
+
+    private final Set<String> hiddenIds;
+
+    public OverlayInstallableUnitIndex(Collection<IInstallableUnit> projectUnits,
+            FingerprintedInstallableUnitIndex sharedUnits, Set<String> hiddenIds) {
+        this.projectUnits = new FingerprintedInstallableUnitIndex(projectUnits);
+        this.sharedUnits = sharedUnits;
+        this.hiddenIds = hiddenIds;
+    }
+
+    public IIndex<IInstallableUnit> getIndex(String memberName) {
+        final IIndex<IInstallableUnit> projectIndex = projectUnits.getIndex(memberName);
+        final IIndex<IInstallableUnit> sharedIndex = sharedUnits.getIndex(memberName);
+        if (projectIndex == null || sharedIndex == null) {
+            return null;
+        }
+
+        return new IIndex<IInstallableUnit>() {
+            public Iterator<IInstallableUnit> getCandidates(IEvaluationContext ctx, IExpression variable,
+                    IExpression booleanExpr) {
+                Iterator<IInstallableUnit> projectCandidates = projectIndex.getCandidates(ctx, variable, booleanExpr);
+                Iterator<IInstallableUnit> sharedCandidates = sharedIndex.getCandidates(ctx, variable, booleanExpr);
+                if (projectCandidates == null || sharedCandidates == null) {
+                    // at least one index is not applicable -> full scan
+                    return null;
+                }
+                return new OverlayIterator(projectCandidates, sharedCandidates);
+            }
+        };
+    }
+
+    public Iterator<IInstallableUnit> everything() {
+        return new OverlayIterator(projectUnits.everything(), sharedUnits.everything());
+    }
+
+    public boolean contains(IInstallableUnit unit) {
+        return projectUnits.contains(unit) || (sharedUnits.contains(unit) && isVisible(unit));
+    }
+
+    public Object getManagedProperty(Object client, String memberName, Object key) {
+        return null;
+    }
+
+    /**
+     * Returns a digest of the resolution relevant content of the visible units, which is stable
+     * across builds.
+     */
+    public String getFingerprint() {
+        InstallableUnitDigest digest = new InstallableUnitDigest();
+        digest.update(projectUnits.getFingerprint());
+        digest.update(sharedUnits.getFingerprint());
+        for (String hiddenId : new TreeSet<String>(hiddenIds)) {
+            digest.update(hiddenId);
+        }
+        return digest.toHexString();
+    }
+
+    boolean isVisible(IInstallableUnit sharedUnit) {
+        return !hiddenIds.contains(sharedUnit.getId()) && !projectUnits.contains(sharedUnit);
+    }
+
+    /**
+     * Iterates over the project units, followed by the visible shared units.
+     */
+    private class OverlayIterator implements Iterator<IInstallableUnit> {
+        private final Iterator<IInstallableUnit> projectIterator;
+
+        private final Iterator<IInstallableUnit> sharedIterator;
+
+        private IInstallableUnit next;
+
+        OverlayIterator(Iterator<IInstallableUnit> projectIterator, Iterator<IInstallableUnit> sharedIterator) {
+            this.projectIterator = projectIterator;
+            this.sharedIterator = sharedIterator;
+        }
+
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            if (projectIterator.hasNext()) {
+                next = projectIterator.next();
+                return true;
+            }
+            while (sharedIterator.hasNext()) {
+                IInstallableUnit unit = sharedIterator.next();
+                if (isVisible(unit)) {
+                    next = unit;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public IInstallableUnit next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            IInstallableUnit result = next;
+            next = null;
+            return result;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.p2.resolver.impl;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.publisher.eclipse.BundlesAction;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactDescriptor;
+import org.eclipse.tycho.core.facade.FileChecksums;
+import org.eclipse.tycho.core.facade.MavenLogger;
+import org.eclipse.tycho.p2.maven.repository.xmlio.ArtifactsIO;
+import org.eclipse.tycho.p2.maven.repository.xmlio.MetadataIO;
+import org.eclipse.tycho.p2.metadata.IArtifactFacade;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.FrameworkUtil;
+
+/**
+ * Persistent cache of the p2 data generated for POM dependencies by
+ * {@link ResolutionContextBundlePublisher}. Entries are keyed by the checksum of the artifact
+ * file, its GAV, and the versions of the p2 publisher and of this bundle, so entries never need to
+ * be invalidated. Artifacts which are no bundles are cached as entries without units.
+ * <p>
+ * Each entry consists of an artifacts file, written first, and a metadata file, whose presence
+ * marks the entry as complete. Both files are written to a temporary file and then renamed, so
+ * concurrent builds at worst write the same entry twice.
+ */
+class PublishedBundleCache {
+
+    public static final String CACHE_PATH = ".cache/tycho/p2-publisher";
+
+    private static final String METADATA_SUFFIX = ".metadata.xml";
+
+    private static final String ARTIFACTS_SUFFIX = ".artifacts.xml";
+
+    private final File cacheDir;
+
+    private final MavenLogger logger;
+
+    private final String generatorVersion;
+
+    PublishedBundleCache(File cacheDir, MavenLogger logger) {
+        this.cacheDir = cacheDir;
+        this.logger = logger;
+        this.generatorVersion = getGeneratorVersion();
+    }
+
+    /**
+     * Returns the cached p2 data of the given artifact, or <code>null</code> if there is no entry.
+     */
+    Entry get(IArtifactFacade artifact) {
+        String key = getKey(artifact);
+        if (key == null) {
+            return null;
+        }
+        File metadataFile = new File(cacheDir, key + METADATA_SUFFIX);
+        try {
+            Set<IInstallableUnit> units = readUnits(metadataFile);
+            if (units.isEmpty()) {
+                return new Entry(null, null);
+            }
+            Set<IArtifactDescriptor> descriptors = readDescriptors(new File(cacheDir, key + ARTIFACTS_SUFFIX));
+            if (units.size() != 1 || descriptors.size() != 1) {
+                logger.debug("Ignoring corrupt cached p2 data " + metadataFile);
+                return null;
+            }
+            return new Entry(units.iterator().next(), descriptors.iterator().next());
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            logger.debug("Could not read cached p2 data " + metadataFile + ": " + e.getMessage());
+            return null;
+        } catch (RuntimeException e) {
+            // corrupt entry
+            logger.debug("Could not read cached p2 data " + metadataFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Caches the p2 data generated for the given artifact.
+     *
+     * @param unit
+     *            the generated unit, or <code>null</code> if the artifact is no bundle
+     */
+    void put(IArtifactFacade artifact, IInstallableUnit unit, IArtifactDescriptor descriptor) {
+        String key = getKey(artifact);
+        if (key == null) {
+            return;
+        }
+        try {
+            cacheDir.mkdirs();
+            Set<IInstallableUnit> units = Collections.emptySet();
+            if (unit != null) {
+                File tmpFile = File.createTempFile(key, ".tmp", cacheDir);
+                LinkedHashSet<IArtifactDescriptor> descriptors = new LinkedHashSet<IArtifactDescriptor>();
+                descriptors.add(descriptor);
+                new ArtifactsIO().writeXML(descriptors, tmpFile);
+                rename(tmpFile, new File(cacheDir, key + ARTIFACTS_SUFFIX));
+                units = Collections.singleton(unit);
+            }
+            File tmpFile = File.createTempFile(key, ".tmp", cacheDir);
+            new MetadataIO().writeXML(units, tmpFile);
+            rename(tmpFile, new File(cacheDir, key + METADATA_SUFFIX));
+        } catch (IOException e) {
+            // the cache is only an optimization
+            logger.debug("Could not write cached p2 data for " + artifact.getLocation() + ": " + e.getMessage());
+        }
+    }
+
+    private static void rename(File tmpFile, File file) throws IOException {
+        // entries with the same key have the same content, so it doesn't matter who wins
+        if (!tmpFile.renameTo(file)) {
+            tmpFile.delete();
+            if (!file.isFile()) {
+                throw new IOException("Could not rename " + tmpFile + " to " + file);
+            }
+        }
+    }
+
+    private static Set<IInstallableUnit> readUnits(File file) throws IOException {
+        InputStream is = new BufferedInputStream(new FileInputStream(file));
+        try {
+            return new MetadataIO().readXML(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    private static Set<IArtifactDescriptor> readDescriptors(File file) throws IOException {
+        InputStream is = new BufferedInputStream(new FileInputStream(file));
+        try {
+            return new ArtifactsIO().readXML(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    private String getKey(IArtifactFacade artifact) {
+        if (generatorVersion == null) {
+            return null;
+        }
+        String checksum;
+        try {
+            checksum = FileChecksums.getSHA1(artifact.getLocation());
+        } catch (IOException e) {
+            return null;
+        }
+        String key = checksum + ":" + artifact.getGroupId() + ":" + artifact.getArtifactId() + ":"
+                + artifact.getVersion() + ":" + artifact.getClassidier() + ":" + generatorVersion;
+        try {
+            return FileChecksums.toHex(FileChecksums.newSHA1Digest().digest(key.getBytes("UTF-8")));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the versions of the p2 publisher and of this bundle (which adds the GAV properties),
+     * or <code>null</code> if they cannot be determined, e.g. when not running in OSGi.
+     */
+    private static String getGeneratorVersion() {
+        Bundle publisherBundle = FrameworkUtil.getBundle(BundlesAction.class);
+        Bundle thisBundle = FrameworkUtil.getBundle(PublishedBundleCache.class);
+        if (publisherBundle == null || thisBundle == null) {
+            return null;
+        }
+        return publisherBundle.getVersion() + ":" + thisBundle.getVersion();
+    }
+
+    static final class Entry {
+        /**
+         * The generated unit, or <code>null</code> if the artifact is no bundle
+         */
+        final IInstallableUnit unit;
+
+        final IArtifactDescriptor descriptor;
+
+        Entry(IInstallableUnit unit, IArtifactDescriptor descriptor) {
+            this.unit = unit;
+            this.descriptor = descriptor;
+        }
+    }
+}
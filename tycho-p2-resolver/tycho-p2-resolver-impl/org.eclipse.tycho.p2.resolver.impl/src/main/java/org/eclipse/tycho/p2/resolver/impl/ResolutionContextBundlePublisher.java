@@ -46,16 +46,25 @@ public class ResolutionContextBundlePublisher {
 
     private final MavenLogger logger;
     private final PublishedBundlesArtifactRepository publishedArtifacts;
+    private final PublishedBundleCache cache;
 
     public ResolutionContextBundlePublisher(File localMavenRepositoryRoot, MavenLogger logger) {
         this.publishedArtifacts = new PublishedBundlesArtifactRepository(localMavenRepositoryRoot);
         this.logger = logger;
+        this.cache = new PublishedBundleCache(new File(localMavenRepositoryRoot, PublishedBundleCache.CACHE_PATH),
+                logger);
     }
 
     // for testing
     ResolutionContextBundlePublisher(RepositoryReader localMavenRepoProvider, MavenLogger logger) {
+        this(localMavenRepoProvider, null, logger);
+    }
+
+    // for testing
+    ResolutionContextBundlePublisher(RepositoryReader localMavenRepoProvider, File cacheDir, MavenLogger logger) {
         this.publishedArtifacts = new PublishedBundlesArtifactRepository(localMavenRepoProvider);
         this.logger = logger;
+        this.cache = cacheDir != null ? new PublishedBundleCache(cacheDir, logger) : null;
     }
 
     /**
@@ -76,6 +85,10 @@ public class ResolutionContextBundlePublisher {
      * adds GAV properties to the generated IU. This is justified by the potential benefits of
      * tracing the origin of artifact.
      * </p>
+     * <p>
+     * Since the result only depends on the artifact, it is cached persistently (see
+     * {@link PublishedBundleCache}), so that the publisher only runs once per artifact file.
+     * </p>
      * 
      * @param mavenArtifact
      *            An artifact in local file system.
@@ -91,6 +104,16 @@ public class ResolutionContextBundlePublisher {
             return null;
         }
 
+        if (cache != null) {
+            PublishedBundleCache.Entry cached = cache.get(mavenArtifact);
+            if (cached != null) {
+                if (cached.unit != null) {
+                    publishedArtifacts.addDescriptor(cached.descriptor, mavenArtifact);
+                }
+                return cached.unit;
+            }
+        }
+
         PublisherRun publisherRun = new PublisherRun(mavenArtifact);
         IStatus status = publisherRun.execute();
 
@@ -104,11 +127,17 @@ public class ResolutionContextBundlePublisher {
         }
 
         IInstallableUnit publishedIU = publisherRun.getPublishedUnitIfExists();
+        IArtifactDescriptor publishedArtifact = null;
         if (publishedIU != null) {
-            IArtifactDescriptor publishedArtifact = publisherRun.getPublishedArtifactDescriptor();
+            publishedArtifact = publisherRun.getPublishedArtifactDescriptor();
             publishedArtifacts.addDescriptor(publishedArtifact, mavenArtifact);
         }
 
+        if (cache != null && status.isOK()) {
+            // failures are not cached, so that they are reported again
+            cache.put(mavenArtifact, publishedIU, publishedArtifact);
+        }
+
         return publishedIU;
     }
 
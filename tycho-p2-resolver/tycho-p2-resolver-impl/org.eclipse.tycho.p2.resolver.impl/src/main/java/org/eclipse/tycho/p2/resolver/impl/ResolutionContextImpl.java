@@ -15,7 +15,6 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import java.lang.reflect.Field;
 import java.net.URI;
 import java.net.URLEncoder;
 import java.util.ArrayList;
@@ -24,20 +23,20 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.SubMonitor;
 import org.eclipse.core.runtime.URIUtil;
-import org.eclipse.equinox.internal.p2.artifact.repository.CompositeArtifactRepository;
-import org.eclipse.equinox.internal.p2.artifact.repository.simple.SimpleArtifactRepository;
-import org.eclipse.equinox.internal.p2.core.helpers.OrderedProperties;
-import org.eclipse.equinox.internal.p2.director.QueryableArray;
 import org.eclipse.equinox.internal.p2.repository.CacheManager;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
 import org.eclipse.equinox.p2.core.ProvisionException;
@@ -53,24 +52,25 @@ import org.eclipse.equinox.p2.query.QueryUtil;
 import org.eclipse.equinox.p2.repository.IRepository;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactRepository;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactRepositoryManager;
-import org.eclipse.equinox.p2.repository.artifact.IArtifactRequest;
 import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
 import org.eclipse.equinox.p2.repository.metadata.IMetadataRepositoryManager;
-import org.eclipse.equinox.p2.repository.spi.AbstractRepository;
 import org.eclipse.equinox.security.storage.ISecurePreferences;
 import org.eclipse.equinox.security.storage.SecurePreferencesFactory;
 import org.eclipse.equinox.security.storage.StorageException;
 import org.eclipse.tycho.core.facade.MavenLogger;
 import org.eclipse.tycho.p2.impl.Activator;
+import org.eclipse.tycho.p2.impl.resolver.ArtifactRepositorySnapshot;
 import org.eclipse.tycho.p2.impl.resolver.ClassifiedLocation;
 import org.eclipse.tycho.p2.impl.resolver.DuplicateReactorIUsException;
 import org.eclipse.tycho.p2.impl.resolver.LoggingProgressMonitor;
+import org.eclipse.tycho.p2.impl.resolver.MetadataRepositorySnapshot;
+import org.eclipse.tycho.p2.impl.resolver.ResolutionResultCache;
 import org.eclipse.tycho.p2.impl.resolver.TychoP2RepositoryCacheManager;
+import org.eclipse.tycho.p2.maven.repository.AbstractMavenMetadataRepository;
 import org.eclipse.tycho.p2.maven.repository.LocalArtifactRepository;
 import org.eclipse.tycho.p2.maven.repository.LocalMetadataRepository;
 import org.eclipse.tycho.p2.maven.repository.MavenArtifactRepository;
 import org.eclipse.tycho.p2.maven.repository.MavenMetadataRepository;
-import org.eclipse.tycho.p2.maven.repository.MavenMirrorRequest;
 import org.eclipse.tycho.p2.maven.repository.xmlio.MetadataIO;
 import org.eclipse.tycho.p2.metadata.IArtifactFacade;
 import org.eclipse.tycho.p2.metadata.IReactorArtifactFacade;
@@ -82,22 +82,48 @@ import org.eclipse.tycho.p2.repository.TychoRepositoryIndex;
 import org.eclipse.tycho.p2.resolver.facade.P2RepositoryCache;
 import org.eclipse.tycho.p2.resolver.facade.ResolutionContext;
 
+/**
+ * Instances are confined to the resolution of a single project, but the resolution of different
+ * projects may run concurrently. State shared between instances, i.e. the repository cache, the p2
+ * views of the local Maven repository and the secure storage, is therefore only accessed while
+ * holding the respective lock. Repositories are locked by location, so that a repository is loaded
+ * only once while different repositories are loaded concurrently.
+ */
 // This class has been split off from P2Resolver; TODO divide even further
 @SuppressWarnings("restriction")
 public class ResolutionContextImpl implements ResolutionContext {
 
+    private static final Object SECURE_STORAGE_LOCK = new Object();
+
+    /**
+     * Locks for the entries of the repository caches, by repository cache and by key. The locks
+     * are discarded together with the repository cache at the end of the session.
+     */
+    private static final Map<P2RepositoryCache, ConcurrentMap<Object, Object>> REPOSITORY_CACHE_LOCKS = new WeakHashMap<P2RepositoryCache, ConcurrentMap<Object, Object>>();
+
+    /**
+     * Artifacts are downloaded one after the other unless more threads are configured.
+     */
+    private static final int DEFAULT_DOWNLOAD_THREADS = 1;
+
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_REPOSITORY = 4;
+
     private final MavenLogger logger;
 
     private final IProgressMonitor monitor;
 
     private File localMavenRepositoryRoot;
 
+    private final ResolutionResultCache resolutionResultCache;
+
     public ResolutionContextImpl(File localMavenRepositoryRoot, MavenLogger logger) {
         this.logger = logger;
         this.monitor = new LoggingProgressMonitor(logger);
 
         this.localMavenRepositoryRoot = localMavenRepositoryRoot;
         this.bundlesPublisher = new ResolutionContextBundlePublisher(localMavenRepositoryRoot, logger);
+        this.resolutionResultCache = new ResolutionResultCache(new File(localMavenRepositoryRoot,
+                ResolutionResultCache.CACHE_PATH), logger);
     }
 
     // ---------------------------------------------------------------------
@@ -195,42 +221,75 @@ public class ResolutionContextImpl implements ResolutionContext {
      */
     private final List<IArtifactRepository> artifactRepositories = new ArrayList<IArtifactRepository>();
 
+    /**
+     * Locations of the P2 artifact repositories which have not been loaded yet, with their position
+     * in {@link #artifactRepositories}.
+     */
+    private final Map<URI, Integer> deferredArtifactRepositories = new LinkedHashMap<URI, Integer>();
+
     private P2RepositoryCache repositoryCache;
 
     private boolean offline;
 
+    private int downloadThreads = DEFAULT_DOWNLOAD_THREADS;
+
+    private int maxConnectionsPerRepository = DEFAULT_MAX_CONNECTIONS_PER_REPOSITORY;
+
     private IProvisioningAgent agent;
 
     public void addP2Repository(URI location) {
+        // projects resolved concurrently shall wait for a repository being loaded instead of loading it again
+        synchronized (getRepositoryCacheLock(location)) {
+            doAddP2Repository(location);
+        }
+    }
+
+    /**
+     * Returns the lock for the entries of the repository cache with the given key.
+     */
+    private Object getRepositoryCacheLock(Object key) {
+        ConcurrentMap<Object, Object> locks;
+        synchronized (REPOSITORY_CACHE_LOCKS) {
+            locks = REPOSITORY_CACHE_LOCKS.get(repositoryCache);
+            if (locks == null) {
+                locks = new ConcurrentHashMap<Object, Object>();
+                REPOSITORY_CACHE_LOCKS.put(repositoryCache, locks);
+            }
+        }
+        Object lock = new Object();
+        Object existingLock = locks.putIfAbsent(key, lock);
+        return existingLock != null ? existingLock : lock;
+    }
+
+    private void doAddP2Repository(URI location) {
         // check metadata cache, first
         IMetadataRepository metadataRepository = (IMetadataRepository) repositoryCache.getMetadataRepository(location);
         IArtifactRepository artifactRepository = (IArtifactRepository) repositoryCache.getArtifactRepository(location);
-        if (metadataRepository != null && (offline || artifactRepository != null)) {
+        boolean needsArtifactRepository = !offline || URIUtil.isFileURI(location);
+
+        if (metadataRepository == null && MetadataRepositorySnapshot.isSupported(location)) {
+            metadataRepository = MetadataRepositorySnapshot.load(getSnapshotCacheDir(), location, offline, logger);
+            if (metadataRepository != null) {
+                repositoryCache.putRepository(location, metadataRepository, null);
+                logger.debug("Using repository snapshot of " + location.toASCIIString());
+            }
+        }
+
+        if (metadataRepository != null) {
             // cache hit
             metadataRepositories.add(metadataRepository);
             if (artifactRepository != null) {
                 artifactRepositories.add(artifactRepository);
+            } else if (needsArtifactRepository) {
+                // only loaded if artifacts need to be downloaded
+                deferredArtifactRepositories.put(location, Integer.valueOf(artifactRepositories.size()));
             }
             logger.info("Adding repository (cached) " + location.toASCIIString());
             return;
         }
 
-        if (agent == null) {
-            try {
-                agent = Activator.newProvisioningAgent();
-
-                TychoP2RepositoryCacheManager cacheMgr = new TychoP2RepositoryCacheManager();
-                cacheMgr.setOffline(offline);
-                cacheMgr.setLocalRepositoryLocation(localMavenRepositoryRoot);
-
-                agent.registerService(CacheManager.SERVICE_NAME, cacheMgr);
-            } catch (ProvisionException e) {
-                throw new RuntimeException(e);
-            }
-        }
-
         try {
-            IMetadataRepositoryManager metadataRepositoryManager = (IMetadataRepositoryManager) agent
+            IMetadataRepositoryManager metadataRepositoryManager = (IMetadataRepositoryManager) getAgent()
                     .getService(IMetadataRepositoryManager.SERVICE_NAME);
             if (metadataRepositoryManager == null) {
                 throw new IllegalStateException("No metadata repository manager found"); //$NON-NLS-1$
@@ -239,68 +298,131 @@ public class ResolutionContextImpl implements ResolutionContext {
             metadataRepository = metadataRepositoryManager.loadRepository(location, monitor);
             metadataRepositories.add(metadataRepository);
 
-            if (!offline || URIUtil.isFileURI(location)) {
-                IArtifactRepositoryManager artifactRepositoryManager = (IArtifactRepositoryManager) agent
-                        .getService(IArtifactRepositoryManager.SERVICE_NAME);
-                if (artifactRepositoryManager == null) {
-                    throw new IllegalStateException("No artifact repository manager found"); //$NON-NLS-1$
-                }
-
-                artifactRepository = artifactRepositoryManager.loadRepository(location, monitor);
-                artifactRepositories.add(artifactRepository);
-
-                forceSingleThreadedDownload(artifactRepositoryManager, artifactRepository);
+            if (needsArtifactRepository) {
+                artifactRepository = addArtifactRepository(artifactRepositories.size(), location);
             }
 
             repositoryCache.putRepository(location, metadataRepository, artifactRepository);
 
+            if (!offline && MetadataRepositorySnapshot.isSupported(location)) {
+                MetadataRepositorySnapshot.save(getSnapshotCacheDir(), metadataRepository,
+                        metadataRepositoryManager, logger);
+            }
+
             // processPartialIUs( metadataRepository, artifactRepository );
         } catch (ProvisionException e) {
             throw new RuntimeException(e);
         }
     }
 
-    protected void forceSingleThreadedDownload(IArtifactRepositoryManager artifactRepositoryManager,
-            IArtifactRepository artifactRepository) {
-        try {
-            if (artifactRepository instanceof SimpleArtifactRepository) {
-                forceSingleThreadedDownload((SimpleArtifactRepository) artifactRepository);
-            } else if (artifactRepository instanceof CompositeArtifactRepository) {
-                forceSingleThreadedDownload(artifactRepositoryManager, (CompositeArtifactRepository) artifactRepository);
+    private IArtifactRepositoryManager getArtifactRepositoryManager() throws ProvisionException {
+        IArtifactRepositoryManager artifactRepositoryManager = (IArtifactRepositoryManager) getAgent().getService(
+                IArtifactRepositoryManager.SERVICE_NAME);
+        if (artifactRepositoryManager == null) {
+            throw new IllegalStateException("No artifact repository manager found"); //$NON-NLS-1$
+        }
+        return artifactRepositoryManager;
+    }
+
+    /**
+     * Loads the artifact repositories of the p2 repositories whose metadata has been taken from the
+     * repository cache or from a snapshot. The repositories keep their position in the configured
+     * repository order.
+     */
+    private void loadDeferredArtifactRepositories() {
+        List<Map.Entry<URI, Integer>> deferred = new ArrayList<Map.Entry<URI, Integer>>(
+                deferredArtifactRepositories.entrySet());
+        // insert from the back, so that the positions of the remaining repositories stay valid
+        Collections.reverse(deferred);
+        for (Map.Entry<URI, Integer> entry : deferred) {
+            URI location = entry.getKey();
+            int position = entry.getValue().intValue();
+            synchronized (getRepositoryCacheLock(location)) {
+                IArtifactRepository artifactRepository = (IArtifactRepository) repositoryCache
+                        .getArtifactRepository(location);
+                if (artifactRepository != null) {
+                    artifactRepositories.add(position, artifactRepository);
+                } else {
+                    try {
+                        artifactRepository = addArtifactRepository(position, location);
+                    } catch (ProvisionException e) {
+                        throw new RuntimeException(e);
+                    }
+                    repositoryCache.putRepository(location, null, artifactRepository);
+                }
+            }
+        }
+        deferredArtifactRepositories.clear();
+    }
+
+    /**
+     * Inserts the artifact repository with the given location at the given position of the artifact
+     * repositories. For remote repositories, the repository is taken from its snapshot if it is
+     * unchanged, otherwise a new snapshot is taken.
+     * 
+     * @return the repository to be cached, or <code>null</code> if the snapshot of a composite
+     *         repository has been inserted in the form of its simple repositories
+     */
+    private IArtifactRepository addArtifactRepository(int position, URI location) throws ProvisionException {
+        boolean snapshotSupported = MetadataRepositorySnapshot.isSupported(location);
+        if (snapshotSupported) {
+            List<IArtifactRepository> snapshot = ArtifactRepositorySnapshot.load(getArtifactSnapshotCacheDir(),
+                    location, offline, getAgent(), logger);
+            if (snapshot != null) {
+                logger.debug("Using artifact repository snapshot of " + location.toASCIIString());
+                artifactRepositories.addAll(position, snapshot);
+                if (snapshot.size() == 1 && location.equals(snapshot.get(0).getLocation())) {
+                    return snapshot.get(0);
+                }
+                return null;
             }
-        } catch (Exception e) {
-            // we've tried
         }
+
+        IArtifactRepositoryManager artifactRepositoryManager = getArtifactRepositoryManager();
+        IArtifactRepository artifactRepository = artifactRepositoryManager.loadRepository(location, monitor);
+        artifactRepositories.add(position, artifactRepository);
+        if (!offline && snapshotSupported) {
+            ArtifactRepositorySnapshot.save(getArtifactSnapshotCacheDir(), artifactRepository,
+                    artifactRepositoryManager, getAgent(), logger);
+        }
+        return artifactRepository;
     }
 
-    protected void forceSingleThreadedDownload(IArtifactRepositoryManager artifactRepositoryManager,
-            CompositeArtifactRepository artifactRepository) throws ProvisionException {
-        List<URI> children = artifactRepository.getChildren();
-        for (URI child : children) {
-            forceSingleThreadedDownload(artifactRepositoryManager,
-                    artifactRepositoryManager.loadRepository(child, monitor));
+    private IProvisioningAgent getAgent() throws ProvisionException {
+        if (agent == null) {
+            agent = Activator.newProvisioningAgent();
+
+            TychoP2RepositoryCacheManager cacheMgr = new TychoP2RepositoryCacheManager();
+            cacheMgr.setOffline(offline);
+            cacheMgr.setLocalRepositoryLocation(localMavenRepositoryRoot);
+
+            agent.registerService(CacheManager.SERVICE_NAME, cacheMgr);
         }
+        return agent;
     }
 
-    protected void forceSingleThreadedDownload(SimpleArtifactRepository artifactRepository) throws SecurityException,
-            NoSuchFieldException, IllegalArgumentException, IllegalAccessException {
-        Field field = AbstractRepository.class.getDeclaredField("properties");
-        field.setAccessible(true);
-        OrderedProperties p = (OrderedProperties) field.get(artifactRepository);
-        p.put(org.eclipse.equinox.internal.p2.artifact.repository.simple.SimpleArtifactRepository.PROP_MAX_THREADS, "1");
+    private File getSnapshotCacheDir() {
+        return new File(localMavenRepositoryRoot, MetadataRepositorySnapshot.CACHE_RELPATH);
+    }
+
+    private File getArtifactSnapshotCacheDir() {
+        return new File(localMavenRepositoryRoot, ArtifactRepositorySnapshot.CACHE_RELPATH);
     }
 
     public void addMavenRepository(URI location, TychoRepositoryIndex projectIndex, RepositoryReader contentLocator) {
-        MavenMetadataRepository metadataRepository = (MavenMetadataRepository) repositoryCache
-                .getMetadataRepository(location);
-        MavenArtifactRepository artifactRepository = (MavenArtifactRepository) repositoryCache
-                .getArtifactRepository(location);
+        MavenMetadataRepository metadataRepository;
+        MavenArtifactRepository artifactRepository;
 
-        if (metadataRepository == null || artifactRepository == null) {
-            metadataRepository = new MavenMetadataRepository(location, projectIndex, contentLocator);
-            artifactRepository = new MavenArtifactRepository(location, projectIndex, contentLocator);
+        synchronized (getRepositoryCacheLock(location)) {
+            metadataRepository = (MavenMetadataRepository) repositoryCache.getMetadataRepository(location);
+            artifactRepository = (MavenArtifactRepository) repositoryCache.getArtifactRepository(location);
 
-            repositoryCache.putRepository(location, metadataRepository, artifactRepository);
+            if (metadataRepository == null || artifactRepository == null) {
+                metadataRepository = new MavenMetadataRepository(location, projectIndex, contentLocator);
+                artifactRepository = new MavenArtifactRepository(location, projectIndex, contentLocator);
+
+                repositoryCache.putRepository(location, metadataRepository, artifactRepository);
+            }
         }
 
         metadataRepositories.add(metadataRepository);
@@ -354,17 +476,19 @@ public class ResolutionContextImpl implements ResolutionContext {
         }
         String nodeName = IRepository.PREFERENCE_NODE + '/' + nodeKey;
 
-        ISecurePreferences prefNode = securePreferences.node(nodeName);
+        synchronized (SECURE_STORAGE_LOCK) {
+            ISecurePreferences prefNode = securePreferences.node(nodeName);
 
-        try {
-            if (!username.equals(prefNode.get(IRepository.PROP_USERNAME, username))
-                    || !password.equals(prefNode.get(IRepository.PROP_PASSWORD, password))) {
-                logger.info("Redefining access credentials for repository host " + host);
+            try {
+                if (!username.equals(prefNode.get(IRepository.PROP_USERNAME, username))
+                        || !password.equals(prefNode.get(IRepository.PROP_PASSWORD, password))) {
+                    logger.info("Redefining access credentials for repository host " + host);
+                }
+                prefNode.put(IRepository.PROP_USERNAME, username, false);
+                prefNode.put(IRepository.PROP_PASSWORD, password, false);
+            } catch (StorageException e) {
+                throw new RuntimeException(e);
             }
-            prefNode.put(IRepository.PROP_USERNAME, username, false);
-            prefNode.put(IRepository.PROP_PASSWORD, password, false);
-        } catch (StorageException e) {
-            throw new RuntimeException(e);
         }
     }
 
@@ -372,6 +496,14 @@ public class ResolutionContextImpl implements ResolutionContext {
         this.offline = offline;
     }
 
+    public void setDownloadThreads(int downloadThreads) {
+        this.downloadThreads = downloadThreads;
+    }
+
+    public void setMaxConnectionsPerRepository(int maxConnectionsPerRepository) {
+        this.maxConnectionsPerRepository = maxConnectionsPerRepository;
+    }
+
     public void stop() {
         if (agent != null) {
             agent.stop();
@@ -389,20 +521,24 @@ public class ResolutionContextImpl implements ResolutionContext {
     private void initP2ViewsOfLocalMavenRepository() {
         URI uri = localMavenRepositoryRoot.toURI();
 
-        localRepository = (LocalArtifactRepository) repositoryCache.getArtifactRepository(uri);
-        localMetadataRepository = (LocalMetadataRepository) repositoryCache.getMetadataRepository(uri);
+        // all concurrently resolved projects need to share the same instances
+        synchronized (getRepositoryCacheLock(uri)) {
+            localRepository = (LocalArtifactRepository) repositoryCache.getArtifactRepository(uri);
+            localMetadataRepository = (LocalMetadataRepository) repositoryCache.getMetadataRepository(uri);
 
-        if (localRepository == null || localMetadataRepository == null) {
-            RepositoryReader contentLocator = new LocalRepositoryReader(localMavenRepositoryRoot);
-            LocalTychoRepositoryIndex artifactsIndex = new LocalTychoRepositoryIndex(localMavenRepositoryRoot,
-                    LocalTychoRepositoryIndex.ARTIFACTS_INDEX_RELPATH);
-            LocalTychoRepositoryIndex metadataIndex = new LocalTychoRepositoryIndex(localMavenRepositoryRoot,
-                    LocalTychoRepositoryIndex.METADATA_INDEX_RELPATH);
+            if (localRepository == null || localMetadataRepository == null) {
+                RepositoryReader contentLocator = new LocalRepositoryReader(localMavenRepositoryRoot);
+                LocalTychoRepositoryIndex artifactsIndex = new LocalTychoRepositoryIndex(localMavenRepositoryRoot,
+                        LocalTychoRepositoryIndex.ARTIFACTS_INDEX_RELPATH);
+                LocalTychoRepositoryIndex metadataIndex = new LocalTychoRepositoryIndex(localMavenRepositoryRoot,
+                        LocalTychoRepositoryIndex.METADATA_INDEX_RELPATH);
 
-            localRepository = new LocalArtifactRepository(localMavenRepositoryRoot, artifactsIndex, contentLocator);
-            localMetadataRepository = new LocalMetadataRepository(uri, metadataIndex, contentLocator);
+                localRepository = new LocalArtifactRepository(localMavenRepositoryRoot, artifactsIndex,
+                        contentLocator, logger);
+                localMetadataRepository = new LocalMetadataRepository(uri, metadataIndex, contentLocator, logger);
 
-            repositoryCache.putRepository(uri, localMetadataRepository, localRepository);
+                repositoryCache.putRepository(uri, localMetadataRepository, localRepository);
+            }
         }
 
         // XXX remove old
@@ -412,9 +548,43 @@ public class ResolutionContextImpl implements ResolutionContext {
     // -------------------------------------------------------------------------
 
     public IQueryable<IInstallableUnit> gatherAvailableInstallableUnits(IProgressMonitor monitor) {
-        Set<IInstallableUnit> result = new LinkedHashSet<IInstallableUnit>();
+        FingerprintedInstallableUnitIndex externalUnits;
+        // the index of the external units is shared by all projects with the same repositories
+        List<Object> repositorySetKey = getRepositorySetKey();
+        synchronized (getRepositoryCacheLock(repositorySetKey)) {
+            externalUnits = (FingerprintedInstallableUnitIndex) repositoryCache
+                    .getInstallableUnitIndex(repositorySetKey);
+            if (externalUnits == null) {
+                externalUnits = createExternalInstallableUnitIndex(monitor);
+                repositoryCache.putInstallableUnitIndex(repositorySetKey, externalUnits);
+            } else {
+                logger.debug("Re-using index of " + externalUnits.size() + " installable units from "
+                        + metadataRepositories.size() + " repositories");
+            }
+        }
 
-        result.addAll(mavenInstallableUnits.keySet());
+        // reactor IUs take precedence over external IUs with the same id
+        return new OverlayInstallableUnitIndex(mavenInstallableUnits.keySet(), externalUnits,
+                reactorInstallableUnitIds);
+    }
+
+    /**
+     * Returns a key which identifies the metadata repositories of this context and, for the
+     * repositories which change during the build, their current content.
+     */
+    private List<Object> getRepositorySetKey() {
+        List<Object> key = new ArrayList<Object>();
+        for (IMetadataRepository repository : metadataRepositories) {
+            key.add(repository.getLocation());
+            if (repository instanceof AbstractMavenMetadataRepository) {
+                key.add(Long.valueOf(((AbstractMavenMetadataRepository) repository).getRevision()));
+            }
+        }
+        return key;
+    }
+
+    private FingerprintedInstallableUnitIndex createExternalInstallableUnitIndex(IProgressMonitor monitor) {
+        Set<IInstallableUnit> result = new LinkedHashSet<IInstallableUnit>();
 
         SubMonitor sub = SubMonitor.convert(monitor, metadataRepositories.size() * 200);
         for (IMetadataRepository repository : metadataRepositories) {
@@ -427,29 +597,20 @@ public class ResolutionContextImpl implements ResolutionContext {
                     continue;
                 }
 
-                if (!isReactorInstallableUnit(iu)) {
-                    if (!reactorInstallableUnitIds.contains(iu.getId())) {
-                        result.add(iu);
-                    } else {
-                        // this produces too much noise in STDOUT
-//                        logger.debug( "External IU " + iu + " from repository " + repository.getLocation()
-//                            + " has the same id as reactor project. External IU is ignored." );
-                    }
-                }
+                result.add(iu);
             }
         }
         result.addAll(createJREIUs());
         sub.done();
-        // this is a real shame
-        return new QueryableArray(result.toArray(new IInstallableUnit[result.size()]));
+        return new FingerprintedInstallableUnitIndex(result);
     }
 
-    private static boolean isPartialIU(IInstallableUnit iu) {
-        return Boolean.valueOf(iu.getProperty(IInstallableUnit.PROP_PARTIAL_IU)).booleanValue();
+    public ResolutionResultCache getResolutionResultCache() {
+        return resolutionResultCache;
     }
 
-    private boolean isReactorInstallableUnit(IInstallableUnit iu) {
-        return mavenInstallableUnits.get(iu) instanceof IReactorArtifactFacade;
+    private static boolean isPartialIU(IInstallableUnit iu) {
+        return Boolean.valueOf(iu.getProperty(IInstallableUnit.PROP_PARTIAL_IU)).booleanValue();
     }
 
     /**
@@ -465,55 +626,55 @@ public class ResolutionContextImpl implements ResolutionContext {
 
     // -------------------------------------------------------------------------------
 
-    private static final IArtifactRequest[] ARTIFACT_REQUEST_ARRAY = new IArtifactRequest[0];
-
     public void downloadArtifacts(Collection<IInstallableUnit> newState) {
-        List<MavenMirrorRequest> requests = new ArrayList<MavenMirrorRequest>();
+        Set<IArtifactKey> keys = new LinkedHashSet<IArtifactKey>();
         for (IInstallableUnit iu : newState) {
             // maven IUs either come from reactor or local maven repository, no need to download them from p2 repos
             if (getMavenArtifact(iu) == null) {
-                Collection<IArtifactKey> artifactKeys = iu.getArtifacts();
-                for (IArtifactKey key : artifactKeys) {
-                    requests.add(new MavenMirrorRequest(key, localRepository));
-                }
+                keys.addAll(iu.getArtifacts());
             }
         }
 
-        for (IArtifactRepository artifactRepository : artifactRepositories) {
-            artifactRepository.getArtifacts(requests.toArray(ARTIFACT_REQUEST_ARRAY), monitor);
-
-            requests = filterCompletedRequests(requests);
+        if (!deferredArtifactRepositories.isEmpty() && !isAvailableLocally(keys)) {
+            loadDeferredArtifactRepositories();
         }
 
-        localRepository.save();
-        localMetadataRepository.save();
+        List<IArtifactKey> missingKeys = new ArtifactDownloader(localRepository, artifactRepositories,
+                downloadThreads, maxConnectionsPerRepository, logger).download(keys);
+
+        // the p2 views of the local repository are shared with concurrently resolved projects
+        synchronized (localRepository) {
+            localRepository.save();
+            localMetadataRepository.save();
+        }
 
         // check for locally installed artifacts, which are not available from any remote repo
-        for (Iterator<MavenMirrorRequest> iter = requests.iterator(); iter.hasNext();) {
-            MavenMirrorRequest request = iter.next();
-            if (localRepository.contains(request.getArtifactKey())) {
+        for (Iterator<IArtifactKey> iter = missingKeys.iterator(); iter.hasNext();) {
+            IArtifactKey key = iter.next();
+            if (localRepository.contains(key)) {
                 iter.remove();
             }
         }
 
-        if (!requests.isEmpty()) {
+        if (!missingKeys.isEmpty()) {
             StringBuilder msg = new StringBuilder("Could not download artifacts from any repository\n");
-            for (MavenMirrorRequest request : requests) {
-                msg.append("   ").append(request.getArtifactKey().toExternalForm()).append('\n');
+            for (IArtifactKey key : missingKeys) {
+                msg.append("   ").append(key.toExternalForm()).append('\n');
             }
 
             throw new RuntimeException(msg.toString());
         }
     }
 
-    private List<MavenMirrorRequest> filterCompletedRequests(List<MavenMirrorRequest> requests) {
-        ArrayList<MavenMirrorRequest> filteredRequests = new ArrayList<MavenMirrorRequest>();
-        for (MavenMirrorRequest request : requests) {
-            if (request.getResult() == null || !request.getResult().isOK()) {
-                filteredRequests.add(request);
+    private boolean isAvailableLocally(Collection<IArtifactKey> keys) {
+        synchronized (localRepository) {
+            for (IArtifactKey key : keys) {
+                if (!localRepository.contains(key)) {
+                    return false;
+                }
             }
         }
-        return filteredRequests;
+        return true;
     }
 
     // -------------------------------------------------------------------------------
@@ -562,6 +723,8 @@ public class ResolutionContextImpl implements ResolutionContext {
     }
 
     public File getLocalArtifactFile(IArtifactKey key) {
-        return localRepository.getArtifactFile(key);
+        synchronized (localRepository) {
+            return localRepository.getArtifactFile(key);
+        }
     }
 }
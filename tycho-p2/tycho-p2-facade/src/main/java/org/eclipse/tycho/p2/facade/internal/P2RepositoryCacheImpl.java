@@ -12,20 +12,26 @@ package org.eclipse.tycho.p2.facade.internal;
 
 import java.lang.ref.SoftReference;
 import java.net.URI;
-import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.codehaus.plexus.component.annotations.Component;
 import org.eclipse.tycho.p2.repository.TychoRepositoryIndex;
 import org.eclipse.tycho.p2.resolver.facade.P2RepositoryCache;
 
+/**
+ * Session-wide cache of loaded repositories. Safe for use by concurrently resolved projects.
+ */
 @Component(role = P2RepositoryCacheImpl.class)
 public class P2RepositoryCacheImpl implements P2RepositoryCache {
 
-    private HashMap<URI, SoftReference<Object>> artifactRepositories = new HashMap<URI, SoftReference<Object>>();
+    private final Map<URI, SoftReference<Object>> artifactRepositories = new ConcurrentHashMap<URI, SoftReference<Object>>();
 
-    private HashMap<URI, SoftReference<Object>> metadataRepositories = new HashMap<URI, SoftReference<Object>>();
+    private final Map<URI, SoftReference<Object>> metadataRepositories = new ConcurrentHashMap<URI, SoftReference<Object>>();
 
-    private HashMap<String, TychoRepositoryIndex> indexes = new HashMap<String, TychoRepositoryIndex>();
+    private final Map<Object, SoftReference<Object>> installableUnitIndexes = new ConcurrentHashMap<Object, SoftReference<Object>>();
+
+    private final Map<String, TychoRepositoryIndex> indexes = new ConcurrentHashMap<String, TychoRepositoryIndex>();
 
     public Object getArtifactRepository(URI uri) {
         return dereference(artifactRepositories.get(uri));
@@ -49,6 +55,14 @@ public class P2RepositoryCacheImpl implements P2RepositoryCache {
         }
     }
 
+    public Object getInstallableUnitIndex(Object repositorySetKey) {
+        return dereference(installableUnitIndexes.get(repositorySetKey));
+    }
+
+    public void putInstallableUnitIndex(Object repositorySetKey, Object index) {
+        installableUnitIndexes.put(repositorySetKey, new SoftReference<Object>(index));
+    }
+
     public TychoRepositoryIndex getRepositoryIndex(String repositoryKey) {
         return indexes.get(repositoryKey);
     }
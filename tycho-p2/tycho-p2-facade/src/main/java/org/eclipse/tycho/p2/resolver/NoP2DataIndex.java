@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2011 SAP AG and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    SAP AG - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.p2.resolver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.eclipse.tycho.core.facade.FileChecksums;
+import org.eclipse.tycho.p2.repository.GAV;
+import org.eclipse.tycho.p2.repository.LocalTychoRepositoryIndex;
+
+/**
+ * Index of the released POM dependencies which are known to have no p2 data artifacts, so that
+ * their resolution doesn't need to be attempted again in later builds. An entry only applies to the
+ * remote repositories which have been searched, and expires after {@link #MAX_AGE_MILLIS}, like
+ * Maven's default daily update policy, so that p2 data deployed later is found.
+ * <p>
+ * Entries are stored as GAVs of the form
+ * <code>&lt;groupId&gt;:&lt;artifactId&gt;:&lt;version&gt;:&lt;repositories&gt;:&lt;timestamp&gt;</code>,
+ * where <code>&lt;repositories&gt;</code> is a digest of the IDs and URLs of the remote repositories.
+ * Expired and unreadable entries are removed from the index file on {@link #save()}.
+ */
+class NoP2DataIndex {
+
+    static final String RELPATH = ".cache/tycho/no-p2-data.properties";
+
+    static final long MAX_AGE_MILLIS = 24L * 60 * 60 * 1000;
+
+    private final LocalTychoRepositoryIndex index;
+
+    private final long now;
+
+    /**
+     * Valid entries, by {@link #getKey(GAV, String)}
+     */
+    private final Set<String> entries = new HashSet<String>();
+
+    NoP2DataIndex(File localRepository, long now) {
+        this.index = new LocalTychoRepositoryIndex(localRepository, RELPATH);
+        this.now = now;
+        for (GAV entry : index.getProjectGAVs()) {
+            String version = entry.getVersion();
+            int timestampStart = version != null ? version.lastIndexOf(':') : -1;
+            int repositoriesStart = timestampStart > 0 ? version.lastIndexOf(':', timestampStart - 1) : -1;
+            long timestamp;
+            try {
+                timestamp = repositoriesStart > 0 ? Long.parseLong(version.substring(timestampStart + 1)) : -1;
+            } catch (NumberFormatException e) {
+                timestamp = -1;
+            }
+            if (timestamp < 0 || timestamp > now || now - timestamp > MAX_AGE_MILLIS) {
+                index.removeProject(entry);
+                continue;
+            }
+            GAV gav = new GAV(entry.getGroupId(), entry.getArtifactId(), version.substring(0, repositoriesStart));
+            entries.add(getKey(gav, version.substring(repositoriesStart + 1, timestampStart)));
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the given artifact is known to have no p2 data in the given
+     * remote repositories.
+     */
+    boolean contains(GAV gav, String repositoriesKey) {
+        return entries.contains(getKey(gav, repositoriesKey));
+    }
+
+    void add(GAV gav, String repositoriesKey) {
+        if (entries.add(getKey(gav, repositoriesKey))) {
+            index.addProject(new GAV(gav.getGroupId(), gav.getArtifactId(), gav.getVersion() + ":"
+                    + repositoriesKey + ":" + now));
+        }
+    }
+
+    void save() throws IOException {
+        index.save();
+    }
+
+    /**
+     * Returns a key which identifies the given remote repositories.
+     */
+    static String getRepositoriesKey(List<ArtifactRepository> repositories) {
+        StringBuilder key = new StringBuilder();
+        for (ArtifactRepository repository : repositories) {
+            key.append(repository.getId()).append('=').append(repository.getUrl()).append('\n');
+        }
+        try {
+            return FileChecksums.toHex(FileChecksums.newDigest("MD5").digest(key.toString().getBytes("UTF-8")));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String getKey(GAV gav, String repositoriesKey) {
+        return gav.toExternalForm() + ":" + repositoriesKey;
+    }
+}
@@ -85,6 +85,10 @@ public class P2TargetPlatformResolver extends AbstractTargetPlatformResolver imp
 
     public static final String ROLE_HINT = "p2";
 
+    public static final String PROP_DOWNLOAD_THREADS = "tycho.p2.download.threads";
+
+    public static final String PROP_MAX_CONNECTIONS_PER_REPOSITORY = "tycho.p2.download.maxConnectionsPerRepository";
+
     @Requirement
     private EquinoxServiceFactory equinox;
 
@@ -175,6 +179,15 @@ public class P2TargetPlatformResolver extends AbstractTargetPlatformResolver imp
 
         resolutionContext.setOffline(session.isOffline());
 
+        Integer downloadThreads = getIntegerProperty(session, PROP_DOWNLOAD_THREADS);
+        if (downloadThreads != null) {
+            resolutionContext.setDownloadThreads(downloadThreads.intValue());
+        }
+        Integer maxConnections = getIntegerProperty(session, PROP_MAX_CONNECTIONS_PER_REPOSITORY);
+        if (maxConnections != null) {
+            resolutionContext.setMaxConnectionsPerRepository(maxConnections.intValue());
+        }
+
         Map<File, ReactorProject> projects = new HashMap<File, ReactorProject>();
 
         resolver.setEnvironments(getEnvironments(configuration));
@@ -441,6 +454,21 @@ public class P2TargetPlatformResolver extends AbstractTargetPlatformResolver imp
         return platform;
     }
 
+    private static Integer getIntegerProperty(MavenSession session, String key) {
+        String value = session.getUserProperties().getProperty(key);
+        if (value == null) {
+            value = session.getSystemProperties().getProperty(key);
+        }
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(Math.max(1, Integer.parseInt(value.trim())));
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Invalid value " + key + "=" + value, e);
+        }
+    }
+
     private List<Map<String, String>> getEnvironments(TargetPlatformConfiguration configuration) {
         ArrayList<Map<String, String>> environments = new ArrayList<Map<String, String>>();
 
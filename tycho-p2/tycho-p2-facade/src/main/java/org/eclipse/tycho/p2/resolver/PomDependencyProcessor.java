@@ -27,6 +27,7 @@ import org.apache.maven.repository.RepositorySystem;
 import org.codehaus.plexus.logging.Logger;
 import org.eclipse.tycho.p2.facade.RepositoryReferenceTool;
 import org.eclipse.tycho.p2.facade.internal.ArtifactFacade;
+import org.eclipse.tycho.p2.repository.GAV;
 import org.eclipse.tycho.p2.repository.LocalTychoRepositoryIndex;
 import org.eclipse.tycho.p2.repository.RepositoryLayoutHelper;
 import org.eclipse.tycho.p2.resolver.facade.ResolutionContext;
@@ -49,10 +50,20 @@ public class PomDependencyProcessor {
     void addPomDependenciesToResolutionContext(MavenProject project, Collection<Artifact> transitivePomDependencies,
             ResolutionContext resolutionContext) {
         final LocalTychoRepositoryIndex p2ArtifactsInLocalRepo = loadIndexOfP2ArtifactsInLocalMavenRepo();
+        final NoP2DataIndex artifactsWithoutP2Data = new NoP2DataIndex(getLocalMavenRepository(),
+                System.currentTimeMillis());
+        final String repositoriesKey = NoP2DataIndex.getRepositoriesKey(project.getRemoteArtifactRepositories());
+        // offline builds can't tell missing from unavailable artifacts, and -U asks for a fresh lookup
+        boolean useNoP2DataIndex = !session.isOffline() && !session.getRequest().isUpdateSnapshots();
 
         for (Artifact artifact : transitivePomDependencies) {
+            GAV gav = new GAV(artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion());
+            boolean indexable = useNoP2DataIndex && !artifact.isSnapshot();
+
             P2DataArtifacts p2Data = new P2DataArtifacts(artifact);
-            p2Data.attemptDownload(project.getRemoteArtifactRepositories());
+            if (!(indexable && artifactsWithoutP2Data.contains(gav, repositoriesKey))) {
+                p2Data.attemptDownload(project.getRemoteArtifactRepositories());
+            }
 
             if (p2Data.p2MetadataXml.isAvailable() && p2Data.p2ArtifactsXml.isAvailable()) {
                 /*
@@ -77,7 +88,7 @@ public class PomDependencyProcessor {
                 p2ArtifactsInLocalRepo.addProject(artifact.getGroupId(), artifact.getArtifactId(),
                         artifact.getVersion());
 
-            } else if (!p2Data.p2MetadataXml.isAvailable() && !p2Data.p2ArtifactsXml.isAvailable()) {
+            } else if (!p2Data.p2MetadataXml.isAvailable()) {
                 /*
                  * The POM dependency has not been built by Tycho. If the dependency is a bundle,
                  * run the p2 bundle publisher on it and add the result to the resolution context.
@@ -86,6 +97,10 @@ public class PomDependencyProcessor {
                     logger.debug("P2resolver.addMavenArtifact " + artifact.toString());
                 }
 
+                if (indexable && p2Data.p2MetadataXml.isMissing()) {
+                    artifactsWithoutP2Data.add(gav, repositoriesKey);
+                }
+
                 resolutionContext.publishAndAddArtifactIfBundleArtifact(new ArtifactFacade(artifact));
 
             } else {
@@ -99,6 +114,12 @@ public class PomDependencyProcessor {
             throw new RuntimeException(
                     "I/O error while updating p2 artifact repository view on local Maven repository", e);
         }
+        try {
+            artifactsWithoutP2Data.save();
+        } catch (IOException e) {
+            // the index is only an optimization
+            logger.debug("Could not update " + NoP2DataIndex.RELPATH + ": " + e.getMessage());
+        }
     }
 
     /**
@@ -110,8 +131,12 @@ public class PomDependencyProcessor {
      * @see org.eclipse.tycho.p2.maven.repository.LocalArtifactRepository
      */
     private LocalTychoRepositoryIndex loadIndexOfP2ArtifactsInLocalMavenRepo() {
-        File localMavenRepository = new File(session.getLocalRepository().getBasedir());
-        return new LocalTychoRepositoryIndex(localMavenRepository, LocalTychoRepositoryIndex.ARTIFACTS_INDEX_RELPATH);
+        return new LocalTychoRepositoryIndex(getLocalMavenRepository(),
+                LocalTychoRepositoryIndex.ARTIFACTS_INDEX_RELPATH);
+    }
+
+    private File getLocalMavenRepository() {
+        return new File(session.getLocalRepository().getBasedir());
     }
 
     private void failDueToPartialP2Data(Artifact artifact, P2DataArtifacts p2Data) {
@@ -153,7 +178,10 @@ public class PomDependencyProcessor {
 
         void attemptDownload(List<ArtifactRepository> remoteMavenRepositories) {
             p2MetadataXml.resolve(repositorySystem, remoteMavenRepositories);
-            p2ArtifactsXml.resolve(repositorySystem, remoteMavenRepositories);
+            if (p2MetadataXml.isAvailable()) {
+                // both artifacts are attached by Tycho, so there is no need to look for the second one otherwise
+                p2ArtifactsXml.resolve(repositorySystem, remoteMavenRepositories);
+            }
         }
 
     }
@@ -175,7 +203,16 @@ public class PomDependencyProcessor {
         }
 
         boolean isAvailable() {
-            return resolutionResult.isSuccess();
+            return resolutionResult != null && resolutionResult.isSuccess();
+        }
+
+        /**
+         * Returns <code>true</code> if the artifact could not be resolved because it doesn't exist,
+         * as opposed to e.g. transfer errors.
+         */
+        boolean isMissing() {
+            return resolutionResult != null && resolutionResult.hasMissingArtifacts()
+                    && !resolutionResult.hasExceptions();
         }
     }
 }
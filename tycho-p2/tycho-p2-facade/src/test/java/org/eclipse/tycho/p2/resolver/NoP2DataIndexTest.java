@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2011 SAP AG and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    SAP AG - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.p2.resolver;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.repository.ArtifactRepositoryPolicy;
+import org.apache.maven.artifact.repository.MavenArtifactRepository;
+import org.apache.maven.artifact.repository.layout.DefaultRepositoryLayout;
+import org.codehaus.plexus.util.FileUtils;
+import org.eclipse.tycho.p2.repository.GAV;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NoP2DataIndexTest {
+
+    private static final GAV GAV = new GAV("group", "artifact", "1.0.0");
+
+    private final File localRepository = new File("target/noP2DataRepository").getAbsoluteFile();
+
+    private final long now = System.currentTimeMillis();
+
+    @Before
+    public void cleanupRepository() throws IOException {
+        FileUtils.deleteDirectory(localRepository);
+    }
+
+    @Test
+    public void testEntriesAreKeyedByRepositories() throws IOException {
+        String repositories = NoP2DataIndex.getRepositoriesKey(newRepositories("central", "http://repo1"));
+        String otherRepositories = NoP2DataIndex.getRepositoriesKey(newRepositories("other", "http://repo2"));
+
+        NoP2DataIndex index = new NoP2DataIndex(localRepository, now);
+        index.add(GAV, repositories);
+        index.save();
+
+        NoP2DataIndex savedIndex = new NoP2DataIndex(localRepository, now);
+        Assert.assertTrue(savedIndex.contains(GAV, repositories));
+        // the other repositories may provide p2 data
+        Assert.assertFalse(savedIndex.contains(GAV, otherRepositories));
+    }
+
+    @Test
+    public void testEntriesExpire() throws IOException {
+        String repositories = NoP2DataIndex.getRepositoriesKey(newRepositories("central", "http://repo1"));
+
+        NoP2DataIndex index = new NoP2DataIndex(localRepository, now - NoP2DataIndex.MAX_AGE_MILLIS - 1);
+        index.add(GAV, repositories);
+        index.save();
+
+        NoP2DataIndex laterIndex = new NoP2DataIndex(localRepository, now);
+        Assert.assertFalse(laterIndex.contains(GAV, repositories));
+
+        // expired entries are removed from the index file
+        laterIndex.save();
+        Assert.assertEquals(0, new File(localRepository, NoP2DataIndex.RELPATH).length());
+    }
+
+    private static List<ArtifactRepository> newRepositories(String id, String url) {
+        ArtifactRepositoryPolicy policy = new ArtifactRepositoryPolicy();
+        return Collections.<ArtifactRepository> singletonList(new MavenArtifactRepository(id, url,
+                new DefaultRepositoryLayout(), policy, policy));
+    }
+}
@@ -18,6 +18,8 @@ import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.project.MavenProject;
+import org.eclipse.tycho.p2.repository.GAV;
+import org.eclipse.tycho.p2.repository.LocalMetadataStore;
 import org.eclipse.tycho.p2.repository.LocalTychoRepositoryIndex;
 
 /**
@@ -39,6 +41,14 @@ public class UpdateLocalIndexMojo extends AbstractMojo {
         } catch (IOException e) {
             throw new MojoExecutionException("Could not update local repository index", e);
         }
+
+        try {
+            LocalMetadataStore.updateProject(location, new GAV(project.getGroupId(), project.getArtifactId(), project
+                    .getArtifact().getVersion()));
+        } catch (IOException e) {
+            // the store is only an optimization; it is rebuilt from the XML files when the repository is loaded
+            getLog().debug("Could not update local p2 metadata store: " + e.getMessage());
+        }
     }
 
 }
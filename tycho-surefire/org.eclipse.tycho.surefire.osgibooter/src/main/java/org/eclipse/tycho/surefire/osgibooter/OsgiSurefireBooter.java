@@ -13,16 +13,32 @@ package org.eclipse.tycho.surefire.osgibooter;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.reflect.Constructor;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.maven.surefire.Surefire;
+import org.apache.maven.surefire.report.BriefConsoleReporter;
+import org.apache.maven.surefire.suite.SurefireTestSuite;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
@@ -32,6 +48,18 @@ import org.osgi.framework.BundleException;
 
 public class OsgiSurefireBooter {
 
+    /**
+     * Result of {@link Surefire#run(List, List, ClassLoader, ClassLoader, Boolean)} in case of test
+     * failures
+     */
+    private static final int FAILURE = 255;
+
+    /**
+     * Sub-directory of the reports directory where test classes with a timeout are reported while
+     * they are running
+     */
+    private static final String INCOMPLETE_REPORTS_DIR = ".incomplete";
+
     public static int run(String[] args) throws Exception {
 
         Properties p = loadProperties(getTestProperties(args));
@@ -50,6 +78,31 @@ public class OsgiSurefireBooter {
 
         Surefire surefire = new Surefire();
 
+        Boolean failIfNoTests;
+        if ("false".equalsIgnoreCase(p.getProperty("failifnotests"))) {
+            failIfNoTests = Boolean.FALSE;
+        } else {
+            failIfNoTests = Boolean.TRUE;
+        }
+
+        int threadCount = Integer.parseInt(p.getProperty("threadcount", "1"));
+        int timeout = Integer.parseInt(p.getProperty("testclasstimeout", "0"));
+        if (threadCount > 1 || timeout > 0) {
+            Set<String> testClasses = getTestClasses(runner, surefireClassLoader, testClassLoader, testDir,
+                    includes, excludes);
+            if (!testClasses.isEmpty()) {
+                return runConcurrently(runner, testClasses, surefireClassLoader, testClassLoader, testDir,
+                        reportsDir, threadCount, timeout);
+            }
+        }
+
+        List tests = new ArrayList();
+        tests.add(new Object[] { runner, new Object[] { testDir, includes, excludes } });
+
+        return surefire.run(getReports(reportsDir), tests, surefireClassLoader, testClassLoader, failIfNoTests);
+    }
+
+    private static List getReports(File reportsDir) {
         List reports = new ArrayList();
         reports.add(new Object[] { "org.apache.maven.surefire.report.BriefConsoleReporter", new Object[] { Boolean.TRUE /* trimStackTrace */
         } });
@@ -59,17 +112,165 @@ public class OsgiSurefireBooter {
         reports.add(new Object[] { "org.apache.maven.surefire.report.XMLReporter",
                 new Object[] { reportsDir, Boolean.TRUE /* trimStackTrace */
                 } });
+        return reports;
+    }
 
-        List tests = new ArrayList();
-        tests.add(new Object[] { runner, new Object[] { testDir, includes, excludes } });
+    /**
+     * Returns the names of the test classes matching the includes and excludes, as located by the
+     * test runner.
+     */
+    private static Set<String> getTestClasses(String runner, ClassLoader surefireClassLoader,
+            ClassLoader testClassLoader, File testDir, ArrayList<String> includes, ArrayList<String> excludes)
+            throws Exception {
+        Class<?> suiteClass = surefireClassLoader.loadClass(runner);
+        Constructor<?> constructor = suiteClass.getConstructor(File.class, ArrayList.class, ArrayList.class);
+        SurefireTestSuite suite = (SurefireTestSuite) constructor.newInstance(testDir, includes, excludes);
+        Map<?, ?> testSets = suite.locateTestSets(testClassLoader);
 
-        Boolean failIfNoTests;
-        if ("false".equalsIgnoreCase(p.getProperty("failifnotests"))) {
-            failIfNoTests = Boolean.FALSE;
+        Set<String> testClasses = new TreeSet<String>();
+        for (Object testSetName : testSets.keySet()) {
+            testClasses.add(testSetName.toString());
+        }
+        return testClasses;
+    }
+
+    /**
+     * Runs each test class as a separate test run on a pool of threads. Each test run has its own
+     * reporters, so reports are still written per test class. Test classes which don't complete
+     * within the given timeout are reported as failures.
+     */
+    private static int runConcurrently(final String runner, Set<String> testClasses,
+            final ClassLoader surefireClassLoader, final ClassLoader testClassLoader, final File testDir,
+            final File reportsDir, int threadCount, final int timeout) throws Exception {
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threadCount), new TestThreadFactory(
+                "tycho-test-runner-"));
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (final String testClass : testClasses) {
+                results.add(executor.submit(new Callable<Integer>() {
+                    public Integer call() throws Exception {
+                        return Integer.valueOf(runTestClass(runner, testClass, surefireClassLoader,
+                                testClassLoader, testDir, reportsDir, timeout));
+                    }
+                }));
+            }
+
+            int result = 0;
+            for (Future<Integer> testClassResult : results) {
+                try {
+                    int value = testClassResult.get().intValue();
+                    if (value != 0) {
+                        result = value;
+                    }
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Exception) {
+                        throw (Exception) cause;
+                    }
+                    throw (Error) cause;
+                }
+            }
+            return result;
+        } finally {
+            executor.shutdownNow();
+            // reporters redirect the standard streams while tests are running
+            System.setOut(out);
+            System.setErr(err);
+        }
+    }
+
+    private static int runTestClass(String runner, final String testClass, final ClassLoader surefireClassLoader,
+            final ClassLoader testClassLoader, File testDir, File reportsDir, int timeout) throws Exception {
+        ArrayList<String> includes = new ArrayList<String>();
+        includes.add(testClass.replace('.', '/') + ".class");
+        final List tests = new ArrayList();
+        tests.add(new Object[] { runner, new Object[] { testDir, includes, new ArrayList<String>() } });
+
+        // a test class which times out keeps running, so its reporters write to a directory of their own
+        // and their reports are only moved to the reports directory if the test class completes in time
+        File runReportsDir = timeout > 0 ? new File(reportsDir, INCOMPLETE_REPORTS_DIR + "/" + testClass)
+                : reportsDir;
+        final List reports = getReports(runReportsDir);
+
+        final int[] result = new int[] { FAILURE };
+        final Exception[] exception = new Exception[1];
+        Runnable testRun = new Runnable() {
+            public void run() {
+                try {
+                    result[0] = new Surefire().run(reports, tests, surefireClassLoader, testClassLoader,
+                            Boolean.FALSE);
+                } catch (Exception e) {
+                    exception[0] = e;
+                }
+            }
+        };
+
+        if (timeout <= 0) {
+            testRun.run();
         } else {
-            failIfNoTests = Boolean.TRUE;
+            Thread thread = new TestThreadFactory("tycho-test-" + testClass + "-").newThread(testRun);
+            thread.start();
+            thread.join(timeout * 1000L);
+            if (thread.isAlive()) {
+                thread.interrupt();
+                String message = "Test class " + testClass + " did not complete within " + timeout + " seconds";
+                new BriefConsoleReporter(Boolean.TRUE).writeMessage(message);
+                writeTimeoutReport(reportsDir, testClass, message, timeout);
+                return FAILURE;
+            }
+            moveReports(runReportsDir, reportsDir);
+        }
+
+        if (exception[0] != null) {
+            throw exception[0];
+        }
+        return result[0];
+    }
+
+    private static void moveReports(File fromDir, File toDir) throws IOException {
+        File[] files = fromDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                File target = new File(toDir, file.getName());
+                target.delete();
+                if (!file.renameTo(target)) {
+                    throw new IOException("Could not move test report " + file + " to " + target);
+                }
+            }
+        }
+        fromDir.delete();
+    }
+
+    /**
+     * Writes the XML report of a test class which did not complete, so that the timeout shows up as
+     * a failure of the test class wherever the test reports are evaluated. The reporters of the test
+     * run, which only write their reports when the test class completes, never write to the reports
+     * directory once the test class has timed out.
+     */
+    private static void writeTimeoutReport(File reportsDir, String testClass, String message, int timeout)
+            throws IOException {
+        reportsDir.mkdirs();
+        String name = escapeXml(testClass);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(new File(reportsDir, "TEST-" + testClass
+                + ".xml")), "UTF-8");
+        try {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n");
+            writer.write("<testsuite failures=\"1\" time=\"" + timeout
+                    + "\" errors=\"0\" skipped=\"0\" tests=\"1\" name=\"" + name + "\">\n");
+            writer.write("  <testcase time=\"" + timeout + "\" classname=\"" + name + "\" name=\"" + name + "\">\n");
+            writer.write("    <failure message=\"" + escapeXml(message)
+                    + "\" type=\"java.util.concurrent.TimeoutException\"/>\n");
+            writer.write("  </testcase>\n");
+            writer.write("</testsuite>\n");
+        } finally {
+            writer.close();
         }
-        return surefire.run(reports, tests, surefireClassLoader, testClassLoader, failIfNoTests);
+    }
+
+    private static String escapeXml(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
     }
 
     private static File getTestProperties(String[] args) throws CoreException {
@@ -133,6 +334,22 @@ public class OsgiSurefireBooter {
         return new BundleClassLoader(bundle);
     }
 
+    private static class TestThreadFactory implements ThreadFactory {
+        private final String prefix;
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        TestThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
     private static class BundleClassLoader extends ClassLoader {
         private Bundle bundle;
 
@@ -0,0 +1,312 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.surefire.osgibooter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import org.eclipse.core.runtime.IPlatformRunnable;
+import org.eclipse.core.runtime.Platform;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.packageadmin.PackageAdmin;
+
+/**
+ * Test host which stays alive between the test runs of several test bundles, so that the framework
+ * is only started once. The host listens on a local port. The port and a random token are written
+ * to the file given by the <code>-testserverportfile</code> argument, which only the owner can
+ * read. Each connection starts with the line <code>TOKEN &lt;token&gt;</code>; connections of other
+ * local processes, which don't know the token, are closed without running any command. After the
+ * token, each connection carries one command:
+ * <ul>
+ * <li><code>TEST</code>, followed by lines with the location of the test bundle, the surefire
+ * properties file and the timeout in seconds (0 for none). The test bundle is installed, its tests
+ * are run and the bundle is uninstalled again. The server replies <code>RESULT &lt;code&gt;</code>
+ * or <code>ERROR &lt;message&gt;</code> followed by the lines of the stack trace. If the tests
+ * don't complete within the timeout, the server replies <code>TIMEOUT</code> and terminates the
+ * process, because the hanging tests can't be stopped in any other way.
+ * <li><code>QUIT</code>, which stops the server.
+ * </ul>
+ * The server also stops if it doesn't receive a command within the number of seconds given by the
+ * <code>-testserveridletimeout</code> argument. The client notices this on its next command.
+ */
+@SuppressWarnings("deprecation")
+public class TestServerApplication implements IPlatformRunnable {
+
+    private static final String ENCODING = "UTF-8";
+
+    private static final int DEFAULT_IDLE_TIMEOUT = 600;
+
+    /**
+     * Time in seconds a client has to send the token after connecting
+     */
+    private static final int TOKEN_TIMEOUT = 10;
+
+    private String token;
+
+    public Object run(Object object) throws Exception {
+        String[] args = Platform.getCommandLineArgs();
+        File portFile = new File(getArgument(args, "-testserverportfile"));
+        String idleTimeout = getArgument(args, "-testserveridletimeout");
+
+        token = new BigInteger(128, new SecureRandom()).toString(16);
+        ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        try {
+            serverSocket.setSoTimeout(1000 * (idleTimeout != null ? Integer.parseInt(idleTimeout)
+                    : DEFAULT_IDLE_TIMEOUT));
+            writePortFile(portFile, serverSocket.getLocalPort(), token);
+
+            while (true) {
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (SocketTimeoutException e) {
+                    // idle for too long
+                    return new Integer(0);
+                }
+                try {
+                    if (!handle(socket)) {
+                        return new Integer(0);
+                    }
+                } finally {
+                    socket.close();
+                }
+            }
+        } finally {
+            serverSocket.close();
+            portFile.delete();
+        }
+    }
+
+    /**
+     * Handles one command. Connections which don't start with the token are ignored.
+     * 
+     * @return <code>false</code> if the server shall stop
+     */
+    private boolean handle(Socket socket) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), ENCODING));
+        final Writer out = new OutputStreamWriter(socket.getOutputStream(), ENCODING);
+
+        socket.setSoTimeout(TOKEN_TIMEOUT * 1000);
+        try {
+            if (!isValidToken(in.readLine())) {
+                return true;
+            }
+        } catch (SocketTimeoutException e) {
+            return true;
+        }
+        socket.setSoTimeout(0);
+
+        String command = in.readLine();
+        if ("QUIT".equals(command)) {
+            return false;
+        }
+        if (!"TEST".equals(command)) {
+            out.write("ERROR Unknown command " + command + "\n");
+            out.flush();
+            return true;
+        }
+
+        String bundleLocation = in.readLine();
+        String testProperties = in.readLine();
+        final int timeout = Integer.parseInt(in.readLine());
+        Thread watchdog = null;
+        if (timeout > 0) {
+            watchdog = new Thread("tycho-test-server-watchdog") {
+                public void run() {
+                    try {
+                        sleep(timeout * 1000L);
+                    } catch (InterruptedException e) {
+                        // tests completed in time
+                        return;
+                    }
+                    synchronized (out) {
+                        if (isInterrupted()) {
+                            // tests completed just now
+                            return;
+                        }
+                        try {
+                            out.write("TIMEOUT\n");
+                            out.flush();
+                        } catch (IOException e) {
+                            // the process is terminated anyway
+                        }
+                        Runtime.getRuntime().halt(1);
+                    }
+                }
+            };
+            watchdog.setDaemon(true);
+            watchdog.start();
+        }
+
+        String reply;
+        try {
+            reply = "RESULT " + runTests(new File(bundleLocation), testProperties) + "\n";
+        } catch (Exception e) {
+            StringWriter stackTrace = new StringWriter();
+            e.printStackTrace(new PrintWriter(stackTrace));
+            reply = "ERROR " + stackTrace;
+        }
+        synchronized (out) {
+            if (watchdog != null) {
+                watchdog.interrupt();
+            }
+            out.write(reply);
+            out.flush();
+        }
+        return true;
+    }
+
+    private boolean isValidToken(String line) throws IOException {
+        if (line == null || !line.startsWith("TOKEN ")) {
+            return false;
+        }
+        // compares in constant time, so that the token can't be guessed from response times
+        return MessageDigest.isEqual(token.getBytes(ENCODING), line.substring("TOKEN ".length()).getBytes(ENCODING));
+    }
+
+    private int runTests(File bundleLocation, String testProperties) throws Exception {
+        BundleContext context = Activator.getContext();
+        Bundle bundle = context.installBundle("reference:file:" + bundleLocation.getAbsolutePath());
+        try {
+            // fragments only attach to their host when the host is refreshed
+            refresh(context, getHosts(context, bundle));
+            return OsgiSurefireBooter.run(new String[] { "-testproperties", testProperties });
+        } finally {
+            bundle.uninstall();
+            refresh(context, null);
+        }
+    }
+
+    private static Bundle[] getHosts(BundleContext context, Bundle bundle) {
+        String fragmentHost = (String) bundle.getHeaders("").get(Constants.FRAGMENT_HOST);
+        if (fragmentHost == null) {
+            return new Bundle[] { bundle };
+        }
+        String hostName = fragmentHost.split(";")[0].trim();
+        PackageAdmin packageAdmin = getPackageAdmin(context);
+        Bundle[] hosts = packageAdmin.getBundles(hostName, null);
+        return hosts != null ? hosts : new Bundle[] { bundle };
+    }
+
+    /**
+     * Refreshes the given bundles, or all bundles pending removal, and waits until the refresh is
+     * complete.
+     */
+    private static void refresh(BundleContext context, Bundle[] bundles) throws InterruptedException {
+        final Object lock = new Object();
+        final boolean[] refreshed = new boolean[1];
+        FrameworkListener listener = new FrameworkListener() {
+            public void frameworkEvent(FrameworkEvent event) {
+                if (event.getType() == FrameworkEvent.PACKAGES_REFRESHED) {
+                    synchronized (lock) {
+                        refreshed[0] = true;
+                        lock.notifyAll();
+                    }
+                }
+            }
+        };
+        context.addFrameworkListener(listener);
+        try {
+            PackageAdmin packageAdmin = getPackageAdmin(context);
+            packageAdmin.refreshPackages(bundles);
+            synchronized (lock) {
+                while (!refreshed[0]) {
+                    lock.wait();
+                }
+            }
+            packageAdmin.resolveBundles(bundles);
+        } finally {
+            context.removeFrameworkListener(listener);
+        }
+    }
+
+    private static PackageAdmin getPackageAdmin(BundleContext context) {
+        ServiceReference reference = context.getServiceReference(PackageAdmin.class.getName());
+        if (reference == null) {
+            throw new IllegalStateException("PackageAdmin service is not available");
+        }
+        return (PackageAdmin) context.getService(reference);
+    }
+
+    private static void writePortFile(File portFile, int port, String token) throws IOException {
+        // write and rename, so that clients never read an incomplete port file
+        File tmpFile = new File(portFile.getParentFile(), portFile.getName() + ".tmp");
+        tmpFile.delete();
+        if (!tmpFile.createNewFile() || !setOwnerOnly(tmpFile)) {
+            throw new IOException("Could not create " + tmpFile + " readable only by its owner");
+        }
+        OutputStream os = new FileOutputStream(tmpFile);
+        try {
+            os.write((port + "\n" + token + "\n").getBytes(ENCODING));
+        } finally {
+            os.close();
+        }
+        portFile.delete();
+        if (!tmpFile.renameTo(portFile)) {
+            throw new IOException("Could not rename " + tmpFile + " to " + portFile);
+        }
+    }
+
+    /**
+     * Revokes the access of everybody but the owner to the given file. Uses reflection, because the
+     * required methods only exist since Java 6. On Windows, access can't be revoked this way, but the
+     * file is in the temporary directory of the user, which other users can't access.
+     * 
+     * @return <code>false</code> if access could not be revoked
+     */
+    private static boolean setOwnerOnly(File file) {
+        boolean windows = File.separatorChar == '\\';
+        try {
+            for (String name : new String[] { "setReadable", "setWritable", "setExecutable" }) {
+                Method method = File.class.getMethod(name, boolean.class, boolean.class);
+                if (!((Boolean) method.invoke(file, Boolean.FALSE, Boolean.FALSE)).booleanValue() && !windows) {
+                    return false;
+                }
+            }
+            Method setReadable = File.class.getMethod("setReadable", boolean.class, boolean.class);
+            Method setWritable = File.class.getMethod("setWritable", boolean.class, boolean.class);
+            return ((Boolean) setReadable.invoke(file, Boolean.TRUE, Boolean.TRUE)).booleanValue()
+                    && ((Boolean) setWritable.invoke(file, Boolean.TRUE, Boolean.TRUE)).booleanValue();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static String getArgument(String[] args, String name) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (name.equalsIgnoreCase(args[i])) {
+                return args[i + 1];
+            }
+        }
+        return null;
+    }
+}
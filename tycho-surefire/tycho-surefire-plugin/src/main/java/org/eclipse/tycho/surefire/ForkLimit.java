@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.surefire;
+
+/**
+ * Counts the test runtimes which are executed concurrently in a build. Each execution waits until
+ * fewer test runtimes than its own limit are running, so that the limit applies to all test
+ * runtimes of the build and not only to the executions configured with the same limit.
+ */
+class ForkLimit {
+
+    private int running;
+
+    /**
+     * Waits until fewer than <code>limit</code> test runtimes are running and then counts the
+     * caller as running. Must be followed by {@link #release()}.
+     * 
+     * @param limit
+     *            the maximum number of concurrently running test runtimes, or 0 for no limit (in
+     *            which case the caller is counted, but never waits)
+     */
+    synchronized void acquire(int limit) throws InterruptedException {
+        while (limit > 0 && running >= limit) {
+            wait();
+        }
+        running++;
+    }
+
+    synchronized void release() {
+        running--;
+        notifyAll();
+    }
+
+    synchronized int getRunning() {
+        return running;
+    }
+}
@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.surefire;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.eclipse.tycho.core.TargetPlatform;
+
+/**
+ * Caches the test target platforms of a build by the content they have been resolved from, so that
+ * test bundles with the same inputs share one resolution. The target platforms refer to the reactor
+ * projects of the build, so they are only shared within the build they have been resolved in.
+ */
+class TargetPlatformCache {
+
+    /**
+     * Target platforms by key and build; the builds are weakly referenced, so that the target
+     * platforms of finished builds can be garbage collected.
+     */
+    private final Map<Object, Map<String, TargetPlatform>> builds = new WeakHashMap<Object, Map<String, TargetPlatform>>();
+
+    /**
+     * Returns the target platform with the given key in the given build, or <code>null</code> if
+     * there is none.
+     */
+    synchronized TargetPlatform get(Object build, String key) {
+        Map<String, TargetPlatform> platforms = builds.get(build);
+        return platforms != null ? platforms.get(key) : null;
+    }
+
+    synchronized void put(Object build, String key, TargetPlatform platform) {
+        Map<String, TargetPlatform> platforms = builds.get(build);
+        if (platforms == null) {
+            platforms = new HashMap<String, TargetPlatform>();
+            builds.put(build, platforms);
+        }
+        platforms.put(key, platform);
+    }
+}
@@ -19,14 +19,17 @@ import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeSet;
 
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.repository.ArtifactRepository;
 import org.apache.maven.artifact.resolver.ArtifactResolutionException;
 import org.apache.maven.artifact.resolver.ArtifactResolutionRequest;
 import org.apache.maven.artifact.resolver.ArtifactResolutionResult;
@@ -44,6 +47,7 @@ import org.eclipse.tycho.ArtifactKey;
 import org.eclipse.tycho.ReactorProject;
 import org.eclipse.tycho.core.BundleProject;
 import org.eclipse.tycho.core.TargetPlatform;
+import org.eclipse.tycho.core.TargetPlatformConfiguration;
 import org.eclipse.tycho.core.TargetPlatformResolver;
 import org.eclipse.tycho.core.TychoConstants;
 import org.eclipse.tycho.core.TychoProject;
@@ -60,6 +64,7 @@ import org.eclipse.tycho.equinox.launching.EquinoxLauncher;
 import org.eclipse.tycho.equinox.launching.internal.EquinoxLaunchConfiguration;
 import org.eclipse.tycho.launching.LaunchConfiguration;
 import org.eclipse.tycho.launching.LaunchConfigurationFactory;
+import org.eclipse.tycho.model.Target;
 import org.osgi.framework.Version;
 
 /**
@@ -67,9 +72,14 @@ import org.osgi.framework.Version;
  * @goal test
  * @requiresProject true
  * @requiresDependencyResolution runtime
+ * @threadSafe
  */
 public class TestMojo extends AbstractMojo implements LaunchConfigurationFactory {
 
+    private static final ForkLimit FORKS = new ForkLimit();
+
+    private static final TargetPlatformCache TEST_TARGET_PLATFORMS = new TargetPlatformCache();
+
     /**
      * @parameter default-value="${project.build.directory}/work"
      */
@@ -285,6 +295,55 @@ public class TestMojo extends AbstractMojo implements LaunchConfigurationFactory
      */
     private BundleStartLevel[] bundleStartLevel;
 
+    /**
+     * Maximum number of test runtimes which are executed concurrently when the reactor is built
+     * with multiple threads (<code>mvn -T</code>). The limit applies to all test runtimes of the
+     * build, including those of test projects with a different or no limit. If set to 0, the
+     * number of concurrently executed test runtimes is not limited.
+     * 
+     * @parameter expression="${tycho.surefire.forkCount}" default-value="0"
+     */
+    private int forkCount;
+
+    /**
+     * Number of threads which execute test classes concurrently in the test runtime. Not supported
+     * if tests run in the UI thread.
+     * 
+     * @parameter expression="${tycho.surefire.threadCount}" default-value="1"
+     */
+    private int threadCount;
+
+    /**
+     * Stop waiting for a test class after a certain number of seconds and report it as failed. If
+     * set to 0, test classes never time out. Not supported if tests run in the UI thread.
+     * 
+     * @parameter expression="${tycho.surefire.testClassTimeout}" default-value="0"
+     */
+    private int testClassTimeout;
+
+    /**
+     * Run the tests in a test host which is started once and then reused by all subsequent test
+     * projects of the build which require the same test runtime. The test host installs the packaged
+     * test bundle, runs its tests and uninstalls it again. This avoids starting a new test runtime for
+     * each test project, but test projects share the workspace and the working directory of the
+     * test host. Not supported in combination with the UI test harness or with an
+     * <code>application</code> or <code>product</code>; these test projects are run in a
+     * test runtime of their own.
+     * 
+     * @parameter expression="${tycho.surefire.testServer}" default-value="false"
+     */
+    private boolean testServer;
+
+    /**
+     * Directory to which the XML test reports of all test projects are copied in addition to their
+     * individual reports directories. The reports of each test project are copied to a
+     * subdirectory named like its artifactId; only the reports written by the current test run are
+     * copied.
+     * 
+     * @parameter expression="${tycho.surefire.aggregateReportsDirectory}"
+     */
+    private File aggregateReportsDirectory;
+
     /**
      * @component
      */
@@ -342,10 +401,30 @@ public class TestMojo extends AbstractMojo implements LaunchConfigurationFactory
             }
         }
 
-        EquinoxInstallation testRuntime = createEclipseInstallation(false, DefaultReactorProject.adapt(session));
+        Map<String, Long> previousReports = null;
+        if (aggregateReportsDirectory != null) {
+            previousReports = getReportTimestamps(reportsDirectory);
+        }
 
-        String testBundle = null;
-        boolean succeeded = runTest(testRuntime, testBundle);
+        boolean succeeded;
+        File bundleFile = project.getArtifact() != null ? project.getArtifact().getFile() : null;
+        if (isTestServerSupported(bundleFile)) {
+            succeeded = runTestInServer(bundleFile);
+        } else {
+            EquinoxInstallation testRuntime = createEclipseInstallation(false, DefaultReactorProject.adapt(session));
+
+            String testBundle = null;
+            succeeded = runTest(testRuntime, testBundle);
+        }
+
+        if (aggregateReportsDirectory != null) {
+            File targetDirectory = new File(aggregateReportsDirectory, project.getArtifactId());
+            try {
+                aggregateReports(reportsDirectory, previousReports, targetDirectory);
+            } catch (IOException e) {
+                throw new MojoExecutionException("Could not copy test reports to " + targetDirectory, e);
+            }
+        }
 
         if (succeeded) {
             getLog().info("All tests passed!");
@@ -357,6 +436,16 @@ public class TestMojo extends AbstractMojo implements LaunchConfigurationFactory
 
     private EquinoxInstallation createEclipseInstallation(boolean includeReactorProjects,
             List<ReactorProject> reactorProjects) throws MojoExecutionException {
+        EquinoxInstallationDescription testRuntime = createTestRuntime(includeReactorProjects, reactorProjects, true);
+        return installationFactory.createInstallation(testRuntime, work);
+    }
+
+    /**
+     * @param includeProject
+     *            whether the test bundle itself shall be part of the test runtime
+     */
+    private EquinoxInstallationDescription createTestRuntime(boolean includeReactorProjects,
+            List<ReactorProject> reactorProjects, boolean includeProject) throws MojoExecutionException {
         TargetPlatformResolver platformResolver = targetPlatformResolverLocator.lookupPlatformResolver(project);
 
         ArrayList<Dependency> dependencies = new ArrayList<Dependency>();
@@ -367,8 +456,7 @@ public class TestMojo extends AbstractMojo implements LaunchConfigurationFactory
 
         dependencies.addAll(getTestDependencies());
 
-        TargetPlatform testTargetPlatform = platformResolver.resolvePlatform(session, project, reactorProjects,
-                dependencies);
+        TargetPlatform testTargetPlatform = getTestTargetPlatform(platformResolver, reactorProjects, dependencies);
 
         if (testTargetPlatform == null) {
             throw new MojoExecutionException("Cannot determinate build target platform location -- not executing tests");
@@ -400,7 +488,9 @@ public class TestMojo extends AbstractMojo implements LaunchConfigurationFactory
             ReactorProject otherProject = artifact.getMavenProject();
             if (otherProject != null) {
                 if (otherProject.sameProject(project)) {
-                    testRuntime.addBundle(artifact.getKey(), project.getBasedir());
+                    if (includeProject) {
+                        testRuntime.addBundle(artifact.getKey(), project.getBasedir());
+                    }
                     continue;
                 }
                 File file = otherProject.getArtifact();
@@ -422,7 +512,162 @@ public class TestMojo extends AbstractMojo implements LaunchConfigurationFactory
                 testFramework);
 
         reportsDirectory.mkdirs();
-        return installationFactory.createInstallation(testRuntime, work);
+        return testRuntime;
+    }
+
+    boolean isTestServerSupported(File bundleFile) {
+        if (!testServer || bundleFile == null || !bundleFile.isFile()) {
+            return false;
+        }
+        if (useUIHarness || application != null || product != null) {
+            // the test host only runs the headless test application
+            getLog().debug("Not using the test server for the UI test harness, an application or a product");
+            return false;
+        }
+        return true;
+    }
+
+    private boolean runTestInServer(File bundleFile) throws MojoExecutionException {
+        EquinoxInstallationDescription testRuntime = createTestRuntime(false, DefaultReactorProject.adapt(session),
+                false);
+        String key = getTestServerKey(testRuntime,
+                (Properties) project.getContextValue(TychoConstants.CTX_MERGED_PROPERTIES));
+        try {
+            // the test host runs the tests of one test bundle at a time
+            synchronized (TestServer.class) {
+                TestServer server = TestServer.getRunningServer(key);
+                if (server == null) {
+                    File location = TestServer.createLocation();
+                    getLog().info("Starting test server in " + location);
+                    EquinoxInstallation installation = installationFactory.createInstallation(testRuntime, location);
+                    File portFile = new File(location, "port");
+                    server = TestServer.start(key, location, launcher, createTestServerCommandLine(installation,
+                            portFile), portFile);
+                }
+                getLog().info("Running tests of " + bundleFile.getName() + " in test server");
+                return server.runTests(bundleFile, surefireProperties, forkedProcessTimeoutInSeconds) == 0;
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error while executing tests in test server", e);
+        }
+    }
+
+    /**
+     * Returns a string which identifies the test runtime and its configuration, so that test
+     * projects with the same key can share a test host.
+     */
+    String getTestServerKey(EquinoxInstallationDescription testRuntime, Properties properties) {
+        StringBuilder key = new StringBuilder();
+        for (ArtifactDescriptor bundle : testRuntime.getBundles()) {
+            key.append(bundle.getKey()).append('=').append(bundle.getLocation()).append('\n');
+        }
+        key.append(testRuntime.getFrameworkExtensions()).append('\n');
+        key.append(new TreeSet<String>(testRuntime.getBundlesToExplode())).append('\n');
+        for (BundleStartLevel level : testRuntime.getBundleStartLevel().values()) {
+            key.append(level.getId()).append('@').append(level.getLevel()).append(':').append(level.isAutoStart())
+                    .append('\n');
+        }
+        key.append(PlatformPropertiesUtils.getOS(properties)).append('/')
+                .append(PlatformPropertiesUtils.getWS(properties)).append('/')
+                .append(PlatformPropertiesUtils.getArch(properties)).append('\n');
+        key.append(argLine).append('\n').append(systemProperties).append('\n').append(environmentVariables)
+                .append('\n').append(appArgLine).append('\n').append(debugPort);
+        return key.toString();
+    }
+
+    /**
+     * Returns the target platform of the test runtime. If the build target platform of the project
+     * already contains the additional test dependencies, it is used as is. Otherwise, the test
+     * runtime is resolved once per build and distinct inputs, i.e. test bundles with the same build
+     * target platform, target platform configuration and test dependencies share one resolution.
+     */
+    private TargetPlatform getTestTargetPlatform(TargetPlatformResolver platformResolver,
+            List<ReactorProject> reactorProjects, List<Dependency> dependencies) {
+        TargetPlatform buildTargetPlatform = (TargetPlatform) project
+                .getContextValue(TychoConstants.CTX_TARGET_PLATFORM);
+        if (buildTargetPlatform != null && containsAll(buildTargetPlatform, dependencies)) {
+            getLog().debug("Using build target platform for the test runtime");
+            return buildTargetPlatform;
+        }
+
+        // the session is cloned for each project in parallel builds, but the request is shared
+        Object build = session.getRequest();
+        String key = getTestTargetPlatformKey(buildTargetPlatform, dependencies);
+        TargetPlatform testTargetPlatform = TEST_TARGET_PLATFORMS.get(build, key);
+        if (testTargetPlatform == null) {
+            testTargetPlatform = platformResolver.resolvePlatform(session, project, reactorProjects, dependencies);
+            TEST_TARGET_PLATFORMS.put(build, key, testTargetPlatform);
+        } else {
+            getLog().debug("Using the test target platform resolved for a test bundle with the same inputs");
+        }
+        return testTargetPlatform;
+    }
+
+    /**
+     * Returns a key which identifies the inputs of the resolution of the test target platform.
+     * Without a build target platform, the key is specific to the project.
+     */
+    private String getTestTargetPlatformKey(TargetPlatform buildTargetPlatform, List<Dependency> dependencies) {
+        StringBuilder key = new StringBuilder();
+        if (buildTargetPlatform != null) {
+            TreeSet<String> artifacts = new TreeSet<String>();
+            for (ArtifactDescriptor artifact : buildTargetPlatform.getArtifacts()) {
+                artifacts.add(artifact.getKey() + "/" + artifact.getClassifier() + "=" + artifact.getLocation());
+            }
+            for (String artifact : artifacts) {
+                key.append(artifact).append('\n');
+            }
+        } else {
+            key.append(project.getId()).append('\n');
+        }
+
+        TargetPlatformConfiguration configuration = (TargetPlatformConfiguration) project
+                .getContextValue(TychoConstants.CTX_TARGET_PLATFORM_CONFIGURATION);
+        if (configuration != null) {
+            key.append(configuration.getTargetPlatformResolver()).append('\n');
+            key.append(configuration.getEnvironments()).append('\n');
+            key.append(configuration.getPomDependencies()).append('/')
+                    .append(configuration.isIgnoreTychoRepositories()).append('/')
+                    .append(configuration.getAllowConflictingDependencies()).append('\n');
+            Target target = configuration.getTarget();
+            if (target != null) {
+                for (Target.Location location : target.getLocations()) {
+                    for (Target.Repository repository : location.getRepositories()) {
+                        key.append(repository.getLocation()).append('\n');
+                    }
+                    for (Target.Unit unit : location.getUnits()) {
+                        key.append(unit.getId()).append(':').append(unit.getVersion()).append('\n');
+                    }
+                }
+            }
+        }
+        for (ArtifactRepository repository : project.getRemoteArtifactRepositories()) {
+            key.append(repository.getUrl()).append('\n');
+        }
+
+        for (Dependency dependency : dependencies) {
+            key.append(dependency.getType()).append(':').append(dependency.getArtifactId()).append(':')
+                    .append(dependency.getVersion()).append('\n');
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns <code>true</code> if the target platform contains bundles or features matching all
+     * given dependencies. Resolved target platforms also contain the dependencies of their
+     * bundles, so no further resolution is needed in this case.
+     */
+    static boolean containsAll(TargetPlatform targetPlatform, List<Dependency> dependencies) {
+        for (Dependency dependency : dependencies) {
+            String type = dependency.getType();
+            if (!ArtifactKey.TYPE_ECLIPSE_PLUGIN.equals(type) && !ArtifactKey.TYPE_ECLIPSE_FEATURE.equals(type)) {
+                return false;
+            }
+            if (targetPlatform.getArtifact(type, dependency.getArtifactId(), dependency.getVersion()) == null) {
+                return false;
+            }
+        }
+        return true;
     }
 
     private ArtifactKey getBundleArtifacyKey(File file) throws MojoExecutionException {
@@ -493,6 +738,16 @@ public class TestMojo extends AbstractMojo implements LaunchConfigurationFactory
 
         p.put("failifnotests", String.valueOf(failIfNoTests));
 
+        if (useUIHarness && useUIThread) {
+            if (threadCount > 1 || testClassTimeout > 0) {
+                getLog().warn("Ignoring tycho.surefire.threadCount and tycho.surefire.testClassTimeout"
+                        + " because tests run in the UI thread");
+            }
+        } else {
+            p.put("threadcount", String.valueOf(Math.max(1, threadCount)));
+            p.put("testclasstimeout", String.valueOf(testClassTimeout));
+        }
+
         try {
             BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(surefireProperties));
             try {
@@ -537,7 +792,12 @@ public class TestMojo extends AbstractMojo implements LaunchConfigurationFactory
 
             getLog().info("Expected eclipse log file: " + new File(workspace, ".metadata/.log").getCanonicalPath());
 
-            result = launcher.execute(cli, forkedProcessTimeoutInSeconds);
+            FORKS.acquire(forkCount);
+            try {
+                result = launcher.execute(cli, forkedProcessTimeoutInSeconds);
+            } finally {
+                FORKS.release();
+            }
         } catch (Exception e) {
             throw new MojoExecutionException("Error while executing platform", e);
         }
@@ -545,7 +805,78 @@ public class TestMojo extends AbstractMojo implements LaunchConfigurationFactory
         return result == 0;
     }
 
+    /**
+     * Returns the last modification times of the XML reports in the reports directory, so that
+     * reports of previous runs can be told apart from the reports of this run.
+     */
+    static Map<String, Long> getReportTimestamps(File reportsDirectory) {
+        Map<String, Long> timestamps = new HashMap<String, Long>();
+        File[] reports = reportsDirectory.listFiles();
+        if (reports != null) {
+            for (File report : reports) {
+                if (report.isFile() && report.getName().endsWith(".xml")) {
+                    timestamps.put(report.getName(), Long.valueOf(report.lastModified()));
+                }
+            }
+        }
+        return timestamps;
+    }
+
+    /**
+     * Copies the XML reports which have been written since the given timestamps were taken to a
+     * subdirectory of the aggregate reports directory. Each test project has its own subdirectory,
+     * so that reports of test classes with the same name in different test bundles don't overwrite
+     * each other. Reports of previous runs of the project are removed from the subdirectory.
+     */
+    static void aggregateReports(File reportsDirectory, Map<String, Long> previousTimestamps, File targetDirectory)
+            throws IOException {
+        FileUtils.deleteDirectory(targetDirectory);
+        Map<String, Long> timestamps = getReportTimestamps(reportsDirectory);
+        for (Map.Entry<String, Long> report : timestamps.entrySet()) {
+            if (!report.getValue().equals(previousTimestamps.get(report.getKey()))) {
+                targetDirectory.mkdirs();
+                FileUtils.copyFile(new File(reportsDirectory, report.getKey()), new File(targetDirectory, report
+                        .getKey()));
+            }
+        }
+    }
+
     LaunchConfiguration createCommandLine(EquinoxInstallation testRuntime, File workspace) throws MalformedURLException {
+        EquinoxLaunchConfiguration cli = createBaseCommandLine(testRuntime);
+
+        addProgramArgs(true, cli, "-data", workspace.getAbsolutePath(), //
+                "-dev", devProperties.toURI().toURL().toExternalForm(), //
+                "-install", testRuntime.getLocation().getAbsolutePath(), //
+                "-configuration", new File(work, "configuration").getAbsolutePath(), //
+                "-application", getTestApplication(testRuntime.getInstallationDescription()), //
+                "-testproperties", surefireProperties.getAbsolutePath());
+        if (application != null) {
+            cli.addProgramArguments("-testApplication", application);
+        }
+        if (product != null) {
+            cli.addProgramArguments("-product", product);
+        }
+        if (useUIHarness && !useUIThread) {
+            cli.addProgramArguments("-nouithread");
+        }
+        addProgramArgs(false, cli, appArgLine);
+        return cli;
+    }
+
+    private LaunchConfiguration createTestServerCommandLine(EquinoxInstallation testRuntime, File portFile) {
+        EquinoxLaunchConfiguration cli = createBaseCommandLine(testRuntime);
+
+        File location = testRuntime.getLocation();
+        addProgramArgs(true, cli, "-data", new File(location, "data").getAbsolutePath(), //
+                "-install", location.getAbsolutePath(), //
+                "-configuration", new File(location, "configuration").getAbsolutePath(), //
+                "-application", TestServer.APPLICATION, //
+                "-testserverportfile", portFile.getAbsolutePath());
+        addProgramArgs(false, cli, appArgLine);
+        return cli;
+    }
+
+    private EquinoxLaunchConfiguration createBaseCommandLine(EquinoxInstallation testRuntime) {
         EquinoxLaunchConfiguration cli = new EquinoxLaunchConfiguration(testRuntime);
 
         cli.setWorkingDirectory(project.getBasedir());
@@ -573,22 +904,6 @@ public class TestMojo extends AbstractMojo implements LaunchConfigurationFactory
             cli.addProgramArguments("-debug", "-consolelog");
         }
 
-        addProgramArgs(true, cli, "-data", workspace.getAbsolutePath(), //
-                "-dev", devProperties.toURI().toURL().toExternalForm(), //
-                "-install", testRuntime.getLocation().getAbsolutePath(), //
-                "-configuration", new File(work, "configuration").getAbsolutePath(), //
-                "-application", getTestApplication(testRuntime.getInstallationDescription()), //
-                "-testproperties", surefireProperties.getAbsolutePath());
-        if (application != null) {
-            cli.addProgramArguments("-testApplication", application);
-        }
-        if (product != null) {
-            cli.addProgramArguments("-product", product);
-        }
-        if (useUIHarness && !useUIThread) {
-            cli.addProgramArguments("-nouithread");
-        }
-        addProgramArgs(false, cli, appArgLine);
         if (environmentVariables != null) {
             cli.addEnvironmentVariables(environmentVariables);
         }
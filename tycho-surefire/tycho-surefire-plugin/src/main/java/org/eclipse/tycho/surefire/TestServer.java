@@ -0,0 +1,265 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.surefire;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.eclipse.tycho.equinox.launching.EquinoxLauncher;
+import org.eclipse.tycho.launching.LaunchConfiguration;
+
+/**
+ * Client of a test host which stays alive between the test runs of several test projects (see
+ * TestServerApplication in the OSGi booter bundle). At most one test host is running at a time; it
+ * is reused as long as subsequent test projects require the same test runtime. The test host is
+ * stopped when the build ends.
+ * <p>
+ * The test host only accepts commands which are preceded by the token from its port file, so that
+ * other local processes can't make it run arbitrary bundles.
+ */
+class TestServer {
+
+    public static final String APPLICATION = "org.eclipse.tycho.surefire.osgibooter.testserver";
+
+    private static final String ENCODING = "UTF-8";
+
+    private static final int STARTUP_TIMEOUT = 300;
+
+    /**
+     * Time in seconds the test host gets in addition to the test timeout to report the timeout
+     */
+    private static final int TIMEOUT_GRACE = 60;
+
+    private static TestServer running;
+
+    private static boolean shutdownHookRegistered;
+
+    /**
+     * Identifies the test runtime of the test host
+     */
+    private final String key;
+
+    private final File location;
+
+    private final Thread thread;
+
+    private volatile boolean terminated;
+
+    private int port;
+
+    private String token;
+
+    private TestServer(String key, File location, final EquinoxLauncher launcher, final LaunchConfiguration cli) {
+        this.key = key;
+        this.location = location;
+        this.thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    launcher.execute(cli, 0);
+                } finally {
+                    terminated = true;
+                }
+            }
+        }, "tycho-test-server");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Client of a test host which has been started elsewhere.
+     */
+    TestServer(String key, File location, int port, String token) {
+        this.key = key;
+        this.location = location;
+        this.thread = null;
+        this.port = port;
+        this.token = token;
+    }
+
+    /**
+     * Returns the running test host with the given test runtime, or <code>null</code> if there is
+     * none. A running test host with a different test runtime is stopped.
+     */
+    public static synchronized TestServer getRunningServer(String key) {
+        if (running != null && (running.terminated || !running.key.equals(key))) {
+            running.stop();
+            running = null;
+        }
+        return running;
+    }
+
+    /**
+     * Creates a new directory for the installation of a test host.
+     */
+    public static File createLocation() throws IOException {
+        File location = File.createTempFile("tycho-testserver", "");
+        location.delete();
+        if (!location.mkdirs()) {
+            throw new IOException("Could not create directory " + location);
+        }
+        return location;
+    }
+
+    /**
+     * Starts a test host and waits until it accepts connections.
+     */
+    public static synchronized TestServer start(String key, File location, EquinoxLauncher launcher,
+            LaunchConfiguration cli, File portFile) throws IOException {
+        if (running != null) {
+            running.stop();
+        }
+        if (!shutdownHookRegistered) {
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                public void run() {
+                    synchronized (TestServer.class) {
+                        if (running != null) {
+                            running.stop();
+                        }
+                    }
+                }
+            });
+            shutdownHookRegistered = true;
+        }
+
+        TestServer server = new TestServer(key, location, launcher, cli);
+        server.thread.start();
+        try {
+            server.readPortFile(portFile);
+        } catch (IOException e) {
+            server.stop();
+            throw e;
+        }
+        running = server;
+        return server;
+    }
+
+    /**
+     * Waits until the test host has written its port file and reads the port and the token from it.
+     */
+    private void readPortFile(File portFile) throws IOException {
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT * 1000L;
+        while (!portFile.isFile()) {
+            if (terminated) {
+                throw new IOException("Test server terminated before accepting connections");
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException("Test server did not start within " + STARTUP_TIMEOUT + " seconds");
+            }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted while waiting for the test server");
+            }
+        }
+        String[] lines = FileUtils.fileRead(portFile, ENCODING).trim().split("\\s+");
+        if (lines.length != 2) {
+            throw new IOException("Invalid test server port file " + portFile);
+        }
+        try {
+            port = Integer.parseInt(lines[0]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid test server port file " + portFile);
+        }
+        token = lines[1];
+    }
+
+    /**
+     * Runs the tests of the given test bundle in the test host. If the tests don't complete within
+     * the given timeout, the test host terminates itself.
+     * 
+     * @param timeout
+     *            the timeout in seconds, or 0 for no timeout
+     * @return the result of the test run, 0 if all tests passed
+     */
+    public int runTests(File bundle, File testProperties, int timeout) throws IOException {
+        List<String> reply;
+        try {
+            reply = send("TEST\n" + bundle.getAbsolutePath() + "\n" + testProperties.getAbsolutePath() + "\n"
+                    + timeout + "\n", timeout > 0 ? timeout + TIMEOUT_GRACE : 0);
+        } catch (SocketTimeoutException e) {
+            // the test host didn't manage to terminate itself; don't use it again
+            terminated = true;
+            throw new IOException("Tests of " + bundle + " did not complete within " + timeout + " seconds");
+        }
+        if (reply.isEmpty()) {
+            terminated = true;
+            throw new IOException("Test server terminated while running tests of " + bundle);
+        }
+        String status = reply.get(0);
+        if ("TIMEOUT".equals(status)) {
+            terminated = true;
+            throw new IOException("Tests of " + bundle + " did not complete within " + timeout + " seconds");
+        }
+        if (!status.startsWith("RESULT ")) {
+            StringBuilder message = new StringBuilder("Test server could not run tests of " + bundle + ": ");
+            for (String line : reply) {
+                message.append(line).append('\n');
+            }
+            throw new IOException(message.toString().trim());
+        }
+        return Integer.parseInt(status.substring("RESULT ".length()).trim());
+    }
+
+    private void stop() {
+        if (!terminated) {
+            try {
+                send("QUIT\n", 10);
+                if (thread != null) {
+                    thread.join(10 * 1000L);
+                }
+            } catch (IOException e) {
+                // the test host also stops when it has been idle for some time
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        }
+        try {
+            FileUtils.deleteDirectory(location);
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * Sends the token and the given command and returns the lines of the reply.
+     * 
+     * @param timeout
+     *            the time in seconds to wait for the reply, or 0 to wait forever
+     */
+    private List<String> send(String command, int timeout) throws IOException {
+        Socket socket = new Socket(InetAddress.getByName("127.0.0.1"), port);
+        try {
+            socket.setSoTimeout(timeout * 1000);
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), ENCODING);
+            out.write("TOKEN " + token + "\n");
+            out.write(command);
+            out.flush();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), ENCODING));
+            List<String> reply = new ArrayList<String>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                reply.add(line);
+            }
+            return reply;
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -10,8 +10,24 @@
  *******************************************************************************/
 package org.eclipse.tycho.surefire;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import junit.framework.TestCase;
 
+import org.apache.maven.model.Dependency;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.ReflectionUtils;
+import org.eclipse.tycho.ArtifactKey;
+import org.eclipse.tycho.core.osgitools.DefaultArtifactKey;
+import org.eclipse.tycho.core.osgitools.targetplatform.DefaultTargetPlatform;
+import org.eclipse.tycho.equinox.launching.BundleStartLevel;
 import org.eclipse.tycho.equinox.launching.DefaultEquinoxInstallationDescription;
 import org.eclipse.tycho.equinox.launching.internal.DefaultEquinoxInstallation;
 import org.eclipse.tycho.equinox.launching.internal.EquinoxLaunchConfiguration;
@@ -56,6 +72,118 @@ public class TestMojoTest extends TestCase {
         assertEquals(1, cli.getProgramArguments().length);
     }
 
+    public void testBuildTargetPlatformContainsTestDependencies() throws Exception {
+        DefaultTargetPlatform platform = new DefaultTargetPlatform();
+        platform.addArtifactFile(new DefaultArtifactKey(ArtifactKey.TYPE_ECLIPSE_PLUGIN, "org.eclipse.osgi",
+                "3.6.0.v20100517"), new File("org.eclipse.osgi.jar"), null);
+
+        assertTrue(TestMojo.containsAll(platform, Arrays.asList(newBundleDependency("org.eclipse.osgi"))));
+        assertFalse(TestMojo.containsAll(platform, Arrays.asList(newBundleDependency("org.eclipse.osgi"),
+                newBundleDependency("org.eclipse.core.runtime"))));
+    }
+
+    public void testTestServerKey() throws Exception {
+        TestMojo testMojo = new TestMojo();
+        DefaultEquinoxInstallationDescription runtime1 = new DefaultEquinoxInstallationDescription();
+        DefaultEquinoxInstallationDescription runtime2 = new DefaultEquinoxInstallationDescription();
+        Properties properties = new Properties();
+        properties.setProperty("osgi.os", "linux");
+        properties.setProperty("osgi.ws", "gtk");
+        properties.setProperty("osgi.arch", "x86_64");
+
+        assertEquals(testMojo.getTestServerKey(runtime1, properties), testMojo.getTestServerKey(runtime2, properties));
+
+        runtime2.addBundleStartLevel(new BundleStartLevel("org.eclipse.core.runtime", 4, true));
+        assertFalse(testMojo.getTestServerKey(runtime1, properties).equals(
+                testMojo.getTestServerKey(runtime2, properties)));
+
+        Properties otherProperties = new Properties(properties);
+        otherProperties.setProperty("osgi.arch", "x86");
+        assertFalse(testMojo.getTestServerKey(runtime1, properties).equals(
+                testMojo.getTestServerKey(runtime1, otherProperties)));
+
+        ReflectionUtils.setVariableValueInObject(testMojo, "argLine", "-Xmx512m");
+        assertFalse(testMojo.getTestServerKey(runtime1, properties).equals(
+                new TestMojo().getTestServerKey(runtime1, properties)));
+    }
+
+    public void testTestServerNotUsedForApplicationOrProduct() throws Exception {
+        File bundleFile = File.createTempFile("testbundle", ".jar");
+        try {
+            TestMojo testMojo = new TestMojo();
+            assertFalse(testMojo.isTestServerSupported(bundleFile));
+
+            ReflectionUtils.setVariableValueInObject(testMojo, "testServer", Boolean.TRUE);
+            assertTrue(testMojo.isTestServerSupported(bundleFile));
+
+            ReflectionUtils.setVariableValueInObject(testMojo, "application", "org.example.application");
+            assertFalse(testMojo.isTestServerSupported(bundleFile));
+
+            testMojo = new TestMojo();
+            ReflectionUtils.setVariableValueInObject(testMojo, "testServer", Boolean.TRUE);
+            ReflectionUtils.setVariableValueInObject(testMojo, "product", "org.example.product");
+            assertFalse(testMojo.isTestServerSupported(bundleFile));
+        } finally {
+            bundleFile.delete();
+        }
+    }
+
+    public void testAggregateReportsOnlyCopiesReportsOfCurrentRun() throws Exception {
+        File basedir = new File("target/aggregateReports").getAbsoluteFile();
+        FileUtils.deleteDirectory(basedir);
+        File reports = new File(basedir, "bundle1/surefire-reports");
+        File aggregate = new File(basedir, "aggregate");
+        writeReport(new File(reports, "TEST-org.example.StaleTest.xml"));
+
+        Map<String, Long> previousReports = TestMojo.getReportTimestamps(reports);
+        writeReport(new File(reports, "TEST-org.example.AllTests.xml"));
+        TestMojo.aggregateReports(reports, previousReports, new File(aggregate, "bundle1"));
+
+        File reports2 = new File(basedir, "bundle2/surefire-reports");
+        writeReport(new File(reports2, "TEST-org.example.AllTests.xml"));
+        TestMojo.aggregateReports(reports2, new HashMap<String, Long>(), new File(aggregate, "bundle2"));
+
+        assertEquals(Arrays.asList("TEST-org.example.AllTests.xml"), Arrays.asList(new File(aggregate, "bundle1")
+                .list()));
+        assertTrue(new File(aggregate, "bundle2/TEST-org.example.AllTests.xml").isFile());
+    }
+
+    public void testForkLimitAppliesToAllRuntimes() throws Exception {
+        final ForkLimit forks = new ForkLimit();
+        // a runtime without limit is counted
+        forks.acquire(0);
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread limited = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    forks.acquire(1);
+                    acquired.countDown();
+                    forks.release();
+                } catch (InterruptedException e) {
+                    // test fails
+                }
+            }
+        };
+        limited.start();
+        assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+
+        forks.release();
+        assertTrue(acquired.await(10, TimeUnit.SECONDS));
+        limited.join();
+        assertEquals(0, forks.getRunning());
+    }
+
+    private static void writeReport(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite(file.getAbsolutePath(), "<testsuite/>");
+    }
+
+    private static Dependency newBundleDependency(String bundleId) {
+        return new TestMojo().newBundleDependency(bundleId);
+    }
+
     private EquinoxLaunchConfiguration createEquinoxConfiguration() {
         DefaultEquinoxInstallation testRuntime = new DefaultEquinoxInstallation(
                 new DefaultEquinoxInstallationDescription(), null);
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2008, 2011 Sonatype Inc. and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *    Sonatype Inc. - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.tycho.surefire;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TestServerTest extends TestCase {
+
+    private ServerSocket serverSocket;
+
+    private Thread host;
+
+    private final List<String> received = new ArrayList<String>();
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (host != null) {
+            host.join(10 * 1000L);
+        }
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+    }
+
+    public void testResult() throws Exception {
+        TestServer server = startHost("RESULT 255\n");
+        File bundle = new File("bundle.jar");
+        File properties = new File("surefire.properties");
+
+        assertEquals(255, server.runTests(bundle, properties, 30));
+        host.join(10 * 1000L);
+
+        assertEquals(5, received.size());
+        assertEquals("TOKEN secret", received.get(0));
+        assertEquals("TEST", received.get(1));
+        assertEquals(bundle.getAbsolutePath(), received.get(2));
+        assertEquals(properties.getAbsolutePath(), received.get(3));
+        assertEquals("30", received.get(4));
+    }
+
+    public void testTimeout() throws Exception {
+        TestServer server = startHost("TIMEOUT\n");
+        try {
+            server.runTests(new File("bundle.jar"), new File("surefire.properties"), 30);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("did not complete within 30 seconds"));
+        }
+    }
+
+    public void testError() throws Exception {
+        TestServer server = startHost("ERROR java.lang.IllegalStateException: broken\n\tat Test.run(Test.java:1)\n");
+        try {
+            server.runTests(new File("bundle.jar"), new File("surefire.properties"), 0);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("java.lang.IllegalStateException: broken"));
+            assertTrue(e.getMessage(), e.getMessage().contains("at Test.run(Test.java:1)"));
+        }
+    }
+
+    public void testTerminated() throws Exception {
+        TestServer server = startHost("");
+        try {
+            server.runTests(new File("bundle.jar"), new File("surefire.properties"), 0);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("terminated"));
+        }
+    }
+
+    /**
+     * Starts a fake test host which reads the token and one TEST command and sends the given reply.
+     */
+    private TestServer startHost(final String reply) throws IOException {
+        serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        host = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Socket socket = serverSocket.accept();
+                    try {
+                        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                                "UTF-8"));
+                        for (int i = 0; i < 5; i++) {
+                            received.add(in.readLine());
+                        }
+                        Writer out = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
+                        out.write(reply);
+                        out.flush();
+                    } finally {
+                        socket.close();
+                    }
+                } catch (IOException e) {
+                    // fails the test in the client
+                }
+            }
+        };
+        host.start();
+        return new TestServer("key", new File("target/testserver"), serverSocket.getLocalPort(), "secret");
+    }
+}